@@ -0,0 +1,53 @@
+package com.pharmacovigilance.mcpagent.actuator;
+
+import com.pharmacovigilance.mcpagent.service.AdverseEventPreScreener;
+import com.pharmacovigilance.mcpagent.service.LlmCallGate;
+import com.pharmacovigilance.mcpagent.service.LlmRequestCoalescer;
+import com.pharmacovigilance.mcpagent.service.LlmResponseCache;
+import com.pharmacovigilance.mcpagent.service.ParsedDocumentCache;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint exposing the state of the LLM call path at /actuator/llm
+ */
+@Component
+@Endpoint(id = "llm")
+@RequiredArgsConstructor
+@Slf4j
+public class LlmEndpoint {
+    
+    private final LlmResponseCache responseCache;
+    private final LlmRequestCoalescer requestCoalescer;
+    private final LlmCallGate callGate;
+    private final ParsedDocumentCache documentCache;
+    private final AdverseEventPreScreener preScreener;
+    
+    @ReadOperation
+    public Map<String, Object> llm() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("cache", responseCache.getStatistics());
+        state.put("singleFlight", requestCoalescer.getStatistics());
+        state.put("gate", callGate.getStatistics());
+        state.put("documentCache", documentCache.getStatistics());
+        state.put("preScreening", preScreener.getStatistics());
+        return state;
+    }
+    
+    /**
+     * Invalidate cached responses, e.g. after changing openai.model. Without a model all entries are dropped.
+     */
+    @DeleteOperation
+    public Map<String, Object> invalidateCache(@Nullable String model) {
+        int removed = model != null ? responseCache.invalidateModel(model) : responseCache.invalidateAll();
+        return Map.of("invalidated", removed);
+    }
+}
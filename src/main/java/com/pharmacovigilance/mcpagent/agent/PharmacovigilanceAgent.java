@@ -1,18 +1,28 @@
 package com.pharmacovigilance.mcpagent.agent;
 
 import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.model.AiAnalysis;
 import com.pharmacovigilance.mcpagent.model.FollowUpAction;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventFilter;
+import com.pharmacovigilance.mcpagent.service.AdverseEventPage;
 import com.pharmacovigilance.mcpagent.service.AdverseEventService;
 import com.pharmacovigilance.mcpagent.service.AiAnalysisService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 @Component
 @RequiredArgsConstructor
@@ -21,12 +31,68 @@ public class PharmacovigilanceAgent {
     
     private final AdverseEventService adverseEventService;
     private final AiAnalysisService aiAnalysisService;
+    @Qualifier("pharmacovigilanceExecutor")
+    private final Executor pharmacovigilanceExecutor;
+    @Qualifier("patternDetectionExecutor")
+    private final Executor patternDetectionExecutor;
     
     /**
-     * Automated workflow triggered when a new adverse event is created
+     * Events submitted to or running the workflow, so the scheduled sweep does not submit them again
+     */
+    private final Set<Long> inProgress = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Events dated within this window before the nightly run are analyzed for patterns
+     */
+    @Value("${pharmacovigilance.pattern-detection.window:30d}")
+    private Duration patternDetectionWindow;
+    
+    /**
+     * Upper bound on events in one pattern detection prompt; the most recent ones are kept
+     */
+    @Value("${pharmacovigilance.pattern-detection.max-events:200}")
+    private int patternDetectionMaxEvents;
+    
+    /**
+     * Automated workflow triggered when a new adverse event is created, run on the agent pool. An event
+     * already in progress is not submitted again.
+     *
+     * @return completes when the workflow has run; fails with a {@link RejectedExecutionException} if the
+     *         agent pool is full, leaving the event NEW for the scheduled sweep
      */
-    @Async
     public CompletableFuture<Void> processNewAdverseEvent(Long adverseEventId) {
+        if (!inProgress.add(adverseEventId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            return CompletableFuture.runAsync(() -> runWorkflow(adverseEventId), pharmacovigilanceExecutor)
+                .whenComplete((ignored, error) -> inProgress.remove(adverseEventId));
+        } catch (RejectedExecutionException e) {
+            inProgress.remove(adverseEventId);
+            log.warn("Agent pool is full, adverse event {} is left for the scheduled sweep", adverseEventId);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    /**
+     * Run the automated workflow on the calling thread, for pipelines that bound their own concurrency
+     *
+     * @return whether the workflow completed; false if it or one of its analyses failed, which is logged, or
+     *         the event is already in progress
+     */
+    public boolean processAdverseEvent(Long adverseEventId) {
+        if (!inProgress.add(adverseEventId)) {
+            log.info("Adverse event {} is already being processed", adverseEventId);
+            return false;
+        }
+        try {
+            return runWorkflow(adverseEventId);
+        } finally {
+            inProgress.remove(adverseEventId);
+        }
+    }
+    
+    private boolean runWorkflow(Long adverseEventId) {
         log.info("Starting automated processing for adverse event: {}", adverseEventId);
         
         try {
@@ -35,8 +101,19 @@ public class PharmacovigilanceAgent {
             
             // Step 1: Perform AI analysis
             log.info("Step 1: Performing AI analysis for case: {}", adverseEvent.getCaseNumber());
-            aiAnalysisService.performCausalityAssessment(adverseEvent);
-            aiAnalysisService.performRiskAnalysis(adverseEvent);
+            List<AiAnalysis> analyses;
+            if (aiAnalysisService.isCombinedAnalysisMode()) {
+                AiAnalysisService.CombinedAnalysis combined = aiAnalysisService.performCombinedAnalysis(adverseEvent);
+                analyses = List.of(combined.causalityAssessment(), combined.riskAnalysis());
+            } else {
+                analyses = List.of(aiAnalysisService.performCausalityAssessment(adverseEvent),
+                    aiAnalysisService.performRiskAnalysis(adverseEvent));
+            }
+            // A failed analysis is recorded rather than thrown; the event stays NEW for the scheduled sweep
+            if (analyses.stream().anyMatch(analysis -> analysis.getStatus() == AiAnalysis.AnalysisStatus.FAILED)) {
+                log.warn("AI analysis failed for case: {}, leaving it NEW", adverseEvent.getCaseNumber());
+                return false;
+            }
             
             // Step 2: Determine follow-up actions based on severity and analysis
             log.info("Step 2: Determining follow-up actions for case: {}", adverseEvent.getCaseNumber());
@@ -47,12 +124,12 @@ public class PharmacovigilanceAgent {
             updateEventStatus(adverseEvent);
             
             log.info("Completed automated processing for adverse event: {}", adverseEventId);
+            return true;
             
         } catch (Exception e) {
             log.error("Error in automated processing for adverse event: {}", adverseEventId, e);
+            return false;
         }
-        
-        return CompletableFuture.completedFuture(null);
     }
     
     /**
@@ -63,15 +140,22 @@ public class PharmacovigilanceAgent {
         log.info("Running scheduled processing for pending adverse events");
         
         try {
-            List<AdverseEvent> pendingEvents = adverseEventService.findByCriteria(
-                null, "NEW", null, null
-            );
-            
-            for (AdverseEvent event : pendingEvents) {
-                if (event.getCreatedAt().isBefore(LocalDateTime.now().minusMinutes(5))) {
-                    processNewAdverseEvent(event.getId());
+            AdverseEventFilter pending = new AdverseEventFilter(null, AdverseEvent.EventStatus.NEW, null, null, null,
+                null, null, null);
+            String cursor = null;
+            do {
+                // A page at a time, so a backlog of NEW events is never loaded at once
+                AdverseEventPage page = adverseEventService.findPage(pending, cursor, null);
+                for (AdverseEvent event : page.events()) {
+                    if (event.getCreatedAt().isBefore(LocalDateTime.now().minusMinutes(5))
+                            && !inProgress.contains(event.getId())
+                            && processNewAdverseEvent(event.getId()).isCompletedExceptionally()) {
+                        // The agent pool is full; the next sweep submits the rest
+                        return;
+                    }
                 }
-            }
+                cursor = page.nextCursor();
+            } while (cursor != null);
             
         } catch (Exception e) {
             log.error("Error in scheduled processing", e);
@@ -83,12 +167,24 @@ public class PharmacovigilanceAgent {
      */
     @Scheduled(cron = "0 0 2 * * ?") // Daily at 2 AM
     public void performDailyPatternAnalysis() {
+        // Runs on its own pool so a long batch never holds the scheduler thread or the agent pool
+        patternDetectionExecutor.execute(this::runPatternAnalysis);
+    }
+    
+    private void runPatternAnalysis() {
         log.info("Running daily pattern analysis");
         
         try {
-            List<AdverseEvent> recentEvents = adverseEventService.findByCriteria(
-                null, null, null, null
-            );
+            AdverseEventFilter recent = new AdverseEventFilter(null, null, null, null, null, null,
+                LocalDateTime.now().minus(patternDetectionWindow), null);
+            List<AdverseEvent> recentEvents = new ArrayList<>();
+            String cursor = null;
+            do {
+                AdverseEventPage page = adverseEventService.findPage(recent, cursor,
+                    patternDetectionMaxEvents - recentEvents.size());
+                recentEvents.addAll(page.events());
+                cursor = page.nextCursor();
+            } while (cursor != null && recentEvents.size() < patternDetectionMaxEvents);
             
             if (recentEvents.size() >= 5) {
                 aiAnalysisService.performPatternDetection(recentEvents);
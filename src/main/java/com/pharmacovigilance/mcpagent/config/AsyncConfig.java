@@ -1,34 +1,172 @@
 package com.pharmacovigilance.mcpagent.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 
+/**
+ * Bulkheaded executors, one per kind of work, so that one stage saturating cannot block the others.
+ * Spring Boot publishes the executor.* metrics of each pool tagged with its bean name; rejected work
+ * is counted in executor.rejected.tasks under the same tag.
+ */
 @Configuration
 @EnableAsync
 @Slf4j
 public class AsyncConfig {
     
+    /**
+     * Background processing of newly reported adverse events by the agent. When the queue is full the
+     * submission is rejected and the caller's future fails; the event stays NEW and the scheduled sweep
+     * picks it up.
+     */
     @Bean(name = "pharmacovigilanceExecutor")
-    public Executor pharmacovigilanceExecutor() {
+    public Executor pharmacovigilanceExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${pharmacovigilance.agent.executor.core-pool-size:2}") int corePoolSize,
+            @Value("${pharmacovigilance.agent.executor.max-pool-size:5}") int maxPoolSize,
+            @Value("${pharmacovigilance.agent.executor.queue-capacity:100}") int queueCapacity) {
+        return createExecutor(meterRegistry, "pharmacovigilanceExecutor", "Pharmacovigilance-",
+                corePoolSize, maxPoolSize, queueCapacity, new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    /**
+     * Executor for blocking LLM round trips. Threads spend almost all of their time
+     * waiting on the network, so the pool is sized well above the core count.
+     * Overflow is rejected so interactive callers fail fast instead of queueing behind a backlog.
+     */
+    @Bean(name = "llmExecutor")
+    public Executor llmExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${pharmacovigilance.llm.executor.core-pool-size:8}") int corePoolSize,
+            @Value("${pharmacovigilance.llm.executor.max-pool-size:16}") int maxPoolSize,
+            @Value("${pharmacovigilance.llm.executor.queue-capacity:200}") int queueCapacity) {
+        return createExecutor(meterRegistry, "llmExecutor", "Llm-",
+                corePoolSize, maxPoolSize, queueCapacity, new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    /**
+     * CPU-bound document parsing (PDFBox, Tika). Sized to the core count by default; when the queue is
+     * full the submitting thread parses the document itself, which slows intake instead of failing it.
+     */
+    @Bean(name = "documentParsingExecutor")
+    public Executor documentParsingExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${pharmacovigilance.parsing.executor.pool-size:0}") int poolSize,
+            @Value("${pharmacovigilance.parsing.executor.queue-capacity:50}") int queueCapacity) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        return createExecutor(meterRegistry, "documentParsingExecutor", "DocParse-",
+                threads, threads, queueCapacity, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    
+    /**
+     * Page ranges of large PDFs. Kept apart from the parsing pool because a parsing task blocks on its
+     * ranges, and sharing one bounded pool would let those waits deadlock it. When full, the parsing
+     * thread extracts the range itself.
+     */
+    @Bean(name = "pdfPageExecutor")
+    public Executor pdfPageExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${pharmacovigilance.parsing.pdf.parallel.pool-size:0}") int poolSize,
+            @Value("${pharmacovigilance.parsing.pdf.parallel.queue-capacity:64}") int queueCapacity) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        return createExecutor(meterRegistry, "pdfPageExecutor", "PdfPages-",
+                threads, threads, queueCapacity, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Batch pattern detection. A single run at a time is enough; a run requested while another is
+     * queued is discarded.
+     */
+    @Bean(name = "patternDetectionExecutor")
+    public Executor patternDetectionExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${pharmacovigilance.pattern-detection.executor.pool-size:1}") int poolSize,
+            @Value("${pharmacovigilance.pattern-detection.executor.queue-capacity:1}") int queueCapacity) {
+        return createExecutor(meterRegistry, "patternDetectionExecutor", "PatternDetection-",
+                poolSize, poolSize, queueCapacity, new ThreadPoolExecutor.DiscardPolicy());
+    }
+    
+    /**
+     * Executor running streaming MCP tools. Each task orchestrates a whole classification and waits on
+     * the LLM executor, so it is kept separate to avoid starving the analyses it submits.
+     */
+    @Bean(name = "mcpStreamExecutor")
+    public Executor mcpStreamExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${pharmacovigilance.mcp.stream.executor.core-pool-size:4}") int corePoolSize,
+            @Value("${pharmacovigilance.mcp.stream.executor.max-pool-size:8}") int maxPoolSize,
+            @Value("${pharmacovigilance.mcp.stream.executor.queue-capacity:50}") int queueCapacity) {
+        return createExecutor(meterRegistry, "mcpStreamExecutor", "McpStream-",
+                corePoolSize, maxPoolSize, queueCapacity, new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    /**
+     * Reader threads of bulk ingestion jobs, one per running job. A job submitted while all are busy is
+     * rejected rather than queued behind an archive that may take hours.
+     */
+    @Bean(name = "ingestionJobExecutor")
+    public Executor ingestionJobExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${pharmacovigilance.ingestion.max-concurrent-jobs:1}") int maxConcurrentJobs) {
+        return createExecutor(meterRegistry, "ingestionJobExecutor", "IngestJob-",
+                maxConcurrentJobs, maxConcurrentJobs, 0, new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    /**
+     * Archive entries of bulk ingestion jobs. Each job bounds its own entries in flight, so with the
+     * defaults this pool never rejects; the threads mostly wait on extraction and classification.
+     */
+    @Bean(name = "ingestionExecutor")
+    public Executor ingestionExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${pharmacovigilance.ingestion.executor.pool-size:8}") int poolSize,
+            @Value("${pharmacovigilance.ingestion.executor.queue-capacity:64}") int queueCapacity) {
+        return createExecutor(meterRegistry, "ingestionExecutor", "Ingest-",
+                poolSize, poolSize, queueCapacity, new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    /**
+     * Background rebuilds of the narrative search index. One at a time; a rebuild requested while another
+     * is queued is discarded.
+     */
+    @Bean(name = "searchIndexExecutor")
+    public Executor searchIndexExecutor(MeterRegistry meterRegistry) {
+        return createExecutor(meterRegistry, "searchIndexExecutor", "SearchIndex-",
+                1, 1, 1, new ThreadPoolExecutor.DiscardPolicy());
+    }
+    
+    private ThreadPoolTaskExecutor createExecutor(MeterRegistry meterRegistry, String name, String threadNamePrefix,
+                                                  int corePoolSize, int maxPoolSize, int queueCapacity,
+                                                  RejectedExecutionHandler rejectionPolicy) {
+        Counter rejected = meterRegistry.counter("executor.rejected.tasks", "name", name);
+        
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(5);
-        executor.setQueueCapacity(100);
-        executor.setThreadNamePrefix("Pharmacovigilance-");
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            rejected.increment();
+            log.warn("{} saturated ({} active, {} queued), applying {}", name,
+                    pool.getActiveCount(), pool.getQueue().size(), rejectionPolicy.getClass().getSimpleName());
+            rejectionPolicy.rejectedExecution(task, pool);
+        });
         executor.setWaitForTasksToCompleteOnShutdown(true);
         executor.setAwaitTerminationSeconds(60);
         executor.initialize();
         
-        log.info("Initialized pharmacovigilance executor with core pool size: {}, max pool size: {}", 
-                executor.getCorePoolSize(), executor.getMaxPoolSize());
+        log.info("Initialized {} with core pool size: {}, max pool size: {}, queue capacity: {}",
+                name, executor.getCorePoolSize(), executor.getMaxPoolSize(), queueCapacity);
         
         return executor;
     }
 }
-
-
@@ -0,0 +1,43 @@
+package com.pharmacovigilance.mcpagent.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+@Configuration
+@Slf4j
+public class DataSourceMetricsConfig {
+
+    /**
+     * Share of pooled connections currently checked out (0.0 - 1.0).
+     * Read it next to llm.gate.inflight: with LLM calls kept out of transactions it should stay
+     * low even while many completions are in flight.
+     */
+    @Bean
+    public MeterBinder connectionPoolUtilization(DataSource dataSource) {
+        return registry -> {
+            if (!(dataSource instanceof HikariDataSource hikari)) {
+                log.warn("Connection pool utilization metric requires HikariCP, found: {}",
+                        dataSource.getClass().getName());
+                return;
+            }
+            Gauge.builder("db.pool.utilization", hikari, DataSourceMetricsConfig::utilization)
+                .description("Active connections divided by maximum pool size")
+                .register(registry);
+        };
+    }
+
+    private static double utilization(HikariDataSource hikari) {
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        if (pool == null || hikari.getMaximumPoolSize() <= 0) {
+            return 0.0;
+        }
+        return (double) pool.getActiveConnections() / hikari.getMaximumPoolSize();
+    }
+}
@@ -3,12 +3,14 @@ package com.pharmacovigilance.mcpagent.config;
 import com.theokanning.openai.service.OpenAiService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.time.Duration;
 
 @Configuration
+@ConditionalOnProperty(name = "pharmacovigilance.llm.client", havingValue = "openai", matchIfMissing = true)
 @Slf4j
 public class OpenAiConfig {
     
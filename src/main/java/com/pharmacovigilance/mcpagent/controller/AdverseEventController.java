@@ -2,7 +2,12 @@ package com.pharmacovigilance.mcpagent.controller;
 
 import com.pharmacovigilance.mcpagent.agent.PharmacovigilanceAgent;
 import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventFilter;
+import com.pharmacovigilance.mcpagent.search.NarrativeSearchHit;
+import com.pharmacovigilance.mcpagent.search.NarrativeSearchService;
+import com.pharmacovigilance.mcpagent.service.AdverseEventPage;
 import com.pharmacovigilance.mcpagent.service.AdverseEventService;
+import com.pharmacovigilance.mcpagent.service.AdverseEventStatistics;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -14,6 +19,7 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -33,6 +39,7 @@ public class AdverseEventController {
     
     private final AdverseEventService adverseEventService;
     private final PharmacovigilanceAgent pharmacovigilanceAgent;
+    private final NarrativeSearchService narrativeSearchService;
     
     @GetMapping
     @Operation(summary = "Get all adverse events", description = "Retrieve a paginated list of all adverse drug events")
@@ -83,13 +90,22 @@ public class AdverseEventController {
                           "eventDate": "2024-01-15T10:30:00"
                         }
                         """))),
-        @ApiResponse(responseCode = "400", description = "Invalid input data")
+        @ApiResponse(responseCode = "400", description = "Invalid input data"),
+        @ApiResponse(responseCode = "409", description = "An adverse event with this case number exists")
     })
     public ResponseEntity<AdverseEvent> createAdverseEvent(
             @Parameter(description = "Adverse event data", required = true)
             @Valid @RequestBody AdverseEvent adverseEvent) {
         log.info("Creating new adverse event: {}", adverseEvent.getCaseNumber());
-        AdverseEvent savedEvent = adverseEventService.save(adverseEvent);
+        AdverseEvent savedEvent;
+        try {
+            savedEvent = adverseEventService.save(adverseEvent);
+        } catch (DataIntegrityViolationException e) {
+            if (adverseEventService.existsByCaseNumber(adverseEvent.getCaseNumber())) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).build();
+            }
+            throw e;
+        }
         
         // Trigger automated processing
         pharmacovigilanceAgent.processNewAdverseEvent(savedEvent.getId());
@@ -126,27 +142,71 @@ public class AdverseEventController {
     }
     
     @GetMapping("/search")
-    public ResponseEntity<List<AdverseEvent>> searchAdverseEvents(
+    @Operation(summary = "Search adverse events", description = "Events matching the criteria, newest first. "
+        + "Pass the nextCursor of a page as cursor to get the next one; limit is capped server-side.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "A page of matching adverse events",
+                content = @Content(mediaType = "application/json",
+                        schema = @Schema(implementation = AdverseEventPage.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid criteria or cursor, described by an error message")
+    })
+    public ResponseEntity<?> searchAdverseEvents(
             @RequestParam(required = false) String severity,
             @RequestParam(required = false) String status,
             @RequestParam(required = false) String drugName,
-            @RequestParam(required = false) String patientId) {
+            @RequestParam(required = false) String patientId,
+            @RequestParam(required = false) String causality,
+            @RequestParam(required = false) String eventDateFrom,
+            @RequestParam(required = false) String eventDateTo,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
         
-        log.info("Searching adverse events with criteria - severity: {}, status: {}, drugName: {}, patientId: {}", 
-                severity, status, drugName, patientId);
+        log.info("Searching adverse events with criteria - severity: {}, status: {}, drugName: {}, patientId: {}, "
+                + "causality: {}, eventDate: {} to {}", severity, status, drugName, patientId, causality,
+                eventDateFrom, eventDateTo);
         
-        List<AdverseEvent> events = adverseEventService.findByCriteria(severity, status, drugName, patientId);
-        return ResponseEntity.ok(events);
+        try {
+            AdverseEventFilter filter = AdverseEventFilter.of(
+                severity, status, causality, drugName, patientId, eventDateFrom, eventDateTo);
+            return ResponseEntity.ok(adverseEventService.findPage(filter, cursor, limit));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid search parameters: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/search/text")
+    @Operation(summary = "Full-text search of adverse event narratives", description = "Events whose description, "
+        + "symptoms, reporter notes or medical history match the query, most relevant first, each with a snippet "
+        + "of the best matching passage")
+    public ResponseEntity<List<NarrativeSearchHit>> searchAdverseEventText(
+            @RequestParam String q,
+            @RequestParam(required = false) Integer limit) {
+        
+        log.info("Full-text search of adverse events: {}", q);
+        
+        try {
+            return ResponseEntity.ok(narrativeSearchService.search(q, limit));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid text search: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
     }
     
     @GetMapping("/statistics")
     public ResponseEntity<Map<String, Object>> getStatistics() {
         log.info("Fetching adverse event statistics");
         
+        AdverseEventStatistics statistics = adverseEventService.getStatistics();
         Map<String, Object> stats = Map.of(
-            "totalEvents", adverseEventService.count(),
-            "severityCounts", adverseEventService.getCountBySeverity(),
-            "statusCounts", adverseEventService.getCountByStatus()
+            "totalEvents", statistics.totalEvents(),
+            "severityCounts", statistics.severityCounts(),
+            "statusCounts", statistics.statusCounts(),
+            "causalityCounts", statistics.causalityCounts(),
+            "topDrugCounts", statistics.drugCounts(),
+            "distinctDrugNames", statistics.distinctDrugs()
         );
         
         return ResponseEntity.ok(stats);
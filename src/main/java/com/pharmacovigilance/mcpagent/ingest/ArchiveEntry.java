@@ -0,0 +1,15 @@
+package com.pharmacovigilance.mcpagent.ingest;
+
+import java.io.InputStream;
+
+/**
+ * One document streamed out of an archive.
+ *
+ * @param offset  position to resume from to read this entry again: the byte offset of the message in an
+ *                mbox file, or the entry index in a ZIP file
+ * @param name    entry name within the archive, for provenance
+ * @param kind    parser for the content, one of the {@link com.pharmacovigilance.mcpagent.service.ParsedDocument} kinds
+ * @param content entry bytes; valid until the next entry is read
+ */
+public record ArchiveEntry(long offset, String name, String kind, InputStream content) {
+}
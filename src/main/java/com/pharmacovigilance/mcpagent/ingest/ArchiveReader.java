@@ -0,0 +1,17 @@
+package com.pharmacovigilance.mcpagent.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequential reader over the documents of an archive, positioned at a resume offset when opened.
+ * Entries are streamed from the archive itself; nothing is unpacked to disk.
+ */
+public interface ArchiveReader extends Closeable {
+    
+    /**
+     * The next entry, or {@code null} at the end of the archive. Any unread content of the previous
+     * entry is skipped.
+     */
+    ArchiveEntry next() throws IOException;
+}
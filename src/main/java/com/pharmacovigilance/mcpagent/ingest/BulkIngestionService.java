@@ -0,0 +1,391 @@
+package com.pharmacovigilance.mcpagent.ingest;
+
+import com.pharmacovigilance.mcpagent.agent.PharmacovigilanceAgent;
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.service.AdverseEventExtractionService;
+import com.pharmacovigilance.mcpagent.service.AdverseEventService;
+import com.pharmacovigilance.mcpagent.service.DocumentParsingService;
+import com.pharmacovigilance.mcpagent.service.ParsedDocument;
+import com.pharmacovigilance.mcpagent.service.ParsedDocumentCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk ingestion of mbox and ZIP archives. One reader thread per job streams entries out of the archive
+ * and hands each to the ingestion pool, which runs parse → extract → persist → classify. At most
+ * {@code max-in-flight} entries of a job are between reading and completion; the reader blocks once
+ * that many are pending, so a slow LLM throttles reading instead of filling the heap or the spool
+ * directory. Events are keyed by the SHA-256 of the entry, which makes re-running a range idempotent.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BulkIngestionService {
+    
+    private static final int RETAINED_JOBS = 50;
+    private static final int PROGRESS_LOG_INTERVAL = 500;
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    
+    private final DocumentParsingService documentParsingService;
+    private final ParsedDocumentCache documentCache;
+    private final AdverseEventExtractionService extractionService;
+    private final AdverseEventService adverseEventService;
+    private final PharmacovigilanceAgent agent;
+    private final MeterRegistry meterRegistry;
+    @Qualifier("ingestionJobExecutor")
+    private final Executor ingestionJobExecutor;
+    @Qualifier("ingestionExecutor")
+    private final Executor ingestionExecutor;
+    @Qualifier("documentParsingExecutor")
+    private final Executor documentParsingExecutor;
+    
+    /**
+     * Directory archives are read from; archive paths are resolved against it and may not leave it.
+     * Bulk ingestion is disabled while unset.
+     */
+    @Value("${pharmacovigilance.ingestion.archive-dir:}")
+    private String archiveDir;
+    
+    @Value("${pharmacovigilance.ingestion.max-in-flight:8}")
+    private int maxInFlight;
+    
+    @Value("${pharmacovigilance.ingestion.max-entry-size:50MB}")
+    private DataSize maxEntrySize;
+    
+    @Value("${pharmacovigilance.parsing.spool-dir:}")
+    private String spoolDir;
+    
+    private final Map<String, IngestionJob> jobs = Collections.synchronizedMap(new LinkedHashMap<>());
+    
+    /**
+     * Start ingesting an archive in the background
+     *
+     * @param archivePath      path relative to the archive directory
+     * @param format           {@code mbox}, {@code zip} or {@code auto} (by content) when null
+     * @param resumeFromOffset resume offset reported by an earlier run, or 0
+     * @throws IllegalArgumentException   if the archive or format is not acceptable
+     * @throws RejectedExecutionException if the maximum number of jobs is already running
+     */
+    public IngestionJob start(String archivePath, String format, long resumeFromOffset) throws IOException {
+        Path archive = resolveArchive(archivePath);
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString(), archive,
+            resolveFormat(archive, format), Math.max(resumeFromOffset, 0));
+        
+        register(job);
+        try {
+            ingestionJobExecutor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        log.info("Started bulk ingestion job {} for {} ({}) from offset {}",
+                job.getId(), archive, job.getFormat(), resumeFromOffset);
+        return job;
+    }
+    
+    public Optional<IngestionJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+    
+    public List<IngestionJob> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+    
+    /**
+     * Stop reading new entries; entries already in flight still complete
+     */
+    public boolean cancel(String jobId) {
+        IngestionJob job = jobs.get(jobId);
+        if (job == null || job.getStatus() != IngestionJob.Status.RUNNING) {
+            return false;
+        }
+        job.requestCancel();
+        return true;
+    }
+    
+    private void run(IngestionJob job) {
+        Semaphore permits = new Semaphore(maxInFlight);
+        IngestionJob.Status finalStatus = IngestionJob.Status.COMPLETED;
+        String failure = null;
+        
+        try (ArchiveReader reader = open(job)) {
+            long dispatched = 0;
+            ArchiveEntry entry;
+            while (!job.isCancelRequested() && (entry = reader.next()) != null) {
+                // Backpressure: wait for a slot before reading further into the archive
+                permits.acquire();
+                dispatch(job, entry, permits);
+                
+                if (++dispatched % PROGRESS_LOG_INTERVAL == 0) {
+                    log.info("Bulk ingestion job {}: {} documents done ({} docs/s), resume offset {}",
+                            job.getId(), job.getCompleted(), String.format("%.2f", job.getDocumentsPerSecond()),
+                            job.getResumeOffset());
+                }
+            }
+            if (job.isCancelRequested()) {
+                finalStatus = IngestionJob.Status.CANCELLED;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finalStatus = IngestionJob.Status.FAILED;
+            failure = "Interrupted";
+        } catch (Exception e) {
+            log.error("Bulk ingestion job {} failed at offset {}", job.getId(), job.getResumeOffset(), e);
+            finalStatus = IngestionJob.Status.FAILED;
+            failure = e.getMessage();
+        } finally {
+            // The job is finished only once every dispatched entry has completed
+            permits.acquireUninterruptibly(maxInFlight);
+        }
+        
+        job.finish(finalStatus, failure);
+        log.info("Bulk ingestion job {} {}: {} documents at {} docs/s, resume offset {}", job.getId(),
+                finalStatus.name().toLowerCase(), job.getCompleted(),
+                String.format("%.2f", job.getDocumentsPerSecond()), job.getResumeOffset());
+    }
+    
+    /**
+     * Spool the entry on the reader thread, since the archive stream moves on with the next entry,
+     * and process it on the ingestion pool. The permit is released when the entry completes.
+     */
+    private void dispatch(IngestionJob job, ArchiveEntry entry, Semaphore permits) throws IOException {
+        job.entryStarted(entry.offset());
+        Path spooled;
+        try {
+            spooled = spool(entry.content());
+        } catch (IOException e) {
+            finishEntry(job, entry, IngestionJob.Outcome.FAILED, 0, permits);
+            throw e;
+        }
+        if (spooled == null) {
+            log.warn("Skipping {} at offset {} of {}: larger than {}", entry.name(), entry.offset(),
+                    job.getArchive(), maxEntrySize);
+            finishEntry(job, entry, IngestionJob.Outcome.FAILED, 0, permits);
+            return;
+        }
+        
+        try {
+            ingestionExecutor.execute(() -> process(job, entry, spooled, permits));
+        } catch (RejectedExecutionException e) {
+            deleteQuietly(spooled);
+            finishEntry(job, entry, IngestionJob.Outcome.FAILED, 0, permits);
+            throw e;
+        }
+    }
+    
+    private void process(IngestionJob job, ArchiveEntry entry, Path spooled, Semaphore permits) {
+        long start = System.nanoTime();
+        IngestionJob.Outcome outcome = IngestionJob.Outcome.FAILED;
+        try {
+            outcome = ingest(job, entry, spooled);
+        } catch (Exception e) {
+            log.warn("Failed to ingest {} at offset {} of {}", entry.name(), entry.offset(), job.getArchive(), e);
+        } finally {
+            deleteQuietly(spooled);
+            finishEntry(job, entry, outcome, System.nanoTime() - start, permits);
+        }
+    }
+    
+    private IngestionJob.Outcome ingest(IngestionJob job, ArchiveEntry entry, Path spooled) throws Exception {
+        ParsedDocument parsed = parseOnDocumentExecutor(spooled, entry.kind());
+        
+        String caseNumber = "BULK-" + parsed.contentHash().substring(0, 20).toUpperCase();
+        if (!job.firstOccurrence(parsed.contentHash()) || adverseEventService.existsByCaseNumber(caseNumber)) {
+            return IngestionJob.Outcome.DUPLICATE;
+        }
+        
+        Map<String, Object> extractedData = documentCache.getOrComputeExtraction(parsed, () -> extract(parsed));
+        Map<String, Object> enrichedData = extractionService.validateAndEnrichExtractedData(extractedData);
+        if (!Boolean.TRUE.equals(enrichedData.get("isValid"))) {
+            return IngestionJob.Outcome.INVALID;
+        }
+        
+        AdverseEvent event = extractionService.toAdverseEvent(enrichedData);
+        event.setCaseNumber(caseNumber);
+        event.setAdverseEventDescription(truncate(event.getAdverseEventDescription(), 255));
+        event.setSymptoms(truncate(event.getSymptoms(), 1000));
+        event.setMedicalHistory(truncate(event.getMedicalHistory(), 1000));
+        event.setConcomitantMedications(truncate(event.getConcomitantMedications(), 1000));
+        event.setStatus(AdverseEvent.EventStatus.NEW);
+        event.setReportDate(LocalDateTime.now());
+        event.setReporterNotes(truncate(String.format("Bulk ingested from %s, entry %s at offset %d",
+            job.getArchive().getFileName(), entry.name(), entry.offset()), 1000));
+        AdverseEvent saved;
+        try {
+            saved = adverseEventService.save(event);
+        } catch (DataIntegrityViolationException e) {
+            // Another job stored the same document between the check above and this insert
+            if (adverseEventService.existsByCaseNumber(caseNumber)) {
+                return IngestionJob.Outcome.DUPLICATE;
+            }
+            throw e;
+        }
+        
+        // Classification, follow-ups and the status change run here, so the pipeline's bound covers them
+        return agent.processAdverseEvent(saved.getId())
+            ? IngestionJob.Outcome.PERSISTED
+            : IngestionJob.Outcome.UNCLASSIFIED;
+    }
+    
+    private Map<String, Object> extract(ParsedDocument parsed) {
+        if (ParsedDocument.EMAIL.equals(parsed.kind())) {
+            return extractionService.extractFromEmail(parsed.fields().get("subject"), parsed.text(),
+                parsed.fields().get("from"));
+        }
+        return extractionService.extractFromClinicalDocument(parsed.text());
+    }
+    
+    /**
+     * Parse on the document parsing pool, which bounds CPU-bound parsing to the core count while the
+     * ingestion pool is sized for threads waiting on the LLM
+     */
+    private ParsedDocument parseOnDocumentExecutor(Path spooled, String kind) throws Exception {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return documentParsingService.ingestFile(spooled, kind);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, documentParsingExecutor).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+    
+    private void finishEntry(IngestionJob job, ArchiveEntry entry, IngestionJob.Outcome outcome,
+                             long elapsedNanos, Semaphore permits) {
+        job.entryFinished(entry.offset(), outcome);
+        meterRegistry.counter("ingestion.documents", "format", job.getFormat(),
+            "outcome", outcome.name().toLowerCase()).increment();
+        if (elapsedNanos > 0) {
+            meterRegistry.timer("ingestion.document.duration", "kind", entry.kind())
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+        permits.release();
+    }
+    
+    private ArchiveReader open(IngestionJob job) throws IOException {
+        long offset = job.getResumeOffset();
+        return "zip".equals(job.getFormat())
+            ? new ZipArchiveReader(job.getArchive(), offset)
+            : new MboxArchiveReader(job.getArchive(), offset);
+    }
+    
+    private Path resolveArchive(String archivePath) throws IOException {
+        if (archiveDir == null || archiveDir.isBlank()) {
+            throw new IllegalStateException("Bulk ingestion is disabled: pharmacovigilance.ingestion.archive-dir is not set");
+        }
+        if (archivePath == null || archivePath.isBlank()) {
+            throw new IllegalArgumentException("archivePath is required");
+        }
+        Path root = Path.of(archiveDir).toRealPath();
+        Path archive = root.resolve(archivePath).normalize();
+        if (!archive.startsWith(root) || !Files.isRegularFile(archive)) {
+            throw new IllegalArgumentException("No archive " + archivePath + " in the archive directory");
+        }
+        // Checked again after resolving links, which may point outside the directory
+        if (!archive.toRealPath().startsWith(root)) {
+            throw new IllegalArgumentException("No archive " + archivePath + " in the archive directory");
+        }
+        return archive;
+    }
+    
+    private static String resolveFormat(Path archive, String format) throws IOException {
+        if (format == null || format.isBlank() || format.equalsIgnoreCase("auto")) {
+            try (InputStream in = Files.newInputStream(archive)) {
+                return Arrays.equals(in.readNBytes(ZIP_MAGIC.length), ZIP_MAGIC) ? "zip" : "mbox";
+            }
+        }
+        String normalized = format.trim().toLowerCase();
+        if (!normalized.equals("zip") && !normalized.equals("mbox")) {
+            throw new IllegalArgumentException("Unsupported archive format: " + format + " (expected mbox, zip or auto)");
+        }
+        return normalized;
+    }
+    
+    private void register(IngestionJob job) {
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+            Iterator<IngestionJob> oldest = jobs.values().iterator();
+            while (jobs.size() > RETAINED_JOBS && oldest.hasNext()) {
+                if (oldest.next().getStatus() != IngestionJob.Status.RUNNING) {
+                    oldest.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Copy an entry to a spool file, or return null and delete it if it exceeds the entry size limit
+     */
+    private Path spool(InputStream content) throws IOException {
+        Path spooled = spoolDir != null && !spoolDir.isBlank()
+            ? Files.createTempFile(Path.of(spoolDir), "pv-bulk-", ".entry")
+            : Files.createTempFile("pv-bulk-", ".entry");
+        long limit = maxEntrySize.toBytes();
+        try (OutputStream out = Files.newOutputStream(spooled)) {
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                total += read;
+                if (total > limit) {
+                    out.close();
+                    deleteQuietly(spooled);
+                    return null;
+                }
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(spooled);
+            throw e;
+        }
+        return spooled;
+    }
+    
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength - 3) + "..." : value;
+    }
+    
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Could not delete spooled entry {}", file, e);
+        }
+    }
+}
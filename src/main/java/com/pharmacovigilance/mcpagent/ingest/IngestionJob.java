@@ -0,0 +1,150 @@
+package com.pharmacovigilance.mcpagent.ingest;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one bulk ingestion run. The resume offset is a low watermark: every entry before it has
+ * finished, so a run restarted from it neither skips nor, thanks to content-hash case numbers, duplicates
+ * any document.
+ */
+public class IngestionJob {
+    
+    public enum Status { RUNNING, COMPLETED, CANCELLED, FAILED }
+    
+    /**
+     * What happened to one archive entry. UNCLASSIFIED events were saved but the agent workflow or one of
+     * its analyses failed; they stay NEW and the agent's scheduled sweep retries them.
+     */
+    public enum Outcome { PERSISTED, UNCLASSIFIED, DUPLICATE, INVALID, FAILED }
+    
+    private final String id;
+    private final Path archive;
+    private final String format;
+    private final long startOffset;
+    private final Instant startedAt = Instant.now();
+    private final long startNanos = System.nanoTime();
+    
+    private final AtomicLong read = new AtomicLong();
+    private final Map<Outcome, AtomicLong> outcomes = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+    private final Set<String> seenContent = ConcurrentHashMap.newKeySet();
+    
+    private volatile long nextOffset;
+    private volatile boolean cancelRequested;
+    private volatile Status status = Status.RUNNING;
+    private volatile String error;
+    private volatile Instant finishedAt;
+    private volatile long finishedNanos;
+    
+    IngestionJob(String id, Path archive, String format, long startOffset) {
+        this.id = id;
+        this.archive = archive;
+        this.format = format;
+        this.startOffset = startOffset;
+        this.nextOffset = startOffset;
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new AtomicLong());
+        }
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public Path getArchive() {
+        return archive;
+    }
+    
+    public String getFormat() {
+        return format;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+    
+    void requestCancel() {
+        cancelRequested = true;
+    }
+    
+    /**
+     * The entry at this offset was handed to the pipeline
+     */
+    void entryStarted(long offset) {
+        // Registered as in flight before the watermark moves past it
+        inFlight.add(offset);
+        nextOffset = offset + 1;
+        read.incrementAndGet();
+    }
+    
+    void entryFinished(long offset, Outcome outcome) {
+        outcomes.get(outcome).incrementAndGet();
+        inFlight.remove(offset);
+    }
+    
+    /**
+     * Whether this content is seen for the first time in the run, so identical copies in flight
+     * together are not both persisted
+     */
+    boolean firstOccurrence(String contentHash) {
+        return seenContent.add(contentHash);
+    }
+    
+    void finish(Status finalStatus, String failure) {
+        error = failure;
+        finishedNanos = System.nanoTime();
+        finishedAt = Instant.now();
+        status = finalStatus;
+    }
+    
+    public long getResumeOffset() {
+        Long oldestInFlight = inFlight.ceiling(Long.MIN_VALUE);
+        return oldestInFlight != null ? oldestInFlight : nextOffset;
+    }
+    
+    public long getCompleted() {
+        return outcomes.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+    
+    public double getDocumentsPerSecond() {
+        long end = status == Status.RUNNING ? System.nanoTime() : finishedNanos;
+        double seconds = (end - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        return seconds > 0 ? getCompleted() / seconds : 0;
+    }
+    
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("jobId", id);
+        map.put("archive", archive.toString());
+        map.put("format", format);
+        map.put("status", status);
+        map.put("startOffset", startOffset);
+        map.put("resumeOffset", getResumeOffset());
+        map.put("offsetUnit", "zip".equals(format) ? "entry index" : "byte");
+        map.put("read", read.get());
+        map.put("completed", getCompleted());
+        map.put("inFlight", inFlight.size());
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Outcome outcome : Outcome.values()) {
+            counts.put(outcome.name().toLowerCase(), outcomes.get(outcome).get());
+        }
+        map.put("outcomes", counts);
+        map.put("documentsPerSecond", Math.round(getDocumentsPerSecond() * 100) / 100.0);
+        map.put("startedAt", startedAt.toString());
+        map.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+        map.put("error", error);
+        return map;
+    }
+}
@@ -0,0 +1,202 @@
+package com.pharmacovigilance.mcpagent.ingest;
+
+import com.pharmacovigilance.mcpagent.service.ParsedDocument;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams the messages of an mbox file. A message starts at a line beginning with {@code From } and
+ * runs to the next such line; {@code >From } escapes in the body are undone (mboxrd). Offsets are byte
+ * positions of the separator lines, so a reader opened at any offset resumes at the next message that
+ * starts at or after it.
+ */
+class MboxArchiveReader implements ArchiveReader {
+    
+    private static final byte[] SEPARATOR = "From ".getBytes(StandardCharsets.US_ASCII);
+    
+    /**
+     * Longer lines are returned in pieces, so a message without line breaks cannot exhaust the heap
+     */
+    private static final int MAX_LINE_BYTES = 1024 * 1024;
+    
+    private final FileChannel channel;
+    private final InputStream in;
+    private long position;
+    private boolean atLineStart = true;
+    
+    private byte[] pendingSeparator;
+    private long pendingOffset;
+    private MessageStream current;
+    
+    MboxArchiveReader(Path file, long startOffset) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long start = Math.min(Math.max(startOffset, 0), channel.size());
+            if (start > 0) {
+                // Start in the middle of a line unless the previous byte ends one; that partial line is skipped
+                ByteBuffer previous = ByteBuffer.allocate(1);
+                channel.read(previous, start - 1);
+                atLineStart = previous.get(0) == '\n';
+            }
+            channel.position(start);
+            position = start;
+            in = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    @Override
+    public ArchiveEntry next() throws IOException {
+        if (current != null) {
+            current.skipRemaining();
+            current = null;
+        }
+        
+        while (pendingSeparator == null) {
+            long lineOffset = position;
+            boolean lineStart = atLineStart;
+            byte[] line = readLine();
+            if (line == null) {
+                return null;
+            }
+            if (lineStart && startsWith(line, 0, SEPARATOR)) {
+                pendingSeparator = line;
+                pendingOffset = lineOffset;
+            }
+        }
+        
+        long offset = pendingOffset;
+        String name = new String(pendingSeparator, StandardCharsets.ISO_8859_1).trim();
+        pendingSeparator = null;
+        current = new MessageStream();
+        return new ArchiveEntry(offset, name.length() > 200 ? name.substring(0, 200) : name,
+            ParsedDocument.EMAIL, current);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+    
+    /**
+     * The next line including its terminator, or a piece of at most {@link #MAX_LINE_BYTES} of a longer
+     * line; {@code null} at the end of the file
+     */
+    private byte[] readLine() throws IOException {
+        byte[] line = new byte[128];
+        int length = 0;
+        int b;
+        while (length < MAX_LINE_BYTES && (b = in.read()) != -1) {
+            if (length == line.length) {
+                line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_BYTES));
+            }
+            line[length++] = (byte) b;
+            if (b == '\n') {
+                break;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        position += length;
+        atLineStart = line[length - 1] == '\n';
+        return Arrays.copyOf(line, length);
+    }
+    
+    private static boolean startsWith(byte[] line, int from, byte[] prefix) {
+        if (line.length - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Leading {@code >} characters of a {@code >From } line, or 0 for any other line
+     */
+    private static int escapeDepth(byte[] line) {
+        int depth = 0;
+        while (depth < line.length && line[depth] == '>') {
+            depth++;
+        }
+        return depth > 0 && startsWith(line, depth, SEPARATOR) ? depth : 0;
+    }
+    
+    /**
+     * Content of one message, ending before the next separator line, which is kept for {@link #next()}
+     */
+    private class MessageStream extends InputStream {
+        
+        private byte[] line = new byte[0];
+        private int linePosition;
+        private boolean finished;
+        
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return line[linePosition++] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, line.length - linePosition);
+            System.arraycopy(line, linePosition, buffer, offset, count);
+            linePosition += count;
+            return count;
+        }
+        
+        @Override
+        public void close() {
+            // The archive stays open for the following messages
+        }
+        
+        void skipRemaining() throws IOException {
+            while (fill()) {
+                linePosition = line.length;
+            }
+        }
+        
+        private boolean fill() throws IOException {
+            while (!finished && linePosition == line.length) {
+                long lineOffset = position;
+                boolean lineStart = atLineStart;
+                byte[] next = readLine();
+                if (next == null) {
+                    finished = true;
+                } else if (lineStart && startsWith(next, 0, SEPARATOR)) {
+                    pendingSeparator = next;
+                    pendingOffset = lineOffset;
+                    finished = true;
+                } else {
+                    int depth = lineStart ? escapeDepth(next) : 0;
+                    line = depth > 0 ? Arrays.copyOfRange(next, 1, next.length) : next;
+                    linePosition = 0;
+                }
+            }
+            return !finished || linePosition < line.length;
+        }
+    }
+}
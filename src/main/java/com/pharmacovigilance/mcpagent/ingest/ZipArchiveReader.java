@@ -0,0 +1,86 @@
+package com.pharmacovigilance.mcpagent.ingest;
+
+import com.pharmacovigilance.mcpagent.service.ParsedDocument;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Streams the documents of a ZIP file in central directory order, inflating each entry as it is read.
+ * Offsets are entry indexes. {@code .eml} entries are parsed as email, {@code .pdf} as PDF and anything
+ * else through Tika; directories, hidden files and nested archives are skipped.
+ */
+@Slf4j
+class ZipArchiveReader implements ArchiveReader {
+    
+    private final ZipFile zip;
+    private final Enumeration<? extends ZipEntry> entries;
+    private long index;
+    private InputStream current;
+    
+    ZipArchiveReader(Path file, long startOffset) throws IOException {
+        zip = new ZipFile(file.toFile());
+        entries = zip.entries();
+        while (index < startOffset && entries.hasMoreElements()) {
+            entries.nextElement();
+            index++;
+        }
+    }
+    
+    @Override
+    public ArchiveEntry next() throws IOException {
+        closeCurrent();
+        while (entries.hasMoreElements()) {
+            long entryIndex = index++;
+            ZipEntry entry = entries.nextElement();
+            String kind = kindOf(entry);
+            if (kind == null) {
+                log.debug("Skipping archive entry {} ({})", entryIndex, entry.getName());
+                continue;
+            }
+            current = zip.getInputStream(entry);
+            return new ArchiveEntry(entryIndex, entry.getName(), kind, current);
+        }
+        return null;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            closeCurrent();
+        } finally {
+            zip.close();
+        }
+    }
+    
+    private void closeCurrent() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+    
+    private static String kindOf(ZipEntry entry) {
+        String name = entry.getName();
+        String fileName = name.substring(name.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        if (entry.isDirectory() || fileName.isEmpty() || fileName.startsWith(".") || name.startsWith("__MACOSX/")) {
+            return null;
+        }
+        if (fileName.endsWith(".eml")) {
+            return ParsedDocument.EMAIL;
+        }
+        if (fileName.endsWith(".pdf")) {
+            return ParsedDocument.PDF;
+        }
+        if (fileName.endsWith(".zip") || fileName.endsWith(".mbox")) {
+            return null;
+        }
+        return ParsedDocument.DOCUMENT;
+    }
+}
@@ -14,13 +14,22 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/mcp")
@@ -30,6 +39,12 @@ import java.util.Map;
 public class McpController {
     
     private final McpServer mcpServer;
+    private final MeterRegistry meterRegistry;
+    @Qualifier("mcpStreamExecutor")
+    private final Executor streamExecutor;
+    
+    @Value("${pharmacovigilance.mcp.stream.timeout:180s}")
+    private Duration streamTimeout;
     
     @PostMapping("/tools/{toolName}")
     @Operation(summary = "Execute MCP tool", description = "Execute a specific MCP tool with the provided parameters")
@@ -49,6 +64,7 @@ public class McpController {
         
         Map<String, Object> result = switch (toolName) {
             case "get_adverse_events" -> mcpServer.getAdverseEvents(params);
+            case "search_adverse_events_text" -> mcpServer.searchAdverseEventsText(params);
             case "get_patient_info" -> mcpServer.getPatientInfo(params);
             case "get_drug_info" -> mcpServer.getDrugInfo(params);
             case "create_adverse_event" -> mcpServer.createAdverseEvent(params);
@@ -60,6 +76,9 @@ public class McpController {
             case "classify_from_email" -> mcpServer.classifyFromEmail(params);
             case "classify_from_telephony_transcript" -> mcpServer.classifyFromTelephonyTranscript(params);
             case "classify_from_document" -> mcpServer.classifyFromDocument(params);
+            case "bulk_ingest_archive" -> mcpServer.bulkIngestArchive(params);
+            case "get_ingestion_status" -> mcpServer.getIngestionStatus(params);
+            case "cancel_ingestion" -> mcpServer.cancelIngestion(params);
             default -> {
                 Map<String, Object> error = Map.of(
                     "success", false,
@@ -75,6 +94,91 @@ public class McpController {
             ResponseEntity.badRequest().body(result);
     }
     
+    @PostMapping(value = "/tools/{toolName}/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Execute document tool with a file upload",
+            description = "Run classify_from_pdf, classify_from_email (.eml) or classify_from_document with the file "
+                    + "sent as a multipart part instead of Base64 in the JSON body. The part is spooled to disk "
+                    + "and parsed as a stream")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Tool executed successfully",
+                content = @Content(mediaType = "application/json",
+                        schema = @Schema(implementation = Map.class))),
+        @ApiResponse(responseCode = "400", description = "Unsupported tool or unreadable file")
+    })
+    public ResponseEntity<Map<String, Object>> executeUploadTool(
+            @Parameter(description = "Name of the document tool to execute", required = true)
+            @PathVariable String toolName,
+            @Parameter(description = "Document to classify", required = true)
+            @RequestPart("file") MultipartFile file) {
+        
+        log.info("Executing MCP tool: {} with uploaded file: {} ({} bytes)", toolName, file.getOriginalFilename(), file.getSize());
+        
+        Map<String, Object> result = switch (toolName) {
+            case "classify_from_pdf" -> mcpServer.classifyFromPdfUpload(file, ToolProgressListener.NONE);
+            case "classify_from_email" -> mcpServer.classifyFromEmailUpload(file, ToolProgressListener.NONE);
+            case "classify_from_document" -> mcpServer.classifyFromDocumentUpload(file, ToolProgressListener.NONE);
+            default -> Map.of(
+                "success", false,
+                "error", "File upload is not supported for tool: " + toolName
+            );
+        };
+        
+        boolean success = (Boolean) result.get("success");
+        return success ? 
+            ResponseEntity.ok(result) : 
+            ResponseEntity.badRequest().body(result);
+    }
+    
+    @PostMapping(value = "/tools/{toolName}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Execute classify tool with streaming output",
+            description = "Run a classify_* tool and stream its progress as Server-Sent Events: 'stage' events "
+                    + "(loaded or parsed, extracting, extracted, classified), 'token' events carrying completion "
+                    + "text per analysis, and a final 'result' event with the same body the non-streaming "
+                    + "endpoint returns")
+    @ApiResponse(responseCode = "200", description = "Event stream started",
+            content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE))
+    public SseEmitter executeToolStreaming(
+            @Parameter(description = "Name of the classify tool to execute", required = true)
+            @PathVariable String toolName,
+            @Parameter(description = "Tool parameters", required = true)
+            @RequestBody Map<String, Object> params) {
+        
+        log.info("Executing streaming MCP tool: {}", toolName);
+        
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        SseToolProgressListener listener = new SseToolProgressListener(emitter, meterRegistry, toolName);
+        try {
+            streamExecutor.execute(() -> {
+                try {
+                    listener.result(executeClassifyTool(toolName, params, listener));
+                } catch (Exception e) {
+                    log.error("Error executing streaming MCP tool: {}", toolName, e);
+                    listener.fail(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Rejected streaming MCP tool {}: executor saturated", toolName);
+            listener.result(Map.of("success", false, "error", "Server busy, retry later"));
+        }
+        return emitter;
+    }
+    
+    private Map<String, Object> executeClassifyTool(String toolName, Map<String, Object> params,
+                                                    ToolProgressListener listener) {
+        return switch (toolName) {
+            case "classify_adverse_event" -> mcpServer.classifyAdverseEvent(params, listener);
+            case "classify_event_from_input" -> mcpServer.classifyEventFromInput(params, listener);
+            case "classify_from_pdf" -> mcpServer.classifyFromPdf(params, listener);
+            case "classify_from_email" -> mcpServer.classifyFromEmail(params, listener);
+            case "classify_from_telephony_transcript" -> mcpServer.classifyFromTelephonyTranscript(params, listener);
+            case "classify_from_document" -> mcpServer.classifyFromDocument(params, listener);
+            default -> Map.of(
+                "success", false,
+                "error", "Streaming is not supported for tool: " + toolName
+            );
+        };
+    }
+    
     @GetMapping("/tools")
     @Operation(summary = "Get available MCP tools", description = "Retrieve a list of all available MCP tools and their parameters")
     @ApiResponse(responseCode = "200", description = "Successfully retrieved available tools",
@@ -84,12 +188,26 @@ public class McpController {
         Map<String, Object> toolsMap = new HashMap<>();
         
         toolsMap.put("get_adverse_events", Map.of(
-            "description", "Retrieve adverse events by criteria",
+            "description", "Retrieve adverse events by criteria, newest first, one page at a time",
             "parameters", Map.of(
                 "severity", "string (optional)",
                 "status", "string (optional)",
                 "drugName", "string (optional)",
-                "patientId", "string (optional)"
+                "patientId", "string (optional)",
+                "causality", "string (optional)",
+                "eventDateFrom", "string (optional, ISO date or date-time)",
+                "eventDateTo", "string (optional, ISO date or date-time)",
+                "cursor", "string (optional, nextCursor of the previous page)",
+                "limit", "integer (optional, default 50, at most 200)"
+            )
+        ));
+        
+        toolsMap.put("search_adverse_events_text", Map.of(
+            "description", "Full-text search of adverse event descriptions, symptoms, reporter notes and "
+                + "medical history; results are ranked by relevance and include a highlighted snippet",
+            "parameters", Map.of(
+                "query", "string (required) - words to search for",
+                "limit", "integer (optional, default 20, at most 100)"
             )
         ));
         
@@ -160,7 +278,8 @@ public class McpController {
             "parameters", Map.of(
                 "pdfContent", "string (required) - Base64 encoded PDF content",
                 "fileName", "string (optional) - Name of the PDF file for reference"
-            )
+            ),
+            "upload", "POST /api/mcp/tools/classify_from_pdf/upload with multipart part 'file'"
         ));
         
         Map<String, String> emailParams = new HashMap<>();
@@ -171,7 +290,8 @@ public class McpController {
         
         toolsMap.put("classify_from_email", Map.of(
             "description", "Extract and classify adverse event from email content using AI",
-            "parameters", emailParams
+            "parameters", emailParams,
+            "upload", "POST /api/mcp/tools/classify_from_email/upload with the .eml file as multipart part 'file'"
         ));
         
         toolsMap.put("classify_from_telephony_transcript", Map.of(
@@ -189,6 +309,30 @@ public class McpController {
                 "documentContent", "string (required) - Base64 encoded document content",
                 "fileName", "string (optional) - Name of the document for reference",
                 "documentType", "string (optional) - Document type (auto-detected if not provided)"
+            ),
+            "upload", "POST /api/mcp/tools/classify_from_document/upload with multipart part 'file'"
+        ));
+        
+        toolsMap.put("bulk_ingest_archive", Map.of(
+            "description", "Ingest every document of an mbox or ZIP archive in the background: parse, extract, persist and classify",
+            "parameters", Map.of(
+                "archivePath", "string (required) - Archive path relative to the configured archive directory",
+                "format", "string (optional) - mbox, zip or auto (default, by content)",
+                "resumeFromOffset", "long (optional) - resumeOffset reported by an earlier job (byte offset for mbox, entry index for zip)"
+            )
+        ));
+        
+        toolsMap.put("get_ingestion_status", Map.of(
+            "description", "Get progress, resume offset and throughput (documents per second) of bulk ingestion jobs",
+            "parameters", Map.of(
+                "jobId", "string (optional) - Job ID; all retained jobs when omitted"
+            )
+        ));
+        
+        toolsMap.put("cancel_ingestion", Map.of(
+            "description", "Stop a bulk ingestion job after the documents already in flight",
+            "parameters", Map.of(
+                "jobId", "string (required) - Job ID"
             )
         ));
         
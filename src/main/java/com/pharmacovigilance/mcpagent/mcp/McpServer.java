@@ -1,24 +1,49 @@
 package com.pharmacovigilance.mcpagent.mcp;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pharmacovigilance.mcpagent.ingest.BulkIngestionService;
+import com.pharmacovigilance.mcpagent.ingest.IngestionJob;
 import com.pharmacovigilance.mcpagent.model.AdverseEvent;
 import com.pharmacovigilance.mcpagent.model.AiAnalysis;
 import com.pharmacovigilance.mcpagent.model.Drug;
 import com.pharmacovigilance.mcpagent.model.Patient;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventFilter;
+import com.pharmacovigilance.mcpagent.search.NarrativeSearchHit;
+import com.pharmacovigilance.mcpagent.search.NarrativeSearchService;
 import com.pharmacovigilance.mcpagent.service.AdverseEventExtractionService;
+import com.pharmacovigilance.mcpagent.service.AdverseEventPage;
 import com.pharmacovigilance.mcpagent.service.AdverseEventService;
+import com.pharmacovigilance.mcpagent.service.AdverseEventStatistics;
 import com.pharmacovigilance.mcpagent.service.AiAnalysisService;
 import com.pharmacovigilance.mcpagent.service.DocumentParsingService;
 import com.pharmacovigilance.mcpagent.service.DrugService;
+import com.pharmacovigilance.mcpagent.service.ParsedDocument;
+import com.pharmacovigilance.mcpagent.service.ParsedDocumentCache;
 import com.pharmacovigilance.mcpagent.service.PatientService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 @RequiredArgsConstructor
@@ -31,24 +56,44 @@ public class McpServer {
     private final AiAnalysisService aiAnalysisService;
     private final AdverseEventExtractionService extractionService;
     private final DocumentParsingService documentParsingService;
+    private final ParsedDocumentCache documentCache;
+    private final BulkIngestionService bulkIngestionService;
+    private final NarrativeSearchService narrativeSearchService;
     private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    @Qualifier("llmExecutor")
+    private final Executor llmExecutor;
+    @Qualifier("documentParsingExecutor")
+    private final Executor documentParsingExecutor;
+    
+    @Value("${pharmacovigilance.classification.timeout:90s}")
+    private Duration classificationTimeout;
     
     /**
      * MCP Tool: Get adverse events by criteria
      */
     public Map<String, Object> getAdverseEvents(Map<String, Object> params) {
         try {
-            String severity = (String) params.get("severity");
-            String status = (String) params.get("status");
-            String drugName = (String) params.get("drugName");
-            String patientId = (String) params.get("patientId");
-            
-            List<AdverseEvent> events = adverseEventService.findByCriteria(severity, status, drugName, patientId);
+            AdverseEventFilter filter = AdverseEventFilter.of(
+                (String) params.get("severity"),
+                (String) params.get("status"),
+                (String) params.get("causality"),
+                (String) params.get("drugName"),
+                (String) params.get("patientId"),
+                (String) params.get("eventDateFrom"),
+                (String) params.get("eventDateTo"));
+            String cursor = (String) params.get("cursor");
+            Integer limit = params.get("limit") != null ? Integer.valueOf(params.get("limit").toString()) : null;
+            
+            AdverseEventPage page = adverseEventService.findPage(filter, cursor, limit);
             
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
-            result.put("data", events);
-            result.put("count", events.size());
+            result.put("data", page.events());
+            result.put("count", page.events().size());
+            result.put("limit", page.limit());
+            result.put("hasMore", page.nextCursor() != null);
+            result.put("nextCursor", page.nextCursor());
             
             return result;
         } catch (Exception e) {
@@ -57,6 +102,32 @@ public class McpServer {
         }
     }
     
+    /**
+     * MCP Tool: Full-text search of adverse event narratives, ranked, with snippets
+     */
+    public Map<String, Object> searchAdverseEventsText(Map<String, Object> params) {
+        try {
+            String query = (String) params.get("query");
+            if (query == null || query.isBlank()) {
+                return createErrorResponse("Search query is required");
+            }
+            Integer limit = params.get("limit") != null ? Integer.valueOf(params.get("limit").toString()) : null;
+            
+            List<NarrativeSearchHit> hits = narrativeSearchService.search(query, limit);
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("data", hits);
+            result.put("count", hits.size());
+            result.put("index", narrativeSearchService.getStatistics());
+            
+            return result;
+        } catch (Exception e) {
+            log.error("Error searching adverse event narratives", e);
+            return createErrorResponse("Failed to search adverse events: " + e.getMessage());
+        }
+    }
+    
     /**
      * MCP Tool: Get patient information
      */
@@ -96,7 +167,7 @@ public class McpServer {
                 Optional<Drug> drug = drugService.findByDrugCode(drugCode);
                 drugs = drug.map(List::of).orElse(List.of());
             } else if (drugName != null) {
-                drugs = drugService.findByNameContaining(drugName);
+                drugs = drugService.findByName(drugName);
             } else {
                 return createErrorResponse("Either drugCode or drugName is required");
             }
@@ -169,16 +240,16 @@ public class McpServer {
         try {
             Map<String, Object> stats = new HashMap<>();
             
-            // Get counts by severity
-            Map<String, Long> severityCounts = adverseEventService.getCountBySeverity();
-            stats.put("severityCounts", severityCounts);
-            
-            // Get counts by status
-            Map<String, Long> statusCounts = adverseEventService.getCountByStatus();
-            stats.put("statusCounts", statusCounts);
+            // Counts by severity, status, causality and drug in one grouped query
+            AdverseEventStatistics eventStatistics = adverseEventService.getStatistics();
+            stats.put("severityCounts", eventStatistics.severityCounts());
+            stats.put("statusCounts", eventStatistics.statusCounts());
+            stats.put("causalityCounts", eventStatistics.causalityCounts());
+            stats.put("topDrugCounts", eventStatistics.drugCounts());
+            stats.put("distinctDrugNames", eventStatistics.distinctDrugs());
             
             // Get total counts
-            stats.put("totalAdverseEvents", adverseEventService.count());
+            stats.put("totalAdverseEvents", eventStatistics.totalEvents());
             stats.put("totalPatients", patientService.count());
             stats.put("totalDrugs", drugService.count());
             
@@ -197,46 +268,42 @@ public class McpServer {
      * MCP Tool: Classify an existing adverse event using AI
      */
     public Map<String, Object> classifyAdverseEvent(Map<String, Object> params) {
+        return classifyAdverseEvent(params, ToolProgressListener.NONE);
+    }
+    
+    public Map<String, Object> classifyAdverseEvent(Map<String, Object> params, ToolProgressListener listener) {
         try {
             Long eventId = Long.valueOf(params.get("eventId").toString());
             
+            // Loaded with its patient, as the analyses run on the LLM executor outside any session
             Optional<AdverseEvent> eventOpt = adverseEventService.findById(eventId);
             if (eventOpt.isEmpty()) {
                 return createErrorResponse("Adverse event not found");
             }
             
             AdverseEvent event = eventOpt.get();
+            listener.stage("loaded", Map.of("eventId", eventId, "caseNumber", event.getCaseNumber()));
             
             // Perform AI classifications
             log.info("Performing AI classification for event: {}", event.getCaseNumber());
             
-            AiAnalysis causalityAnalysis = aiAnalysisService.performCausalityAssessment(event);
-            AiAnalysis riskAnalysis = aiAnalysisService.performRiskAnalysis(event);
+            Map<String, Map<String, Object>> analyses = performCausalityAndRiskAnalyses(event, listener);
+            if (allAnalysesFailed(analyses)) {
+                return createErrorResponse("Failed to classify adverse event: " + describeFailures(analyses));
+            }
             
             Map<String, Object> classification = new HashMap<>();
             classification.put("eventId", eventId);
             classification.put("caseNumber", event.getCaseNumber());
-            classification.put("causalityAssessment", Map.of(
-                "analysisId", causalityAnalysis.getId(),
-                "type", causalityAnalysis.getAnalysisType(),
-                "status", causalityAnalysis.getStatus(),
-                "insights", causalityAnalysis.getExtractedInsights(),
-                "recommendations", causalityAnalysis.getRecommendations(),
-                "fullResponse", causalityAnalysis.getAiResponse()
-            ));
-            classification.put("riskAnalysis", Map.of(
-                "analysisId", riskAnalysis.getId(),
-                "type", riskAnalysis.getAnalysisType(),
-                "status", riskAnalysis.getStatus(),
-                "insights", riskAnalysis.getExtractedInsights(),
-                "recommendations", riskAnalysis.getRecommendations(),
-                "fullResponse", riskAnalysis.getAiResponse()
-            ));
+            classification.putAll(analyses);
             
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
             result.put("data", classification);
-            result.put("message", "AI classification completed successfully");
+            result.put("partial", anyAnalysisFailed(analyses));
+            result.put("message", anyAnalysisFailed(analyses) ?
+                "AI classification partially completed" :
+                "AI classification completed successfully");
             
             return result;
         } catch (Exception e) {
@@ -250,6 +317,10 @@ public class McpServer {
      * This analyzes the input without creating a database record
      */
     public Map<String, Object> classifyEventFromInput(Map<String, Object> params) {
+        return classifyEventFromInput(params, ToolProgressListener.NONE);
+    }
+    
+    public Map<String, Object> classifyEventFromInput(Map<String, Object> params, ToolProgressListener listener) {
         try {
             // Extract event details from input
             String caseNumber = (String) params.get("caseNumber");
@@ -291,9 +362,11 @@ public class McpServer {
             
             log.info("Performing AI classification for input event: {}", tempEvent.getCaseNumber());
             
-            // Perform AI classifications (these will be saved to DB)
-            AiAnalysis causalityAnalysis = aiAnalysisService.performCausalityAssessment(tempEvent);
-            AiAnalysis riskAnalysis = aiAnalysisService.performRiskAnalysis(tempEvent);
+            // Perform AI classifications; the event is not saved, so neither are its analyses
+            Map<String, Map<String, Object>> analyses = performCausalityAndRiskAnalyses(tempEvent, listener);
+            if (allAnalysesFailed(analyses)) {
+                return createErrorResponse("Failed to classify event from input: " + describeFailures(analyses));
+            }
             
             Map<String, Object> classification = new HashMap<>();
             classification.put("inputData", Map.of(
@@ -302,27 +375,15 @@ public class McpServer {
                 "severity", severity != null ? severity : "Not specified",
                 "symptoms", symptoms != null ? symptoms : "Not provided"
             ));
-            classification.put("causalityAssessment", Map.of(
-                "analysisId", causalityAnalysis.getId(),
-                "type", causalityAnalysis.getAnalysisType(),
-                "status", causalityAnalysis.getStatus(),
-                "insights", causalityAnalysis.getExtractedInsights(),
-                "recommendations", causalityAnalysis.getRecommendations(),
-                "fullResponse", causalityAnalysis.getAiResponse()
-            ));
-            classification.put("riskAnalysis", Map.of(
-                "analysisId", riskAnalysis.getId(),
-                "type", riskAnalysis.getAnalysisType(),
-                "status", riskAnalysis.getStatus(),
-                "insights", riskAnalysis.getExtractedInsights(),
-                "recommendations", riskAnalysis.getRecommendations(),
-                "fullResponse", riskAnalysis.getAiResponse()
-            ));
+            classification.putAll(analyses);
             
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
             result.put("data", classification);
-            result.put("message", "AI classification from input completed successfully");
+            result.put("partial", anyAnalysisFailed(analyses));
+            result.put("message", anyAnalysisFailed(analyses) ?
+                "AI classification from input partially completed" :
+                "AI classification from input completed successfully");
             
             return result;
         } catch (Exception e) {
@@ -335,6 +396,10 @@ public class McpServer {
      * MCP Tool: Classify adverse event from PDF document
      */
     public Map<String, Object> classifyFromPdf(Map<String, Object> params) {
+        return classifyFromPdf(params, ToolProgressListener.NONE);
+    }
+    
+    public Map<String, Object> classifyFromPdf(Map<String, Object> params, ToolProgressListener listener) {
         try {
             String base64Content = (String) params.get("pdfContent");
             String fileName = (String) params.getOrDefault("fileName", "document.pdf");
@@ -346,39 +411,42 @@ public class McpServer {
             log.info("Processing PDF document: {}", fileName);
             
             // Step 1: Parse PDF to extract text
-            String extractedText = documentParsingService.parsePdfFromBase64(base64Content);
-            
-            // Step 2: Extract structured adverse event data using AI
-            Map<String, Object> extractedData = extractionService.extractFromClinicalDocument(extractedText);
+            ParsedDocument document = parseOnDocumentExecutor(() -> documentParsingService.ingestPdfFromBase64(base64Content));
             
-            // Step 3: Validate and enrich data
-            Map<String, Object> enrichedData = extractionService.validateAndEnrichExtractedData(extractedData);
-            
-            // Step 4: If valid, perform classification
-            Map<String, Object> classification = null;
-            if (Boolean.TRUE.equals(enrichedData.get("isValid"))) {
-                classification = performClassificationOnExtractedData(enrichedData);
-            }
-            
-            Map<String, Object> result = new HashMap<>();
-            result.put("success", true);
-            result.put("fileName", fileName);
-            result.put("extractedText", extractedText.substring(0, Math.min(500, extractedText.length())) + "...");
-            result.put("extractedData", enrichedData);
-            result.put("classification", classification);
-            result.put("message", "PDF processed and adverse event classified successfully");
-            
-            return result;
+            // Steps 2-4: Extract, validate and classify
+            return classifyDocumentText(fileName, document, listener,
+                "PDF processed and adverse event classified successfully");
         } catch (Exception e) {
             log.error("Error classifying from PDF", e);
             return createErrorResponse("Failed to classify from PDF: " + e.getMessage());
         }
     }
     
+    /**
+     * MCP Tool: Classify adverse event from an uploaded PDF (multipart, no Base64)
+     */
+    public Map<String, Object> classifyFromPdfUpload(MultipartFile file, ToolProgressListener listener) {
+        try {
+            String fileName = uploadFileName(file, "document.pdf");
+            log.info("Processing uploaded PDF document: {} ({} bytes)", fileName, file.getSize());
+            
+            ParsedDocument document = parseOnDocumentExecutor(() -> documentParsingService.ingestPdf(file));
+            return classifyDocumentText(fileName, document, listener,
+                "PDF processed and adverse event classified successfully");
+        } catch (Exception e) {
+            log.error("Error classifying from uploaded PDF", e);
+            return createErrorResponse("Failed to classify from PDF: " + e.getMessage());
+        }
+    }
+    
     /**
      * MCP Tool: Classify adverse event from email
      */
     public Map<String, Object> classifyFromEmail(Map<String, Object> params) {
+        return classifyFromEmail(params, ToolProgressListener.NONE);
+    }
+    
+    public Map<String, Object> classifyFromEmail(Map<String, Object> params, ToolProgressListener listener) {
         try {
             String emailSubject = (String) params.get("subject");
             String emailBody = (String) params.get("body");
@@ -386,14 +454,18 @@ public class McpServer {
             String base64Content = (String) params.get("emlContent");
             
             String subject, body, from;
+            ParsedDocument source = null;
             
             // Option 1: Parse from .eml file (Base64 encoded)
             if (base64Content != null) {
                 log.info("Processing email from .eml file");
-                Map<String, String> emailData = documentParsingService.parseEmailFromBase64(base64Content);
+                source = parseOnDocumentExecutor(() -> documentParsingService.ingestEmailFromBase64(base64Content));
+                Map<String, String> emailData = source.fields();
                 subject = emailData.get("subject");
-                body = emailData.get("body");
+                body = source.text();
                 from = emailData.get("from");
+                listener.stage("parsed", Map.of("from", String.valueOf(from), "subject", String.valueOf(subject),
+                    "attachments", emailData.getOrDefault("attachmentCount", "0")));
             }
             // Option 2: Direct email content
             else if (emailSubject != null && emailBody != null) {
@@ -404,33 +476,30 @@ public class McpServer {
                 return createErrorResponse("Either emlContent or both subject and body are required");
             }
             
-            log.info("Processing email from: {}, subject: {}", from, subject);
-            
-            // Extract structured adverse event data using AI
-            Map<String, Object> extractedData = extractionService.extractFromEmail(subject, body, from);
-            
-            // Validate and enrich data
-            Map<String, Object> enrichedData = extractionService.validateAndEnrichExtractedData(extractedData);
-            
-            // If valid, perform classification
-            Map<String, Object> classification = null;
-            if (Boolean.TRUE.equals(enrichedData.get("isValid"))) {
-                classification = performClassificationOnExtractedData(enrichedData);
-            }
+            return classifyEmailContent(subject, body, from, source, listener);
+        } catch (Exception e) {
+            log.error("Error classifying from email", e);
+            return createErrorResponse("Failed to classify from email: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * MCP Tool: Classify adverse event from an uploaded .eml file (multipart, no Base64)
+     */
+    public Map<String, Object> classifyFromEmailUpload(MultipartFile file, ToolProgressListener listener) {
+        try {
+            log.info("Processing uploaded email: {} ({} bytes)", uploadFileName(file, "email.eml"), file.getSize());
             
-            Map<String, Object> result = new HashMap<>();
-            result.put("success", true);
-            result.put("emailMetadata", Map.of(
-                "from", from,
-                "subject", subject
-            ));
-            result.put("extractedData", enrichedData);
-            result.put("classification", classification);
-            result.put("message", "Email processed and adverse event classified successfully");
+            ParsedDocument source = parseOnDocumentExecutor(() -> documentParsingService.ingestEmail(file));
+            Map<String, String> emailData = source.fields();
+            String subject = emailData.get("subject");
+            String from = emailData.get("from");
+            listener.stage("parsed", Map.of("from", String.valueOf(from), "subject", String.valueOf(subject),
+                "attachments", emailData.getOrDefault("attachmentCount", "0")));
             
-            return result;
+            return classifyEmailContent(subject, source.text(), from, source, listener);
         } catch (Exception e) {
-            log.error("Error classifying from email", e);
+            log.error("Error classifying from uploaded email", e);
             return createErrorResponse("Failed to classify from email: " + e.getMessage());
         }
     }
@@ -439,6 +508,10 @@ public class McpServer {
      * MCP Tool: Classify adverse event from telephony transcript
      */
     public Map<String, Object> classifyFromTelephonyTranscript(Map<String, Object> params) {
+        return classifyFromTelephonyTranscript(params, ToolProgressListener.NONE);
+    }
+    
+    public Map<String, Object> classifyFromTelephonyTranscript(Map<String, Object> params, ToolProgressListener listener) {
         try {
             String transcript = (String) params.get("transcript");
             String callerInfo = (String) params.getOrDefault("callerInfo", "Unknown caller");
@@ -449,17 +522,19 @@ public class McpServer {
             }
             
             log.info("Processing telephony transcript for call: {}", callId);
+            listener.stage("extracting", Map.of("characters", transcript.length()));
             
             // Extract structured adverse event data using AI
             Map<String, Object> extractedData = extractionService.extractFromTelephonyTranscript(transcript, callerInfo);
             
             // Validate and enrich data
             Map<String, Object> enrichedData = extractionService.validateAndEnrichExtractedData(extractedData);
+            listener.stage("extracted", enrichedData);
             
             // If valid, perform classification
             Map<String, Object> classification = null;
             if (Boolean.TRUE.equals(enrichedData.get("isValid"))) {
-                classification = performClassificationOnExtractedData(enrichedData);
+                classification = performClassificationOnExtractedData(enrichedData, listener);
             }
             
             Map<String, Object> result = new HashMap<>();
@@ -483,6 +558,10 @@ public class McpServer {
      * MCP Tool: Classify adverse event from any document
      */
     public Map<String, Object> classifyFromDocument(Map<String, Object> params) {
+        return classifyFromDocument(params, ToolProgressListener.NONE);
+    }
+    
+    public Map<String, Object> classifyFromDocument(Map<String, Object> params, ToolProgressListener listener) {
         try {
             String base64Content = (String) params.get("documentContent");
             String fileName = (String) params.getOrDefault("fileName", "document");
@@ -495,88 +574,320 @@ public class McpServer {
             log.info("Processing document: {} (type: {})", fileName, documentType);
             
             // Parse document using Tika
-            byte[] documentBytes = java.util.Base64.getDecoder().decode(base64Content);
-            String extractedText = documentParsingService.parseDocument(documentBytes);
+            ParsedDocument document = parseOnDocumentExecutor(
+                () -> documentParsingService.ingestDocumentFromBase64(base64Content));
             
-            // Extract structured adverse event data using AI
-            Map<String, Object> extractedData = extractionService.extractFromClinicalDocument(extractedText);
+            return classifyDocumentText(fileName, document, listener,
+                "Document processed and adverse event classified successfully");
+        } catch (Exception e) {
+            log.error("Error classifying from document", e);
+            return createErrorResponse("Failed to classify from document: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * MCP Tool: Classify adverse event from an uploaded document of any format (multipart, no Base64)
+     */
+    public Map<String, Object> classifyFromDocumentUpload(MultipartFile file, ToolProgressListener listener) {
+        try {
+            String fileName = uploadFileName(file, "document");
+            log.info("Processing uploaded document: {} ({} bytes, {})", fileName, file.getSize(), file.getContentType());
             
-            // Validate and enrich data
-            Map<String, Object> enrichedData = extractionService.validateAndEnrichExtractedData(extractedData);
+            ParsedDocument document = parseOnDocumentExecutor(() -> documentParsingService.ingestDocument(file));
+            return classifyDocumentText(fileName, document, listener,
+                "Document processed and adverse event classified successfully");
+        } catch (Exception e) {
+            log.error("Error classifying from uploaded document", e);
+            return createErrorResponse("Failed to classify from document: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * MCP Tool: Start ingesting an mbox or ZIP archive from the archive directory in the background
+     */
+    public Map<String, Object> bulkIngestArchive(Map<String, Object> params) {
+        try {
+            String archivePath = (String) params.get("archivePath");
+            String format = (String) params.get("format");
+            Object resumeFromOffset = params.get("resumeFromOffset");
+            long offset = resumeFromOffset != null ? Long.parseLong(resumeFromOffset.toString()) : 0;
             
-            // If valid, perform classification
-            Map<String, Object> classification = null;
-            if (Boolean.TRUE.equals(enrichedData.get("isValid"))) {
-                classification = performClassificationOnExtractedData(enrichedData);
-            }
+            IngestionJob job = bulkIngestionService.start(archivePath, format, offset);
             
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
-            result.put("fileName", fileName);
-            result.put("extractedText", extractedText.substring(0, Math.min(500, extractedText.length())) + "...");
-            result.put("extractedData", enrichedData);
-            result.put("classification", classification);
-            result.put("message", "Document processed and adverse event classified successfully");
+            result.put("data", job.toMap());
+            result.put("message", "Bulk ingestion started; poll get_ingestion_status with the job ID");
             
             return result;
+        } catch (RejectedExecutionException e) {
+            return createErrorResponse("Another bulk ingestion job is running, retry once it has finished");
         } catch (Exception e) {
-            log.error("Error classifying from document", e);
-            return createErrorResponse("Failed to classify from document: " + e.getMessage());
+            log.error("Error starting bulk ingestion", e);
+            return createErrorResponse("Failed to start bulk ingestion: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * MCP Tool: Progress of one bulk ingestion job, or of all retained jobs when no job ID is given
+     */
+    public Map<String, Object> getIngestionStatus(Map<String, Object> params) {
+        String jobId = (String) params.get("jobId");
+        
+        Map<String, Object> result = new HashMap<>();
+        if (jobId == null) {
+            List<Map<String, Object>> jobs = bulkIngestionService.getJobs().stream()
+                .map(IngestionJob::toMap)
+                .collect(Collectors.toList());
+            result.put("success", true);
+            result.put("data", jobs);
+            result.put("count", jobs.size());
+            return result;
+        }
+        
+        Optional<IngestionJob> job = bulkIngestionService.getJob(jobId);
+        if (job.isEmpty()) {
+            return createErrorResponse("Ingestion job not found");
+        }
+        result.put("success", true);
+        result.put("data", job.get().toMap());
+        return result;
+    }
+    
+    /**
+     * MCP Tool: Stop a bulk ingestion job after the entries already in flight
+     */
+    public Map<String, Object> cancelIngestion(Map<String, Object> params) {
+        String jobId = (String) params.get("jobId");
+        if (jobId == null) {
+            return createErrorResponse("Job ID is required");
+        }
+        if (!bulkIngestionService.cancel(jobId)) {
+            return createErrorResponse("No running ingestion job " + jobId);
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("message", "Cancellation requested; the job stops after the entries in flight");
+        return result;
+    }
+    
+    /**
+     * Helper method: Extract, validate and classify the text of a parsed document.
+     * A document resubmitted with identical bytes reuses its cached extraction instead of calling the LLM.
+     */
+    private Map<String, Object> classifyDocumentText(String fileName, ParsedDocument document,
+                                                     ToolProgressListener listener, String message) {
+        String extractedText = document.text();
+        listener.stage("parsed", Map.of("fileName", fileName, "characters", extractedText.length()));
+        listener.stage("extracting", Map.of("characters", extractedText.length()));
+        
+        // Extract structured adverse event data using AI
+        Map<String, Object> extractedData = documentCache.getOrComputeExtraction(document,
+            () -> extractionService.extractFromClinicalDocument(extractedText));
+        
+        // Validate and enrich data
+        Map<String, Object> enrichedData = extractionService.validateAndEnrichExtractedData(extractedData);
+        listener.stage("extracted", enrichedData);
+        
+        // If valid, perform classification
+        Map<String, Object> classification = null;
+        if (Boolean.TRUE.equals(enrichedData.get("isValid"))) {
+            classification = performClassificationOnExtractedData(enrichedData, listener);
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("fileName", fileName);
+        result.put("extractedText", extractedText.substring(0, Math.min(500, extractedText.length())) + "...");
+        result.put("extractedData", enrichedData);
+        result.put("classification", classification);
+        result.put("message", message);
+        
+        return result;
+    }
+    
+    /**
+     * Helper method: Extract, validate and classify the content of an email
+     *
+     * @param source the parsed .eml the content came from, or {@code null} for content given directly
+     */
+    private Map<String, Object> classifyEmailContent(String subject, String body, String from,
+                                                     ParsedDocument source, ToolProgressListener listener) {
+        log.info("Processing email from: {}, subject: {}", from, subject);
+        listener.stage("extracting", Map.of("characters", body != null ? body.length() : 0));
+        
+        // Extract structured adverse event data using AI
+        Map<String, Object> extractedData = documentCache.getOrComputeExtraction(source,
+            () -> extractionService.extractFromEmail(subject, body, from));
+        
+        // Validate and enrich data
+        Map<String, Object> enrichedData = extractionService.validateAndEnrichExtractedData(extractedData);
+        listener.stage("extracted", enrichedData);
+        
+        // If valid, perform classification
+        Map<String, Object> classification = null;
+        if (Boolean.TRUE.equals(enrichedData.get("isValid"))) {
+            classification = performClassificationOnExtractedData(enrichedData, listener);
         }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("emailMetadata", Map.of(
+            "from", String.valueOf(from),
+            "subject", String.valueOf(subject)
+        ));
+        result.put("extractedData", enrichedData);
+        result.put("classification", classification);
+        result.put("message", "Email processed and adverse event classified successfully");
+        
+        return result;
+    }
+    
+    private String uploadFileName(MultipartFile file, String defaultName) {
+        String fileName = file.getOriginalFilename();
+        return fileName != null && !fileName.isBlank() ? fileName : defaultName;
     }
     
     /**
      * Helper method: Perform AI classification on extracted data
      */
-    private Map<String, Object> performClassificationOnExtractedData(Map<String, Object> extractedData) {
+    private Map<String, Object> performClassificationOnExtractedData(Map<String, Object> extractedData,
+                                                                     ToolProgressListener listener) {
         try {
             // Create a temporary AdverseEvent object for classification
-            AdverseEvent tempEvent = new AdverseEvent();
+            AdverseEvent tempEvent = extractionService.toAdverseEvent(extractedData);
             tempEvent.setCaseNumber("EXTRACTED-" + System.currentTimeMillis());
-            tempEvent.setDrugName((String) extractedData.get("drugName"));
-            tempEvent.setAdverseEventDescription((String) extractedData.get("adverseEventDescription"));
-            tempEvent.setSymptoms((String) extractedData.get("symptoms"));
-            tempEvent.setMedicalHistory((String) extractedData.get("medicalHistory"));
-            tempEvent.setConcomitantMedications((String) extractedData.get("concomitantMedications"));
-            
-            // Set severity if available
-            String severity = (String) extractedData.get("severity");
-            if (severity != null) {
-                try {
-                    tempEvent.setSeverity(AdverseEvent.SeverityLevel.valueOf(severity));
-                } catch (IllegalArgumentException e) {
-                    log.warn("Invalid severity level: {}", severity);
-                }
-            }
             
             // Perform AI classifications
-            AiAnalysis causalityAnalysis = aiAnalysisService.performCausalityAssessment(tempEvent);
-            AiAnalysis riskAnalysis = aiAnalysisService.performRiskAnalysis(tempEvent);
-            
-            return Map.of(
-                "causalityAssessment", Map.of(
-                    "analysisId", causalityAnalysis.getId(),
-                    "type", causalityAnalysis.getAnalysisType(),
-                    "status", causalityAnalysis.getStatus(),
-                    "insights", causalityAnalysis.getExtractedInsights(),
-                    "recommendations", causalityAnalysis.getRecommendations(),
-                    "fullResponse", causalityAnalysis.getAiResponse()
-                ),
-                "riskAnalysis", Map.of(
-                    "analysisId", riskAnalysis.getId(),
-                    "type", riskAnalysis.getAnalysisType(),
-                    "status", riskAnalysis.getStatus(),
-                    "insights", riskAnalysis.getExtractedInsights(),
-                    "recommendations", riskAnalysis.getRecommendations(),
-                    "fullResponse", riskAnalysis.getAiResponse()
-                )
-            );
+            Map<String, Map<String, Object>> analyses = performCausalityAndRiskAnalyses(tempEvent, listener);
+            if (allAnalysesFailed(analyses)) {
+                return Map.of("error", "Classification failed: " + describeFailures(analyses));
+            }
+            
+            return new HashMap<>(analyses);
         } catch (Exception e) {
             log.error("Error performing classification on extracted data", e);
             return Map.of("error", "Classification failed: " + e.getMessage());
         }
     }
     
+    /**
+     * Helper method: Run causality assessment and risk analysis concurrently on the LLM executor.
+     * If one analysis fails, the other is still returned and the failed one carries an error entry.
+     * Completion tokens are forwarded to the listener as they arrive.
+     */
+    private Map<String, Map<String, Object>> performCausalityAndRiskAnalyses(AdverseEvent event,
+                                                                            ToolProgressListener listener) {
+        // Worker threads have no persistence context: callers pass events loaded with their patient
+        Timer.Sample sample = Timer.start(meterRegistry);
+        long deadline = System.nanoTime() + classificationTimeout.toNanos();
+        CompletableFuture<AiAnalysis> causalityFuture;
+        CompletableFuture<AiAnalysis> riskFuture;
+        if (aiAnalysisService.isCombinedAnalysisMode()) {
+            // One completion answers both sections
+            CompletableFuture<AiAnalysisService.CombinedAnalysis> combinedFuture = CompletableFuture.supplyAsync(
+                () -> aiAnalysisService.performCombinedAnalysis(event, tokenListener(listener, "combined")),
+                llmExecutor);
+            causalityFuture = combinedFuture.thenApply(AiAnalysisService.CombinedAnalysis::causalityAssessment);
+            riskFuture = combinedFuture.thenApply(AiAnalysisService.CombinedAnalysis::riskAnalysis);
+        } else {
+            causalityFuture = CompletableFuture.supplyAsync(
+                () -> aiAnalysisService.performCausalityAssessment(event,
+                    tokenListener(listener, "causalityAssessment")), llmExecutor);
+            riskFuture = CompletableFuture.supplyAsync(
+                () -> aiAnalysisService.performRiskAnalysis(event, tokenListener(listener, "riskAnalysis")),
+                llmExecutor);
+        }
+        
+        Map<String, Map<String, Object>> analyses = new HashMap<>();
+        analyses.put("causalityAssessment", awaitAnalysis(causalityFuture, deadline, event));
+        analyses.put("riskAnalysis", awaitAnalysis(riskFuture, deadline, event));
+        
+        sample.stop(meterRegistry.timer("llm.analysis.duration",
+            "mode", aiAnalysisService.getAnalysisMode(),
+            "outcome", anyAnalysisFailed(analyses) ? "partial" : "success"));
+        listener.stage("classified", new HashMap<>(analyses));
+        return analyses;
+    }
+    
+    /**
+     * Blocking calls pass no token listener, so the analysis service skips the streaming request entirely
+     */
+    private Consumer<String> tokenListener(ToolProgressListener listener, String analysis) {
+        return listener == ToolProgressListener.NONE ? null : token -> listener.token(analysis, token);
+    }
+    
+    private Map<String, Object> awaitAnalysis(CompletableFuture<AiAnalysis> future, long deadline, AdverseEvent event) {
+        try {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            return describeAnalysis(future.get(remaining, TimeUnit.NANOSECONDS));
+        } catch (TimeoutException e) {
+            // Only completes the future: a supplyAsync task is not interrupted, so the worker keeps its gate
+            // permit until the provider call returns or hits the client timeout
+            future.cancel(true);
+            log.warn("AI analysis timed out after {} for case: {}", classificationTimeout, event.getCaseNumber());
+            return Map.of("status", AiAnalysis.AnalysisStatus.FAILED, "error", "Analysis timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Map.of("status", AiAnalysis.AnalysisStatus.FAILED, "error", "Analysis interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.warn("AI analysis failed for case: {}", event.getCaseNumber(), cause);
+            return Map.of("status", AiAnalysis.AnalysisStatus.FAILED, "error", String.valueOf(cause.getMessage()));
+        }
+    }
+    
+    /**
+     * Run CPU-bound parsing on the document parsing pool so a burst of uploads cannot occupy the
+     * request or LLM threads. Exceptions thrown by the parser are rethrown unchanged.
+     */
+    private <T> T parseOnDocumentExecutor(Callable<T> parse) throws Exception {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return parse.call();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, documentParsingExecutor).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+    
+    private Map<String, Object> describeAnalysis(AiAnalysis analysis) {
+        Map<String, Object> description = new HashMap<>();
+        description.put("analysisId", analysis.getId());
+        description.put("type", analysis.getAnalysisType());
+        description.put("status", analysis.getStatus());
+        description.put("insights", analysis.getExtractedInsights());
+        description.put("recommendations", analysis.getRecommendations());
+        description.put("fullResponse", analysis.getAiResponse());
+        if (analysis.getStatus() == AiAnalysis.AnalysisStatus.FAILED) {
+            description.put("error", analysis.getAiResponse());
+        }
+        return description;
+    }
+    
+    private boolean allAnalysesFailed(Map<String, Map<String, Object>> analyses) {
+        return analyses.values().stream().allMatch(analysis -> analysis.containsKey("error"));
+    }
+    
+    private boolean anyAnalysisFailed(Map<String, Map<String, Object>> analyses) {
+        return analyses.values().stream().anyMatch(analysis -> analysis.containsKey("error"));
+    }
+    
+    private String describeFailures(Map<String, Map<String, Object>> analyses) {
+        return analyses.entrySet().stream()
+            .filter(entry -> entry.getValue().containsKey("error"))
+            .map(entry -> entry.getKey() + " - " + entry.getValue().get("error"))
+            .collect(Collectors.joining("; "));
+    }
+    
     private Map<String, Object> createErrorResponse(String message) {
         Map<String, Object> error = new HashMap<>();
         error.put("success", false);
@@ -0,0 +1,80 @@
+package com.pharmacovigilance.mcpagent.mcp;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Forwards tool progress to an SSE stream as {@code stage}, {@code token} and {@code result} events.
+ * Records the time from request start to the first event and to the first token, tagged by tool.
+ * Once the client disconnects further events are dropped; the tool itself runs to completion so the
+ * analyses are still persisted.
+ */
+@Slf4j
+class SseToolProgressListener implements ToolProgressListener {
+    
+    private final SseEmitter emitter;
+    private final MeterRegistry meterRegistry;
+    private final String toolName;
+    private final long startNanos = System.nanoTime();
+    private final AtomicBoolean firstEventSent = new AtomicBoolean();
+    private final AtomicBoolean firstTokenSent = new AtomicBoolean();
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+    
+    SseToolProgressListener(SseEmitter emitter, MeterRegistry meterRegistry, String toolName) {
+        this.emitter = emitter;
+        this.meterRegistry = meterRegistry;
+        this.toolName = toolName;
+    }
+    
+    @Override
+    public void stage(String stage, Map<String, Object> data) {
+        send("stage", Map.of("stage", stage, "data", data));
+    }
+    
+    @Override
+    public void token(String analysis, String token) {
+        if (firstTokenSent.compareAndSet(false, true)) {
+            recordSinceStart("mcp.stream.time_to_first_token");
+        }
+        send("token", Map.of("analysis", analysis, "token", token));
+    }
+    
+    void result(Map<String, Object> result) {
+        send("result", result);
+        if (!disconnected.get()) {
+            emitter.complete();
+        }
+    }
+    
+    void fail(Throwable error) {
+        if (!disconnected.get()) {
+            emitter.completeWithError(error);
+        }
+    }
+    
+    private void send(String eventName, Object data) {
+        if (disconnected.get()) {
+            return;
+        }
+        if (firstEventSent.compareAndSet(false, true)) {
+            recordSinceStart("mcp.stream.time_to_first_event");
+        }
+        try {
+            emitter.send(SseEmitter.event().name(eventName).data(data));
+        } catch (IOException | IllegalStateException e) {
+            disconnected.set(true);
+            log.debug("Client disconnected from {} stream, dropping remaining events", toolName);
+        }
+    }
+    
+    private void recordSinceStart(String metricName) {
+        meterRegistry.timer(metricName, "tool", toolName)
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
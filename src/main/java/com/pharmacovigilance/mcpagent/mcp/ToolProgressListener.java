@@ -0,0 +1,31 @@
+package com.pharmacovigilance.mcpagent.mcp;
+
+import java.util.Map;
+
+/**
+ * Receives progress from a classify tool while it runs: stage events (loaded or parsed, extracting before
+ * the blocking extraction call, extracted, classified) and completion tokens from the analyses.
+ * Implementations must be thread-safe, because causality and risk analyses stream concurrently.
+ */
+public interface ToolProgressListener {
+    
+    /**
+     * Listener for the blocking tool calls, which report nothing until the result is returned
+     */
+    ToolProgressListener NONE = new ToolProgressListener() {
+        @Override
+        public void stage(String stage, Map<String, Object> data) {
+        }
+        
+        @Override
+        public void token(String analysis, String token) {
+        }
+    };
+    
+    void stage(String stage, Map<String, Object> data);
+    
+    /**
+     * @param analysis result key the token belongs to, e.g. {@code causalityAssessment}
+     */
+    void token(String analysis, String token);
+}
@@ -1,9 +1,16 @@
 package com.pharmacovigilance.mcpagent.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.pharmacovigilance.mcpagent.search.NarrativeIndexListener;
+import com.pharmacovigilance.mcpagent.service.AdverseEventStatisticsListener;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -11,7 +18,21 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
-@Table(name = "adverse_events")
+@Table(name = "adverse_events", indexes = {
+    // Covers AdverseEventRepository.countByDimensions, so statistics never touch the wide event rows
+    @Index(name = "idx_adverse_events_statistics", columnList = "severity, status, causality, drug_name"),
+    // Keyset pagination order, AdverseEventRepository.findPageAfter; also serves date ranges
+    @Index(name = "idx_adverse_events_event_date_id", columnList = "event_date, id"),
+    // Filters of AdverseEventSpecifications.matching, each followed by the paging order where it helps
+    @Index(name = "idx_adverse_events_status_severity_event_date", columnList = "status, severity, event_date"),
+    @Index(name = "idx_adverse_events_drug_event_date", columnList = "drug_id, event_date"),
+    @Index(name = "idx_adverse_events_causality_event_date", columnList = "causality, event_date"),
+    @Index(name = "idx_adverse_events_patient", columnList = "patient_id")
+}, uniqueConstraints = {
+    // Case numbers identify reports; bulk ingestion relies on it to skip documents it has already stored
+    @UniqueConstraint(name = "uk_adverse_events_case_number", columnNames = "case_number")
+})
+@EntityListeners({AdverseEventStatisticsListener.class, NarrativeIndexListener.class})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -71,15 +92,50 @@ public class AdverseEvent {
     
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "patient_id")
+    @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
     private Patient patient;
     
+    /**
+     * Drug the reported name was identified as; serialized as {@link #getDrugId()} only, so listing events
+     * never loads their drugs
+     */
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "drug_id")
+    @JsonIgnore
     private Drug drug;
     
     @OneToMany(mappedBy = "adverseEvent", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+    @JsonIgnore
     private List<FollowUpAction> followUpActions;
     
+    /**
+     * Statistics dimensions as last loaded or written, so the counters can subtract them on a change
+     */
+    @Transient
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private CountedDimensions countedDimensions;
+    
+    /**
+     * ID of the linked drug, read from the lazy reference without loading the drug
+     */
+    @JsonProperty(value = "drugId", access = JsonProperty.Access.READ_ONLY)
+    public Long getDrugId() {
+        return drug != null ? drug.getId() : null;
+    }
+    
+    public CountedDimensions currentDimensions() {
+        return new CountedDimensions(severity, status, causality, drugName);
+    }
+    
+    /**
+     * The fields adverse event statistics are grouped by
+     */
+    public record CountedDimensions(SeverityLevel severity, EventStatus status, CausalityAssessment causality,
+                                    String drugName) {
+    }
+    
     public enum SeverityLevel {
         MILD, MODERATE, SEVERE, LIFE_THREATENING, FATAL
     }
@@ -9,7 +9,10 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "ai_analyses")
+@Table(name = "ai_analyses", indexes = {
+    // Lookups of the persistent response cache tier, LlmResponseCache
+    @Index(name = "idx_ai_analyses_prompt_hash_model", columnList = "prompt_hash, model_used")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -23,7 +26,7 @@ public class AiAnalysis {
     @JoinColumn(name = "adverse_event_id", nullable = false)
     private AdverseEvent adverseEvent;
     
-    @Column(length = 2000)
+    @Column(length = 4000)
     private String analysisPrompt;
     
     @Column(length = 5000)
@@ -32,6 +35,12 @@ public class AiAnalysis {
     @Column
     private String modelUsed;
     
+    @Column(length = 64)
+    private String promptHash;
+    
+    @Column
+    private Double temperature;
+    
     @Column
     private Double confidenceScore;
     
@@ -1,9 +1,12 @@
 package com.pharmacovigilance.mcpagent.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -63,7 +66,11 @@ public class Drug {
     @UpdateTimestamp
     private LocalDateTime updatedAt;
     
+    // Back-reference of AdverseEvent.drug; left out of JSON, toString and equality to avoid cycles
     @OneToMany(mappedBy = "drug", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<AdverseEvent> adverseEvents;
     
     public enum DrugStatus {
@@ -1,9 +1,12 @@
 package com.pharmacovigilance.mcpagent.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -61,7 +64,11 @@ public class Patient {
     @UpdateTimestamp
     private LocalDateTime updatedAt;
     
+    // Back-reference of AdverseEvent.patient; left out of JSON, toString and equality to avoid cycles
     @OneToMany(mappedBy = "patient", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<AdverseEvent> adverseEvents;
     
     public enum Gender {
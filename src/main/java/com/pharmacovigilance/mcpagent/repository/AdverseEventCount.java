@@ -0,0 +1,14 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+
+/**
+ * Number of adverse events sharing a severity, status, causality and drug name; one row of
+ * {@link AdverseEventRepository#countByDimensions()}
+ */
+public record AdverseEventCount(AdverseEvent.SeverityLevel severity,
+                                AdverseEvent.EventStatus status,
+                                AdverseEvent.CausalityAssessment causality,
+                                String drugName,
+                                Long count) {
+}
@@ -0,0 +1,53 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in the (eventDate, id) ordering of adverse events, handed to clients as an opaque token.
+ * Events without an event date sort after all dated ones.
+ *
+ * @param eventDate event date of the last event returned, or {@code null} if it had none
+ * @param id        ID of the last event returned
+ */
+public record AdverseEventCursor(LocalDateTime eventDate, Long id) {
+    
+    private static final String VERSION = "v1";
+    private static final String NO_DATE = "-";
+    
+    public static AdverseEventCursor after(AdverseEvent event) {
+        return new AdverseEventCursor(event.getEventDate(), event.getId());
+    }
+    
+    public String encode() {
+        String position = VERSION + "|" + (eventDate != null ? eventDate.toString() : NO_DATE) + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Decode a token from {@link #encode()}
+     *
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static AdverseEventCursor decode(String token) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8).split("\\|", -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+        if (parts.length != 3 || !VERSION.equals(parts[0])) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        try {
+            LocalDateTime eventDate = NO_DATE.equals(parts[1]) ? null : LocalDateTime.parse(parts[1]);
+            return new AdverseEventCursor(eventDate, Long.valueOf(parts[2]));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
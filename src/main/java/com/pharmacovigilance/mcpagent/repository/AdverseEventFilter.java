@@ -0,0 +1,81 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+
+/**
+ * Filters for adverse event queries; {@code null} fields do not restrict the result
+ *
+ * @param drugIds        drugs the event is linked to; when set, {@code drugName} is not matched
+ * @param drugName       matched case-insensitively anywhere in the reported drug name, for names the drug
+ *                       dictionary does not know
+ * @param patientId      business ID of the patient, not the primary key
+ * @param eventDateFrom  earliest event date, inclusive
+ * @param eventDateUntil latest event date, exclusive
+ */
+public record AdverseEventFilter(AdverseEvent.SeverityLevel severity,
+                                 AdverseEvent.EventStatus status,
+                                 AdverseEvent.CausalityAssessment causality,
+                                 Set<Long> drugIds,
+                                 String drugName,
+                                 String patientId,
+                                 LocalDateTime eventDateFrom,
+                                 LocalDateTime eventDateUntil) {
+    
+    /**
+     * Filter from request parameters; blank values are ignored, and unknown enum names and malformed dates
+     * are rejected with an {@link IllegalArgumentException}. Dates are ISO dates or date-times; a plain
+     * {@code eventDateTo} date includes that whole day, a date-time is exclusive.
+     */
+    public static AdverseEventFilter of(String severity, String status, String causality, String drugName,
+                                        String patientId, String eventDateFrom, String eventDateTo) {
+        return new AdverseEventFilter(
+            parseEnum(AdverseEvent.SeverityLevel.class, "severity", severity),
+            parseEnum(AdverseEvent.EventStatus.class, "status", status),
+            parseEnum(AdverseEvent.CausalityAssessment.class, "causality", causality),
+            null,
+            isBlank(drugName) ? null : drugName.trim(),
+            isBlank(patientId) ? null : patientId.trim(),
+            isBlank(eventDateFrom) ? null : parseDate(eventDateFrom.trim(), false),
+            isBlank(eventDateTo) ? null : parseDate(eventDateTo.trim(), true));
+    }
+    
+    /**
+     * The same filter restricted to the given drugs instead of matching the drug name
+     */
+    public AdverseEventFilter withDrugIds(Set<Long> ids) {
+        return new AdverseEventFilter(severity, status, causality, Set.copyOf(ids), null, patientId, eventDateFrom,
+            eventDateUntil);
+    }
+    
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String parameter, String value) {
+        if (isBlank(value)) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + parameter + ": " + value.trim(), e);
+        }
+    }
+    
+    private static LocalDateTime parseDate(String value, boolean upperBound) {
+        try {
+            if (value.length() <= 10) {
+                LocalDate date = LocalDate.parse(value);
+                return upperBound ? date.plusDays(1).atStartOfDay() : date.atStartOfDay();
+            }
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + value, e);
+        }
+    }
+    
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
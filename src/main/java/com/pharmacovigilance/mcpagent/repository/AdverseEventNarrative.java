@@ -0,0 +1,18 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+
+/**
+ * Free-text fields of an adverse event, as indexed for full-text search
+ */
+public record AdverseEventNarrative(Long id,
+                                    String adverseEventDescription,
+                                    String symptoms,
+                                    String reporterNotes,
+                                    String medicalHistory) {
+    
+    public static AdverseEventNarrative of(AdverseEvent event) {
+        return new AdverseEventNarrative(event.getId(), event.getAdverseEventDescription(), event.getSymptoms(),
+            event.getReporterNotes(), event.getMedicalHistory());
+    }
+}
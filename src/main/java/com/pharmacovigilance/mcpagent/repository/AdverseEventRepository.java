@@ -1,42 +1,77 @@
 package com.pharmacovigilance.mcpagent.repository;
 
 import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.model.Drug;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface AdverseEventRepository extends JpaRepository<AdverseEvent, Long> {
+public interface AdverseEventRepository extends JpaRepository<AdverseEvent, Long>,
+        JpaSpecificationExecutor<AdverseEvent>, AdverseEventRepositoryCustom {
     
-    List<AdverseEvent> findBySeverity(AdverseEvent.SeverityLevel severity);
+    boolean existsByCaseNumber(String caseNumber);
     
-    List<AdverseEvent> findByStatus(AdverseEvent.EventStatus status);
+    // Events leave the service layer with their patient loaded, as responses are serialized after the session
+    // closes (open-in-view is off)
     
-    List<AdverseEvent> findBySeverityAndStatus(AdverseEvent.SeverityLevel severity, AdverseEvent.EventStatus status);
+    @Override
+    @EntityGraph(attributePaths = "patient")
+    Optional<AdverseEvent> findById(Long id);
     
-    List<AdverseEvent> findByDrugNameContainingIgnoreCase(String drugName);
+    @Override
+    @EntityGraph(attributePaths = "patient")
+    Page<AdverseEvent> findAll(Pageable pageable);
     
-    List<AdverseEvent> findByPatientPatientId(String patientId);
-    
-    List<AdverseEvent> findBySeverityAndStatusAndDrugName(
-        AdverseEvent.SeverityLevel severity, 
-        AdverseEvent.EventStatus status, 
-        String drugName
-    );
-    
-    @Query("SELECT ae FROM AdverseEvent ae WHERE ae.eventDate >= :startDate AND ae.eventDate <= :endDate")
-    List<AdverseEvent> findByEventDateRange(@Param("startDate") java.time.LocalDateTime startDate, 
-                                           @Param("endDate") java.time.LocalDateTime endDate);
-    
-    @Query("SELECT ae FROM AdverseEvent ae WHERE ae.causality = :causality")
-    List<AdverseEvent> findByCausality(@Param("causality") AdverseEvent.CausalityAssessment causality);
+    @Override
+    @EntityGraph(attributePaths = "patient")
+    List<AdverseEvent> findAll(Specification<AdverseEvent> specification);
     
     @Query("SELECT COUNT(ae) FROM AdverseEvent ae WHERE ae.severity = :severity")
     Long countBySeverity(@Param("severity") AdverseEvent.SeverityLevel severity);
     
     @Query("SELECT COUNT(ae) FROM AdverseEvent ae WHERE ae.status = :status")
     Long countByStatus(@Param("status") AdverseEvent.EventStatus status);
+    
+    /**
+     * Event counts for every combination of severity, status, causality and drug name, in one grouped
+     * query; answered from the statistics index without reading event rows
+     */
+    @Query("SELECT new com.pharmacovigilance.mcpagent.repository.AdverseEventCount("
+        + "ae.severity, ae.status, ae.causality, ae.drugName, COUNT(ae)) "
+        + "FROM AdverseEvent ae GROUP BY ae.severity, ae.status, ae.causality, ae.drugName")
+    List<AdverseEventCount> countByDimensions();
+    
+    /**
+     * Narratives of the events after {@code afterId} in ID order, a page at a time, without loading the
+     * entities
+     */
+    @Query("SELECT new com.pharmacovigilance.mcpagent.repository.AdverseEventNarrative("
+        + "ae.id, ae.adverseEventDescription, ae.symptoms, ae.reporterNotes, ae.medicalHistory) "
+        + "FROM AdverseEvent ae WHERE ae.id > :afterId ORDER BY ae.id")
+    List<AdverseEventNarrative> findNarrativesAfter(@Param("afterId") long afterId, Pageable pageable);
+    
+    /**
+     * Distinct reported drug names of the events not linked to a drug
+     */
+    @Query("SELECT DISTINCT ae.drugName FROM AdverseEvent ae WHERE ae.drug IS NULL AND ae.drugName IS NOT NULL")
+    List<String> findUnlinkedDrugNames();
+    
+    /**
+     * Link the unlinked events reported under any of the names to the drug, in one statement
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE AdverseEvent ae SET ae.drug = :drug WHERE ae.drug IS NULL AND ae.drugName IN :drugNames")
+    int linkDrug(@Param("drug") Drug drug, @Param("drugNames") Collection<String> drugNames);
 }
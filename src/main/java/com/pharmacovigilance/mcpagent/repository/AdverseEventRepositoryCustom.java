@@ -0,0 +1,16 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+
+import java.util.List;
+
+public interface AdverseEventRepositoryCustom {
+    
+    /**
+     * Up to {@code limit} events matching the filter, newest event date first and then by descending ID,
+     * starting after {@code after} (from the beginning when {@code null}); undated events follow, by
+     * descending ID. Dated and undated events are read by separate queries, each seeking on the index of the
+     * most selective filter or on the (event_date, id) index, so a deep page costs the same as the first.
+     */
+    List<AdverseEvent> findPageAfter(AdverseEventFilter filter, AdverseEventCursor after, int limit);
+}
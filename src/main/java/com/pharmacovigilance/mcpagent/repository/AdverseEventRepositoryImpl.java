@@ -0,0 +1,54 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keyset queries for {@link AdverseEventRepository}, composed by {@link AdverseEventSpecifications}
+ */
+class AdverseEventRepositoryImpl implements AdverseEventRepositoryCustom {
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    @Override
+    public List<AdverseEvent> findPageAfter(AdverseEventFilter filter, AdverseEventCursor after, int limit) {
+        Specification<AdverseEvent> matching = AdverseEventSpecifications.matching(filter);
+        List<AdverseEvent> page = new ArrayList<>();
+        
+        // Dated events, then undated ones, each phase a single range rather than one OR over both
+        if (after == null || after.eventDate() != null) {
+            page.addAll(find(matching.and(AdverseEventSpecifications.datedAfter(after)), filter, true, limit));
+        }
+        boolean dateBounded = filter.eventDateFrom() != null || filter.eventDateUntil() != null;
+        if (page.size() < limit && !dateBounded) {
+            page.addAll(find(matching.and(AdverseEventSpecifications.undatedAfter(after)), filter, false,
+                limit - page.size()));
+        }
+        return page;
+    }
+    
+    private List<AdverseEvent> find(Specification<AdverseEvent> specification, AdverseEventFilter filter,
+                                    boolean dated, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<AdverseEvent> query = cb.createQuery(AdverseEvent.class);
+        Root<AdverseEvent> root = query.from(AdverseEvent.class);
+        // Responses serialize the patient; filtering by patient makes it an inner join the planner can start from
+        root.fetch("patient", filter.patientId() != null ? JoinType.INNER : JoinType.LEFT);
+        query.select(root)
+            .where(specification.toPredicate(root, query, cb))
+            .orderBy(dated
+                ? List.of(cb.desc(root.get("eventDate")), cb.desc(root.get("id")))
+                : List.of(cb.desc(root.get("id"))));
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+}
@@ -0,0 +1,108 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.model.Patient;
+import jakarta.persistence.criteria.Fetch;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Adverse event queries composed from whichever filters are set. Each filter maps onto an index of
+ * {@code adverse_events}: status, with or without severity, on (status, severity, event_date), severity
+ * alone on the statistics index, drugs on (drug_id, event_date), the patient on (patient_id), causality on
+ * (causality, event_date) and a date range alone on (event_date, id). Only a drug name the drug dictionary
+ * does not know is matched as text, which scans.
+ */
+public final class AdverseEventSpecifications {
+    
+    private AdverseEventSpecifications() {
+    }
+    
+    public static Specification<AdverseEvent> matching(AdverseEventFilter filter) {
+        return (root, query, cb) -> {
+            Path<LocalDateTime> eventDate = root.get("eventDate");
+            List<Predicate> predicates = new ArrayList<>();
+            if (filter.status() != null) {
+                predicates.add(cb.equal(root.get("status"), filter.status()));
+            }
+            if (filter.severity() != null) {
+                predicates.add(cb.equal(root.get("severity"), filter.severity()));
+            }
+            if (filter.causality() != null) {
+                predicates.add(cb.equal(root.get("causality"), filter.causality()));
+            }
+            if (filter.drugIds() != null) {
+                // Compares the foreign key column; no join to drugs
+                predicates.add(filter.drugIds().isEmpty()
+                    ? cb.disjunction()
+                    : root.get("drug").get("id").in(filter.drugIds()));
+            } else if (filter.drugName() != null) {
+                predicates.add(cb.like(cb.lower(root.<String>get("drugName")),
+                    "%" + escapeLike(filter.drugName().toLowerCase(Locale.ROOT)) + "%", '\\'));
+            }
+            if (filter.patientId() != null) {
+                predicates.add(cb.equal(patient(root).get("patientId"), filter.patientId()));
+            }
+            if (filter.eventDateFrom() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(eventDate, filter.eventDateFrom()));
+            }
+            if (filter.eventDateUntil() != null) {
+                predicates.add(cb.lessThan(eventDate, filter.eventDateUntil()));
+            }
+            return cb.and(predicates.toArray(Predicate[]::new));
+        };
+    }
+    
+    /**
+     * Dated events after the cursor in the (eventDate DESC, id DESC) order; all of them without a cursor.
+     * The keyset is a single range on event_date refined by the ID, so an index on the date can seek to it.
+     */
+    public static Specification<AdverseEvent> datedAfter(AdverseEventCursor cursor) {
+        return (root, query, cb) -> {
+            Path<LocalDateTime> eventDate = root.get("eventDate");
+            if (cursor == null) {
+                return cb.isNotNull(eventDate);
+            }
+            return cb.and(
+                cb.lessThanOrEqualTo(eventDate, cursor.eventDate()),
+                cb.or(cb.lessThan(eventDate, cursor.eventDate()), cb.lessThan(root.get("id"), cursor.id())));
+        };
+    }
+    
+    /**
+     * Undated events after the cursor by descending ID; all of them unless the cursor is itself undated
+     */
+    public static Specification<AdverseEvent> undatedAfter(AdverseEventCursor cursor) {
+        return (root, query, cb) -> {
+            Predicate undated = cb.isNull(root.get("eventDate"));
+            return cursor != null && cursor.eventDate() == null
+                ? cb.and(undated, cb.lessThan(root.get("id"), cursor.id()))
+                : undated;
+        };
+    }
+    
+    /**
+     * The patient join, reusing a fetch join the query already made rather than joining patients twice
+     */
+    @SuppressWarnings("unchecked")
+    private static Join<AdverseEvent, Patient> patient(Root<AdverseEvent> root) {
+        for (Fetch<AdverseEvent, ?> fetch : root.getFetches()) {
+            if (fetch instanceof Join<?, ?> join && "patient".equals(fetch.getAttribute().getName())) {
+                return (Join<AdverseEvent, Patient>) join;
+            }
+        }
+        return root.join("patient");
+    }
+    
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -5,6 +5,7 @@ import com.pharmacovigilance.mcpagent.model.AiAnalysis;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,6 +19,14 @@ public interface AiAnalysisRepository extends JpaRepository<AiAnalysis, Long> {
     List<AiAnalysis> findByStatus(AiAnalysis.AnalysisStatus status);
     
     List<AiAnalysis> findByModelUsed(String modelUsed);
+    
+    Optional<AiAnalysis> findFirstByPromptHashAndModelUsedAndTemperatureAndStatusAndCreatedAtAfterOrderByCreatedAtDesc(
+        String promptHash,
+        String modelUsed,
+        Double temperature,
+        AiAnalysis.AnalysisStatus status,
+        LocalDateTime createdAfter
+    );
 }
 
 
@@ -0,0 +1,39 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import com.pharmacovigilance.mcpagent.repository.AdverseEventNarrative;
+
+import java.util.function.Function;
+
+/**
+ * Indexed narrative fields of an adverse event. A term counts {@code weight} times per occurrence, so a
+ * match in the event description outranks the same match in the medical history.
+ */
+enum NarrativeField {
+    
+    ADVERSE_EVENT_DESCRIPTION("adverseEventDescription", 3, AdverseEventNarrative::adverseEventDescription),
+    SYMPTOMS("symptoms", 2, AdverseEventNarrative::symptoms),
+    REPORTER_NOTES("reporterNotes", 1, AdverseEventNarrative::reporterNotes),
+    MEDICAL_HISTORY("medicalHistory", 1, AdverseEventNarrative::medicalHistory);
+    
+    private final String fieldName;
+    private final int weight;
+    private final Function<AdverseEventNarrative, String> accessor;
+    
+    NarrativeField(String fieldName, int weight, Function<AdverseEventNarrative, String> accessor) {
+        this.fieldName = fieldName;
+        this.weight = weight;
+        this.accessor = accessor;
+    }
+    
+    String fieldName() {
+        return fieldName;
+    }
+    
+    int weight() {
+        return weight;
+    }
+    
+    String textOf(AdverseEventNarrative narrative) {
+        return accessor.apply(narrative);
+    }
+}
@@ -0,0 +1,358 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import com.pharmacovigilance.mcpagent.repository.AdverseEventNarrative;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Inverted index over adverse event narratives. Each indexed event is a document, numbered in the order it
+ * was indexed; every term maps to a {@link PostingList} of documents and weighted frequencies. Re-indexing
+ * or removing an event only marks its old document deleted, and {@link #compact()} drops deleted documents
+ * from the postings once they make up a quarter of the index. Each document keeps the SHA-256 of the text
+ * it was built from, so an unchanged narrative is not analyzed again. Results are ranked with BM25.
+ * <p>
+ * Not thread-safe; {@link NarrativeSearchService} guards it with a read-write lock.
+ */
+final class NarrativeIndex {
+    
+    private static final int MAGIC = 0x50564e49;
+    private static final int VERSION = 2;
+    private static final int DIGEST_LENGTH = 32;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MIN_DELETED_FOR_COMPACTION = 1024;
+    
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final Map<Long, Integer> docsByEvent = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private long[] eventIds = new long[64];
+    private int[] lengths = new int[64];
+    private byte[][] digests = new byte[64][];
+    private int docCount;
+    private long liveLength;
+    
+    /**
+     * Index an event's narrative, replacing what was indexed for it before
+     *
+     * @return false if the narrative is unchanged since it was last indexed
+     */
+    boolean put(AdverseEventNarrative narrative) {
+        byte[] digest = digest(narrative);
+        Integer existing = docsByEvent.get(narrative.id());
+        if (existing != null && Arrays.equals(digests[existing], digest)) {
+            return false;
+        }
+        
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (NarrativeField field : NarrativeField.values()) {
+            int weight = field.weight();
+            TextAnalyzer.analyze(field.textOf(narrative),
+                (term, start, end) -> frequencies.merge(term, weight, Integer::sum));
+        }
+        if (existing != null) {
+            delete(existing);
+        }
+        if (frequencies.isEmpty()) {
+            return true;
+        }
+        
+        int doc = docCount++;
+        if (doc == eventIds.length) {
+            int capacity = doc + (doc >> 1);
+            eventIds = Arrays.copyOf(eventIds, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            digests = Arrays.copyOf(digests, capacity);
+        }
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new PostingList(2)).add(doc, entry.getValue());
+            length += entry.getValue();
+        }
+        eventIds[doc] = narrative.id();
+        lengths[doc] = length;
+        digests[doc] = digest;
+        docsByEvent.put(narrative.id(), doc);
+        liveLength += length;
+        return true;
+    }
+    
+    boolean remove(long eventId) {
+        Integer doc = docsByEvent.get(eventId);
+        if (doc == null) {
+            return false;
+        }
+        delete(doc);
+        return true;
+    }
+    
+    /**
+     * Remove every event not in the given set
+     *
+     * @return the number of events removed
+     */
+    int retainAll(Set<Long> eventIds) {
+        List<Integer> stale = new ArrayList<>();
+        docsByEvent.forEach((eventId, doc) -> {
+            if (!eventIds.contains(eventId)) {
+                stale.add(doc);
+            }
+        });
+        stale.forEach(this::delete);
+        return stale.size();
+    }
+    
+    /**
+     * The highest-scoring events containing any of the terms, best first
+     */
+    List<ScoredEvent> search(List<String> terms, int limit) {
+        int live = docsByEvent.size();
+        if (live == 0 || limit <= 0) {
+            return List.of();
+        }
+        double averageLength = (double) liveLength / live;
+        float[] scores = new float[docCount];
+        BitSet matched = new BitSet(docCount);
+        for (String term : new LinkedHashSet<>(terms)) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            int documentFrequency = 0;
+            for (int i = 0; i < list.size(); i++) {
+                if (!deleted.get(list.doc(i))) {
+                    documentFrequency++;
+                }
+            }
+            if (documentFrequency == 0) {
+                continue;
+            }
+            double idf = Math.log(1 + (live - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            for (int i = 0; i < list.size(); i++) {
+                int doc = list.doc(i);
+                if (deleted.get(doc)) {
+                    continue;
+                }
+                int frequency = list.frequency(i);
+                double norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                scores[doc] += (float) (idf * frequency * (K1 + 1) / (frequency + norm));
+                matched.set(doc);
+            }
+        }
+        
+        // Lowest of the current top scores at the head
+        PriorityQueue<ScoredEvent> top = new PriorityQueue<>(Comparator.comparingDouble(ScoredEvent::score));
+        for (int doc = matched.nextSetBit(0); doc >= 0; doc = matched.nextSetBit(doc + 1)) {
+            top.add(new ScoredEvent(eventIds[doc], scores[doc]));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<ScoredEvent> results = new ArrayList<>(top);
+        results.sort(Comparator.comparingDouble(ScoredEvent::score).reversed());
+        return results;
+    }
+    
+    boolean needsCompaction() {
+        int deletedDocs = deleted.cardinality();
+        return deletedDocs >= MIN_DELETED_FOR_COMPACTION && deletedDocs * 4L >= docCount;
+    }
+    
+    /**
+     * Drop deleted documents and renumber the rest
+     */
+    void compact() {
+        int[] remap = remap();
+        int live = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (remap[doc] >= 0) {
+                eventIds[live] = eventIds[doc];
+                lengths[live] = lengths[doc];
+                digests[live] = digests[doc];
+                live++;
+            }
+        }
+        postings.values().removeIf(list -> list.compact(remap) == 0);
+        docsByEvent.replaceAll((eventId, doc) -> remap[doc]);
+        Arrays.fill(digests, live, docCount, null);
+        deleted.clear();
+        docCount = live;
+    }
+    
+    int documents() {
+        return docsByEvent.size();
+    }
+    
+    int terms() {
+        return postings.size();
+    }
+    
+    int deletedDocuments() {
+        return deleted.cardinality();
+    }
+    
+    /**
+     * Write the live documents and their postings; document numbers are written as deltas in variable-length
+     * ints, so the file is a fraction of the in-memory size
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        int[] remap = remap();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(docsByEvent.size());
+        for (int doc = 0; doc < docCount; doc++) {
+            if (remap[doc] >= 0) {
+                out.writeLong(eventIds[doc]);
+                out.writeInt(lengths[doc]);
+                out.write(digests[doc]);
+            }
+        }
+        
+        Map<String, Integer> liveCounts = new HashMap<>();
+        postings.forEach((term, list) -> {
+            int count = 0;
+            for (int i = 0; i < list.size(); i++) {
+                if (remap[list.doc(i)] >= 0) {
+                    count++;
+                }
+            }
+            if (count > 0) {
+                liveCounts.put(term, count);
+            }
+        });
+        out.writeInt(liveCounts.size());
+        for (Map.Entry<String, Integer> entry : liveCounts.entrySet()) {
+            PostingList list = postings.get(entry.getKey());
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+            int previous = 0;
+            for (int i = 0; i < list.size(); i++) {
+                int doc = remap[list.doc(i)];
+                if (doc >= 0) {
+                    writeVarInt(out, doc - previous);
+                    writeVarInt(out, list.frequency(i));
+                    previous = doc;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Read an index written by {@link #writeTo}
+     *
+     * @throws IOException if the input is not an index of this version
+     */
+    static NarrativeIndex readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a narrative index of version " + VERSION);
+        }
+        NarrativeIndex index = new NarrativeIndex();
+        int documents = in.readInt();
+        int capacity = Math.max(documents, 64);
+        index.eventIds = new long[capacity];
+        index.lengths = new int[capacity];
+        index.digests = new byte[capacity][];
+        for (int doc = 0; doc < documents; doc++) {
+            index.eventIds[doc] = in.readLong();
+            index.lengths[doc] = in.readInt();
+            index.digests[doc] = in.readNBytes(DIGEST_LENGTH);
+            if (index.digests[doc].length != DIGEST_LENGTH) {
+                throw new EOFException("Truncated narrative index");
+            }
+            index.docsByEvent.put(index.eventIds[doc], doc);
+            index.liveLength += index.lengths[doc];
+        }
+        index.docCount = documents;
+        
+        int terms = in.readInt();
+        for (int t = 0; t < terms; t++) {
+            String term = in.readUTF();
+            int size = in.readInt();
+            PostingList list = new PostingList(size);
+            int doc = 0;
+            for (int i = 0; i < size; i++) {
+                doc += readVarInt(in);
+                list.add(doc, readVarInt(in));
+            }
+            index.postings.put(term, list);
+        }
+        return index;
+    }
+    
+    private void delete(int doc) {
+        deleted.set(doc);
+        docsByEvent.remove(eventIds[doc]);
+        liveLength -= lengths[doc];
+    }
+    
+    /**
+     * Old to new document numbers with deleted documents left out; -1 for a deleted document
+     */
+    private int[] remap() {
+        int[] remap = new int[docCount];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            remap[doc] = deleted.get(doc) ? -1 : next++;
+        }
+        return remap;
+    }
+    
+    /**
+     * SHA-256 over the narrative fields, each preceded by its length or -1 when absent, so text moving
+     * between fields changes the digest
+     */
+    private static byte[] digest(AdverseEventNarrative narrative) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (NarrativeField field : NarrativeField.values()) {
+                String text = field.textOf(narrative);
+                byte[] bytes = text != null ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+                int length = text != null ? bytes.length : -1;
+                digest.update(new byte[] {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8),
+                    (byte) length});
+                digest.update(bytes);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length int");
+    }
+    
+    record ScoredEvent(long eventId, double score) {
+    }
+}
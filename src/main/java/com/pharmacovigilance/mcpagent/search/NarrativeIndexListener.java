@@ -0,0 +1,35 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventNarrative;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Entity callbacks keeping {@link NarrativeSearchService}'s index in step with every write of an adverse
+ * event, including removals cascaded from drugs and patients. The service is looked up lazily for the same
+ * reason as in {@link com.pharmacovigilance.mcpagent.service.AdverseEventStatisticsListener}.
+ */
+@Component
+@RequiredArgsConstructor
+public class NarrativeIndexListener {
+    
+    private final ObjectProvider<NarrativeSearchService> searchService;
+    
+    @PostPersist
+    @PostUpdate
+    void saved(AdverseEvent event) {
+        AdverseEventNarrative narrative = AdverseEventNarrative.of(event);
+        searchService.ifAvailable(service -> service.narrativeChanged(narrative));
+    }
+    
+    @PostRemove
+    void removed(AdverseEvent event) {
+        Long eventId = event.getId();
+        searchService.ifAvailable(service -> service.eventRemoved(eventId));
+    }
+}
@@ -0,0 +1,20 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+
+/**
+ * One adverse event found by {@link NarrativeSearchService}
+ *
+ * @param score   BM25 relevance; only comparable within one search
+ * @param field   narrative field the snippet comes from
+ * @param snippet passage around the best match, matching words wrapped in {@code **}
+ */
+public record NarrativeSearchHit(Long eventId,
+                                 String caseNumber,
+                                 String drugName,
+                                 AdverseEvent.SeverityLevel severity,
+                                 AdverseEvent.EventStatus status,
+                                 double score,
+                                 String field,
+                                 String snippet) {
+}
@@ -0,0 +1,490 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventNarrative;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Ranked full-text search over adverse event narratives: description, symptoms, reporter notes and
+ * medical history. Served from an in-process {@link NarrativeIndex} instead of LIKE scans. The index is
+ * built from the database in the background at startup, and searches are refused until it is; a failed
+ * build is retried with exponential backoff. Saved and
+ * deleted events reach the index when their transaction commits, through {@link NarrativeIndexListener};
+ * changes committed while a rebuild runs are replayed onto the rebuilt index.
+ * <p>
+ * With an index directory configured, the index is also saved there periodically and on shutdown, and the
+ * saved copy is the starting point of the next rebuild: it is never served, but every event in it is
+ * checked against the database, so only changed narratives are analyzed again and events no longer there
+ * are dropped.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class NarrativeSearchService {
+    
+    private static final String INDEX_FILE = "narratives.idx";
+    private static final int SNIPPET_WORDS = 24;
+    private static final int SNIPPET_CONTEXT_WORDS = 4;
+    private static final String HIGHLIGHT = "**";
+    
+    private final AdverseEventRepository adverseEventRepository;
+    private final MeterRegistry meterRegistry;
+    @Qualifier("searchIndexExecutor")
+    private final Executor searchIndexExecutor;
+    
+    @Value("${pharmacovigilance.search.enabled:true}")
+    private boolean enabled;
+    
+    /**
+     * Directory the index is saved in; not saved when unset
+     */
+    @Value("${pharmacovigilance.search.index-dir:}")
+    private String indexDir;
+    
+    @Value("${pharmacovigilance.search.rebuild-batch-size:500}")
+    private int rebuildBatchSize;
+    
+    /**
+     * Delay before retrying a failed rebuild, doubled after each failure up to {@code max-delay}
+     */
+    @Value("${pharmacovigilance.search.rebuild-retry.initial-delay:5s}")
+    private Duration rebuildRetryInitialDelay;
+    
+    @Value("${pharmacovigilance.search.rebuild-retry.max-delay:5m}")
+    private Duration rebuildRetryMaxDelay;
+    
+    @Value("${pharmacovigilance.search.default-limit:20}")
+    private int defaultLimit;
+    
+    @Value("${pharmacovigilance.search.max-limit:100}")
+    private int maxLimit;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private NarrativeIndex index = new NarrativeIndex();
+    
+    /**
+     * Changes applied while a rebuild runs, replayed onto the rebuilt index; null when no rebuild runs
+     */
+    private List<Predicate<NarrativeIndex>> pendingChanges;
+    /**
+     * Index loaded from the index directory, reconciled with the database by the first rebuild
+     */
+    private NarrativeIndex saved;
+    private volatile boolean ready;
+    private volatile boolean dirty;
+    private Path indexFile;
+    /**
+     * Delay before the last scheduled retry and its due time in {@link System#nanoTime()}; null when no
+     * rebuild has failed since the last success
+     */
+    private Duration rebuildRetryDelay;
+    private volatile Long rebuildRetryAt;
+    
+    @PostConstruct
+    void initialize() {
+        if (!enabled) {
+            return;
+        }
+        if (indexDir != null && !indexDir.isBlank()) {
+            Path directory = Path.of(indexDir);
+            try {
+                Files.createDirectories(directory);
+                indexFile = directory.resolve(INDEX_FILE);
+            } catch (IOException e) {
+                log.warn("Cannot create narrative index directory {}, the index will not be saved", directory, e);
+            }
+        }
+        Gauge.builder("search.index.documents", this, service -> service.read(NarrativeIndex::documents))
+            .register(meterRegistry);
+        Gauge.builder("search.index.terms", this, service -> service.read(NarrativeIndex::terms))
+            .register(meterRegistry);
+        load();
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        if (enabled) {
+            searchIndexExecutor.execute(this::rebuild);
+        }
+    }
+    
+    /**
+     * Start the retry of a failed rebuild once its backoff has elapsed
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void retryFailedRebuild() {
+        Long retryAt = rebuildRetryAt;
+        if (retryAt != null && System.nanoTime() - retryAt >= 0) {
+            rebuildRetryAt = null;
+            searchIndexExecutor.execute(this::rebuild);
+        }
+    }
+    
+    /**
+     * The events whose narratives best match the query, best first, each with the passage that matched
+     *
+     * @throws IllegalArgumentException if the query is blank
+     * @throws IllegalStateException    if search is disabled or the index is still being built
+     */
+    public List<NarrativeSearchHit> search(String query, Integer limit) {
+        if (!enabled) {
+            throw new IllegalStateException("Full-text search is disabled");
+        }
+        if (!ready) {
+            throw new IllegalStateException("The full-text index is still being built");
+        }
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("A search query is required");
+        }
+        int size = limit == null || limit <= 0 ? defaultLimit : Math.min(limit, maxLimit);
+        List<String> terms = TextAnalyzer.terms(query);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        
+        long start = System.nanoTime();
+        List<NarrativeIndex.ScoredEvent> scored = read(current -> current.search(terms, size));
+        Map<Long, AdverseEvent> events = adverseEventRepository
+            .findAllById(scored.stream().map(NarrativeIndex.ScoredEvent::eventId).toList()).stream()
+            .collect(Collectors.toMap(AdverseEvent::getId, Function.identity()));
+        
+        Set<String> queryTerms = new HashSet<>(terms);
+        List<NarrativeSearchHit> hits = new ArrayList<>(scored.size());
+        for (NarrativeIndex.ScoredEvent result : scored) {
+            AdverseEvent event = events.get(result.eventId());
+            if (event == null) {
+                // Deleted after the search; its removal is about to reach the index
+                continue;
+            }
+            Snippet snippet = snippet(AdverseEventNarrative.of(event), queryTerms);
+            hits.add(new NarrativeSearchHit(event.getId(), event.getCaseNumber(), event.getDrugName(),
+                event.getSeverity(), event.getStatus(), result.score(),
+                snippet != null ? snippet.field() : null, snippet != null ? snippet.text() : null));
+        }
+        meterRegistry.timer("search.narratives.duration").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return hits;
+    }
+    
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", ready);
+        stats.put("indexedEvents", read(NarrativeIndex::documents));
+        stats.put("terms", read(NarrativeIndex::terms));
+        stats.put("deletedDocuments", read(NarrativeIndex::deletedDocuments));
+        stats.put("indexFile", indexFile != null ? indexFile.toString() : null);
+        return stats;
+    }
+    
+    /**
+     * Index an event's narrative once its transaction commits
+     */
+    void narrativeChanged(AdverseEventNarrative narrative) {
+        if (enabled && narrative.id() != null) {
+            afterCommit(current -> current.put(narrative));
+        }
+    }
+    
+    /**
+     * Remove an event from the index once its transaction commits
+     */
+    void eventRemoved(Long eventId) {
+        if (enabled && eventId != null) {
+            afterCommit(current -> current.remove(eventId));
+        }
+    }
+    
+    /**
+     * Build a new index from every event in the database, starting from the saved index if there is one,
+     * and swap it in
+     */
+    void rebuild() {
+        long start = System.nanoTime();
+        NarrativeIndex rebuilt;
+        lock.writeLock().lock();
+        try {
+            pendingChanges = new ArrayList<>();
+            rebuilt = saved != null ? saved : new NarrativeIndex();
+            saved = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        
+        int reindexed = 0;
+        int dropped;
+        try {
+            Set<Long> eventIds = new HashSet<>();
+            long afterId = 0;
+            List<AdverseEventNarrative> batch;
+            do {
+                batch = adverseEventRepository.findNarrativesAfter(afterId, PageRequest.of(0, rebuildBatchSize));
+                for (AdverseEventNarrative narrative : batch) {
+                    eventIds.add(narrative.id());
+                    if (rebuilt.put(narrative)) {
+                        reindexed++;
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    afterId = batch.get(batch.size() - 1).id();
+                }
+            } while (batch.size() == rebuildBatchSize);
+            // Saved events that are gone from the database, or were never in this one
+            dropped = rebuilt.retainAll(eventIds);
+            if (rebuilt.needsCompaction()) {
+                rebuilt.compact();
+            }
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                pendingChanges = null;
+                // Every event is read again on retry, so the events indexed so far are a sound starting point
+                saved = rebuilt;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            rebuildRetryDelay = rebuildRetryDelay == null
+                ? rebuildRetryInitialDelay
+                : min(rebuildRetryDelay.multipliedBy(2), rebuildRetryMaxDelay);
+            rebuildRetryAt = System.nanoTime() + rebuildRetryDelay.toNanos();
+            log.error("Rebuilding the narrative index failed, keeping the current index and retrying in {}",
+                    rebuildRetryDelay, e);
+            return;
+        }
+        rebuildRetryDelay = null;
+        
+        lock.writeLock().lock();
+        try {
+            pendingChanges.forEach(change -> change.test(rebuilt));
+            pendingChanges = null;
+            index = rebuilt;
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ready = true;
+        long elapsed = System.nanoTime() - start;
+        meterRegistry.timer("search.index.rebuild.duration").record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("Rebuilt narrative index with {} events ({} terms, {} analyzed, {} dropped) in {} ms",
+                rebuilt.documents(), rebuilt.terms(), reindexed, dropped, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        flush();
+    }
+    
+    /**
+     * Write the index to the index directory if it is built and changed since the last write
+     */
+    @Scheduled(fixedDelayString = "${pharmacovigilance.search.flush-interval:60000}",
+               initialDelayString = "${pharmacovigilance.search.flush-interval:60000}")
+    public synchronized void flush() {
+        // Until the first rebuild, the live index holds only the changes made since startup
+        if (indexFile == null || !dirty || !ready) {
+            return;
+        }
+        Path partial = null;
+        // Changes take the write lock, so none can slip in between clearing the flag and writing
+        lock.readLock().lock();
+        try {
+            dirty = false;
+            // Written to a temporary file first so a crash never leaves a truncated index behind
+            partial = Files.createTempFile(indexFile.getParent(), INDEX_FILE, ".partial");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(partial)))) {
+                index.writeTo(out);
+            }
+            Files.move(partial, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            log.warn("Failed to write narrative index {}", indexFile, e);
+            deleteQuietly(partial);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @PreDestroy
+    void close() {
+        flush();
+    }
+    
+    /**
+     * Load the saved index as the starting point of the first rebuild
+     */
+    private void load() {
+        if (indexFile == null || !Files.exists(indexFile)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            NarrativeIndex loaded = NarrativeIndex.readFrom(in);
+            lock.writeLock().lock();
+            try {
+                saved = loaded;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Loaded narrative index with {} events ({} terms) from {} in {} ms", loaded.documents(),
+                    loaded.terms(), indexFile, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.warn("Could not load narrative index {}, it will be rebuilt from the database", indexFile, e);
+        }
+    }
+    
+    private void afterCommit(Predicate<NarrativeIndex> change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(change);
+                }
+            });
+        } else {
+            apply(change);
+        }
+    }
+    
+    private void apply(Predicate<NarrativeIndex> change) {
+        lock.writeLock().lock();
+        try {
+            if (change.test(index)) {
+                dirty = true;
+            }
+            if (pendingChanges != null) {
+                pendingChanges.add(change);
+            }
+            if (index.needsCompaction()) {
+                index.compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private <T> T read(Function<NarrativeIndex, T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.apply(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * The window of {@link #SNIPPET_WORDS} words with the most query terms, in the field where that count is
+     * highest, with the matching words highlighted
+     */
+    private static Snippet snippet(AdverseEventNarrative narrative, Set<String> queryTerms) {
+        Snippet best = null;
+        int bestMatches = 0;
+        for (NarrativeField field : NarrativeField.values()) {
+            String text = field.textOf(narrative);
+            // Start offset, end offset, 1 if the word matches a query term
+            List<int[]> words = new ArrayList<>();
+            TextAnalyzer.analyze(text,
+                (term, start, end) -> words.add(new int[] {start, end, queryTerms.contains(term) ? 1 : 0}));
+            
+            int matches = 0;
+            int fieldBest = 0;
+            int windowStart = 0;
+            for (int i = 0; i < words.size(); i++) {
+                matches += words.get(i)[2];
+                if (i >= SNIPPET_WORDS) {
+                    matches -= words.get(i - SNIPPET_WORDS)[2];
+                }
+                if (matches > fieldBest) {
+                    fieldBest = matches;
+                    windowStart = Math.max(0, i - SNIPPET_WORDS + 1);
+                }
+            }
+            if (fieldBest > bestMatches) {
+                bestMatches = fieldBest;
+                best = new Snippet(field.fieldName(), highlight(text, words, windowStart));
+            }
+        }
+        return best;
+    }
+    
+    private static String highlight(String text, List<int[]> words, int windowStart) {
+        // Open the window a few words before its first match
+        int firstMatch = windowStart;
+        while (firstMatch < words.size() - 1 && words.get(firstMatch)[2] == 0) {
+            firstMatch++;
+        }
+        int from = Math.max(0, firstMatch - SNIPPET_CONTEXT_WORDS);
+        int to = Math.min(words.size(), from + SNIPPET_WORDS);
+        int startChar = from == 0 ? 0 : words.get(from)[0];
+        int endChar = to == words.size() ? text.length() : words.get(to - 1)[1];
+        
+        StringBuilder snippet = new StringBuilder();
+        if (startChar > 0) {
+            snippet.append("...");
+        }
+        int position = startChar;
+        for (int i = from; i < to; i++) {
+            int[] word = words.get(i);
+            if (word[2] == 1) {
+                snippet.append(text, position, word[0])
+                    .append(HIGHLIGHT).append(text, word[0], word[1]).append(HIGHLIGHT);
+                position = word[1];
+            }
+        }
+        snippet.append(text, position, endChar);
+        if (endChar < text.length()) {
+            snippet.append("...");
+        }
+        return snippet.toString().replaceAll("\\s+", " ").strip();
+    }
+    
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+    
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Replaced by the next write
+        }
+    }
+    
+    private record Snippet(String field, String text) {
+    }
+}
@@ -0,0 +1,66 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import java.util.Arrays;
+
+/**
+ * Documents containing one term, with the term's weighted frequency in each, as two parallel int arrays.
+ * Document numbers only ever grow, so postings are appended in order and never inserted.
+ */
+final class PostingList {
+    
+    private int[] docs;
+    private int[] frequencies;
+    private int size;
+    
+    PostingList(int capacity) {
+        docs = new int[Math.max(capacity, 2)];
+        frequencies = new int[docs.length];
+    }
+    
+    void add(int doc, int frequency) {
+        if (size == docs.length) {
+            int capacity = size + (size >> 1) + 1;
+            docs = Arrays.copyOf(docs, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+        }
+        docs[size] = doc;
+        frequencies[size] = frequency;
+        size++;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    int doc(int i) {
+        return docs[i];
+    }
+    
+    int frequency(int i) {
+        return frequencies[i];
+    }
+    
+    /**
+     * Keep the postings of documents still mapped by {@code remap} (old to new number, -1 if dropped),
+     * renumbered, and release unused capacity
+     *
+     * @return postings left
+     */
+    int compact(int[] remap) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int doc = remap[docs[i]];
+            if (doc >= 0) {
+                docs[kept] = doc;
+                frequencies[kept] = frequencies[i];
+                kept++;
+            }
+        }
+        size = kept;
+        if (docs.length > Math.max(2, kept + (kept >> 2))) {
+            docs = Arrays.copyOf(docs, Math.max(2, kept));
+            frequencies = Arrays.copyOf(frequencies, docs.length);
+        }
+        return kept;
+    }
+}
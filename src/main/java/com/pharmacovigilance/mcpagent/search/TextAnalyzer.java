@@ -0,0 +1,178 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits narrative text into index terms: runs of letters and digits, lower-cased, stop words dropped and
+ * words stemmed with step 1 of the Porter algorithm (plurals, -ed, -ing, final y), so "vomiting",
+ * "vomited" and "vomits" share the term "vomit". The same analysis runs on documents and queries.
+ */
+public final class TextAnalyzer {
+    
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final int MAX_TOKEN_LENGTH = 40;
+    
+    private static final Set<String> STOP_WORDS = Set.of(
+        "a", "an", "and", "are", "as", "at", "be", "been", "but", "by", "for", "from", "had", "has", "have",
+        "he", "her", "his", "in", "into", "is", "it", "its", "of", "on", "or", "she", "that", "the", "their",
+        "then", "there", "they", "this", "to", "was", "were", "which", "with");
+    
+    private TextAnalyzer() {
+    }
+    
+    /**
+     * Receives each term with the character range of the word it came from
+     */
+    @FunctionalInterface
+    public interface TermConsumer {
+        void accept(String term, int start, int end);
+    }
+    
+    public static void analyze(String text, TermConsumer consumer) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int end = i;
+            if (end - start < MIN_TOKEN_LENGTH || end - start > MAX_TOKEN_LENGTH) {
+                continue;
+            }
+            String word = text.substring(start, end).toLowerCase(Locale.ROOT);
+            if (!STOP_WORDS.contains(word)) {
+                consumer.accept(stem(word), start, end);
+            }
+        }
+    }
+    
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        analyze(text, (term, start, end) -> terms.add(term));
+        return terms;
+    }
+    
+    /**
+     * Porter step 1 on a lower-case word; words with anything but a-z are returned as they are
+     */
+    static String stem(String word) {
+        if (word.length() <= 2) {
+            return word;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return word;
+            }
+        }
+        StringBuilder b = new StringBuilder(word);
+        
+        // Step 1a: plurals, plus -shes and -xes so "rashes" meets "rash"
+        if (endsWith(b, "sses") || endsWith(b, "ies") || endsWith(b, "shes") || endsWith(b, "xes")) {
+            b.setLength(b.length() - 2);
+        } else if (!endsWith(b, "ss") && endsWith(b, "s")) {
+            b.setLength(b.length() - 1);
+        }
+        
+        // Step 1b: -eed, -ed, -ing
+        boolean removed = false;
+        if (endsWith(b, "eed")) {
+            if (measure(b, b.length() - 3) > 0) {
+                b.setLength(b.length() - 1);
+            }
+        } else if (endsWith(b, "ed") && hasVowel(b, b.length() - 2)) {
+            b.setLength(b.length() - 2);
+            removed = true;
+        } else if (endsWith(b, "ing") && hasVowel(b, b.length() - 3)) {
+            b.setLength(b.length() - 3);
+            removed = true;
+        }
+        if (removed) {
+            int last = b.length() - 1;
+            if (endsWith(b, "at") || endsWith(b, "bl") || endsWith(b, "iz")) {
+                b.append('e');
+            } else if (last > 0 && b.charAt(last) == b.charAt(last - 1) && isConsonant(b, last)
+                    && "lsz".indexOf(b.charAt(last)) < 0) {
+                b.setLength(last);
+            } else if (measure(b, b.length()) == 1 && endsConsonantVowelConsonant(b)) {
+                b.append('e');
+            }
+        }
+        
+        // Step 1c: final y after a vowel-bearing stem
+        if (endsWith(b, "y") && hasVowel(b, b.length() - 1)) {
+            b.setCharAt(b.length() - 1, 'i');
+        }
+        return b.toString();
+    }
+    
+    private static boolean endsWith(StringBuilder b, String suffix) {
+        int offset = b.length() - suffix.length();
+        if (offset < 1) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (b.charAt(offset + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isConsonant(StringBuilder b, int i) {
+        return switch (b.charAt(i)) {
+            case 'a', 'e', 'i', 'o', 'u' -> false;
+            case 'y' -> i == 0 || !isConsonant(b, i - 1);
+            default -> true;
+        };
+    }
+    
+    /**
+     * Number of vowel-consonant sequences in the first {@code end} letters
+     */
+    private static int measure(StringBuilder b, int end) {
+        int m = 0;
+        int i = 0;
+        while (i < end && isConsonant(b, i)) {
+            i++;
+        }
+        while (i < end) {
+            while (i < end && !isConsonant(b, i)) {
+                i++;
+            }
+            if (i >= end) {
+                break;
+            }
+            while (i < end && isConsonant(b, i)) {
+                i++;
+            }
+            m++;
+        }
+        return m;
+    }
+    
+    private static boolean hasVowel(StringBuilder b, int end) {
+        for (int i = 0; i < end; i++) {
+            if (!isConsonant(b, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean endsConsonantVowelConsonant(StringBuilder b) {
+        int i = b.length() - 1;
+        return i >= 2 && isConsonant(b, i - 2) && !isConsonant(b, i - 1) && isConsonant(b, i)
+            && "wxy".indexOf(b.charAt(i)) < 0;
+    }
+}
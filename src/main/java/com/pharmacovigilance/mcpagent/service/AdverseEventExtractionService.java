@@ -2,30 +2,75 @@ package com.pharmacovigilance.mcpagent.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.theokanning.openai.completion.chat.ChatCompletionRequest;
-import com.theokanning.openai.completion.chat.ChatMessage;
-import com.theokanning.openai.completion.chat.ChatMessageRole;
-import com.theokanning.openai.service.OpenAiService;
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class AdverseEventExtractionService {
     
-    private final OpenAiService openAiService;
+    private final LlmClient llmClient;
     private final ObjectMapper objectMapper;
+    private final LlmResponseCache responseCache;
+    private final LlmCallGate callGate;
+    private final AdverseEventPreScreener preScreener;
+    private final DrugDictionary drugDictionary;
+    private final PromptTextNormalizer textNormalizer;
+    private final MeterRegistry meterRegistry;
+    @Qualifier("llmExecutor")
+    private final Executor llmExecutor;
     
     @Value("${openai.model:gpt-3.5-turbo}")
     private String model;
     
+    @Value("${openai.extraction.chunking.enabled:true}")
+    private boolean chunkingEnabled;
+    
+    @Value("${openai.extraction.chunking.max-chunk-tokens:3000}")
+    private int maxChunkTokens;
+    
+    @Value("${openai.extraction.chunking.overlap-tokens:200}")
+    private int chunkOverlapTokens;
+    
+    @Value("${openai.extraction.chunking.max-parallel-chunks:4}")
+    private int maxParallelChunks;
+    
+    private static final int EXTRACTION_MAX_TOKENS = 1500;
+    private static final double EXTRACTION_TEMPERATURE = 0.2; // Lower temperature for more consistent extraction
+    private static final List<String> SEVERITY_ORDER = List.of("MILD", "MODERATE", "SEVERE", "LIFE_THREATENING", "FATAL");
+    // Fields describing one fact: the most frequent value across chunks wins, ties go to the earliest chunk
+    private static final List<String> SINGLE_VALUE_FIELDS = List.of(
+        "drugName", "patientAge", "patientGender", "dateOfOnset", "reporterName", "reporterType");
+    // Narrative fields: distinct values from all chunks are concatenated in document order
+    private static final List<String> COMBINED_FIELDS = List.of(
+        "adverseEventDescription", "symptoms", "medicalHistory", "concomitantMedications", "additionalNotes");
+    private static final String EXTRACTION_SYSTEM_PROMPT =
+        "You are a pharmacovigilance expert specialized in extracting structured adverse event data from unstructured text. Always respond with valid JSON.";
+    
     /**
      * Extract structured adverse event data from unstructured text using OpenAI
      */
@@ -33,21 +78,74 @@ public class AdverseEventExtractionService {
         log.info("Extracting adverse event from {} with text length: {}", sourceType, text.length());
         
         String prompt = buildExtractionPrompt(text, sourceType);
-        String response = callOpenAI(prompt);
-        
-        // Parse the AI response to extract structured data
-        return parseAiResponse(response);
+        try {
+            // Parse the AI response to extract structured data
+            Map<String, Object> extractedData = parseAiResponse(callOpenAI(prompt));
+            log.info("Successfully extracted adverse event data with {} fields", extractedData.size());
+            return extractedData;
+        } catch (UnparseableResponseException e) {
+            log.error("Error parsing AI response: {}", e.response, e.getCause());
+            // Return partial data with error information
+            Map<String, Object> errorData = new HashMap<>();
+            errorData.put("extractionError", e.getMessage());
+            errorData.put("rawResponse", e.response);
+            return errorData;
+        }
     }
     
     /**
-     * Extract adverse event from clinical document (PDF content)
+     * Extract adverse event from clinical document (PDF content).
+     * Documents above {@code max-chunk-tokens} are split into overlapping chunks that are extracted in
+     * parallel and merged back into a single extraction map.
      */
     public Map<String, Object> extractFromClinicalDocument(String documentText) {
-        return extractAdverseEventFromText(documentText, "clinical_document");
+        return extractLongText(documentText, "clinical_document");
     }
     
     /**
-     * Extract adverse event from email content
+     * Single extraction for text that fits one prompt, chunked map-reduce otherwise
+     */
+    private Map<String, Object> extractLongText(String documentText, String sourceType) {
+        return normalizeThenExtract(documentText, sourceType,
+            text -> screenThenExtract(text, sourceType, () -> extractScreenedText(text, sourceType)));
+    }
+    
+    /**
+     * Strip page furniture, reply chains, HTML residue and redundant whitespace before the text reaches a
+     * prompt, and report the estimated tokens before and after under {@code normalization}
+     */
+    private Map<String, Object> normalizeThenExtract(String text, String sourceType,
+                                                     Function<String, Map<String, Object>> extraction) {
+        PromptTextNormalizer.NormalizedText normalized = textNormalizer.normalize(text, sourceType);
+        Map<String, Object> extractedData = new HashMap<>(extraction.apply(normalized.text()));
+        extractedData.put("normalization", normalized.report());
+        return extractedData;
+    }
+    
+    private Map<String, Object> extractScreenedText(String documentText, String sourceType) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        List<String> chunks = chunkingEnabled
+            ? DocumentChunker.chunk(documentText, maxChunkTokens, chunkOverlapTokens)
+            : List.of(documentText);
+        
+        Map<String, Object> extractedData;
+        if (chunks.size() <= 1) {
+            extractedData = extractAdverseEventFromText(documentText, sourceType);
+        } else {
+            log.info("Extracting {} of {} characters in {} chunks", sourceType, documentText.length(), chunks.size());
+            extractedData = mergeChunkExtractions(extractChunks(chunks, sourceType));
+            extractedData.put("chunkCount", chunks.size());
+        }
+        
+        sample.stop(meterRegistry.timer("extraction.document.duration",
+            "source", sourceType, "chunked", String.valueOf(chunks.size() > 1)));
+        meterRegistry.summary("extraction.document.chunks", "source", sourceType).record(Math.max(1, chunks.size()));
+        return extractedData;
+    }
+    
+    /**
+     * Extract adverse event from email content. Emails carrying long attachments are chunked like
+     * clinical documents.
      */
     public Map<String, Object> extractFromEmail(String emailSubject, String emailBody, String sender) {
         String fullText = String.format("""
@@ -58,7 +156,7 @@ public class AdverseEventExtractionService {
             %s
             """, sender, emailSubject, emailBody);
         
-        return extractAdverseEventFromText(fullText, "email");
+        return extractLongText(fullText, "email");
     }
     
     /**
@@ -72,7 +170,193 @@ public class AdverseEventExtractionService {
             %s
             """, callerInfo, transcript);
         
-        return extractAdverseEventFromText(fullText, "telephony_transcript");
+        return normalizeThenExtract(fullText, "telephony_transcript",
+            text -> screenThenExtract(text, "telephony_transcript",
+                () -> extractAdverseEventFromText(text, "telephony_transcript")));
+    }
+    
+    /**
+     * Run the local pre-screen before the LLM. Text it rules out gets a "not an adverse event" result
+     * without an LLM call, except for the audit sample, which is extracted anyway to count misses.
+     * Drug mentions are found once, in the drug dictionary, and serve both the screen and the result.
+     */
+    private Map<String, Object> screenThenExtract(String text, String sourceType,
+                                                  Supplier<Map<String, Object>> extraction) {
+        List<DrugDictionary.DrugMention> mentions = drugDictionary.findMentions(text);
+        AdverseEventPreScreener.ScreeningResult screening = preScreener.screen(text, sourceType, mentions.size());
+        if (screening.candidate()) {
+            return withDictionaryDrugs(extraction.get(), mentions);
+        }
+        if (!preScreener.sampleForAudit()) {
+            return screening.notAnAdverseEvent();
+        }
+        
+        Map<String, Object> extractedData = extraction.get();
+        preScreener.recordAudit(screening, sourceType, extractedData);
+        return withDictionaryDrugs(extractedData, mentions);
+    }
+    
+    /**
+     * Add the drugs the dictionary found in the text, and pre-fill the drug name with the most mentioned
+     * one when the LLM reported an adverse event without naming a drug
+     */
+    private Map<String, Object> withDictionaryDrugs(Map<String, Object> extractedData,
+                                                    List<DrugDictionary.DrugMention> mentions) {
+        if (extractedData == null || mentions.isEmpty()) {
+            return extractedData;
+        }
+        // Copy, as the extraction may be shared through the response cache
+        Map<String, Object> annotated = new HashMap<>(extractedData);
+        Map<String, Long> mentionCounts = mentions.stream()
+            .collect(Collectors.groupingBy(mention -> mention.drug().drugName(), LinkedHashMap::new,
+                Collectors.counting()));
+        annotated.put("dictionaryDrugs", new ArrayList<>(mentionCounts.keySet()));
+        
+        if (annotated.get("drugName") == null
+                && !annotated.containsKey("extractionError")
+                && !Boolean.FALSE.equals(annotated.get("isAdverseEvent"))) {
+            mentionCounts.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .ifPresent(mostMentioned -> {
+                    annotated.put("drugName", mostMentioned.getKey());
+                    annotated.put("drugNameSource", "dictionary");
+                });
+        }
+        return annotated;
+    }
+    
+    /**
+     * Extract every chunk with at most {@code max-parallel-chunks} in flight for this document.
+     * Each worker takes the next chunk when it finishes one, so a slow chunk does not stall the rest.
+     *
+     * @throws RejectedExecutionException if the LLM executor rejects a worker
+     */
+    private List<Map<String, Object>> extractChunks(List<String> chunks, String sourceType) {
+        List<Map<String, Object>> results = new ArrayList<>(chunks.size());
+        Queue<Integer> pending = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            results.add(null);
+            pending.add(i);
+        }
+        
+        int workers = Math.max(1, Math.min(maxParallelChunks, chunks.size()));
+        List<CompletableFuture<Void>> futures = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            try {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    Integer index;
+                    while ((index = pending.poll()) != null) {
+                        String excerptType = String.format("%s excerpt (part %d of %d)", sourceType, index + 1,
+                            chunks.size());
+                        Map<String, Object> chunkData;
+                        try {
+                            chunkData = extractAdverseEventFromText(chunks.get(index), excerptType);
+                        } catch (Exception e) {
+                            log.warn("Extraction failed for chunk {} of {}", index + 1, chunks.size(), e);
+                            chunkData = Map.of("extractionError", String.valueOf(e.getMessage()));
+                        }
+                        synchronized (results) {
+                            results.set(index, chunkData);
+                        }
+                    }
+                }, llmExecutor));
+            } catch (RejectedExecutionException e) {
+                // The document fails; stop the workers already submitted from taking further chunks
+                pending.clear();
+                futures.forEach(future -> future.cancel(false));
+                throw e;
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+    
+    /**
+     * Reconcile chunk extractions into the single-document schema. Chunks that failed are skipped;
+     * if every chunk failed the first error is returned.
+     */
+    private Map<String, Object> mergeChunkExtractions(List<Map<String, Object>> chunkResults) {
+        List<Map<String, Object>> usable = chunkResults.stream()
+            .filter(chunk -> chunk != null && !chunk.containsKey("extractionError"))
+            .toList();
+        if (usable.isEmpty()) {
+            Map<String, Object> errorData = new HashMap<>(chunkResults.get(0));
+            errorData.put("failedChunks", chunkResults.size());
+            return errorData;
+        }
+        
+        Map<String, Object> merged = new HashMap<>();
+        for (String field : SINGLE_VALUE_FIELDS) {
+            merged.put(field, mostFrequentValue(usable, field));
+        }
+        for (String field : COMBINED_FIELDS) {
+            merged.put(field, distinctValues(usable, field));
+        }
+        // The worst severity reported anywhere in the document determines the case severity
+        merged.put("severity", usable.stream()
+            .map(chunk -> asText(chunk.get("severity")))
+            .filter(severity -> severity != null && SEVERITY_ORDER.contains(severity.toUpperCase()))
+            .map(String::toUpperCase)
+            .max((a, b) -> Integer.compare(SEVERITY_ORDER.indexOf(a), SEVERITY_ORDER.indexOf(b)))
+            .orElse(null));
+        // Later sections (discharge status, follow-up) describe the most recent outcome
+        String outcome = null;
+        for (Map<String, Object> chunk : usable) {
+            String value = asText(chunk.get("outcome"));
+            if (value != null) {
+                outcome = value;
+            }
+        }
+        merged.put("outcome", outcome);
+        merged.put("failedChunks", chunkResults.size() - usable.size());
+        return merged;
+    }
+    
+    private String mostFrequentValue(List<Map<String, Object>> chunks, String field) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        Map<String, String> firstSpelling = new HashMap<>();
+        for (Map<String, Object> chunk : chunks) {
+            String value = asText(chunk.get(field));
+            if (value != null) {
+                String normalized = value.toLowerCase();
+                counts.merge(normalized, 1, Integer::sum);
+                firstSpelling.putIfAbsent(normalized, value);
+            }
+        }
+        String best = null;
+        int bestCount = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > bestCount) {
+                best = entry.getKey();
+                bestCount = entry.getValue();
+            }
+        }
+        return best != null ? firstSpelling.get(best) : null;
+    }
+    
+    private String distinctValues(List<Map<String, Object>> chunks, String field) {
+        Set<String> seen = new LinkedHashSet<>();
+        List<String> values = new ArrayList<>();
+        for (Map<String, Object> chunk : chunks) {
+            String value = asText(chunk.get(field));
+            if (value != null && seen.add(value.toLowerCase())) {
+                values.add(value);
+            }
+        }
+        return values.isEmpty() ? null : String.join("; ", values);
+    }
+    
+    private String asText(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String text = value instanceof Collection<?> values
+            ? values.stream().map(String::valueOf).collect(Collectors.joining(", "))
+            : value.toString();
+        return text.isBlank() ? null : text.trim();
     }
     
     private String buildExtractionPrompt(String text, String sourceType) {
@@ -112,30 +396,31 @@ public class AdverseEventExtractionService {
     
     private String callOpenAI(String prompt) {
         try {
-            ChatMessage systemMessage = new ChatMessage(
-                ChatMessageRole.SYSTEM.value(),
-                "You are a pharmacovigilance expert specialized in extracting structured adverse event data from unstructured text. Always respond with valid JSON."
-            );
-            ChatMessage userMessage = new ChatMessage(ChatMessageRole.USER.value(), prompt);
-            
-            ChatCompletionRequest completionRequest = ChatCompletionRequest.builder()
-                .model(model)
-                .messages(List.of(systemMessage, userMessage))
-                .maxTokens(1500)
-                .temperature(0.2) // Lower temperature for more consistent extraction
-                .build();
-            
-            return openAiService.createChatCompletion(completionRequest)
-                .getChoices()
-                .get(0)
-                .getMessage()
-                .getContent();
+            LlmResponseCache.Key cacheKey = LlmResponseCache.Key.of(
+                model, EXTRACTION_TEMPERATURE, EXTRACTION_SYSTEM_PROMPT, prompt);
+            // Extraction responses are not persisted, so only the in-memory tier applies. A response that
+            // does not parse fails the loader, so it is not cached and a retry asks the model again.
+            return responseCache.getOrCompute(cacheKey, false, () -> {
+                String response = requestCompletion(prompt);
+                parseAiResponse(response);
+                return response;
+            });
+        } catch (UnparseableResponseException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error calling OpenAI API", e);
             throw new RuntimeException("Failed to extract adverse event data: " + e.getMessage());
         }
     }
     
+    private String requestCompletion(String prompt) {
+        LlmClient.CompletionRequest completionRequest = new LlmClient.CompletionRequest(
+            model, EXTRACTION_SYSTEM_PROMPT, prompt, EXTRACTION_MAX_TOKENS, EXTRACTION_TEMPERATURE);
+        
+        int estimatedTokens = TokenEstimator.estimate(EXTRACTION_SYSTEM_PROMPT, prompt) + EXTRACTION_MAX_TOKENS;
+        return callGate.execute(estimatedTokens, () -> llmClient.complete(completionRequest)).content();
+    }
+    
     private Map<String, Object> parseAiResponse(String response) {
         try {
             // Clean the response - remove markdown code blocks if present
@@ -170,16 +455,23 @@ public class AdverseEventExtractionService {
                 }
             });
             
-            log.info("Successfully extracted adverse event data with {} fields", cleanedData.size());
             return cleanedData;
             
         } catch (Exception e) {
-            log.error("Error parsing AI response: {}", response, e);
-            // Return partial data with error information
-            Map<String, Object> errorData = new HashMap<>();
-            errorData.put("extractionError", "Failed to parse AI response: " + e.getMessage());
-            errorData.put("rawResponse", response);
-            return errorData;
+            throw new UnparseableResponseException(response, e);
+        }
+    }
+    
+    /**
+     * A completion that is not the extraction JSON; thrown inside the cache loader so it is never cached
+     */
+    private static class UnparseableResponseException extends RuntimeException {
+        
+        private final String response;
+        
+        UnparseableResponseException(String response, Exception cause) {
+            super("Failed to parse AI response: " + cause.getMessage(), cause);
+            this.response = response;
         }
     }
     
@@ -201,11 +493,34 @@ public class AdverseEventExtractionService {
         
         enrichedData.put("isValid", hasRequiredFields);
         
-        if (!hasRequiredFields) {
+        if (Boolean.FALSE.equals(extractedData.get("isAdverseEvent"))) {
+            enrichedData.put("validationError", "Not an adverse event: pre-screening found no drug or event content");
+        } else if (!hasRequiredFields) {
             enrichedData.put("validationError", "Missing required fields: drugName and adverseEventDescription");
         }
         
         return enrichedData;
     }
+    
+    /**
+     * Map extracted fields onto a new, unsaved adverse event. The case number is left to the caller.
+     */
+    public AdverseEvent toAdverseEvent(Map<String, Object> extractedData) {
+        AdverseEvent event = new AdverseEvent();
+        event.setDrugName(asText(extractedData.get("drugName")));
+        event.setAdverseEventDescription(asText(extractedData.get("adverseEventDescription")));
+        event.setSymptoms(asText(extractedData.get("symptoms")));
+        event.setMedicalHistory(asText(extractedData.get("medicalHistory")));
+        event.setConcomitantMedications(asText(extractedData.get("concomitantMedications")));
+        
+        String severity = asText(extractedData.get("severity"));
+        if (severity != null) {
+            try {
+                event.setSeverity(AdverseEvent.SeverityLevel.valueOf(severity.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid severity level: {}", severity);
+            }
+        }
+        return event;
+    }
 }
-
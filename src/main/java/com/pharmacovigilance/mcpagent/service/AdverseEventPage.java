@@ -0,0 +1,14 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+
+import java.util.List;
+
+/**
+ * One page of adverse events in keyset order
+ *
+ * @param nextCursor token for the following page, or {@code null} on the last page
+ * @param limit      page size applied, after capping to the server maximum
+ */
+public record AdverseEventPage(List<AdverseEvent> events, String nextCursor, int limit) {
+}
@@ -0,0 +1,275 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local triage in front of the LLM extraction. Text is scored on mentions of drugs from the drugs table,
+ * drug-like terms, exposure and adverse event cues, a symptom lexicon and cues of routine mail
+ * (newsletters, scheduling). A small logistic model turns the capped counts into a probability;
+ * text below the threshold is answered "not an adverse event" without an LLM call. A random sample of
+ * skipped text is extracted anyway, to measure how many real reports the screen misses.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AdverseEventPreScreener {
+    
+    private static final double BIAS = -4.0;
+    private static final int RECENT_FALSE_NEGATIVES = 20;
+    
+    private static final List<String> SYMPTOMS = List.of(
+        "nausea", "vomiting", "vomited", "diarrh(?:o)?ea", "constipation", "headache", "migraine", "dizziness",
+        "dizzy", "vertigo", "fainted", "fainting", "syncope", "seizure", "convulsion", "tremor", "rash", "hives",
+        "urticaria", "itching", "pruritus", "swelling", "angioedema", "anaphylaxis", "anaphylactic",
+        "allergic reaction", "fever", "chills", "fatigue", "drowsiness", "insomnia", "confusion",
+        "hallucination", "palpitations", "tachycardia", "bradycardia", "arrhythmia", "chest pain",
+        "shortness of breath", "dyspnea", "dyspnoea", "wheezing", "cough", "bleeding", "hemorrhage",
+        "haemorrhage", "bruising", "jaundice", "hepatotoxicity", "liver injury", "kidney injury",
+        "renal failure", "hypotension", "hypertension", "hypoglycemia", "hypoglycaemia", "stroke",
+        "heart attack", "myocardial infarction", "blurred vision", "numbness", "tingling", "muscle pain",
+        "myalgia", "joint pain", "abdominal pain", "stomach pain", "cramps", "depression", "suicidal",
+        "anxiety", "weight gain", "weight loss", "hair loss", "death", "died");
+    
+    private static final Pattern SYMPTOM_PATTERN = wordPattern(SYMPTOMS);
+    
+    /**
+     * Common INN stems, for drugs missing from the drugs table
+     */
+    private static final Pattern DRUG_LIKE_PATTERN = Pattern.compile(
+        "\\b[a-z]{2,}(?:mab|pril|olol|statin|cillin|mycin|cycline|azole|prazole|sartan|tinib|vir|dipine|oxacin"
+            + "|triptan|gliptin|gliflozin|parin|semide|thiazide|zepam|azepam|oxetine|afil|profen|dronate)\\b",
+        Pattern.CASE_INSENSITIVE);
+    
+    private static final Pattern EXPOSURE_PATTERN = wordPattern(List.of(
+        "\\d+(?:\\.\\d+)? ?(?:mg|mcg|\u00b5g|ml|units?|iu)", "tablets?", "capsules?", "pills?", "doses?", "dosage",
+        "prescribed", "prescription", "medications?", "medicines?", "drugs?", "injections?", "infusions?",
+        "vaccines?", "vaccinated", "vaccination", "started taking", "stopped taking", "took", "taking"));
+    
+    private static final Pattern EVENT_CUE_PATTERN = wordPattern(List.of(
+        "adverse (?:event|reaction|drug reaction|effect)s?", "side effects?", "reaction to", "reacted to",
+        "after (?:taking|starting|receiving|using|the (?:first|second|last) dose)", "since (?:taking|starting)",
+        "hospitali[sz](?:ed|ation)", "emergency (?:room|department)", "admitted", "overdose", "intolerance",
+        "discontinued", "withdrawn", "pharmacovigilance", "medwatch", "yellow card", "suspected"));
+    
+    private static final Pattern NEGATIVE_CUE_PATTERN = wordPattern(List.of(
+        "unsubscribe", "newsletter", "webinar", "calendar invite", "meeting (?:request|invitation|scheduled)",
+        "reschedul(?:e|ed|ing)", "out of office", "invoice", "purchase order", "password reset",
+        "privacy policy", "view (?:this email )?in (?:your )?browser", "all rights reserved"));
+    
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${openai.extraction.pre-screening.enabled:true}")
+    private boolean enabled;
+    
+    /**
+     * Text scoring below this probability skips the LLM
+     */
+    @Value("${openai.extraction.pre-screening.threshold:0.15}")
+    private double threshold;
+    
+    /**
+     * Source types screened; clinical documents are sent for extraction unscreened
+     */
+    @Value("${openai.extraction.pre-screening.sources:email,telephony_transcript}")
+    private Set<String> screenedSources;
+    
+    /**
+     * Fraction of skipped text extracted anyway to measure false negatives
+     */
+    @Value("${openai.extraction.pre-screening.audit-sample-rate:0.02}")
+    private double auditSampleRate;
+    
+    private final Deque<Map<String, Object>> recentFalseNegatives = new ArrayDeque<>();
+    
+    private Counter candidates;
+    private Counter skipped;
+    private Counter auditedTrueNegatives;
+    private Counter auditedFalseNegatives;
+    
+    @PostConstruct
+    void initialize() {
+        candidates = meterRegistry.counter("extraction.prescreen", "result", "candidate");
+        skipped = meterRegistry.counter("extraction.prescreen", "result", "skipped");
+        auditedTrueNegatives = meterRegistry.counter("extraction.prescreen.audit", "result", "true_negative");
+        auditedFalseNegatives = meterRegistry.counter("extraction.prescreen.audit", "result", "false_negative");
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Score the text of the given source type. Sources that are not screened, and every source while
+     * screening is disabled, are always candidates.
+     *
+     * @param drugMentions mentions of drugs from the drugs table, found by the {@link DrugDictionary}
+     */
+    public ScreeningResult screen(String text, String sourceType, int drugMentions) {
+        if (!enabled || !screenedSources.contains(sourceType)) {
+            return new ScreeningResult(true, 1.0, Map.of());
+        }
+        
+        ScreeningResult screening = score(text, drugMentions);
+        (screening.candidate() ? candidates : skipped).increment();
+        meterRegistry.summary("extraction.prescreen.probability", "source", sourceType)
+            .record(screening.probability());
+        if (!screening.candidate()) {
+            log.info("Pre-screening skipped {} ({} characters, probability {}, signals {})",
+                    sourceType, text != null ? text.length() : 0, String.format("%.3f", screening.probability()),
+                    screening.signals());
+        }
+        return screening;
+    }
+    
+    /**
+     * Whether the text on its own scores as an adverse event candidate, whatever its source and whether
+     * screening is enabled. Nothing is recorded.
+     */
+    public boolean reportsAdverseEvent(String text, int drugMentions) {
+        return score(text, drugMentions).candidate();
+    }
+    
+    private ScreeningResult score(String text, int drugMentions) {
+        String content = text != null ? text : "";
+        Map<String, Integer> signals = new LinkedHashMap<>();
+        signals.put("drugs", drugMentions);
+        signals.put("drugLikeTerms", count(DRUG_LIKE_PATTERN, content));
+        signals.put("exposureCues", count(EXPOSURE_PATTERN, content));
+        signals.put("symptoms", count(SYMPTOM_PATTERN, content));
+        signals.put("eventCues", count(EVENT_CUE_PATTERN, content));
+        signals.put("routineMailCues", count(NEGATIVE_CUE_PATTERN, content));
+        
+        double z = BIAS
+            + 2.0 * Math.min(signals.get("drugs"), 2)
+            + 1.0 * Math.min(signals.get("drugLikeTerms"), 2)
+            + 0.75 * Math.min(signals.get("exposureCues"), 3)
+            + 1.0 * Math.min(signals.get("symptoms"), 3)
+            + 2.0 * Math.min(signals.get("eventCues"), 2)
+            - 1.0 * Math.min(signals.get("routineMailCues"), 3);
+        double probability = 1.0 / (1.0 + Math.exp(-z));
+        
+        // A symptom next to any drug or exposure mention is always worth an extraction
+        boolean symptomWithExposure = signals.get("symptoms") > 0
+            && (signals.get("drugs") + signals.get("drugLikeTerms") + signals.get("exposureCues")) > 0;
+        boolean candidate = symptomWithExposure || probability >= threshold;
+        return new ScreeningResult(candidate, probability, signals);
+    }
+    
+    /**
+     * Whether a skipped text should be extracted anyway for the false-negative audit
+     */
+    public boolean sampleForAudit() {
+        return auditSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < auditSampleRate;
+    }
+    
+    /**
+     * Record the LLM verdict on a skipped text that was sampled for audit
+     */
+    public void recordAudit(ScreeningResult screening, String sourceType, Map<String, Object> extraction) {
+        boolean adverseEvent = extraction != null
+            && !extraction.containsKey("extractionError")
+            && extraction.get("drugName") != null
+            && extraction.get("adverseEventDescription") != null;
+        if (!adverseEvent) {
+            auditedTrueNegatives.increment();
+            return;
+        }
+        
+        auditedFalseNegatives.increment();
+        log.warn("Pre-screening would have skipped an adverse event in {} (probability {}, signals {}, drug {})",
+                sourceType, String.format("%.3f", screening.probability()), screening.signals(),
+                extraction.get("drugName"));
+        Map<String, Object> miss = new LinkedHashMap<>();
+        miss.put("at", Instant.now().toString());
+        miss.put("source", sourceType);
+        miss.put("probability", screening.probability());
+        miss.put("signals", screening.signals());
+        miss.put("drugName", String.valueOf(extraction.get("drugName")));
+        synchronized (recentFalseNegatives) {
+            recentFalseNegatives.addFirst(miss);
+            while (recentFalseNegatives.size() > RECENT_FALSE_NEGATIVES) {
+                recentFalseNegatives.removeLast();
+            }
+        }
+    }
+    
+    public Map<String, Object> getStatistics() {
+        long candidateCount = (long) candidates.count();
+        long skippedCount = (long) skipped.count();
+        long trueNegatives = (long) auditedTrueNegatives.count();
+        long falseNegatives = (long) auditedFalseNegatives.count();
+        long audited = trueNegatives + falseNegatives;
+        
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("threshold", threshold);
+        stats.put("sources", screenedSources);
+        stats.put("screened", candidateCount + skippedCount);
+        stats.put("skipped", skippedCount);
+        stats.put("skipRate", candidateCount + skippedCount > 0
+            ? (double) skippedCount / (candidateCount + skippedCount) : 0.0);
+        stats.put("auditSampleRate", auditSampleRate);
+        stats.put("audited", audited);
+        stats.put("auditFalseNegatives", falseNegatives);
+        stats.put("auditFalseNegativeRate", audited > 0 ? (double) falseNegatives / audited : 0.0);
+        synchronized (recentFalseNegatives) {
+            stats.put("recentFalseNegatives", new ArrayList<>(recentFalseNegatives));
+        }
+        return stats;
+    }
+    
+    private static int count(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+    
+    private static Pattern wordPattern(List<String> alternatives) {
+        return Pattern.compile("\\b(?:" + String.join("|", alternatives) + ")\\b",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+    
+    /**
+     * Outcome of screening one text
+     *
+     * @param candidate   whether the text goes to the LLM
+     * @param probability modelled probability that the text reports an adverse event
+     * @param signals     match counts per feature
+     */
+    public record ScreeningResult(boolean candidate, double probability, Map<String, Integer> signals) {
+        
+        /**
+         * Extraction result standing in for the LLM's when the text is skipped
+         */
+        public Map<String, Object> notAnAdverseEvent() {
+            Map<String, Object> result = new HashMap<>();
+            result.put("drugName", null);
+            result.put("adverseEventDescription", null);
+            result.put("isAdverseEvent", false);
+            result.put("preScreening", Map.of("probability", probability, "signals", signals));
+            return result;
+        }
+    }
+}
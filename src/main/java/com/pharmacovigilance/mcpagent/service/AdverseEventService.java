@@ -1,18 +1,28 @@
 package com.pharmacovigilance.mcpagent.service;
 
 import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventCursor;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventFilter;
 import com.pharmacovigilance.mcpagent.repository.AdverseEventRepository;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventSpecifications;
+import com.pharmacovigilance.mcpagent.repository.DrugRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
@@ -21,16 +31,47 @@ import java.util.stream.Collectors;
 public class AdverseEventService {
     
     private final AdverseEventRepository adverseEventRepository;
+    private final DrugRepository drugRepository;
+    private final DrugDictionary drugDictionary;
+    private final AdverseEventStatisticsTracker statisticsTracker;
+    
+    @Value("${pharmacovigilance.query.default-page-size:50}")
+    private int defaultPageSize;
+    
+    /**
+     * Hard cap on events returned per page, whatever the client asks for
+     */
+    @Value("${pharmacovigilance.query.max-page-size:200}")
+    private int maxPageSize;
     
     public AdverseEvent save(AdverseEvent adverseEvent) {
         log.info("Saving adverse event: {}", adverseEvent.getCaseNumber());
-        return adverseEventRepository.save(adverseEvent);
+        // Dimensions as loaded or last written; null for an event not read from the database
+        AdverseEvent.CountedDimensions stored = adverseEvent.getCountedDimensions();
+        boolean identify = stored == null
+            ? adverseEvent.getDrug() == null
+            : !Objects.equals(stored.drugName(), adverseEvent.getDrugName());
+        if (identify) {
+            // Link the reported drug name to the drugs table when the dictionary recognizes it; updates that
+            // keep the name, such as status changes, keep the link without a lookup
+            adverseEvent.setDrug(drugDictionary.identify(adverseEvent.getDrugName())
+                .map(drug -> drugRepository.getReferenceById(drug.id()))
+                .orElse(null));
+        }
+        AdverseEvent saved = adverseEventRepository.save(adverseEvent);
+        // A merged event references its patient lazily; load it while the session is open for the response
+        Hibernate.initialize(saved.getPatient());
+        return saved;
     }
     
     public Optional<AdverseEvent> findById(Long id) {
         return adverseEventRepository.findById(id);
     }
     
+    public boolean existsByCaseNumber(String caseNumber) {
+        return adverseEventRepository.existsByCaseNumber(caseNumber);
+    }
+    
     public List<AdverseEvent> findAll() {
         return adverseEventRepository.findAll();
     }
@@ -39,45 +80,99 @@ public class AdverseEventService {
         return adverseEventRepository.findAll(pageable);
     }
     
+    /**
+     * A page of events matching the criteria, newest event date first. Pass the {@code nextCursor} of a page
+     * to get the one after it; a {@code limit} above {@code max-page-size} is capped.
+     *
+     * @throws IllegalArgumentException for an unknown severity, status or causality, a malformed date or
+     *                                  a malformed cursor
+     */
+    @Transactional(readOnly = true)
+    public AdverseEventPage findPage(AdverseEventFilter filter, String cursor, Integer limit) {
+        int pageSize = limit == null || limit <= 0 ? defaultPageSize : Math.min(limit, maxPageSize);
+        AdverseEventCursor after = cursor == null || cursor.isBlank() ? null : AdverseEventCursor.decode(cursor);
+        
+        // One extra row tells whether another page follows
+        List<AdverseEvent> events = adverseEventRepository.findPageAfter(resolveDrugs(filter), after, pageSize + 1);
+        String nextCursor = null;
+        if (events.size() > pageSize) {
+            events = new ArrayList<>(events.subList(0, pageSize));
+            nextCursor = AdverseEventCursor.after(events.get(pageSize - 1)).encode();
+        }
+        return new AdverseEventPage(events, nextCursor, pageSize);
+    }
+    
+    /**
+     * Every event matching the criteria, in one query composed from the ones that are set
+     *
+     * @throws IllegalArgumentException for an unknown severity or status
+     */
+    @Transactional(readOnly = true)
     public List<AdverseEvent> findByCriteria(String severity, String status, String drugName, String patientId) {
-        if (severity != null && status != null && drugName != null) {
-            return adverseEventRepository.findBySeverityAndStatusAndDrugName(
-                AdverseEvent.SeverityLevel.valueOf(severity),
-                AdverseEvent.EventStatus.valueOf(status),
-                drugName
-            );
-        } else if (severity != null && status != null) {
-            return adverseEventRepository.findBySeverityAndStatus(
-                AdverseEvent.SeverityLevel.valueOf(severity),
-                AdverseEvent.EventStatus.valueOf(status)
-            );
-        } else if (severity != null) {
-            return adverseEventRepository.findBySeverity(AdverseEvent.SeverityLevel.valueOf(severity));
-        } else if (status != null) {
-            return adverseEventRepository.findByStatus(AdverseEvent.EventStatus.valueOf(status));
-        } else if (drugName != null) {
-            return adverseEventRepository.findByDrugNameContainingIgnoreCase(drugName);
-        } else if (patientId != null) {
-            return adverseEventRepository.findByPatientPatientId(patientId);
-        } else {
-            return findAll();
+        return findByCriteria(AdverseEventFilter.of(severity, status, null, drugName, patientId, null, null));
+    }
+    
+    @Transactional(readOnly = true)
+    public List<AdverseEvent> findByCriteria(AdverseEventFilter filter) {
+        return adverseEventRepository.findAll(AdverseEventSpecifications.matching(resolveDrugs(filter)));
+    }
+    
+    /**
+     * Link events stored before the dictionary knew their drug, so drug queries find them by drug ID. Run
+     * when the dictionary learns a drug; reads the distinct names of unlinked events and links each drug's
+     * events in one update.
+     *
+     * @return the number of events linked
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public int linkUnlinkedEvents() {
+        Map<Long, List<String>> namesByDrug = new HashMap<>();
+        for (String drugName : adverseEventRepository.findUnlinkedDrugNames()) {
+            drugDictionary.identify(drugName).ifPresent(drug ->
+                namesByDrug.computeIfAbsent(drug.id(), id -> new ArrayList<>()).add(drugName));
+        }
+        int linked = 0;
+        for (Map.Entry<Long, List<String>> names : namesByDrug.entrySet()) {
+            linked += adverseEventRepository.linkDrug(drugRepository.getReferenceById(names.getKey()),
+                names.getValue());
         }
+        if (linked > 0) {
+            log.info("Linked {} adverse events to {} drugs", linked, namesByDrug.size());
+        }
+        return linked;
+    }
+    
+    /**
+     * Match a drug name through the drug dictionary, so the query compares drug IDs on an index rather
+     * than scanning reported names; names the dictionary does not know are still matched as text. Events
+     * stored before the dictionary knew their drug are found once {@link #linkUnlinkedEvents()} has run.
+     */
+    private AdverseEventFilter resolveDrugs(AdverseEventFilter filter) {
+        if (filter.drugName() == null || filter.drugIds() != null) {
+            return filter;
+        }
+        Set<Long> drugIds = drugDictionary.lookup(filter.drugName());
+        return drugIds.isEmpty() ? filter : filter.withDrugIds(drugIds);
+    }
+    
+    /**
+     * Counts by severity, status, causality and drug from the in-memory counters, or from a single
+     * GROUP BY query until they are seeded. Joins a caller's transaction but never starts one, so reads
+     * served from memory do not take a connection.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public AdverseEventStatistics getStatistics() {
+        return statisticsTracker.getStatistics();
     }
     
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Map<String, Long> getCountBySeverity() {
-        return adverseEventRepository.findAll().stream()
-            .collect(Collectors.groupingBy(
-                event -> event.getSeverity().name(),
-                Collectors.counting()
-            ));
+        return getStatistics().severityCounts();
     }
     
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Map<String, Long> getCountByStatus() {
-        return adverseEventRepository.findAll().stream()
-            .collect(Collectors.groupingBy(
-                event -> event.getStatus().name(),
-                Collectors.counting()
-            ));
+        return getStatistics().statusCounts();
     }
     
     public long count() {
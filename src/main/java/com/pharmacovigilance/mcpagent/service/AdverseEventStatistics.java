@@ -0,0 +1,61 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.repository.AdverseEventCount;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Adverse event counts by severity, status, causality and drug, rolled up from one grouped query or read
+ * from the {@link AdverseEventStatisticsTracker} counters.
+ * Events without a severity, status or causality are counted under {@value #UNASSIGNED}.
+ *
+ * @param drugCounts    the {@code topDrugs} most reported drug names, most reported first; names differing
+ *                      only in case are counted together
+ * @param distinctDrugs number of distinct drug names, including those outside the top list
+ */
+public record AdverseEventStatistics(long totalEvents,
+                                     Map<String, Long> severityCounts,
+                                     Map<String, Long> statusCounts,
+                                     Map<String, Long> causalityCounts,
+                                     Map<String, Long> drugCounts,
+                                     int distinctDrugs) {
+    
+    public static final String UNASSIGNED = "UNASSIGNED";
+    
+    public static AdverseEventStatistics of(List<AdverseEventCount> rows, int topDrugs) {
+        long total = 0;
+        Map<String, Long> severity = new TreeMap<>();
+        Map<String, Long> status = new TreeMap<>();
+        Map<String, Long> causality = new TreeMap<>();
+        Map<String, Long> drugs = new HashMap<>();
+        Map<String, String> drugSpelling = new HashMap<>();
+        for (AdverseEventCount row : rows) {
+            long count = row.count();
+            total += count;
+            severity.merge(nameOf(row.severity()), count, Long::sum);
+            status.merge(nameOf(row.status()), count, Long::sum);
+            causality.merge(nameOf(row.causality()), count, Long::sum);
+            if (row.drugName() != null) {
+                String key = row.drugName().trim().toLowerCase(Locale.ROOT);
+                drugSpelling.putIfAbsent(key, row.drugName().trim());
+                drugs.merge(key, count, Long::sum);
+            }
+        }
+        
+        Map<String, Long> topDrugCounts = new LinkedHashMap<>();
+        drugs.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+            .limit(Math.max(0, topDrugs))
+            .forEach(entry -> topDrugCounts.put(drugSpelling.get(entry.getKey()), entry.getValue()));
+        return new AdverseEventStatistics(total, severity, status, causality, topDrugCounts, drugs.size());
+    }
+    
+    private static String nameOf(Enum<?> value) {
+        return value != null ? value.name() : UNASSIGNED;
+    }
+}
@@ -0,0 +1,58 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Entity callbacks feeding {@link AdverseEventStatisticsTracker}. Catches every write of an adverse event,
+ * including removals cascaded from drugs and patients. The tracker is looked up lazily, as Hibernate creates
+ * this listener while the entity manager factory that the tracker's repository needs is still being built,
+ * and skipped where there is none (JPA slice tests).
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AdverseEventStatisticsListener {
+    
+    private final ObjectProvider<AdverseEventStatisticsTracker> statisticsTracker;
+    
+    @PostLoad
+    void loaded(AdverseEvent event) {
+        event.setCountedDimensions(event.currentDimensions());
+    }
+    
+    @PostPersist
+    void persisted(AdverseEvent event) {
+        AdverseEvent.CountedDimensions current = event.currentDimensions();
+        statisticsTracker.ifAvailable(tracker -> tracker.recordChange(null, current));
+        event.setCountedDimensions(current);
+    }
+    
+    @PostUpdate
+    void updated(AdverseEvent event) {
+        AdverseEvent.CountedDimensions before = event.getCountedDimensions();
+        AdverseEvent.CountedDimensions current = event.currentDimensions();
+        if (before == null) {
+            // Not loaded through this persistence context; left to reconciliation
+            log.debug("Adverse event {} updated without known previous dimensions", event.getId());
+        } else {
+            statisticsTracker.ifAvailable(tracker -> tracker.recordChange(before, current));
+        }
+        event.setCountedDimensions(current);
+    }
+    
+    @PostRemove
+    void removed(AdverseEvent event) {
+        AdverseEvent.CountedDimensions before = event.getCountedDimensions();
+        AdverseEvent.CountedDimensions removed = before != null ? before : event.currentDimensions();
+        statisticsTracker.ifAvailable(tracker -> tracker.recordChange(removed, null));
+        event.setCountedDimensions(null);
+    }
+}
@@ -0,0 +1,251 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventCount;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory adverse event counts by severity, status, causality and drug. Seeded from the database once
+ * the application is ready, then kept current by {@link AdverseEventStatisticsListener} as events are
+ * persisted, updated and removed; changes are applied when their transaction commits. Reads never touch
+ * the database and cost the same whatever the size of the table.
+ * <p>
+ * A periodic reconciliation compares the counters with a grouped query and corrects drift, such as from
+ * bulk JPQL updates that bypass entity callbacks. A difference is only corrected when the next run finds
+ * the same one, so a write committing during the query is not mistaken for drift.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AdverseEventStatisticsTracker {
+    
+    private static final String SEVERITY = "severity";
+    private static final String STATUS = "status";
+    private static final String CAUSALITY = "causality";
+    private static final String DRUG = "drug";
+    private static final String TOTAL = "total";
+    
+    private final AdverseEventRepository adverseEventRepository;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${pharmacovigilance.statistics.in-memory.enabled:true}")
+    private boolean enabled;
+    
+    /**
+     * Drug names listed in the statistics; all of them are still counted in the totals
+     */
+    @Value("${pharmacovigilance.statistics.top-drugs:20}")
+    private int topDrugs;
+    
+    /**
+     * Counters keyed by dimension and value, e.g. {@code severity:SEVERE}; drug names are lower-cased
+     */
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, String> drugSpelling = new ConcurrentHashMap<>();
+    private Map<String, Long> unconfirmedDrift = Map.of();
+    private volatile boolean seeded;
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void seed() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, Long> drift = drift();
+        drift.forEach(this::add);
+        seeded = true;
+        log.info("Seeded adverse event statistics with {} events in {} ms",
+                counters.getOrDefault(TOTAL, new LongAdder()).sum(), System.currentTimeMillis() - start);
+    }
+    
+    @Scheduled(fixedDelayString = "${pharmacovigilance.statistics.reconcile-interval:300000}",
+               initialDelayString = "${pharmacovigilance.statistics.reconcile-interval:300000}")
+    public synchronized void reconcile() {
+        if (!seeded) {
+            return;
+        }
+        Map<String, Long> drift = drift();
+        Map<String, Long> confirmed = new HashMap<>();
+        drift.forEach((key, delta) -> {
+            if (delta.equals(unconfirmedDrift.get(key))) {
+                confirmed.put(key, delta);
+            }
+        });
+        
+        confirmed.forEach((key, delta) -> {
+            add(key, delta);
+            meterRegistry.counter("statistics.reconcile.corrections", "dimension", dimensionOf(key)).increment();
+        });
+        if (!confirmed.isEmpty()) {
+            log.warn("Corrected drift in {} adverse event statistics counters: {}", confirmed.size(), confirmed);
+        }
+        drift.keySet().removeAll(confirmed.keySet());
+        unconfirmedDrift = drift;
+    }
+    
+    /**
+     * Counts from memory once seeded; from a grouped query while seeding or when disabled
+     */
+    public AdverseEventStatistics getStatistics() {
+        if (!seeded) {
+            return AdverseEventStatistics.of(adverseEventRepository.countByDimensions(), topDrugs);
+        }
+        
+        Map<String, Long> severity = new TreeMap<>();
+        Map<String, Long> status = new TreeMap<>();
+        Map<String, Long> causality = new TreeMap<>();
+        // Smallest of the current top drugs at the head
+        PriorityQueue<Map.Entry<String, Long>> top = new PriorityQueue<>(Map.Entry.<String, Long>comparingByValue()
+            .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder())));
+        int distinctDrugs = 0;
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            long count = counter.getValue().sum();
+            if (count <= 0) {
+                continue;
+            }
+            String key = counter.getKey();
+            String value = key.substring(key.indexOf(':') + 1);
+            switch (dimensionOf(key)) {
+                case SEVERITY -> severity.put(value, count);
+                case STATUS -> status.put(value, count);
+                case CAUSALITY -> causality.put(value, count);
+                case DRUG -> {
+                    distinctDrugs++;
+                    top.add(Map.entry(value, count));
+                    if (top.size() > Math.max(0, topDrugs)) {
+                        top.poll();
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        
+        Map<String, Long> drugCounts = new LinkedHashMap<>();
+        top.stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+            .forEach(entry -> drugCounts.put(
+                drugSpelling.getOrDefault(entry.getKey(), entry.getKey()), entry.getValue()));
+        LongAdder total = counters.get(TOTAL);
+        return new AdverseEventStatistics(total != null ? total.sum() : 0, severity, status, causality, drugCounts,
+            distinctDrugs);
+    }
+    
+    public boolean isSeeded() {
+        return seeded;
+    }
+    
+    /**
+     * Count a change of an event's dimensions once its transaction commits; {@code before} is null for a
+     * new event and {@code after} for a removed one
+     */
+    void recordChange(AdverseEvent.CountedDimensions before, AdverseEvent.CountedDimensions after) {
+        if (!enabled || Objects.equals(before, after)) {
+            return;
+        }
+        Runnable update = () -> {
+            if (before != null) {
+                keysOf(before).forEach(key -> add(key, -1));
+            }
+            if (after != null) {
+                keysOf(after).forEach(key -> add(key, 1));
+                if (after.drugName() != null) {
+                    drugSpelling.putIfAbsent(drugKey(after.drugName()), after.drugName().trim());
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+    
+    /**
+     * Database counts minus the counters, for every key where they differ
+     */
+    private Map<String, Long> drift() {
+        Map<String, Long> expected = new HashMap<>();
+        for (AdverseEventCount row : adverseEventRepository.countByDimensions()) {
+            AdverseEvent.CountedDimensions dimensions = new AdverseEvent.CountedDimensions(
+                row.severity(), row.status(), row.causality(), row.drugName());
+            keysOf(dimensions).forEach(key -> expected.merge(key, row.count(), Long::sum));
+            if (row.drugName() != null) {
+                drugSpelling.putIfAbsent(drugKey(row.drugName()), row.drugName().trim());
+            }
+        }
+        
+        Map<String, Long> drift = new HashMap<>();
+        expected.forEach((key, count) -> {
+            LongAdder counter = counters.get(key);
+            long delta = count - (counter != null ? counter.sum() : 0);
+            if (delta != 0) {
+                drift.put(key, delta);
+            }
+        });
+        counters.forEach((key, counter) -> {
+            long count = counter.sum();
+            if (!expected.containsKey(key) && count != 0) {
+                drift.put(key, -count);
+            }
+        });
+        return drift;
+    }
+    
+    private void add(String key, long delta) {
+        counters.computeIfAbsent(key, k -> new LongAdder()).add(delta);
+    }
+    
+    private static List<String> keysOf(AdverseEvent.CountedDimensions dimensions) {
+        List<String> keys = new ArrayList<>(5);
+        keys.add(TOTAL);
+        keys.add(SEVERITY + ":" + nameOf(dimensions.severity()));
+        keys.add(STATUS + ":" + nameOf(dimensions.status()));
+        keys.add(CAUSALITY + ":" + nameOf(dimensions.causality()));
+        if (dimensions.drugName() != null) {
+            keys.add(DRUG + ":" + drugKey(dimensions.drugName()));
+        }
+        return keys;
+    }
+    
+    private static String nameOf(Enum<?> value) {
+        return value != null ? value.name() : AdverseEventStatistics.UNASSIGNED;
+    }
+    
+    private static String drugKey(String drugName) {
+        return drugName.trim().toLowerCase(Locale.ROOT);
+    }
+    
+    private static String dimensionOf(String key) {
+        int separator = key.indexOf(':');
+        return separator < 0 ? key : key.substring(0, separator);
+    }
+}
@@ -0,0 +1,173 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable Aho-Corasick automaton over a set of terms. Finds every whole-word occurrence of every term
+ * in one pass over the text, case-insensitively and matching each whitespace character (a line break
+ * inside a name, say) as a space. Overlapping occurrences are resolved leftmost-longest, so
+ * "metformin hydrochloride" wins over "metformin" at the same position.
+ */
+public final class AhoCorasickMatcher {
+    
+    private final Node root;
+    private final int termCount;
+    
+    private AhoCorasickMatcher(Node root, int termCount) {
+        this.root = root;
+        this.termCount = termCount;
+    }
+    
+    /**
+     * Build the automaton; terms are normalized with {@link #normalize(CharSequence)} and blank ones ignored
+     */
+    public static AhoCorasickMatcher build(Collection<String> terms) {
+        Node root = new Node();
+        int count = 0;
+        for (String term : terms) {
+            String normalized = normalize(term).trim();
+            if (normalized.isEmpty()) {
+                continue;
+            }
+            Node node = root;
+            for (int i = 0; i < normalized.length(); i++) {
+                node = node.building.computeIfAbsent(normalized.charAt(i), c -> new Node());
+            }
+            if (node.term == null) {
+                node.term = normalized;
+                count++;
+            }
+        }
+        
+        // Breadth-first, so the failure target of every node is finished before its children need it
+        Deque<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        root.freeze();
+        for (Node child : root.children) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            node.freeze();
+            node.output = node.fail.term != null ? node.fail : node.fail.output;
+            for (int i = 0; i < node.keys.length; i++) {
+                Node child = node.children[i];
+                Node fail = node.fail;
+                while (fail != root && fail.next(node.keys[i]) == null) {
+                    fail = fail.fail;
+                }
+                Node target = fail.next(node.keys[i]);
+                child.fail = target != null && target != child ? target : root;
+                queue.add(child);
+            }
+        }
+        return new AhoCorasickMatcher(root, count);
+    }
+    
+    public int size() {
+        return termCount;
+    }
+    
+    /**
+     * Whole-word occurrences in the text, leftmost-longest and non-overlapping, in text order
+     */
+    public List<Match> findAll(CharSequence text) {
+        List<Match> candidates = new ArrayList<>();
+        Node state = root;
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            while (state != root && state.next(c) == null) {
+                state = state.fail;
+            }
+            Node next = state.next(c);
+            state = next != null ? next : root;
+            
+            for (Node hit = state.term != null ? state : state.output; hit != null; hit = hit.output) {
+                int end = i + 1;
+                int start = end - hit.term.length();
+                if (isBoundary(text, start - 1) && isBoundary(text, end)) {
+                    candidates.add(new Match(start, end, hit.term));
+                }
+            }
+        }
+        
+        candidates.sort(Comparator.comparingInt(Match::start)
+            .thenComparing(Comparator.comparingInt(Match::end).reversed()));
+        List<Match> matches = new ArrayList<>();
+        int covered = 0;
+        for (Match match : candidates) {
+            if (match.start() >= covered) {
+                matches.add(match);
+                covered = match.end();
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Lower case with every whitespace character mapped to a space, the form terms are matched in
+     */
+    public static String normalize(CharSequence text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            normalized.append(normalize(text.charAt(i)));
+        }
+        return normalized.toString();
+    }
+    
+    private static char normalize(char c) {
+        return Character.isWhitespace(c) ? ' ' : Character.toLowerCase(c);
+    }
+    
+    private static boolean isBoundary(CharSequence text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+    
+    /**
+     * One occurrence of a term; {@code start} and {@code end} index the original text
+     */
+    public record Match(int start, int end, String term) {
+    }
+    
+    private static final class Node {
+        
+        private Map<Character, Node> building = new TreeMap<>();
+        private char[] keys;
+        private Node[] children;
+        private Node fail;
+        private Node output;
+        private String term;
+        
+        private Node() {
+        }
+        
+        /**
+         * Replace the build-time map by sorted arrays, searched with a binary search while matching
+         */
+        private void freeze() {
+            keys = new char[building.size()];
+            children = new Node[building.size()];
+            int i = 0;
+            for (Map.Entry<Character, Node> entry : building.entrySet()) {
+                keys[i] = entry.getKey();
+                children[i] = entry.getValue();
+                i++;
+            }
+            building = null;
+        }
+        
+        private Node next(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+    }
+}
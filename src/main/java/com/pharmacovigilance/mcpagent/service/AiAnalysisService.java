@@ -1,114 +1,284 @@
 package com.pharmacovigilance.mcpagent.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pharmacovigilance.mcpagent.model.AdverseEvent;
 import com.pharmacovigilance.mcpagent.model.AiAnalysis;
 import com.pharmacovigilance.mcpagent.repository.AiAnalysisRepository;
-import com.theokanning.openai.completion.chat.ChatCompletionRequest;
-import com.theokanning.openai.completion.chat.ChatMessage;
-import com.theokanning.openai.completion.chat.ChatMessageRole;
-import com.theokanning.openai.service.OpenAiService;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
+/**
+ * Runs AI analyses in two phases: the LLM round trip happens outside any transaction, and only the
+ * repository save that follows it opens one, so no JDBC connection is held while waiting on the provider.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
-@Transactional
 public class AiAnalysisService {
     
     private final AiAnalysisRepository aiAnalysisRepository;
-    private final OpenAiService openAiService;
+    private final LlmClient llmClient;
+    private final LlmResponseCache responseCache;
+    private final LlmCallGate callGate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
     
     @Value("${openai.model:gpt-3.5-turbo}")
     private String model;
     
+    /**
+     * "separate" sends one prompt per analysis type, "combined" answers causality and risk in a single completion
+     */
+    @Value("${openai.analysis.mode:separate}")
+    private String analysisMode;
+    
+    private static final double ANALYSIS_TEMPERATURE = 0.3;
+    private static final String ERROR_RESPONSE_PREFIX = "Error: Unable to perform AI analysis - ";
+    private static final int ANALYSIS_MAX_TOKENS = 1000;
+    private static final int COMBINED_ANALYSIS_MAX_TOKENS = 1500;
+    private static final String MODE_SEPARATE = "separate";
+    private static final String MODE_COMBINED = "combined";
+    
+    /**
+     * Causality and risk analysis rows produced by one combined completion
+     */
+    public record CombinedAnalysis(AiAnalysis causalityAssessment, AiAnalysis riskAnalysis) {
+    }
+    
+    public boolean isCombinedAnalysisMode() {
+        return MODE_COMBINED.equalsIgnoreCase(analysisMode);
+    }
+    
+    public String getAnalysisMode() {
+        return isCombinedAnalysisMode() ? MODE_COMBINED : MODE_SEPARATE;
+    }
+    
     public AiAnalysis performCausalityAssessment(AdverseEvent adverseEvent) {
+        return performCausalityAssessment(adverseEvent, null);
+    }
+    
+    /**
+     * @param tokenListener receives the completion as it streams in; {@code null} waits for the full response
+     */
+    public AiAnalysis performCausalityAssessment(AdverseEvent adverseEvent, Consumer<String> tokenListener) {
         log.info("Performing causality assessment for adverse event: {}", adverseEvent.getCaseNumber());
         
         String prompt = buildCausalityAssessmentPrompt(adverseEvent);
-        String response = callOpenAI(prompt);
-        
-        AiAnalysis analysis = new AiAnalysis();
-        analysis.setAdverseEvent(adverseEvent);
-        analysis.setAnalysisPrompt(prompt);
-        analysis.setAiResponse(response);
-        analysis.setModelUsed(model);
-        analysis.setAnalysisType(AiAnalysis.AnalysisType.CAUSALITY_ASSESSMENT);
-        analysis.setStatus(AiAnalysis.AnalysisStatus.COMPLETED);
-        
-        // Extract insights and recommendations
-        analysis.setExtractedInsights(extractInsights(response));
-        analysis.setRecommendations(extractRecommendations(response));
-        
-        return aiAnalysisRepository.save(analysis);
+        return analyzeAndSave(adverseEvent, AiAnalysis.AnalysisType.CAUSALITY_ASSESSMENT, prompt, MODE_SEPARATE,
+            tokenListener);
     }
     
     public AiAnalysis performRiskAnalysis(AdverseEvent adverseEvent) {
+        return performRiskAnalysis(adverseEvent, null);
+    }
+    
+    /**
+     * @param tokenListener receives the completion as it streams in; {@code null} waits for the full response
+     */
+    public AiAnalysis performRiskAnalysis(AdverseEvent adverseEvent, Consumer<String> tokenListener) {
         log.info("Performing risk analysis for adverse event: {}", adverseEvent.getCaseNumber());
         
         String prompt = buildRiskAnalysisPrompt(adverseEvent);
-        String response = callOpenAI(prompt);
-        
-        AiAnalysis analysis = new AiAnalysis();
-        analysis.setAdverseEvent(adverseEvent);
-        analysis.setAnalysisPrompt(prompt);
-        analysis.setAiResponse(response);
-        analysis.setModelUsed(model);
-        analysis.setAnalysisType(AiAnalysis.AnalysisType.RISK_ANALYSIS);
-        analysis.setStatus(AiAnalysis.AnalysisStatus.COMPLETED);
-        
-        analysis.setExtractedInsights(extractInsights(response));
-        analysis.setRecommendations(extractRecommendations(response));
-        
-        return aiAnalysisRepository.save(analysis);
+        return analyzeAndSave(adverseEvent, AiAnalysis.AnalysisType.RISK_ANALYSIS, prompt, MODE_SEPARATE,
+            tokenListener);
     }
     
     public AiAnalysis performPatternDetection(List<AdverseEvent> adverseEvents) {
         log.info("Performing pattern detection for {} adverse events", adverseEvents.size());
         
         String prompt = buildPatternDetectionPrompt(adverseEvents);
-        String response = callOpenAI(prompt);
+        // Runs the same way in both modes; tagged with the configured one so each mode's totals include it
+        return analyzeAndSave(null, AiAnalysis.AnalysisType.PATTERN_DETECTION, prompt, getAnalysisMode(), null);
+    }
+    
+    /**
+     * Assess causality and risk with a single completion that returns both sections as JSON.
+     * The sections are stored as two analysis rows, the same shape the separate mode produces.
+     */
+    public CombinedAnalysis performCombinedAnalysis(AdverseEvent adverseEvent) {
+        return performCombinedAnalysis(adverseEvent, null);
+    }
+    
+    /**
+     * @param tokenListener receives the raw JSON completion as it streams in; {@code null} waits for the full response
+     */
+    public CombinedAnalysis performCombinedAnalysis(AdverseEvent adverseEvent, Consumer<String> tokenListener) {
+        log.info("Performing combined causality and risk analysis for adverse event: {}", adverseEvent.getCaseNumber());
         
-        AiAnalysis analysis = new AiAnalysis();
-        analysis.setAnalysisPrompt(prompt);
-        analysis.setAiResponse(response);
-        analysis.setModelUsed(model);
-        analysis.setAnalysisType(AiAnalysis.AnalysisType.PATTERN_DETECTION);
-        analysis.setStatus(AiAnalysis.AnalysisStatus.COMPLETED);
+        String prompt = buildCombinedAnalysisPrompt(adverseEvent);
+        
+        AiAnalysis causality = new AiAnalysis();
+        causality.setAnalysisType(AiAnalysis.AnalysisType.CAUSALITY_ASSESSMENT);
+        AiAnalysis risk = new AiAnalysis();
+        risk.setAnalysisType(AiAnalysis.AnalysisType.RISK_ANALYSIS);
         
-        analysis.setExtractedInsights(extractInsights(response));
-        analysis.setRecommendations(extractRecommendations(response));
+        for (AiAnalysis analysis : List.of(causality, risk)) {
+            analysis.setAdverseEvent(adverseEvent);
+            analysis.setAnalysisPrompt(prompt);
+            analysis.setModelUsed(model);
+        }
+        
+        String response = null;
+        try {
+            // Rows hold one section each rather than the raw completion, so the persistent tier is not used
+            response = callOpenAI(prompt, COMBINED_ANALYSIS_MAX_TOKENS, MODE_COMBINED, MODE_COMBINED, false,
+                tokenListener);
+            JsonNode root = objectMapper.readTree(stripCodeFences(response));
+            JsonNode causalityNode = root.path("causalityAssessment");
+            JsonNode riskNode = root.path("riskAnalysis");
+            if (!causalityNode.isObject() || !riskNode.isObject()) {
+                throw new IllegalArgumentException("Response is missing causalityAssessment or riskAnalysis");
+            }
+            
+            causality.setAiResponse(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(causalityNode));
+            causality.setExtractedInsights(truncate("Causality: " + causalityNode.path("assessment").asText("Unassessable")
+                + ". Key factors: " + joinValues(causalityNode.path("keyFactors"))));
+            causality.setRecommendations(truncate(joinValues(causalityNode.path("recommendations"))));
+            causality.setStatus(AiAnalysis.AnalysisStatus.COMPLETED);
+            
+            risk.setAiResponse(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(riskNode));
+            risk.setExtractedInsights(truncate("Risk level: " + riskNode.path("riskLevel").asText("Unknown")
+                + ". " + riskNode.path("patientSafetyImpact").asText("")));
+            List<String> riskRecommendations = new ArrayList<>();
+            riskRecommendations.add(joinValues(riskNode.path("mitigationStrategies")));
+            riskRecommendations.add(joinValues(riskNode.path("monitoringRecommendations")));
+            risk.setRecommendations(truncate(String.join("; ", riskRecommendations)));
+            risk.setStatus(AiAnalysis.AnalysisStatus.COMPLETED);
+        } catch (Exception e) {
+            log.error("Error performing combined analysis for case: {}", adverseEvent.getCaseNumber(), e);
+            for (AiAnalysis analysis : List.of(causality, risk)) {
+                if (response != null) {
+                    analysis.setAiResponse(response);
+                    analysis.setExtractedInsights("Unable to parse combined analysis response");
+                    analysis.setRecommendations("Re-run the analysis in separate mode");
+                    analysis.setStatus(AiAnalysis.AnalysisStatus.FAILED);
+                } else {
+                    markFailed(analysis, e);
+                }
+            }
+        }
         
-        return aiAnalysisRepository.save(analysis);
+        if (!isPersisted(adverseEvent)) {
+            return new CombinedAnalysis(causality, risk);
+        }
+        List<AiAnalysis> saved = aiAnalysisRepository.saveAll(List.of(causality, risk));
+        return new CombinedAnalysis(saved.get(0), saved.get(1));
     }
     
-    private String callOpenAI(String prompt) {
+    /**
+     * Call the model for a single analysis and save the result. Provider failures are saved as FAILED
+     * rows so they are never mistaken for a completed analysis. Analyses of events that are not in the
+     * database, such as those the classify tools build from their input, have no row to reference and are
+     * returned unsaved.
+     */
+    private AiAnalysis analyzeAndSave(AdverseEvent adverseEvent, AiAnalysis.AnalysisType analysisType, String prompt,
+                                      String mode, Consumer<String> tokenListener) {
+        AiAnalysis analysis = new AiAnalysis();
+        analysis.setAdverseEvent(adverseEvent);
+        analysis.setAnalysisPrompt(prompt);
+        analysis.setModelUsed(model);
+        analysis.setAnalysisType(analysisType);
+        
         try {
-            ChatMessage userMessage = new ChatMessage(ChatMessageRole.USER.value(), prompt);
-            
-            ChatCompletionRequest completionRequest = ChatCompletionRequest.builder()
-                .model(model)
-                .messages(List.of(userMessage))
-                .maxTokens(1000)
-                .temperature(0.3)
-                .build();
+            String response = callOpenAI(prompt, ANALYSIS_MAX_TOKENS, mode,
+                analysisType.name().toLowerCase(Locale.ROOT), true, tokenListener);
+            analysis.setAiResponse(response);
+            analysis.setStatus(AiAnalysis.AnalysisStatus.COMPLETED);
+            // Key the row so the persistent cache tier can serve the same prompt again
+            analysis.setPromptHash(LlmResponseCache.hashPrompt(prompt));
+            analysis.setTemperature(ANALYSIS_TEMPERATURE);
             
-            return openAiService.createChatCompletion(completionRequest)
-                .getChoices()
-                .get(0)
-                .getMessage()
-                .getContent();
+            // Extract insights and recommendations
+            analysis.setExtractedInsights(extractInsights(response));
+            analysis.setRecommendations(extractRecommendations(response));
         } catch (Exception e) {
             log.error("Error calling OpenAI API", e);
-            return "Error: Unable to perform AI analysis - " + e.getMessage();
+            markFailed(analysis, e);
+        }
+        
+        return isPersisted(adverseEvent) ? aiAnalysisRepository.save(analysis) : analysis;
+    }
+    
+    /**
+     * The case number line, for events in the database only. The classify tools number their unsaved events
+     * by the clock, which would give every resubmission of the same input a new prompt and cache key.
+     */
+    private static String caseNumberLine(AdverseEvent adverseEvent) {
+        return isPersisted(adverseEvent) ? "- Case Number: " + adverseEvent.getCaseNumber() + "\n" : "";
+    }
+    
+    private static boolean isPersisted(AdverseEvent adverseEvent) {
+        return adverseEvent != null && adverseEvent.getId() != null;
+    }
+    
+    private void markFailed(AiAnalysis analysis, Exception e) {
+        analysis.setAiResponse(ERROR_RESPONSE_PREFIX + e.getMessage());
+        analysis.setStatus(AiAnalysis.AnalysisStatus.FAILED);
+        analysis.setExtractedInsights("AI analysis unavailable");
+        analysis.setRecommendations("Retry the analysis once the AI service is available");
+    }
+    
+    /**
+     * @param mode     analysis mode the call belongs to, for the token counters
+     * @param analysis what the call analyzes, so pattern detection can be told apart from causality and risk
+     */
+    private String callOpenAI(String prompt, int maxTokens, String mode, String analysis, boolean persistentCache,
+                              Consumer<String> tokenListener) {
+        LlmResponseCache.Key cacheKey = LlmResponseCache.Key.of(model, ANALYSIS_TEMPERATURE, prompt);
+        if (tokenListener == null) {
+            return responseCache.getOrCompute(cacheKey, persistentCache,
+                () -> requestCompletion(prompt, maxTokens, mode, analysis));
+        }
+        
+        AtomicBoolean streamed = new AtomicBoolean();
+        String response = responseCache.getOrCompute(cacheKey, persistentCache, () -> {
+            streamed.set(true);
+            return streamCompletion(prompt, maxTokens, tokenListener);
+        });
+        if (!streamed.get()) {
+            // Served from the cache or by a coalesced call, so hand the listener the whole response at once
+            tokenListener.accept(response);
         }
+        return response;
+    }
+    
+    private String requestCompletion(String prompt, int maxTokens, String mode, String analysis) {
+        LlmClient.Completion result = callGate.execute(TokenEstimator.estimate(prompt) + maxTokens,
+            () -> llmClient.complete(buildCompletionRequest(prompt, maxTokens)));
+        if (result.promptTokens() != null && result.completionTokens() != null) {
+            // Token usage per analysis mode, for comparing the cost of separate and combined prompts
+            meterRegistry.counter("llm.analysis.tokens", "mode", mode, "analysis", analysis, "type", "prompt")
+                .increment(result.promptTokens());
+            meterRegistry.counter("llm.analysis.tokens", "mode", mode, "analysis", analysis, "type", "completion")
+                .increment(result.completionTokens());
+        }
+        
+        return result.content();
+    }
+    
+    /**
+     * Stream the completion, forwarding each content delta to the listener. The gate permit is held
+     * until the stream ends. Streamed chunks carry no usage figures, so token counters are not updated.
+     */
+    private String streamCompletion(String prompt, int maxTokens, Consumer<String> tokenListener) {
+        return callGate.execute(TokenEstimator.estimate(prompt) + maxTokens,
+            () -> llmClient.stream(buildCompletionRequest(prompt, maxTokens), tokenListener));
+    }
+    
+    private LlmClient.CompletionRequest buildCompletionRequest(String prompt, int maxTokens) {
+        return new LlmClient.CompletionRequest(model, null, prompt, maxTokens, ANALYSIS_TEMPERATURE);
     }
     
     private String buildCausalityAssessmentPrompt(AdverseEvent adverseEvent) {
@@ -116,8 +286,7 @@ public class AiAnalysisService {
             As a pharmacovigilance expert, please assess the causality between the drug and adverse event.
             
             Case Details:
-            - Case Number: %s
-            - Drug: %s
+            %s- Drug: %s
             - Patient ID: %s
             - Adverse Event: %s
             - Severity: %s
@@ -133,7 +302,7 @@ public class AiAnalysisService {
             
             Format your response as a structured analysis.
             """, 
-            adverseEvent.getCaseNumber(),
+            caseNumberLine(adverseEvent),
             adverseEvent.getDrugName(),
             adverseEvent.getPatient() != null ? adverseEvent.getPatient().getPatientId() : "N/A",
             adverseEvent.getAdverseEventDescription(),
@@ -149,8 +318,7 @@ public class AiAnalysisService {
             As a pharmacovigilance expert, please perform a risk analysis for this adverse event.
             
             Case Details:
-            - Case Number: %s
-            - Drug: %s
+            %s- Drug: %s
             - Patient ID: %s
             - Adverse Event: %s
             - Severity: %s
@@ -165,7 +333,7 @@ public class AiAnalysisService {
             
             Format your response as a structured risk assessment.
             """,
-            adverseEvent.getCaseNumber(),
+            caseNumberLine(adverseEvent),
             adverseEvent.getDrugName(),
             adverseEvent.getPatient() != null ? adverseEvent.getPatient().getPatientId() : "N/A",
             adverseEvent.getAdverseEventDescription(),
@@ -174,6 +342,48 @@ public class AiAnalysisService {
         );
     }
     
+    private String buildCombinedAnalysisPrompt(AdverseEvent adverseEvent) {
+        return String.format("""
+            As a pharmacovigilance expert, please assess the causality between the drug and adverse event
+            and perform a risk analysis for it.
+            
+            Case Details:
+            %s- Drug: %s
+            - Patient ID: %s
+            - Adverse Event: %s
+            - Severity: %s
+            - Symptoms: %s
+            - Medical History: %s
+            - Concomitant Medications: %s
+            
+            Respond ONLY with a JSON object of this form:
+            {
+              "causalityAssessment": {
+                "assessment": "CERTAIN, PROBABLE, POSSIBLE, UNLIKELY, UNCLASSIFIABLE or UNASSESSABLE",
+                "reasoning": "Reasoning for your assessment",
+                "keyFactors": ["Key factors that influenced your decision"],
+                "recommendations": ["Recommendations for further investigation"]
+              },
+              "riskAnalysis": {
+                "riskLevel": "LOW, MEDIUM, HIGH or CRITICAL",
+                "patientSafetyImpact": "Potential impact on patient safety",
+                "regulatoryImplications": "Regulatory implications",
+                "mitigationStrategies": ["Risk mitigation strategies"],
+                "monitoringRecommendations": ["Monitoring recommendations"]
+              }
+            }
+            """,
+            caseNumberLine(adverseEvent),
+            adverseEvent.getDrugName(),
+            adverseEvent.getPatient() != null ? adverseEvent.getPatient().getPatientId() : "N/A",
+            adverseEvent.getAdverseEventDescription(),
+            adverseEvent.getSeverity(),
+            adverseEvent.getSymptoms(),
+            adverseEvent.getMedicalHistory(),
+            adverseEvent.getConcomitantMedications()
+        );
+    }
+    
     private String buildPatternDetectionPrompt(List<AdverseEvent> adverseEvents) {
         StringBuilder prompt = new StringBuilder("""
             As a pharmacovigilance expert, please analyze the following adverse events for patterns and trends.
@@ -208,6 +418,32 @@ public class AiAnalysisService {
         return prompt.toString();
     }
     
+    private String stripCodeFences(String response) {
+        String cleaned = response.trim();
+        if (cleaned.startsWith("```json")) {
+            cleaned = cleaned.substring(7);
+        } else if (cleaned.startsWith("```")) {
+            cleaned = cleaned.substring(3);
+        }
+        if (cleaned.endsWith("```")) {
+            cleaned = cleaned.substring(0, cleaned.length() - 3);
+        }
+        return cleaned.trim();
+    }
+    
+    private String joinValues(JsonNode node) {
+        if (node.isArray()) {
+            List<String> values = new ArrayList<>();
+            node.forEach(value -> values.add(value.asText()));
+            return String.join("; ", values);
+        }
+        return node.asText("");
+    }
+    
+    private String truncate(String value) {
+        return value.length() > 1000 ? value.substring(0, 1000) : value;
+    }
+    
     private String extractInsights(String response) {
         // Simple extraction - in a real implementation, you might use more sophisticated NLP
         if (response.contains("Key factors:")) {
@@ -228,10 +464,12 @@ public class AiAnalysisService {
         return "AI-generated recommendations from the analysis";
     }
     
+    @Transactional(readOnly = true)
     public List<AiAnalysis> findByAdverseEvent(AdverseEvent adverseEvent) {
         return aiAnalysisRepository.findByAdverseEvent(adverseEvent);
     }
     
+    @Transactional(readOnly = true)
     public Optional<AiAnalysis> findById(Long id) {
         return aiAnalysisRepository.findById(id);
     }
@@ -0,0 +1,92 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Token-aware splitting of long documents into overlapping chunks for extraction.
+ * Text is cut at page breaks, blank lines and section headings first, and those segments are packed
+ * into chunks of at most {@code maxTokens}. Each chunk after the first repeats the last
+ * {@code overlapTokens} of the previous one, so a finding that straddles a boundary is seen whole.
+ */
+public final class DocumentChunker {
+    
+    /**
+     * Page separator written by {@link DocumentParsingService#parsePdfFile(byte[])}
+     */
+    public static final String PAGE_BREAK = "\f";
+    
+    private static final int CHARS_PER_TOKEN = 4;
+    // Page breaks, blank lines, and lines that look like headings ("HOSPITAL COURSE", "Medications:")
+    private static final Pattern SEGMENT_BOUNDARY = Pattern.compile(
+        "\\f|\\n\\s*\\n|\\n(?=[ \\t]*(?:[A-Z][A-Z /&-]{3,}|[A-Z][A-Za-z /&-]{2,40}:)[ \\t]*\\n)");
+    
+    private DocumentChunker() {
+    }
+    
+    public static List<String> chunk(String text, int maxTokens, int overlapTokens) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        if (TokenEstimator.estimate(text) <= maxTokens) {
+            return List.of(text);
+        }
+        
+        int maxChars = maxTokens * CHARS_PER_TOKEN;
+        int overlapChars = Math.min(overlapTokens * CHARS_PER_TOKEN, maxChars / 2);
+        
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String segment : segments(text, maxChars - overlapChars)) {
+            if (current.length() > 0 && current.length() + segment.length() + 1 > maxChars) {
+                String completed = current.toString();
+                chunks.add(completed);
+                current.setLength(0);
+                current.append(tail(completed, overlapChars));
+            }
+            if (current.length() > 0) {
+                current.append('\n');
+            }
+            current.append(segment);
+        }
+        if (!current.toString().isBlank()) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+    
+    private static List<String> segments(String text, int maxSegmentChars) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : SEGMENT_BOUNDARY.split(text)) {
+            String trimmed = segment.strip();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            // A single oversized section is cut at whitespace so it still fits in one chunk
+            while (trimmed.length() > maxSegmentChars) {
+                int cut = trimmed.lastIndexOf(' ', maxSegmentChars);
+                if (cut <= maxSegmentChars / 2) {
+                    cut = maxSegmentChars;
+                }
+                segments.add(trimmed.substring(0, cut).strip());
+                trimmed = trimmed.substring(cut).strip();
+            }
+            if (!trimmed.isEmpty()) {
+                segments.add(trimmed);
+            }
+        }
+        return segments;
+    }
+    
+    private static String tail(String text, int chars) {
+        if (chars <= 0) {
+            return "";
+        }
+        if (text.length() <= chars) {
+            return text;
+        }
+        int start = text.indexOf(' ', text.length() - chars);
+        return start < 0 ? text.substring(text.length() - chars) : text.substring(start + 1);
+    }
+}
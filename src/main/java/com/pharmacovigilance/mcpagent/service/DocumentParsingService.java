@@ -1,33 +1,115 @@
 package com.pharmacovigilance.mcpagent.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.tika.Tika;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.mail.BodyPart;
-import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Part;
 import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.util.SharedFileInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class DocumentParsingService {
     
-    private final Tika tika = new Tika();
+    private static final long MIN_RANGE_MAIN_MEMORY = 1024 * 1024;
+    private static final String ATTACHMENTS_SEPARATOR = "\n\n";
+    
+    private final MeterRegistry meterRegistry;
+    private final ParsedDocumentCache documentCache;
+    private final TikaParserPool tikaParserPool;
+    @Qualifier("documentParsingExecutor")
+    private final Executor documentParsingExecutor;
+    @Qualifier("pdfPageExecutor")
+    private final Executor pdfPageExecutor;
+    
+    /**
+     * Heap PDFBox may use for decoded streams of one document before it spills to a scratch file
+     */
+    @Value("${pharmacovigilance.parsing.pdf.max-main-memory:16MB}")
+    private DataSize pdfMaxMainMemory;
+    
+    /**
+     * Directory for spooled uploads and PDFBox scratch files; defaults to java.io.tmpdir
+     */
+    @Value("${pharmacovigilance.parsing.spool-dir:}")
+    private String spoolDir;
+    
+    /**
+     * Bytes read from the start of a file to detect its type; the rest of the upload is never opened
+     */
+    @Value("${pharmacovigilance.parsing.tika.detection-header-bytes:64KB}")
+    private DataSize detectionHeaderBytes;
+    
+    @Value("${pharmacovigilance.parsing.email.max-attachment-size:25MB}")
+    private DataSize maxAttachmentSize;
+    
+    /**
+     * Attachment bytes processed per email; later attachments beyond it are skipped
+     */
+    @Value("${pharmacovigilance.parsing.email.max-total-attachment-size:50MB}")
+    private DataSize maxTotalAttachmentSize;
+    
+    /**
+     * PDFs with fewer pages are extracted on the calling thread in one pass
+     */
+    @Value("${pharmacovigilance.parsing.pdf.parallel.min-pages:64}")
+    private int parallelMinPages;
+    
+    @Value("${pharmacovigilance.parsing.pdf.parallel.min-pages-per-range:16}")
+    private int parallelMinPagesPerRange;
+    
+    /**
+     * Upper bound on page ranges per document; 0 means the number of available processors
+     */
+    @Value("${pharmacovigilance.parsing.pdf.parallel.max-ranges:0}")
+    private int parallelMaxRanges;
     
     /**
      * Parse PDF file and extract text content
@@ -35,22 +117,27 @@ public class DocumentParsingService {
     public String parsePdfFile(byte[] pdfBytes) throws IOException {
         log.info("Parsing PDF file, size: {} bytes", pdfBytes.length);
         
-        try (PDDocument document = Loader.loadPDF(pdfBytes)) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            String text = stripper.getText(document);
-            
-            log.info("Successfully extracted {} characters from PDF", text.length());
-            return text;
-        } catch (Exception e) {
-            log.error("Error parsing PDF file", e);
-            throw new IOException("Failed to parse PDF: " + e.getMessage());
-        }
+        // Already in heap, so read it in place rather than spooling a second copy
+        return extractPdfText(() -> new RandomAccessReadBuffer(pdfBytes), pdfBytes.length);
     }
     
     /**
-     * Parse PDF file from MultipartFile
+     * Parse a PDF from a stream without holding it in memory: the stream is spooled to a temp file and
+     * PDFBox reads it through a buffered random-access file with a bounded scratch-memory budget.
      */
-    public String parsePdfFile(MultipartFile file) throws IOException {
+    public String parsePdfStream(InputStream pdfStream) throws IOException {
+        return ingestPdf(pdfStream).text();
+    }
+    
+    /**
+     * Parse a PDF stream through the document cache. The SHA-256 of the stream is computed while it is
+     * spooled, and a PDF seen before is answered from the cache without being parsed again.
+     */
+    public ParsedDocument ingestPdf(InputStream pdfStream) throws IOException {
+        return ingest(pdfStream, ParsedDocument.PDF, ".pdf");
+    }
+    
+    public ParsedDocument ingestPdf(MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IOException("File is empty or null");
         }
@@ -60,32 +147,192 @@ public class DocumentParsingService {
             log.warn("File content type is {}, expected application/pdf", contentType);
         }
         
-        return parsePdfFile(file.getBytes());
+        try (InputStream stream = file.getInputStream()) {
+            return ingestPdf(stream);
+        }
     }
     
-    /**
-     * Parse PDF from Base64 encoded string
-     */
-    public String parsePdfFromBase64(String base64Content) throws IOException {
+    public ParsedDocument ingestPdfFromBase64(String base64Content) throws IOException {
         log.info("Parsing PDF from Base64 string");
         
-        try {
-            byte[] pdfBytes = Base64.getDecoder().decode(base64Content);
-            return parsePdfFile(pdfBytes);
+        try (InputStream decoded = decodeBase64(base64Content)) {
+            return ingestPdf(decoded);
         } catch (IllegalArgumentException e) {
             log.error("Invalid Base64 content", e);
             throw new IOException("Invalid Base64 content: " + e.getMessage());
         }
     }
     
+    /**
+     * Parse a PDF file on disk
+     */
+    public String parsePdfFile(Path pdfFile) throws IOException {
+        long size = Files.size(pdfFile);
+        log.info("Parsing PDF file, size: {} bytes", size);
+        return extractPdfText(() -> new RandomAccessReadBufferedFile(pdfFile.toFile()), size);
+    }
+    
+    /**
+     * Extracts the text of a PDF. Documents of at least {@code parallel.min-pages} pages are split into
+     * contiguous page ranges; each range opens its own {@link PDDocument} (they are not thread-safe) with
+     * an even share of the scratch budget and runs its own stripper on the page executor, while this
+     * thread extracts the first range. The ranges are joined in page order, so the output matches a
+     * single-threaded pass.
+     */
+    private String extractPdfText(PdfSource source, long size) throws IOException {
+        long startNanos = System.nanoTime();
+        long allocatedBefore = threadAllocatedBytes();
+        
+        try {
+            int pageCount;
+            int rangeCount;
+            String text = null;
+            try (RandomAccessRead firstSource = source.open();
+                 PDDocument document = Loader.loadPDF(firstSource, "", null, null, scratchMemory(1).streamCache)) {
+                pageCount = document.getNumberOfPages();
+                rangeCount = pageRangeCount(pageCount);
+                if (rangeCount <= 1) {
+                    text = newPageStripper().getText(document);
+                }
+            }
+            
+            long allocated;
+            if (text != null) {
+                allocated = threadAllocatedBytes() - allocatedBefore;
+            } else {
+                // Closed before the ranges open theirs, so together they stay within the budget
+                int pagesPerRange = (pageCount + rangeCount - 1) / rangeCount;
+                List<CompletableFuture<PageRangeText>> rest = new ArrayList<>();
+                for (int first = pagesPerRange + 1; first <= pageCount; first += pagesPerRange) {
+                    int startPage = first;
+                    int endPage = Math.min(first + pagesPerRange - 1, pageCount);
+                    rest.add(CompletableFuture.supplyAsync(
+                        () -> extractPageRange(source, startPage, endPage, rangeCount), pdfPageExecutor));
+                }
+                
+                StringBuilder joined = new StringBuilder(
+                    extractPageRange(source, 1, pagesPerRange, rangeCount).text());
+                allocated = threadAllocatedBytes() - allocatedBefore;
+                for (CompletableFuture<PageRangeText> range : rest) {
+                    PageRangeText rangeText = joinRange(range);
+                    joined.append(rangeText.text());
+                    allocated += rangeText.allocatedBytes();
+                }
+                text = joined.toString();
+            }
+            
+            meterRegistry.summary("document.parse.pdf.ranges").record(Math.max(rangeCount, 1));
+            meterRegistry.timer("document.parse.pdf.duration", "parallel", String.valueOf(rangeCount > 1))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            if (allocatedBefore >= 0) {
+                recordParseMemory("pdf", size, allocated);
+            }
+            log.info("Successfully extracted {} characters from {}-page PDF in {} range(s)",
+                text.length(), pageCount, Math.max(rangeCount, 1));
+            return text;
+        } catch (Exception e) {
+            log.error("Error parsing PDF file", e);
+            throw new IOException("Failed to parse PDF: " + e.getMessage());
+        }
+    }
+    
+    private int pageRangeCount(int pageCount) {
+        if (parallelMinPages <= 0 || pageCount < parallelMinPages) {
+            return 1;
+        }
+        int maxRanges = parallelMaxRanges > 0 ? parallelMaxRanges : Runtime.getRuntime().availableProcessors();
+        // Every range re-reads the cross-reference table, so ranges are never smaller than minPagesPerRange
+        return Math.max(1, Math.min(maxRanges, pageCount / Math.max(1, parallelMinPagesPerRange)));
+    }
+    
+    private PageRangeText extractPageRange(PdfSource source, int startPage, int endPage, int rangeCount) {
+        long allocatedBefore = threadAllocatedBytes();
+        try (RandomAccessRead rangeSource = source.open();
+             PDDocument document = Loader.loadPDF(rangeSource, "", null, null,
+                 scratchMemory(rangeCount).streamCache)) {
+            PDFTextStripper stripper = newPageStripper();
+            stripper.setStartPage(startPage);
+            stripper.setEndPage(endPage);
+            String text = stripper.getText(document);
+            return new PageRangeText(text, allocatedBefore < 0 ? 0 : threadAllocatedBytes() - allocatedBefore);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to extract pages " + startPage + "-" + endPage, e);
+        }
+    }
+    
+    private static PageRangeText joinRange(CompletableFuture<PageRangeText> range) throws IOException {
+        try {
+            return range.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Scratch budget for one opened document; the documents opened for page ranges split it evenly
+     */
+    private MemoryUsageSetting scratchMemory(int openDocuments) {
+        MemoryUsageSetting memoryUsage = MemoryUsageSetting.setupMixed(
+            Math.max(pdfMaxMainMemory.toBytes() / openDocuments, MIN_RANGE_MAIN_MEMORY));
+        if (spoolDir != null && !spoolDir.isBlank()) {
+            memoryUsage.setTempDir(Path.of(spoolDir).toFile());
+        }
+        return memoryUsage;
+    }
+    
+    private PDFTextStripper newPageStripper() throws IOException {
+        PDFTextStripper stripper = new TimedPageStripper(meterRegistry.timer("document.parse.pdf.page.duration"));
+        // Mark page ends so long documents can be chunked along page boundaries
+        stripper.setPageEnd(System.lineSeparator() + DocumentChunker.PAGE_BREAK);
+        return stripper;
+    }
+    
+    /**
+     * Parse PDF file from MultipartFile
+     */
+    public String parsePdfFile(MultipartFile file) throws IOException {
+        return ingestPdf(file).text();
+    }
+    
+    /**
+     * Parse PDF from Base64 encoded string.
+     * The content is decoded incrementally into a spooled file, so no decoded copy is held in heap.
+     */
+    public String parsePdfFromBase64(String base64Content) throws IOException {
+        return ingestPdfFromBase64(base64Content).text();
+    }
+    
     /**
      * Parse any document using Apache Tika
      */
     public String parseDocument(byte[] documentBytes) throws IOException {
         log.info("Parsing document using Apache Tika, size: {} bytes", documentBytes.length);
-        
-        try (InputStream stream = new ByteArrayInputStream(documentBytes)) {
-            String text = tika.parseToString(stream);
+        return parseDocument(new ByteArrayInputStream(documentBytes));
+    }
+    
+    /**
+     * Parse any document from a stream using Apache Tika
+     */
+    public String parseDocument(InputStream documentStream) throws IOException {
+        try (InputStream stream = documentStream) {
+            String text = tikaParserPool.parseToString(stream);
+            log.info("Successfully extracted {} characters from document", text.length());
+            return text;
+        } catch (Exception e) {
+            log.error("Error parsing document with Tika", e);
+            throw new IOException("Failed to parse document: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Parse any document on disk using Apache Tika; container formats are read from the file directly
+     */
+    public String parseDocument(Path documentFile) throws IOException {
+        try {
+            String text = tikaParserPool.parseToString(documentFile);
             log.info("Successfully extracted {} characters from document", text.length());
             return text;
         } catch (Exception e) {
@@ -94,16 +341,47 @@ public class DocumentParsingService {
         }
     }
     
+    /**
+     * Parse any document from Base64 encoded string, decoding it as it is spooled
+     */
+    public String parseDocumentFromBase64(String base64Content) throws IOException {
+        return ingestDocumentFromBase64(base64Content).text();
+    }
+    
     /**
      * Parse any document from MultipartFile
      */
     public String parseDocument(MultipartFile file) throws IOException {
+        return ingestDocument(file).text();
+    }
+    
+    /**
+     * Parse any document through the document cache, keyed by the SHA-256 of its bytes
+     */
+    public ParsedDocument ingestDocument(InputStream documentStream) throws IOException {
+        return ingest(documentStream, ParsedDocument.DOCUMENT, ".bin");
+    }
+    
+    public ParsedDocument ingestDocument(MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IOException("File is empty or null");
         }
         
         log.info("Parsing document: {} ({})", file.getOriginalFilename(), file.getContentType());
-        return parseDocument(file.getBytes());
+        try (InputStream stream = file.getInputStream()) {
+            return ingestDocument(stream);
+        }
+    }
+    
+    public ParsedDocument ingestDocumentFromBase64(String base64Content) throws IOException {
+        log.info("Parsing document from Base64 string");
+        
+        try (InputStream decoded = decodeBase64(base64Content)) {
+            return ingestDocument(decoded);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid Base64 content", e);
+            throw new IOException("Invalid Base64 content: " + e.getMessage());
+        }
     }
     
     /**
@@ -111,23 +389,75 @@ public class DocumentParsingService {
      */
     public Map<String, String> parseEmail(byte[] emailBytes) throws IOException {
         log.info("Parsing email, size: {} bytes", emailBytes.length);
-        
-        try (InputStream stream = new ByteArrayInputStream(emailBytes)) {
+        return parseEmail(new ByteArrayInputStream(emailBytes));
+    }
+    
+    /**
+     * Parse email content from a stream of raw email format (.eml)
+     */
+    public Map<String, String> parseEmail(InputStream emailStream) throws IOException {
+        try (InputStream stream = emailStream) {
             Session session = Session.getDefaultInstance(new Properties());
-            MimeMessage message = new MimeMessage(session, stream);
-            
+            return parseEmail(new MimeMessage(session, stream));
+        } catch (Exception e) {
+            log.error("Error parsing email", e);
+            throw new IOException("Failed to parse email: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Parse an .eml file on disk. The message is read through a shared file stream, so its parts and
+     * attachments are streamed from the file rather than copied into heap.
+     */
+    public Map<String, String> parseEmail(Path emailFile) throws IOException {
+        try (SharedFileInputStream stream = new SharedFileInputStream(emailFile.toFile())) {
+            Session session = Session.getDefaultInstance(new Properties());
+            return parseEmail(new MimeMessage(session, stream));
+        } catch (Exception e) {
+            log.error("Error parsing email", e);
+            throw new IOException("Failed to parse email: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Extract headers, body and attachments. Attachments are spooled as the MIME tree is walked and
+     * parsed on the parsing executor while the walk continues; their text is returned under
+     * {@code attachments}, each section headed with where in the message it came from.
+     */
+    private Map<String, String> parseEmail(MimeMessage message) throws Exception {
+        List<EmailAttachment> attachments = new ArrayList<>();
+        try {
             Map<String, String> emailData = new HashMap<>();
             emailData.put("subject", message.getSubject());
-            emailData.put("from", message.getFrom()[0].toString());
+            emailData.put("from", message.getFrom() != null && message.getFrom().length > 0
+                ? message.getFrom()[0].toString() : null);
             emailData.put("sentDate", message.getSentDate() != null ? message.getSentDate().toString() : null);
-            emailData.put("body", extractEmailBody(message));
             
-            log.info("Successfully parsed email with subject: {}", emailData.get("subject"));
-            return emailData;
+            StringBuilder body = new StringBuilder();
+            AtomicLong attachmentBudget = new AtomicLong(maxTotalAttachmentSize.toBytes());
+            collectEmailContent(message, "", body, attachments, attachmentBudget);
+            if (body.isEmpty() && !message.isMimeType("text/*") && !message.isMimeType("multipart/*")) {
+                body.append("Unable to extract email body");
+            }
+            emailData.put("body", body.toString());
             
-        } catch (Exception e) {
-            log.error("Error parsing email", e);
-            throw new IOException("Failed to parse email: " + e.getMessage());
+            if (!attachments.isEmpty()) {
+                emailData.put("attachments", joinAttachments(attachments));
+                emailData.put("attachmentCount", String.valueOf(attachments.size()));
+            }
+            
+            log.info("Successfully parsed email with subject: {} and {} attachment(s)",
+                emailData.get("subject"), attachments.size());
+            return emailData;
+        } finally {
+            for (EmailAttachment attachment : attachments) {
+                if (attachment.parse() != null) {
+                    attachment.parse().cancel(false);
+                }
+                if (attachment.spooled() != null) {
+                    Files.deleteIfExists(attachment.spooled());
+                }
+            }
         }
     }
     
@@ -135,22 +465,38 @@ public class DocumentParsingService {
      * Parse email from MultipartFile
      */
     public Map<String, String> parseEmail(MultipartFile file) throws IOException {
-        if (file == null || file.isEmpty()) {
-            throw new IOException("File is empty or null");
-        }
-        
-        return parseEmail(file.getBytes());
+        return emailFields(ingestEmail(file));
     }
     
     /**
      * Parse email from Base64 encoded string
      */
     public Map<String, String> parseEmailFromBase64(String base64Content) throws IOException {
+        return emailFields(ingestEmailFromBase64(base64Content));
+    }
+    
+    /**
+     * Parse an .eml stream through the document cache, keyed by the SHA-256 of its bytes
+     */
+    public ParsedDocument ingestEmail(InputStream emailStream) throws IOException {
+        return ingest(emailStream, ParsedDocument.EMAIL, ".eml");
+    }
+    
+    public ParsedDocument ingestEmail(MultipartFile file) throws IOException {
+        if (file == null || file.isEmpty()) {
+            throw new IOException("File is empty or null");
+        }
+        
+        try (InputStream stream = file.getInputStream()) {
+            return ingestEmail(stream);
+        }
+    }
+    
+    public ParsedDocument ingestEmailFromBase64(String base64Content) throws IOException {
         log.info("Parsing email from Base64 string");
         
-        try {
-            byte[] emailBytes = Base64.getDecoder().decode(base64Content);
-            return parseEmail(emailBytes);
+        try (InputStream decoded = decodeBase64(base64Content)) {
+            return ingestEmail(decoded);
         } catch (IllegalArgumentException e) {
             log.error("Invalid Base64 content", e);
             throw new IOException("Invalid Base64 content: " + e.getMessage());
@@ -158,55 +504,105 @@ public class DocumentParsingService {
     }
     
     /**
-     * Extract body text from email message
+     * Walk a MIME part: text parts go to the body, multiparts and forwarded messages are descended into,
+     * and attachments are spooled and handed to the parsing executor.
+     *
+     * @param provenance path of enclosing forwarded messages, empty at the top level
      */
-    private String extractEmailBody(Message message) throws Exception {
-        Object content = message.getContent();
-        
-        if (content instanceof String) {
-            return (String) content;
-        } else if (content instanceof MimeMultipart) {
-            return extractTextFromMultipart((MimeMultipart) content);
+    private void collectEmailContent(Part part, String provenance, StringBuilder body,
+                                     List<EmailAttachment> attachments, AtomicLong attachmentBudget) throws Exception {
+        if (part.isMimeType("message/rfc822")) {
+            // Forwarded message: its text joins the body and its attachments are processed recursively
+            Object content = part.getContent();
+            if (content instanceof Part nested) {
+                String name = part.getFileName() != null ? part.getFileName() : "forwarded message";
+                collectEmailContent(nested, provenance + name + "/", body, attachments, attachmentBudget);
+            }
+        } else if (isAttachment(part)) {
+            attachments.add(spoolAttachment(part, provenance, attachments.size() + 1, attachmentBudget));
+        } else if (part.isMimeType("text/plain")) {
+            body.append(part.getContent().toString());
+        } else if (part.isMimeType("text/html")) {
+            body.append(HtmlTextExtractor.toText(part.getContent().toString()));
+        } else if (part.getContent() instanceof MimeMultipart multipart) {
+            for (int i = 0; i < multipart.getCount(); i++) {
+                collectEmailContent(multipart.getBodyPart(i), provenance, body, attachments, attachmentBudget);
+            }
         }
-        
-        return "Unable to extract email body";
     }
     
     /**
-     * Extract text from multipart email content
+     * Parts sent as attachments, or named non-text parts; inline images carry no report text
+     */
+    private boolean isAttachment(Part part) throws MessagingException {
+        if (part.isMimeType("multipart/*") || part.isMimeType("image/*")) {
+            return false;
+        }
+        return Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())
+            || (part.getFileName() != null && !part.isMimeType("text/plain") && !part.isMimeType("text/html"));
+    }
+    
+    /**
+     * Spool one attachment within the per-attachment and per-message size limits and start parsing it.
+     * An attachment over either limit is recorded as skipped rather than failing the email.
      */
-    private String extractTextFromMultipart(MimeMultipart multipart) throws Exception {
-        StringBuilder result = new StringBuilder();
+    private EmailAttachment spoolAttachment(Part part, String provenance, int index, AtomicLong attachmentBudget)
+            throws Exception {
+        String fileName = part.getFileName() != null ? part.getFileName() : "attachment-" + index;
+        String source = provenance + fileName;
+        String contentType = part.getContentType() != null
+            ? part.getContentType().split(";")[0].trim().toLowerCase() : "application/octet-stream";
         
-        for (int i = 0; i < multipart.getCount(); i++) {
-            BodyPart bodyPart = multipart.getBodyPart(i);
-            
-            if (bodyPart.isMimeType("text/plain")) {
-                result.append(bodyPart.getContent().toString());
-            } else if (bodyPart.isMimeType("text/html")) {
-                // Strip HTML tags for simple text extraction
-                String html = bodyPart.getContent().toString();
-                result.append(stripHtmlTags(html));
-            } else if (bodyPart.getContent() instanceof MimeMultipart) {
-                result.append(extractTextFromMultipart((MimeMultipart) bodyPart.getContent()));
-            }
+        long limit = Math.min(maxAttachmentSize.toBytes(), attachmentBudget.get());
+        Path spooled = spoolAtMost(part.getInputStream(), ".att", limit);
+        if (spooled == null) {
+            String reason = limit < maxAttachmentSize.toBytes()
+                ? "total attachment size of the message exceeds " + maxTotalAttachmentSize
+                : "larger than " + maxAttachmentSize;
+            meterRegistry.counter("document.parse.email.attachments", "result", "skipped").increment();
+            log.warn("Skipping attachment {}: {}", source, reason);
+            return new EmailAttachment(source, contentType, null, null, reason);
         }
+        attachmentBudget.addAndGet(-Files.size(spooled));
+        meterRegistry.summary("document.parse.email.attachment.bytes").record(Files.size(spooled));
         
-        return result.toString();
+        boolean pdf = contentType.equals("application/pdf") || fileName.toLowerCase().endsWith(".pdf");
+        FutureTask<String> parse = new FutureTask<>(() -> pdf ? parsePdfFile(spooled) : parseDocument(spooled));
+        documentParsingExecutor.execute(parse);
+        return new EmailAttachment(source, contentType, spooled, parse, null);
     }
     
     /**
-     * Simple HTML tag stripper
+     * Collect the attachment texts in message order. The email itself is usually parsed on the parsing
+     * executor, so a parse that has not started yet is run here instead of waiting for a free thread.
      */
-    private String stripHtmlTags(String html) {
-        if (html == null) return "";
-        return html.replaceAll("<[^>]*>", " ")
-                   .replaceAll("\\s+", " ")
-                   .trim();
+    private String joinAttachments(List<EmailAttachment> attachments) {
+        StringBuilder joined = new StringBuilder();
+        for (EmailAttachment attachment : attachments) {
+            joined.append("--- Attachment: ").append(attachment.source())
+                .append(" (").append(attachment.contentType()).append(") ---\n");
+            if (attachment.parse() == null) {
+                joined.append("[skipped: ").append(attachment.skippedReason()).append("]\n");
+                continue;
+            }
+            attachment.parse().run();
+            try {
+                joined.append(attachment.parse().get()).append('\n');
+                meterRegistry.counter("document.parse.email.attachments", "result", "parsed").increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                joined.append("[not parsed: interrupted]\n");
+            } catch (ExecutionException e) {
+                meterRegistry.counter("document.parse.email.attachments", "result", "failed").increment();
+                log.warn("Failed to parse attachment {}", attachment.source(), e.getCause());
+                joined.append("[not parsed: ").append(e.getCause().getMessage()).append("]\n");
+            }
+        }
+        return joined.toString();
     }
     
     /**
-     * Detect document type from file
+     * Detect document type from the header bytes and name of a file
      */
     public String detectDocumentType(MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) {
@@ -214,7 +610,8 @@ public class DocumentParsingService {
         }
         
         try (InputStream stream = file.getInputStream()) {
-            String mimeType = tika.detect(stream);
+            byte[] header = stream.readNBytes((int) detectionHeaderBytes.toBytes());
+            String mimeType = tikaParserPool.detect(header, file.getOriginalFilename()).toString();
             log.info("Detected MIME type for {}: {}", file.getOriginalFilename(), mimeType);
             return mimeType;
         } catch (Exception e) {
@@ -223,6 +620,290 @@ public class DocumentParsingService {
         }
     }
     
+    /**
+     * Parse a file that is already on disk through the document cache, as the given kind
+     * ({@link ParsedDocument#PDF}, {@link ParsedDocument#DOCUMENT} or {@link ParsedDocument#EMAIL}).
+     * The file is hashed in place and left for the caller to delete.
+     */
+    public ParsedDocument ingestFile(Path file, String kind) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return parseCached(kind, HexFormat.of().formatHex(digest.digest()), file);
+    }
+    
+    /**
+     * Spools the stream while hashing it, then answers from the document cache or parses the spooled file
+     */
+    private ParsedDocument ingest(InputStream stream, String kind, String suffix) throws IOException {
+        MessageDigest digest = sha256();
+        Path spooled = spool(new DigestInputStream(stream, digest), suffix);
+        try {
+            return parseCached(kind, HexFormat.of().formatHex(digest.digest()), spooled);
+        } finally {
+            Files.deleteIfExists(spooled);
+        }
+    }
+    
+    private ParsedDocument parseCached(String kind, String contentHash, Path file) throws IOException {
+        Optional<ParsedDocument> cached = documentCache.getParsed(kind, contentHash);
+        if (cached.isPresent()) {
+            log.info("Reusing parsed {} for content hash {}", kind, contentHash);
+            return cached.get();
+        }
+        
+        ParsedDocument parsed = switch (kind) {
+            case ParsedDocument.PDF -> new ParsedDocument(kind, contentHash, parsePdfFile(file), Map.of());
+            case ParsedDocument.DOCUMENT -> new ParsedDocument(kind, contentHash, parseDocument(file), Map.of());
+            case ParsedDocument.EMAIL -> emailDocument(contentHash, parseEmail(file));
+            default -> throw new IllegalArgumentException("Unknown document kind: " + kind);
+        };
+        documentCache.putParsed(parsed);
+        return parsed;
+    }
+    
+    /**
+     * The email as one text, its body followed by its attachments. The fields keep the headers and where
+     * the attachments start, not a second copy of the text.
+     */
+    private static ParsedDocument emailDocument(String contentHash, Map<String, String> email) {
+        Map<String, String> fields = new HashMap<>(email);
+        String body = fields.remove("body");
+        String attachments = fields.remove("attachments");
+        if (attachments == null) {
+            return new ParsedDocument(ParsedDocument.EMAIL, contentHash, body, fields);
+        }
+        fields.put(ParsedDocument.ATTACHMENTS_OFFSET,
+            String.valueOf(body.length() + ATTACHMENTS_SEPARATOR.length()));
+        return new ParsedDocument(ParsedDocument.EMAIL, contentHash, body + ATTACHMENTS_SEPARATOR + attachments,
+            fields);
+    }
+    
+    /**
+     * The fields {@link #parseEmail(InputStream)} returns, with the body and attachments cut from the text
+     */
+    private static Map<String, String> emailFields(ParsedDocument email) {
+        Map<String, String> fields = new HashMap<>(email.fields());
+        String offset = fields.remove(ParsedDocument.ATTACHMENTS_OFFSET);
+        if (offset == null) {
+            fields.put("body", email.text());
+        } else {
+            int attachmentsStart = Integer.parseInt(offset);
+            fields.put("body", email.text().substring(0, attachmentsStart - ATTACHMENTS_SEPARATOR.length()));
+            fields.put("attachments", email.text().substring(attachmentsStart));
+        }
+        return fields;
+    }
+    
+    /**
+     * Decodes strictly, accepting only line breaks besides the Base64 alphabet; corrupt content fails the
+     * read with an {@link IllegalArgumentException}
+     */
+    private static InputStream decodeBase64(String base64Content) {
+        return new Base64DecodingInputStream(Base64.getDecoder().wrap(new AsciiCharSequenceInputStream(base64Content)));
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private Path spool(InputStream stream, String suffix) throws IOException {
+        Path spooled = createSpoolFile(suffix);
+        try {
+            long size = Files.copy(stream, spooled, StandardCopyOption.REPLACE_EXISTING);
+            log.debug("Spooled {} bytes to {}", size, spooled);
+            return spooled;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+    }
+    
+    /**
+     * Spool at most {@code maxBytes} of the stream; returns {@code null}, leaving nothing on disk, if the
+     * stream is longer
+     */
+    private Path spoolAtMost(InputStream stream, String suffix, long maxBytes) throws IOException {
+        Path spooled = createSpoolFile(suffix);
+        boolean exceeded = false;
+        try (InputStream in = stream; OutputStream out = Files.newOutputStream(spooled)) {
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > maxBytes) {
+                    exceeded = true;
+                    break;
+                }
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+        if (exceeded) {
+            Files.deleteIfExists(spooled);
+            return null;
+        }
+        return spooled;
+    }
+    
+    private Path createSpoolFile(String suffix) throws IOException {
+        return spoolDir != null && !spoolDir.isBlank()
+            ? Files.createTempFile(Path.of(spoolDir), "pv-ingest-", suffix)
+            : Files.createTempFile("pv-ingest-", suffix);
+    }
+    
+    /**
+     * Heap allocated while parsing one document, summed over the threads that extracted its page ranges.
+     * This bounds the document's contribution to peak heap and is what pod sizing should be based on.
+     */
+    private void recordParseMemory(String documentType, long documentBytes, long allocated) {
+        if (allocated < 0) {
+            return;
+        }
+        meterRegistry.summary("document.parse.heap.bytes", "type", documentType).record(allocated);
+        meterRegistry.summary("document.parse.size.bytes", "type", documentType).record(documentBytes);
+        log.info("Parsed {} document of {} bytes, heap allocated: {} bytes", documentType, documentBytes, allocated);
+    }
+    
+    private long threadAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadBean
+                && threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()) {
+            return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+    
+    private record EmailAttachment(String source, String contentType, Path spooled,
+                                   FutureTask<String> parse, String skippedReason) {
+    }
+    
+    /**
+     * Opens a fresh reader over the same PDF, one per document instance
+     */
+    @FunctionalInterface
+    private interface PdfSource {
+        RandomAccessRead open() throws IOException;
+    }
+    
+    private record PageRangeText(String text, long allocatedBytes) {
+    }
+    
+    /**
+     * Text stripper that records how long each page takes to extract
+     */
+    private static class TimedPageStripper extends PDFTextStripper {
+        
+        private final Timer pageTimer;
+        private long pageStartNanos;
+        
+        TimedPageStripper(Timer pageTimer) throws IOException {
+            this.pageTimer = pageTimer;
+        }
+        
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            pageStartNanos = System.nanoTime();
+            super.startPage(page);
+        }
+        
+        @Override
+        protected void endPage(PDPage page) throws IOException {
+            super.endPage(page);
+            pageTimer.record(System.nanoTime() - pageStartNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    /**
+     * Reads the characters of a Base64 string as bytes without copying it into a byte array, leaving out
+     * the CR and LF of line-wrapped content
+     */
+    private static class AsciiCharSequenceInputStream extends InputStream {
+        
+        private final CharSequence chars;
+        private int position;
+        
+        AsciiCharSequenceInputStream(CharSequence chars) {
+            this.chars = chars;
+        }
+        
+        @Override
+        public int read() {
+            skipLineBreaks();
+            return position < chars.length() ? nextByte() : -1;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int count = 0;
+            while (count < length) {
+                skipLineBreaks();
+                if (position >= chars.length()) {
+                    break;
+                }
+                buffer[offset + count++] = (byte) nextByte();
+            }
+            return count > 0 ? count : -1;
+        }
+        
+        /**
+         * Base64 is ASCII; a wider character would otherwise be truncated into a valid Base64 byte
+         */
+        private int nextByte() {
+            char c = chars.charAt(position++);
+            if (c > 0x7F) {
+                throw new IllegalArgumentException(
+                    String.format("Illegal base64 character U+%04X at %d", (int) c, position - 1));
+            }
+            return c;
+        }
+        
+        private void skipLineBreaks() {
+            while (position < chars.length() && (chars.charAt(position) == '\r' || chars.charAt(position) == '\n')) {
+                position++;
+            }
+        }
+    }
+    
+    /**
+     * Reports decoding errors of a {@link Base64.Decoder#wrap wrapped} decoder, which reads from memory and
+     * so fails only on corrupt content, as {@link IllegalArgumentException} like {@link Base64.Decoder#decode}
+     */
+    private static class Base64DecodingInputStream extends FilterInputStream {
+        
+        Base64DecodingInputStream(InputStream decoder) {
+            super(decoder);
+        }
+        
+        @Override
+        public int read() {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+    }
+    
     /**
      * Validate if file is a supported document type
      */
@@ -0,0 +1,227 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.model.Drug;
+import com.pharmacovigilance.mcpagent.repository.DrugRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory dictionary of the drugs table: every drug name, generic name and active ingredient, matched
+ * in documents with an {@link AhoCorasickMatcher}. Loaded once the application is ready and kept in step
+ * by {@link DrugService}: a saved or deleted drug updates the term index, and the automaton is rebuilt
+ * only when the set of terms changed. Readers always see a complete automaton.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DrugDictionary {
+    
+    private static final int MIN_TERM_LENGTH = 3;
+    
+    private final DrugRepository drugRepository;
+    private final MeterRegistry meterRegistry;
+    
+    private final Map<Long, DrugEntry> drugs = new HashMap<>();
+    private final Map<Long, Set<String>> drugTerms = new HashMap<>();
+    private final TreeMap<String, Set<Long>> terms = new TreeMap<>();
+    private volatile Snapshot snapshot = new Snapshot(AhoCorasickMatcher.build(List.of()), new TreeMap<>(), Map.of());
+    
+    @PostConstruct
+    void initialize() {
+        Gauge.builder("drug.dictionary.terms", this, dictionary -> dictionary.snapshot.matcher().size())
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Runs before the other startup listeners, which match against the dictionary
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void reload() {
+        List<Drug> all;
+        synchronized (this) {
+            // Read under the lock so a save committed meanwhile is not overwritten by a stale list
+            all = drugRepository.findAll();
+            drugs.clear();
+            drugTerms.clear();
+            terms.clear();
+            all.forEach(this::index);
+            publish();
+        }
+        log.info("Loaded {} drugs ({} terms) into the drug dictionary", all.size(), snapshot.matcher().size());
+    }
+    
+    /**
+     * Index a saved drug, replacing the terms of its previous version
+     */
+    public synchronized void drugSaved(Drug drug) {
+        if (drug.getId() == null) {
+            return;
+        }
+        Set<String> before = drugTerms.getOrDefault(drug.getId(), Set.of());
+        unindex(drug.getId());
+        index(drug);
+        if (!before.equals(drugTerms.getOrDefault(drug.getId(), Set.of()))) {
+            publish();
+        } else {
+            // Same terms, so the automaton stands; only the entry (code, display name) may have changed
+            snapshot = snapshot.withDrugs(Map.copyOf(drugs));
+        }
+    }
+    
+    public synchronized void drugDeleted(Long drugId) {
+        if (drugs.containsKey(drugId)) {
+            unindex(drugId);
+            publish();
+        }
+    }
+    
+    /**
+     * Every drug mention in the text, in text order, found in one pass. A term shared by several drugs
+     * (a generic name, say) yields one mention per drug.
+     */
+    public List<DrugMention> findMentions(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+        Snapshot current = snapshot;
+        long start = System.nanoTime();
+        List<DrugMention> mentions = new ArrayList<>();
+        for (AhoCorasickMatcher.Match match : current.matcher().findAll(text)) {
+            for (Long drugId : current.terms().getOrDefault(match.term(), Set.of())) {
+                DrugEntry drug = current.drugs().get(drugId);
+                if (drug != null) {
+                    mentions.add(new DrugMention(drug, text.substring(match.start(), match.end()), match.start()));
+                }
+            }
+        }
+        meterRegistry.timer("drug.dictionary.match.duration").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return mentions;
+    }
+    
+    /**
+     * The drug a name refers to exactly (drug name, generic name or active ingredient, any case)
+     */
+    public Optional<DrugEntry> resolve(String name) {
+        if (name == null) {
+            return Optional.empty();
+        }
+        Snapshot current = snapshot;
+        Set<Long> ids = current.terms().getOrDefault(AhoCorasickMatcher.normalize(name).trim(), Set.of());
+        return ids.stream().map(current.drugs()::get).filter(drug -> drug != null).findFirst();
+    }
+    
+    /**
+     * The drug a free-text name refers to: an exact name first, else the first drug mentioned in it
+     * ("Aspirin 100 mg tablets")
+     */
+    public Optional<DrugEntry> identify(String name) {
+        Optional<DrugEntry> exact = resolve(name);
+        if (exact.isPresent()) {
+            return exact;
+        }
+        List<DrugMention> mentions = findMentions(name);
+        return mentions.isEmpty() ? Optional.empty() : Optional.of(mentions.get(0).drug());
+    }
+    
+    /**
+     * IDs of drugs matching a name query: drugs mentioned in the query, and drugs with a term starting
+     * with it, so partial names still find their drug
+     */
+    public Set<Long> lookup(String query) {
+        Set<Long> ids = new LinkedHashSet<>();
+        if (query == null || query.isBlank()) {
+            return ids;
+        }
+        findMentions(query).forEach(mention -> ids.add(mention.drug().id()));
+        
+        String prefix = AhoCorasickMatcher.normalize(query).trim();
+        snapshot.terms().subMap(prefix, true, prefix + Character.MAX_VALUE, false)
+            .values().forEach(ids::addAll);
+        return ids;
+    }
+    
+    public int size() {
+        return snapshot.drugs().size();
+    }
+    
+    private void index(Drug drug) {
+        drugs.put(drug.getId(), new DrugEntry(drug.getId(), drug.getDrugCode(), drug.getDrugName()));
+        Set<String> indexed = new LinkedHashSet<>();
+        for (String name : new String[] {drug.getDrugName(), drug.getGenericName(), drug.getActiveIngredient()}) {
+            String term = name != null ? AhoCorasickMatcher.normalize(name).trim() : "";
+            if (term.length() >= MIN_TERM_LENGTH) {
+                terms.computeIfAbsent(term, t -> new LinkedHashSet<>()).add(drug.getId());
+                indexed.add(term);
+            }
+        }
+        drugTerms.put(drug.getId(), indexed);
+    }
+    
+    private void unindex(Long drugId) {
+        drugs.remove(drugId);
+        Set<String> previous = drugTerms.remove(drugId);
+        if (previous == null) {
+            return;
+        }
+        for (String term : previous) {
+            Set<Long> ids = terms.get(term);
+            if (ids != null && ids.remove(drugId) && ids.isEmpty()) {
+                terms.remove(term);
+            }
+        }
+    }
+    
+    /**
+     * Swap in an automaton and lookup maps built from the current index
+     */
+    private void publish() {
+        long start = System.nanoTime();
+        TreeMap<String, Set<Long>> published = new TreeMap<>();
+        terms.forEach((term, ids) -> published.put(term, Collections.unmodifiableSet(new LinkedHashSet<>(ids))));
+        snapshot = new Snapshot(AhoCorasickMatcher.build(terms.keySet()), published, Map.copyOf(drugs));
+        meterRegistry.timer("drug.dictionary.build.duration").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    
+    public record DrugEntry(Long id, String drugCode, String drugName) {
+    }
+    
+    /**
+     * One mention of a drug in a text
+     *
+     * @param matchedText the mention as written
+     * @param position    character offset of the mention
+     */
+    public record DrugMention(DrugEntry drug, String matchedText, int position) {
+    }
+    
+    /**
+     * Immutable view published to readers: the automaton, term to drug IDs, and drug entries
+     */
+    private record Snapshot(AhoCorasickMatcher matcher, TreeMap<String, Set<Long>> terms,
+                            Map<Long, DrugEntry> drugs) {
+        
+        Snapshot withDrugs(Map<Long, DrugEntry> updated) {
+            return new Snapshot(matcher, terms, updated);
+        }
+    }
+}
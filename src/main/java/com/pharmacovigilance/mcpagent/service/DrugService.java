@@ -4,13 +4,19 @@ import com.pharmacovigilance.mcpagent.model.Drug;
 import com.pharmacovigilance.mcpagent.repository.DrugRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
@@ -19,10 +25,31 @@ import java.util.Optional;
 public class DrugService {
     
     private final DrugRepository drugRepository;
+    private final DrugDictionary drugDictionary;
+    private final AdverseEventService adverseEventService;
     
+    /**
+     * Save a drug; once committed, the dictionary learns its names and events reported under them are
+     * linked to it
+     */
     public Drug save(Drug drug) {
         log.info("Saving drug: {}", drug.getDrugName());
-        return drugRepository.save(drug);
+        Drug saved = drugRepository.save(drug);
+        afterCommit(() -> {
+            drugDictionary.drugSaved(saved);
+            adverseEventService.linkUnlinkedEvents();
+        });
+        return saved;
+    }
+    
+    /**
+     * Link the events the loaded dictionary identifies, such as those reported before their drug was added
+     * to the database directly
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void linkEventsOnStartup() {
+        adverseEventService.linkUnlinkedEvents();
     }
     
     public Optional<Drug> findById(Long id) {
@@ -45,6 +72,15 @@ public class DrugService {
         return drugRepository.findByDrugNameContainingIgnoreCase(name);
     }
     
+    /**
+     * Drugs named in the query or with a name, generic name or active ingredient starting with it,
+     * answered from the drug dictionary instead of a LIKE scan
+     */
+    public List<Drug> findByName(String name) {
+        Set<Long> ids = drugDictionary.lookup(name);
+        return ids.isEmpty() ? List.of() : drugRepository.findAllById(ids);
+    }
+    
     public List<Drug> findByManufacturer(String manufacturer) {
         return drugRepository.findByManufacturerContainingIgnoreCase(manufacturer);
     }
@@ -55,6 +91,23 @@ public class DrugService {
     
     public void deleteById(Long id) {
         drugRepository.deleteById(id);
+        afterCommit(() -> drugDictionary.drugDeleted(id));
+    }
+    
+    /**
+     * Update the dictionary only once the change is committed, so a rolled back save is never matched
+     */
+    private void afterCommit(Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
     }
 }
 
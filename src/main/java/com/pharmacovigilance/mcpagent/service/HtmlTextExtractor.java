@@ -0,0 +1,276 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single-pass HTML to text tokenizer. Reads markup as a stream of text, tags, comments and character
+ * references: script, style and head content is dropped, block-level tags become line breaks, table cells
+ * are separated by spaces, entities are decoded and runs of whitespace collapse to one space. A {@code <}
+ * that does not open a tag ("<5 mg") is kept as text. For text that is mostly not HTML, line and page
+ * breaks of the input can be kept instead of collapsed.
+ */
+public final class HtmlTextExtractor {
+    
+    private static final int MAX_ENTITY_LENGTH = 10;
+    
+    private static final Set<String> SKIPPED_ELEMENTS = Set.of("script", "style", "head", "noscript", "template");
+    
+    private static final Set<String> BLOCK_ELEMENTS = Set.of(
+        "address", "article", "aside", "blockquote", "br", "dd", "div", "dl", "dt", "footer", "form", "h1", "h2",
+        "h3", "h4", "h5", "h6", "header", "hr", "li", "main", "nav", "ol", "p", "pre", "section", "table", "tbody",
+        "thead", "tfoot", "tr", "ul");
+    
+    private static final Set<String> CELL_ELEMENTS = Set.of("td", "th");
+    
+    private static final Map<String, String> NAMED_ENTITIES = Map.ofEntries(
+        Map.entry("nbsp", " "), Map.entry("amp", "&"), Map.entry("lt", "<"), Map.entry("gt", ">"),
+        Map.entry("quot", "\""), Map.entry("apos", "'"), Map.entry("ndash", "-"), Map.entry("mdash", "-"),
+        Map.entry("lsquo", "'"), Map.entry("rsquo", "'"), Map.entry("ldquo", "\""), Map.entry("rdquo", "\""),
+        Map.entry("bull", "*"), Map.entry("middot", "*"), Map.entry("hellip", "..."), Map.entry("deg", "\u00b0"),
+        Map.entry("micro", "\u00b5"), Map.entry("plusmn", "\u00b1"), Map.entry("le", "\u2264"),
+        Map.entry("ge", "\u2265"), Map.entry("times", "x"), Map.entry("copy", "(c)"), Map.entry("reg", "(R)"));
+    
+    private final Reader in;
+    private final boolean keepLineBreaks;
+    private final StringBuilder out = new StringBuilder();
+    private int pending = -1;
+    
+    private HtmlTextExtractor(Reader in, boolean keepLineBreaks) {
+        this.in = in;
+        this.keepLineBreaks = keepLineBreaks;
+    }
+    
+    public static String toText(String html) {
+        return toText(html, false);
+    }
+    
+    /**
+     * @param keepLineBreaks keep the {@code \n} and {@code \f} of the input, with at most one blank line in a
+     *                       row, rather than collapsing them into spaces
+     */
+    public static String toText(String html, boolean keepLineBreaks) {
+        if (html == null) {
+            return "";
+        }
+        try {
+            return toText(new StringReader(html), keepLineBreaks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    public static String toText(Reader html) throws IOException {
+        return toText(html, false);
+    }
+    
+    private static String toText(Reader html, boolean keepLineBreaks) throws IOException {
+        HtmlTextExtractor extractor = new HtmlTextExtractor(html, keepLineBreaks);
+        extractor.run();
+        return extractor.out.toString().strip();
+    }
+    
+    private void run() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '<') {
+                readMarkup();
+            } else if (c == '&') {
+                readEntity();
+            } else if (keepLineBreaks && (c == '\n' || c == '\f')) {
+                appendInputBreak((char) c);
+            } else if (Character.isWhitespace(c)) {
+                appendSpace();
+            } else {
+                out.append((char) c);
+            }
+        }
+    }
+    
+    /**
+     * After a {@code <}: a comment, a declaration, a tag, or a literal {@code <}
+     */
+    private void readMarkup() throws IOException {
+        int c = read();
+        if (c == '!' || c == '?') {
+            skipPast(readCommentOpening() ? "-->" : ">");
+        } else if (c == '/' || Character.isLetter(c)) {
+            boolean closing = c == '/';
+            StringBuilder name = new StringBuilder();
+            if (!closing) {
+                name.append((char) c);
+            }
+            while ((c = read()) != -1 && (Character.isLetterOrDigit(c) || c == '-' || c == ':')) {
+                name.append((char) c);
+            }
+            // Attributes: skip to the closing '>', ignoring any inside quoted values
+            int quote = 0;
+            while (c != -1 && (c != '>' || quote != 0)) {
+                if (quote == 0 && (c == '"' || c == '\'')) {
+                    quote = c;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                c = read();
+            }
+            handleTag(name.toString().toLowerCase(Locale.ROOT), closing);
+        } else {
+            out.append('<');
+            if (c != -1) {
+                pending = c;
+            }
+        }
+    }
+    
+    private void handleTag(String name, boolean closing) throws IOException {
+        if (!closing && SKIPPED_ELEMENTS.contains(name)) {
+            skipElementContent(name);
+        } else if (BLOCK_ELEMENTS.contains(name)) {
+            appendLineBreak();
+        } else if (CELL_ELEMENTS.contains(name) && !closing) {
+            appendSpace();
+        }
+    }
+    
+    /**
+     * Drop everything up to and including the matching end tag
+     */
+    private void skipElementContent(String name) throws IOException {
+        String endTag = "</" + name;
+        int matched = 0;
+        int c;
+        while ((c = read()) != -1) {
+            matched = Character.toLowerCase(c) == endTag.charAt(matched) ? matched + 1
+                : (c == '<' ? 1 : 0);
+            if (matched == endTag.length()) {
+                while ((c = read()) != -1 && c != '>') {
+                    // rest of the end tag
+                }
+                return;
+            }
+        }
+    }
+    
+    /**
+     * After a {@code &}: a named or numeric character reference, or a literal {@code &}
+     */
+    private void readEntity() throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = read()) != -1 && name.length() < MAX_ENTITY_LENGTH
+                && (Character.isLetterOrDigit(c) || (c == '#' && name.isEmpty()))) {
+            name.append((char) c);
+        }
+        String decoded = c == ';' ? decode(name.toString()) : null;
+        if (decoded == null) {
+            out.append('&').append(name);
+            if (c != -1) {
+                pending = c;
+            }
+        } else if (decoded.equals(" ")) {
+            appendSpace();
+        } else {
+            out.append(decoded);
+        }
+    }
+    
+    private static String decode(String name) {
+        if (name.startsWith("#")) {
+            try {
+                int codePoint = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X')
+                    ? Integer.parseInt(name.substring(2), 16)
+                    : Integer.parseInt(name.substring(1));
+                if (!Character.isValidCodePoint(codePoint)) {
+                    return null;
+                }
+                return codePoint == 0xA0 ? " " : new String(Character.toChars(codePoint));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return NAMED_ENTITIES.get(name.toLowerCase(Locale.ROOT));
+    }
+    
+    /**
+     * Consume input up to and including {@code terminator}, or to the end of the input
+     */
+    private void skipPast(String terminator) throws IOException {
+        StringBuilder tail = new StringBuilder();
+        int c;
+        while ((c = read()) != -1) {
+            tail.append((char) c);
+            if (tail.length() > terminator.length()) {
+                tail.deleteCharAt(0);
+            }
+            if (tail.toString().equals(terminator)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Consume {@code --} if it comes next, telling a comment from other declarations
+     */
+    private boolean readCommentOpening() throws IOException {
+        int first = read();
+        if (first != '-') {
+            if (first != -1) {
+                pending = first;
+            }
+            return false;
+        }
+        int second = read();
+        if (second != '-') {
+            // "<!-x": a declaration; nothing of it is text, so the consumed '-' does not matter
+            if (second != -1) {
+                pending = second;
+            }
+            return false;
+        }
+        return true;
+    }
+    
+    private void appendSpace() {
+        int length = out.length();
+        if (length > 0 && !Character.isWhitespace(out.charAt(length - 1))) {
+            out.append(' ');
+        }
+    }
+    
+    /**
+     * A line or page break of the input; page breaks are always kept, line breaks up to one blank line
+     */
+    private void appendInputBreak(char c) {
+        int length = out.length();
+        if (length > 0 && out.charAt(length - 1) == ' ') {
+            out.setLength(--length);
+        }
+        if (c == '\f' || length < 2 || out.charAt(length - 1) != '\n' || out.charAt(length - 2) != '\n') {
+            out.append(c);
+        }
+    }
+    
+    private void appendLineBreak() {
+        int length = out.length();
+        if (length > 0 && out.charAt(length - 1) == ' ') {
+            out.setLength(--length);
+        }
+        if (length > 0 && out.charAt(length - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+    
+    private int read() throws IOException {
+        if (pending != -1) {
+            int c = pending;
+            pending = -1;
+            return c;
+        }
+        return in.read();
+    }
+}
@@ -0,0 +1,294 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Client-side gate in front of every LLM call.
+ * Combines token buckets for requests and tokens per minute with an AIMD concurrency limit: the limit
+ * grows by roughly one per limit's worth of successful calls and is cut by {@code backoff-ratio} when the
+ * provider answers 429, 5xx or times out. The calls in flight when the provider saturates tend to fail
+ * together, so only a failed call admitted after the last cut cuts the limit again. Callers that cannot
+ * get a permit wait in a bounded queue and are rejected with {@link CapacityExceededException} once
+ * {@code queue-timeout} elapses.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LlmCallGate {
+    
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${openai.gate.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${openai.gate.requests-per-minute:500}")
+    private int requestsPerMinute;
+    
+    @Value("${openai.gate.tokens-per-minute:90000}")
+    private int tokensPerMinute;
+    
+    @Value("${openai.gate.concurrency.initial-limit:8}")
+    private int initialLimit;
+    
+    @Value("${openai.gate.concurrency.min-limit:1}")
+    private int minLimit;
+    
+    @Value("${openai.gate.concurrency.max-limit:32}")
+    private int maxLimit;
+    
+    @Value("${openai.gate.concurrency.backoff-ratio:0.5}")
+    private double backoffRatio;
+    
+    @Value("${openai.gate.queue.max-size:100}")
+    private int maxQueueSize;
+    
+    @Value("${openai.gate.queue.timeout:30s}")
+    private Duration queueTimeout;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    
+    private double concurrencyLimit;
+    private int inFlight;
+    private int queued;
+    private double requestBucket;
+    private double tokenBucket;
+    private long lastRefillNanos;
+    private long decreases;
+    
+    private Timer waitTimer;
+    private Counter succeeded;
+    private Counter overloaded;
+    private Counter failed;
+    private Counter rejectedQueueFull;
+    private Counter rejectedTimeout;
+    private Counter callsInTransaction;
+    
+    public enum Outcome {
+        SUCCESS, OVERLOADED, FAILED
+    }
+    
+    /**
+     * Thrown when a call cannot be admitted within the queue timeout or the queue is full
+     */
+    public static class CapacityExceededException extends RuntimeException {
+        public CapacityExceededException(String message) {
+            super(message);
+        }
+    }
+    
+    @PostConstruct
+    void initialize() {
+        concurrencyLimit = initialLimit;
+        requestBucket = requestsPerMinute;
+        tokenBucket = tokensPerMinute;
+        lastRefillNanos = System.nanoTime();
+        
+        waitTimer = meterRegistry.timer("llm.gate.wait");
+        succeeded = meterRegistry.counter("llm.gate.calls", "outcome", "success");
+        overloaded = meterRegistry.counter("llm.gate.calls", "outcome", "overloaded");
+        failed = meterRegistry.counter("llm.gate.calls", "outcome", "failed");
+        rejectedQueueFull = meterRegistry.counter("llm.gate.rejected", "reason", "queue_full");
+        rejectedTimeout = meterRegistry.counter("llm.gate.rejected", "reason", "timeout");
+        callsInTransaction = meterRegistry.counter("llm.gate.calls.in_transaction");
+        Gauge.builder("llm.gate.concurrency.limit", this, gate -> gate.snapshot(() -> gate.concurrencyLimit))
+            .register(meterRegistry);
+        Gauge.builder("llm.gate.inflight", this, gate -> gate.snapshot(() -> gate.inFlight)).register(meterRegistry);
+        Gauge.builder("llm.gate.queued", this, gate -> gate.snapshot(() -> gate.queued)).register(meterRegistry);
+        
+        log.info("Initialized LLM call gate (enabled: {}, rpm: {}, tpm: {}, concurrency: {} [{}-{}])",
+                enabled, requestsPerMinute, tokensPerMinute, initialLimit, minLimit, maxLimit);
+    }
+    
+    /**
+     * Run the call once a permit and rate budget are available.
+     *
+     * @param estimatedTokens prompt plus completion tokens charged against the tokens-per-minute budget
+     */
+    public <T> T execute(int estimatedTokens, Supplier<T> call) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            // The caller's transaction keeps a pooled connection checked out for the whole round trip
+            callsInTransaction.increment();
+            log.warn("LLM call started inside an active transaction; a JDBC connection is held until it returns");
+        }
+        if (!enabled) {
+            return call.get();
+        }
+        
+        long admittedAfter = acquire(estimatedTokens);
+        Outcome outcome = Outcome.FAILED;
+        try {
+            T result = call.get();
+            outcome = Outcome.SUCCESS;
+            return result;
+        } catch (RuntimeException e) {
+            outcome = classify(e);
+            throw e;
+        } finally {
+            release(outcome, admittedAfter);
+        }
+    }
+    
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            refill();
+            stats.put("enabled", enabled);
+            stats.put("concurrencyLimit", Math.round(concurrencyLimit * 100) / 100.0);
+            stats.put("inFlight", inFlight);
+            stats.put("queued", queued);
+            stats.put("availableRequests", (long) requestBucket);
+            stats.put("availableTokens", (long) tokenBucket);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("succeeded", (long) succeeded.count());
+        stats.put("overloaded", (long) overloaded.count());
+        stats.put("failed", (long) failed.count());
+        stats.put("rejectedQueueFull", (long) rejectedQueueFull.count());
+        stats.put("rejectedTimeout", (long) rejectedTimeout.count());
+        stats.put("callsInTransaction", (long) callsInTransaction.count());
+        stats.put("meanWaitMillis", waitTimer.mean(TimeUnit.MILLISECONDS));
+        return stats;
+    }
+    
+    /**
+     * @return the number of limit cuts before the call was admitted
+     */
+    private long acquire(int estimatedTokens) {
+        // A single request larger than the whole budget could never be admitted, so cap its charge
+        double tokenCost = Math.min(Math.max(estimatedTokens, 1), tokensPerMinute);
+        long start = System.nanoTime();
+        long deadline = start + queueTimeout.toNanos();
+        
+        lock.lock();
+        try {
+            if (queued >= maxQueueSize) {
+                rejectedQueueFull.increment();
+                throw new CapacityExceededException("LLM request queue is full (" + maxQueueSize + " waiting)");
+            }
+            queued++;
+            try {
+                while (true) {
+                    refill();
+                    if (inFlight < (int) concurrencyLimit && requestBucket >= 1 && tokenBucket >= tokenCost) {
+                        requestBucket -= 1;
+                        tokenBucket -= tokenCost;
+                        inFlight++;
+                        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        return decreases;
+                    }
+                    
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        rejectedTimeout.increment();
+                        throw new CapacityExceededException("Timed out after " + queueTimeout
+                            + " waiting for LLM capacity");
+                    }
+                    permitReleased.awaitNanos(Math.min(remaining, nanosUntilRefill(tokenCost)));
+                }
+            } finally {
+                queued--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CapacityExceededException("Interrupted while waiting for LLM capacity");
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void release(Outcome outcome, long admittedAfter) {
+        lock.lock();
+        try {
+            inFlight--;
+            switch (outcome) {
+                case SUCCESS -> {
+                    succeeded.increment();
+                    concurrencyLimit = Math.min(maxLimit, concurrencyLimit + 1.0 / concurrencyLimit);
+                }
+                case OVERLOADED -> {
+                    overloaded.increment();
+                    if (admittedAfter == decreases) {
+                        // A call admitted before the last cut ran under the limit that cut already reduced
+                        decreases++;
+                        double previous = concurrencyLimit;
+                        concurrencyLimit = Math.max(minLimit, concurrencyLimit * backoffRatio);
+                        log.warn("LLM provider overloaded, reducing concurrency limit from {} to {}",
+                                String.format("%.2f", previous), String.format("%.2f", concurrencyLimit));
+                    }
+                }
+                case FAILED -> failed.increment();
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedMinutes = (now - lastRefillNanos) / (double) TimeUnit.MINUTES.toNanos(1);
+        lastRefillNanos = now;
+        requestBucket = Math.min(requestsPerMinute, requestBucket + elapsedMinutes * requestsPerMinute);
+        tokenBucket = Math.min(tokensPerMinute, tokenBucket + elapsedMinutes * tokensPerMinute);
+    }
+    
+    private long nanosUntilRefill(double tokenCost) {
+        double missingRequests = Math.max(0, 1 - requestBucket);
+        double missingTokens = Math.max(0, tokenCost - tokenBucket);
+        double minutes = Math.max(missingRequests / requestsPerMinute, missingTokens / tokensPerMinute);
+        // Still wake up periodically: a released permit signals, but a refill does not
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(10), (long) (minutes * TimeUnit.MINUTES.toNanos(1)));
+    }
+    
+    private double snapshot(Supplier<Number> value) {
+        lock.lock();
+        try {
+            return value.get().doubleValue();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * 429, 5xx and timeouts mean the provider is saturated; anything else is a plain failure
+     */
+    static Outcome classify(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof SocketTimeoutException) {
+                return Outcome.OVERLOADED;
+            }
+            if (t instanceof LlmClientException clientError && clientError.getStatusCode() > 0) {
+                return isOverloadStatus(clientError.getStatusCode()) ? Outcome.OVERLOADED : Outcome.FAILED;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return Outcome.FAILED;
+    }
+    
+    private static boolean isOverloadStatus(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
@@ -0,0 +1,33 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import java.util.function.Consumer;
+
+/**
+ * Chat-completion client used by the analysis and extraction services.
+ * {@code pharmacovigilance.llm.client} selects the implementation: {@code openai} calls the provider,
+ * {@code stub} answers locally for load testing without an API key.
+ */
+public interface LlmClient {
+    
+    Completion complete(CompletionRequest request);
+    
+    /**
+     * Stream the completion, passing each content delta to the listener as it arrives
+     *
+     * @return the full completion text
+     */
+    String stream(CompletionRequest request, Consumer<String> tokenListener);
+    
+    /**
+     * @param systemPrompt optional, {@code null} sends the user prompt only
+     */
+    record CompletionRequest(String model, String systemPrompt, String userPrompt, int maxTokens, double temperature) {
+    }
+    
+    /**
+     * @param promptTokens     provider-reported usage, {@code null} when unknown
+     * @param completionTokens provider-reported usage, {@code null} when unknown
+     */
+    record Completion(String content, Long promptTokens, Long completionTokens) {
+    }
+}
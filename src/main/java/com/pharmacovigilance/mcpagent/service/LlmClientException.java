@@ -0,0 +1,18 @@
+package com.pharmacovigilance.mcpagent.service;
+
+/**
+ * Failure reported by an {@link LlmClient}, carrying the HTTP status the provider answered with
+ */
+public class LlmClientException extends RuntimeException {
+    
+    private final int statusCode;
+    
+    public LlmClientException(String message, int statusCode, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+    }
+    
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,91 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight de-duplication of identical LLM requests.
+ * The first caller for a key performs the call; concurrent callers with the same key wait on its result
+ * instead of sending the same prompt again.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LlmRequestCoalescer {
+    
+    private final MeterRegistry meterRegistry;
+    
+    private final Map<LlmResponseCache.Key, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    
+    private Counter executed;
+    private Counter coalesced;
+    
+    @PostConstruct
+    void registerMetrics() {
+        executed = meterRegistry.counter("llm.requests.singleflight", "role", "leader");
+        coalesced = meterRegistry.counter("llm.requests.singleflight", "role", "coalesced");
+        Gauge.builder("llm.requests.inflight", inFlight, Map::size).register(meterRegistry);
+    }
+    
+    /**
+     * Run the loader unless an identical request is already in flight, in which case its result is shared.
+     * Failures are shared as well, so a provider error is not retried once per waiting caller, and any
+     * throwable completes the shared call so that no waiter is left blocked.
+     */
+    public String execute(LlmResponseCache.Key key, Supplier<String> loader) {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, call);
+        
+        if (existing != null) {
+            coalesced.increment();
+            log.debug("Coalescing LLM request for prompt hash: {}", key.promptHash());
+            return await(existing);
+        }
+        
+        executed.increment();
+        try {
+            String response = loader.get();
+            call.complete(response);
+            return response;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+    
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlight.size());
+        stats.put("executed", (long) executed.count());
+        stats.put("coalesced", (long) coalesced.count());
+        return stats;
+    }
+    
+    private String await(CompletableFuture<String> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
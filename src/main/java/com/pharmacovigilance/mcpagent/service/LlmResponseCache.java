@@ -0,0 +1,232 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.model.AiAnalysis;
+import com.pharmacovigilance.mcpagent.repository.AiAnalysisRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed cache for LLM chat completions.
+ * Entries are keyed by model, temperature and a SHA-256 hash of the prompt messages, so a change of
+ * {@code openai.model} never serves responses produced by the previous model.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LlmResponseCache {
+
+    private final AiAnalysisRepository aiAnalysisRepository;
+    private final LlmRequestCoalescer requestCoalescer;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${openai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${openai.cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${openai.cache.ttl:6h}")
+    private Duration ttl;
+
+    @Value("${openai.cache.persistent-tier.enabled:true}")
+    private boolean persistentTierEnabled;
+
+    @Value("${openai.cache.persistent-tier.ttl:7d}")
+    private Duration persistentTtl;
+
+    private final Map<Key, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedResponse> eldest) {
+            if (size() > maxEntries) {
+                sizeEvictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private Counter memoryHits;
+    private Counter persistentHits;
+    private Counter misses;
+    private Counter sizeEvictions;
+    private Counter expiredEvictions;
+    private Counter invalidations;
+
+    @PostConstruct
+    void registerMetrics() {
+        memoryHits = meterRegistry.counter("llm.cache.requests", "result", "hit", "tier", "memory");
+        persistentHits = meterRegistry.counter("llm.cache.requests", "result", "hit", "tier", "persistent");
+        misses = meterRegistry.counter("llm.cache.requests", "result", "miss", "tier", "none");
+        sizeEvictions = meterRegistry.counter("llm.cache.evictions", "cause", "size");
+        expiredEvictions = meterRegistry.counter("llm.cache.evictions", "cause", "expired");
+        invalidations = meterRegistry.counter("llm.cache.evictions", "cause", "invalidated");
+        Gauge.builder("llm.cache.size", this, LlmResponseCache::size).register(meterRegistry);
+
+        log.info("Initialized LLM response cache (enabled: {}, max entries: {}, ttl: {}, persistent tier: {})",
+                enabled, maxEntries, ttl, persistentTierEnabled);
+    }
+
+    /**
+     * Return the cached response for the key, or call the loader and cache its result.
+     * Concurrent misses for the same key share one loader call. Exceptions thrown by the loader
+     * are propagated and nothing is cached.
+     *
+     * @param persistent whether completed {@code ai_analyses} rows may answer a memory miss
+     */
+    public String getOrCompute(Key key, boolean persistent, Supplier<String> loader) {
+        if (!enabled) {
+            return requestCoalescer.execute(key, loader);
+        }
+
+        Optional<String> cached = getFromMemory(key);
+        if (cached.isPresent()) {
+            memoryHits.increment();
+            return cached.get();
+        }
+
+        return requestCoalescer.execute(key, () -> load(key, persistent, loader));
+    }
+
+    private String load(Key key, boolean persistent, Supplier<String> loader) {
+        if (persistent && persistentTierEnabled) {
+            Optional<String> stored = getFromPersistentTier(key);
+            if (stored.isPresent()) {
+                persistentHits.increment();
+                put(key, stored.get());
+                return stored.get();
+            }
+        }
+
+        misses.increment();
+        String response = loader.get();
+        put(key, response);
+        return response;
+    }
+
+    /**
+     * Drop every in-memory entry produced by the given model.
+     * Persisted analyses are matched on {@code modelUsed}, so they need no invalidation.
+     */
+    public int invalidateModel(String model) {
+        int removed;
+        synchronized (entries) {
+            int before = entries.size();
+            entries.keySet().removeIf(key -> key.model().equals(model));
+            removed = before - entries.size();
+        }
+        invalidations.increment(removed);
+        log.info("Invalidated {} cached LLM responses for model: {}", removed, model);
+        return removed;
+    }
+
+    public int invalidateAll() {
+        int removed;
+        synchronized (entries) {
+            removed = entries.size();
+            entries.clear();
+        }
+        invalidations.increment(removed);
+        log.info("Invalidated all {} cached LLM responses", removed);
+        return removed;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("size", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("ttl", ttl.toString());
+        stats.put("persistentTierEnabled", persistentTierEnabled);
+        stats.put("memoryHits", (long) memoryHits.count());
+        stats.put("persistentHits", (long) persistentHits.count());
+        stats.put("misses", (long) misses.count());
+        stats.put("sizeEvictions", (long) sizeEvictions.count());
+        stats.put("expiredEvictions", (long) expiredEvictions.count());
+        stats.put("invalidations", (long) invalidations.count());
+        return stats;
+    }
+
+    private Optional<String> getFromMemory(Key key) {
+        synchronized (entries) {
+            CachedResponse cached = entries.get(key);
+            if (cached == null) {
+                return Optional.empty();
+            }
+            if (cached.expiresAtNanos() - System.nanoTime() <= 0) {
+                entries.remove(key);
+                expiredEvictions.increment();
+                return Optional.empty();
+            }
+            return Optional.of(cached.response());
+        }
+    }
+
+    private Optional<String> getFromPersistentTier(Key key) {
+        try {
+            return aiAnalysisRepository
+                .findFirstByPromptHashAndModelUsedAndTemperatureAndStatusAndCreatedAtAfterOrderByCreatedAtDesc(
+                    key.promptHash(), key.model(), key.temperature(),
+                    AiAnalysis.AnalysisStatus.COMPLETED, LocalDateTime.now().minus(persistentTtl))
+                .map(AiAnalysis::getAiResponse);
+        } catch (Exception e) {
+            log.warn("Persistent LLM cache lookup failed, falling back to the model", e);
+            return Optional.empty();
+        }
+    }
+
+    private void put(Key key, String response) {
+        synchronized (entries) {
+            entries.put(key, new CachedResponse(response, System.nanoTime() + ttl.toNanos()));
+        }
+    }
+
+    /**
+     * SHA-256 over the prompt messages, hex encoded. Messages are separated by a NUL so that
+     * moving text between the system and user message changes the hash.
+     */
+    public static String hashPrompt(String... messages) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String message : messages) {
+                digest.update(message.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public record Key(String model, String promptHash, double temperature) {
+
+        public static Key of(String model, double temperature, String... messages) {
+            return new Key(model, hashPrompt(messages), temperature);
+        }
+    }
+
+    private record CachedResponse(String response, long expiresAtNanos) {
+    }
+}
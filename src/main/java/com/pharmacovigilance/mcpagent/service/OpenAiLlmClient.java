@@ -0,0 +1,90 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.completion.chat.ChatCompletionChoice;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import com.theokanning.openai.completion.chat.ChatMessageRole;
+import com.theokanning.openai.service.OpenAiService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import retrofit2.HttpException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link LlmClient} backed by the OpenAI chat-completion API
+ */
+@Component
+@ConditionalOnProperty(name = "pharmacovigilance.llm.client", havingValue = "openai", matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class OpenAiLlmClient implements LlmClient {
+    
+    private final OpenAiService openAiService;
+    
+    @Override
+    public Completion complete(CompletionRequest request) {
+        ChatCompletionResult result = translateErrors(() -> openAiService.createChatCompletion(toChatRequest(request)));
+        String content = result.getChoices()
+            .get(0)
+            .getMessage()
+            .getContent();
+        if (result.getUsage() == null) {
+            return new Completion(content, null, null);
+        }
+        return new Completion(content, result.getUsage().getPromptTokens(), result.getUsage().getCompletionTokens());
+    }
+    
+    @Override
+    public String stream(CompletionRequest request, Consumer<String> tokenListener) {
+        ChatCompletionRequest chatRequest = toChatRequest(request);
+        return translateErrors(() -> {
+            StringBuilder response = new StringBuilder();
+            openAiService.streamChatCompletion(chatRequest).blockingForEach(chunk -> {
+                for (ChatCompletionChoice choice : chunk.getChoices()) {
+                    String content = choice.getMessage() != null ? choice.getMessage().getContent() : null;
+                    if (content != null && !content.isEmpty()) {
+                        response.append(content);
+                        tokenListener.accept(content);
+                    }
+                }
+            });
+            return response.toString();
+        });
+    }
+    
+    private ChatCompletionRequest toChatRequest(CompletionRequest request) {
+        List<ChatMessage> messages = new ArrayList<>();
+        if (request.systemPrompt() != null) {
+            messages.add(new ChatMessage(ChatMessageRole.SYSTEM.value(), request.systemPrompt()));
+        }
+        messages.add(new ChatMessage(ChatMessageRole.USER.value(), request.userPrompt()));
+        
+        return ChatCompletionRequest.builder()
+            .model(request.model())
+            .messages(messages)
+            .maxTokens(request.maxTokens())
+            .temperature(request.temperature())
+            .build();
+    }
+    
+    /**
+     * Surface provider HTTP errors as {@link LlmClientException} so callers need no OpenAI-specific types
+     */
+    private <T> T translateErrors(Supplier<T> call) {
+        try {
+            return call.get();
+        } catch (OpenAiHttpException e) {
+            throw new LlmClientException(e.getMessage(), e.statusCode, e);
+        } catch (HttpException e) {
+            throw new LlmClientException(e.getMessage(), e.code(), e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import java.util.Map;
+
+/**
+ * Text extracted from an ingested document, with the SHA-256 of its raw bytes.
+ *
+ * @param kind        parser that produced the text: {@code pdf}, {@code document} or {@code email}
+ * @param contentHash hex SHA-256 of the original bytes
+ * @param text        extracted text; for emails, the body followed by the text of its attachments
+ * @param fields      parsed email headers (subject, from, sentDate), attachmentCount and, with attachments,
+ *                    {@value #ATTACHMENTS_OFFSET}, where their text starts; empty for other kinds
+ */
+public record ParsedDocument(String kind, String contentHash, String text, Map<String, String> fields) {
+    
+    public static final String PDF = "pdf";
+    public static final String DOCUMENT = "document";
+    public static final String EMAIL = "email";
+    public static final String ATTACHMENTS_OFFSET = "attachmentsOffset";
+}
@@ -0,0 +1,396 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Cache of parsed documents and their extraction results, keyed by parser kind and the SHA-256 of the
+ * raw document bytes. Resubmitted PDFs and emails (follow-ups, re-forwards, retries) skip both parsing
+ * and the LLM extraction. The memory tier is bounded by the estimated heap its entries hold, evicting the
+ * least recently used. An on-disk tier, on when a directory is configured, keeps entries across restarts
+ * as one JSON file per document.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ParsedDocumentCache {
+    
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper;
+    
+    @Value("${pharmacovigilance.parsing.cache.enabled:true}")
+    private boolean enabled;
+    
+    /**
+     * Heap the memory tier may hold, estimated from the characters of the cached text and extractions
+     */
+    @Value("${pharmacovigilance.parsing.cache.max-memory:64MB}")
+    private DataSize maxMemory;
+    
+    @Value("${pharmacovigilance.parsing.cache.ttl:24h}")
+    private Duration ttl;
+    
+    /**
+     * Directory of the on-disk tier; no disk tier when unset
+     */
+    @Value("${pharmacovigilance.parsing.cache.disk-tier.directory:}")
+    private String diskTierDirectory;
+    
+    @Value("${pharmacovigilance.parsing.cache.disk-tier.ttl:7d}")
+    private Duration diskTierTtl;
+    
+    /**
+     * Least recently used first
+     */
+    private final Map<Key, CachedDocument> entries = new LinkedHashMap<>(16, 0.75f, true);
+    
+    /**
+     * Estimated heap held by {@link #entries}; guarded by it
+     */
+    private long memoryBytes;
+    private Path diskTier;
+    private Counter sizeEvictions;
+    private Counter expiredEvictions;
+    
+    @PostConstruct
+    void initialize() {
+        sizeEvictions = meterRegistry.counter("document.cache.evictions", "cause", "size");
+        expiredEvictions = meterRegistry.counter("document.cache.evictions", "cause", "expired");
+        Gauge.builder("document.cache.size", this, ParsedDocumentCache::size).register(meterRegistry);
+        Gauge.builder("document.cache.memory", this, ParsedDocumentCache::memoryBytes)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        
+        if (enabled && diskTierDirectory != null && !diskTierDirectory.isBlank()) {
+            diskTier = Path.of(diskTierDirectory);
+            try {
+                Files.createDirectories(diskTier);
+            } catch (IOException e) {
+                log.warn("Cannot create document cache directory {}, disk tier disabled", diskTier, e);
+                diskTier = null;
+            }
+        }
+        
+        log.info("Initialized parsed document cache (enabled: {}, max memory: {}, ttl: {}, disk tier: {})",
+                enabled, maxMemory, ttl, diskTier);
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * The parsed text of a document seen before, from memory or the disk tier
+     */
+    public Optional<ParsedDocument> getParsed(String kind, String contentHash) {
+        if (!enabled || contentHash == null) {
+            return Optional.empty();
+        }
+        Key key = new Key(kind, contentHash);
+        Optional<CachedDocument> cached = lookup(key, "parsed");
+        return cached.map(CachedDocument::document);
+    }
+    
+    public void putParsed(ParsedDocument document) {
+        if (!enabled || document.contentHash() == null) {
+            return;
+        }
+        Key key = new Key(document.kind(), document.contentHash());
+        CachedDocument cached = CachedDocument.of(document, null, System.nanoTime() + ttl.toNanos());
+        putInMemory(key, cached);
+        writeToDisk(key, cached);
+    }
+    
+    /**
+     * Return the extraction cached for the document, or run the extractor and cache its result.
+     * Extractions that failed, entirely or for some chunks, and "not an adverse event" verdicts are
+     * returned but not cached, so a resubmission gets another attempt. Callers receive a copy they may
+     * modify.
+     */
+    public Map<String, Object> getOrComputeExtraction(ParsedDocument document,
+                                                      Supplier<Map<String, Object>> extractor) {
+        if (!enabled || document == null || document.contentHash() == null) {
+            return extractor.get();
+        }
+        
+        Key key = new Key(document.kind(), document.contentHash());
+        Optional<CachedDocument> cached = lookup(key, "extraction");
+        if (cached.isPresent() && cached.get().extraction() != null) {
+            return new LinkedHashMap<>(cached.get().extraction());
+        }
+        
+        Map<String, Object> extraction = extractor.get();
+        if (isCacheable(extraction)) {
+            CachedDocument updated = CachedDocument.of(document, new LinkedHashMap<>(extraction),
+                System.nanoTime() + ttl.toNanos());
+            putInMemory(key, updated);
+            writeToDisk(key, updated);
+        }
+        return extraction;
+    }
+    
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    
+    public long memoryBytes() {
+        synchronized (entries) {
+            return memoryBytes;
+        }
+    }
+    
+    public int invalidateAll() {
+        int removed;
+        synchronized (entries) {
+            removed = entries.size();
+            entries.clear();
+            memoryBytes = 0;
+        }
+        if (diskTier != null) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(diskTier, "*.json")) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to clear document cache directory {}", diskTier, e);
+            }
+        }
+        log.info("Invalidated all {} cached documents", removed);
+        return removed;
+    }
+    
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("size", size());
+        stats.put("memoryBytes", memoryBytes());
+        stats.put("maxMemoryBytes", maxMemory.toBytes());
+        stats.put("ttl", ttl.toString());
+        stats.put("diskTier", diskTier != null ? diskTier.toString() : null);
+        stats.put("sizeEvictions", (long) sizeEvictions.count());
+        stats.put("expiredEvictions", (long) expiredEvictions.count());
+        return stats;
+    }
+    
+    /**
+     * Delete disk-tier files older than the disk TTL
+     */
+    @Scheduled(fixedDelay = 3600000, initialDelay = 60000)
+    public void sweepDiskTier() {
+        if (diskTier == null) {
+            return;
+        }
+        Instant cutoff = Instant.now().minus(diskTierTtl);
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(diskTier, "*.json")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(cutoff) && Files.deleteIfExists(file)) {
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to sweep document cache directory {}", diskTier, e);
+        }
+        if (deleted > 0) {
+            expiredEvictions.increment(deleted);
+            log.info("Removed {} expired documents from the disk cache", deleted);
+        }
+    }
+    
+    private Optional<CachedDocument> lookup(Key key, String stage) {
+        Optional<CachedDocument> cached = getFromMemory(key);
+        if (cached.isPresent() && (stage.equals("parsed") || cached.get().extraction() != null)) {
+            recordHit(stage, "memory");
+            return cached;
+        }
+        
+        Optional<CachedDocument> stored = readFromDisk(key);
+        if (stored.isPresent() && (stage.equals("parsed") || stored.get().extraction() != null)) {
+            putInMemory(key, stored.get());
+            recordHit(stage, "disk");
+            return stored;
+        }
+        
+        meterRegistry.counter("document.cache.requests", "stage", stage, "result", "miss", "tier", "none").increment();
+        return Optional.empty();
+    }
+    
+    private void recordHit(String stage, String tier) {
+        meterRegistry.counter("document.cache.requests", "stage", stage, "result", "hit", "tier", tier).increment();
+        log.debug("Document cache {} hit in {} tier", stage, tier);
+    }
+    
+    /**
+     * Add an entry, evicting the least recently used until the tier fits its budget. An entry larger than
+     * the whole budget is only kept on disk.
+     */
+    private void putInMemory(Key key, CachedDocument cached) {
+        long budget = maxMemory.toBytes();
+        synchronized (entries) {
+            CachedDocument previous = entries.remove(key);
+            if (previous != null) {
+                memoryBytes -= previous.bytes();
+            }
+            if (cached.bytes() > budget) {
+                return;
+            }
+            entries.put(key, cached);
+            memoryBytes += cached.bytes();
+            Iterator<CachedDocument> leastRecent = entries.values().iterator();
+            while (memoryBytes > budget && leastRecent.hasNext()) {
+                memoryBytes -= leastRecent.next().bytes();
+                leastRecent.remove();
+                sizeEvictions.increment();
+            }
+        }
+    }
+    
+    private Optional<CachedDocument> getFromMemory(Key key) {
+        synchronized (entries) {
+            CachedDocument cached = entries.get(key);
+            if (cached == null) {
+                return Optional.empty();
+            }
+            if (cached.expiresAtNanos() - System.nanoTime() <= 0) {
+                entries.remove(key);
+                memoryBytes -= cached.bytes();
+                expiredEvictions.increment();
+                return Optional.empty();
+            }
+            return Optional.of(cached);
+        }
+    }
+    
+    private Optional<CachedDocument> readFromDisk(Key key) {
+        if (diskTier == null) {
+            return Optional.empty();
+        }
+        Path file = diskTier.resolve(key.fileName());
+        try {
+            if (!Files.exists(file)) {
+                return Optional.empty();
+            }
+            if (Files.getLastModifiedTime(file).toInstant().isBefore(Instant.now().minus(diskTierTtl))) {
+                Files.deleteIfExists(file);
+                expiredEvictions.increment();
+                return Optional.empty();
+            }
+            DiskEntry stored = objectMapper.readValue(file.toFile(), DiskEntry.class);
+            ParsedDocument document = new ParsedDocument(key.kind(), key.contentHash(), stored.text(),
+                stored.fields() != null ? stored.fields() : Map.of());
+            return Optional.of(CachedDocument.of(document, stored.extraction(), System.nanoTime() + ttl.toNanos()));
+        } catch (IOException e) {
+            log.warn("Unreadable document cache file {}, ignoring it", file, e);
+            return Optional.empty();
+        }
+    }
+    
+    private void writeToDisk(Key key, CachedDocument cached) {
+        if (diskTier == null) {
+            return;
+        }
+        Path file = diskTier.resolve(key.fileName());
+        Path partial = null;
+        try {
+            // Written to a temporary file first so a concurrent reader never sees a partial entry
+            partial = Files.createTempFile(diskTier, key.contentHash(), ".partial");
+            objectMapper.writeValue(partial.toFile(), new DiskEntry(cached.document().text(),
+                cached.document().fields(), cached.extraction()));
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to write document cache file {}", file, e);
+            deleteQuietly(partial);
+        }
+    }
+    
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Left for the next sweep of the cache directory
+        }
+    }
+    
+    private static boolean isCacheable(Map<String, Object> extraction) {
+        return extraction != null
+            && !extraction.containsKey("extractionError")
+            // A pre-screen or LLM miss would otherwise stick until the entry expires
+            && !Boolean.FALSE.equals(extraction.get("isAdverseEvent"))
+            && !(extraction.get("failedChunks") instanceof Number failed && failed.intValue() > 0);
+    }
+    
+    private record Key(String kind, String contentHash) {
+        
+        String fileName() {
+            return kind + "-" + contentHash + ".json";
+        }
+    }
+    
+    /**
+     * @param bytes estimated heap held by the entry: two bytes per character of its strings plus a fixed
+     *              overhead per entry
+     */
+    private record CachedDocument(ParsedDocument document, Map<String, Object> extraction, long expiresAtNanos,
+                                  long bytes) {
+        
+        private static final long ENTRY_OVERHEAD_BYTES = 512;
+        
+        static CachedDocument of(ParsedDocument document, Map<String, Object> extraction, long expiresAtNanos) {
+            long chars = characters(document.text()) + characters(document.fields()) + characters(extraction);
+            return new CachedDocument(document, extraction, expiresAtNanos, ENTRY_OVERHEAD_BYTES + 2 * chars);
+        }
+        
+        private static long characters(Object value) {
+            if (value instanceof CharSequence text) {
+                return text.length();
+            }
+            if (value instanceof Map<?, ?> map) {
+                long chars = 0;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    chars += characters(entry.getKey()) + characters(entry.getValue());
+                }
+                return chars;
+            }
+            if (value instanceof Collection<?> values) {
+                long chars = 0;
+                for (Object element : values) {
+                    chars += characters(element);
+                }
+                return chars;
+            }
+            // Numbers, booleans and nulls: about a reference and a small object
+            return 8;
+        }
+    }
+    
+    private record DiskEntry(String text, Map<String, String> fields, Map<String, Object> extraction) {
+    }
+}
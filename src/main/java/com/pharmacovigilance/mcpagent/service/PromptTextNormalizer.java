@@ -0,0 +1,364 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Shrinks parsed text before it is embedded in an extraction prompt. In order: HTML left in the text is
+ * converted with {@link HtmlTextExtractor}; headers and footers repeated on most PDF pages are removed;
+ * in emails, signatures and legal disclaimers are stripped from the body (never from attachments), and so is
+ * a quoted reply chain when the new text above it reads as a report on its own; finally whitespace is
+ * collapsed. Page breaks are kept for {@link DocumentChunker}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PromptTextNormalizer {
+    
+    /**
+     * Lines at the top and bottom of a page inspected for page furniture
+     */
+    private static final int FURNITURE_ZONE_LINES = 3;
+    private static final int MAX_SIGNATURE_LINES = 12;
+    private static final int MAX_DISCLAIMER_WORDS = 150;
+    
+    private static final Pattern HTML_RESIDUE = Pattern.compile(
+        "<(?:!doctype|html|head|body|div|p|br|span|table|tr|td|font|a\\s|img\\s|b>|i>|ul|li|style)[\\s>/]?"
+            + "|&(?:nbsp|amp|lt|gt|quot|#\\d{2,5});",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTACHMENT_HEADER = Pattern.compile("(?m)^--- Attachment: ");
+    // Line terminators without the form feed, which marks page breaks here
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r\\n|[\\n\\r\\u000B\\u0085\\u2028\\u2029]");
+    private static final Pattern PAGE_NUMBER = Pattern.compile(
+        "\\b(?:page|pg\\.?)\\s*\\d+(?:\\s*(?:of|/)\\s*\\d+)?\\b|^[-\\s]*\\d+(?:\\s*(?:of|/)\\s*\\d+)?[-\\s]*$",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern HORIZONTAL_SPACE = Pattern.compile("[ \\t\\u00a0\\u2007\\u202f]+");
+    
+    private static final Pattern REPLY_HEADER = Pattern.compile(
+        "^(?:On\\b.{0,250}\\bwrote:|-{2,}\\s*Original Message\\s*-{2,}|_{10,})\\s*$",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern REPLY_HEADER_START = Pattern.compile("^On\\b.{0,200}$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern OUTLOOK_FROM = Pattern.compile("^\\*?From:\\*?\\s+\\S.*$");
+    private static final Pattern OUTLOOK_FIELD = Pattern.compile("^\\*?(?:Sent|Date|To|Subject):\\*?\\s.*$");
+    private static final Pattern FORWARD_HEADER = Pattern.compile(
+        "^-{2,}\\s*Forwarded message\\s*-{2,}|^Begin forwarded message:", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SIGNATURE_DELIMITER = Pattern.compile("^-- ?$");
+    
+    private static final Pattern DISCLAIMER_STRONG = Pattern.compile(
+        "received this (?:e-?mail|message|communication|transmission) in error"
+            + "|intended (?:solely |only )?for the (?:use of the )?(?:named |intended )?(?:addressee|recipient)"
+            + "|consider the environment before printing",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern DISCLAIMER_WEAK = Pattern.compile(
+        "\\bconfidential\\b|\\bprivileged\\b|unauthori[sz]ed (?:use|disclosure|review|copying|distribution)"
+            + "|strictly prohibited|free (?:of|from) viruses|virus(?:es)? (?:check|scan)|legally binding",
+        Pattern.CASE_INSENSITIVE);
+    
+    private final AdverseEventPreScreener preScreener;
+    private final DrugDictionary drugDictionary;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${openai.extraction.normalization.enabled:true}")
+    private boolean enabled;
+    
+    /**
+     * Fraction of pages a header or footer line must repeat on to be dropped
+     */
+    @Value("${openai.extraction.normalization.page-furniture-min-share:0.5}")
+    private double furnitureMinShare;
+    
+    /**
+     * Normalize text of the given source type for prompting
+     */
+    public NormalizedText normalize(String text, String sourceType) {
+        int tokensBefore = TokenEstimator.estimate(text);
+        if (!enabled || text == null || text.isBlank()) {
+            return new NormalizedText(text, tokensBefore, tokensBefore, Map.of());
+        }
+        
+        Map<String, Integer> removed = new LinkedHashMap<>();
+        String normalized = text;
+        if (HTML_RESIDUE.matcher(normalized).find()) {
+            // One stray entity must not flatten the lines and page breaks the later steps work on
+            normalized = measure(removed, "html", normalized, HtmlTextExtractor.toText(normalized, true));
+        }
+        normalized = measure(removed, "pageFurniture", normalized, removePageFurniture(normalized));
+        if ("email".equals(sourceType)) {
+            normalized = measure(removed, "replyChains", normalized, stripEmailBody(normalized));
+        }
+        normalized = measure(removed, "whitespace", normalized, collapseWhitespace(normalized));
+        
+        NormalizedText result = new NormalizedText(normalized, tokensBefore, TokenEstimator.estimate(normalized),
+            removed);
+        meterRegistry.summary("extraction.normalization.tokens", "source", sourceType, "stage", "before")
+            .record(result.tokensBefore());
+        meterRegistry.summary("extraction.normalization.tokens", "source", sourceType, "stage", "after")
+            .record(result.tokensAfter());
+        log.info("Normalized {} text from {} to {} estimated tokens (removed characters: {})",
+                sourceType, result.tokensBefore(), result.tokensAfter(), removed);
+        return result;
+    }
+    
+    private static String measure(Map<String, Integer> removed, String step, String before, String after) {
+        removed.put(step, before.length() - after.length());
+        return after;
+    }
+    
+    /**
+     * Drop lines that recur in the top or bottom lines of most pages ("Page 3 of 12", running titles,
+     * confidentiality footers). Page numbers are ignored when comparing, so "Page 3 of 12" matches
+     * "Page 4 of 12". Short pages contribute fewer lines, so a one-line page is never all furniture.
+     */
+    private String removePageFurniture(String text) {
+        String[] pages = text.split(DocumentChunker.PAGE_BREAK, -1);
+        long nonBlankPages = Arrays.stream(pages).filter(page -> !page.isBlank()).count();
+        if (nonBlankPages < 3) {
+            return text;
+        }
+        
+        List<String[]> pageLines = new ArrayList<>(pages.length);
+        Map<String, Integer> pagesPerLine = new HashMap<>();
+        for (String page : pages) {
+            String[] lines = LINE_BREAK.split(page, -1);
+            pageLines.add(lines);
+            Set<String> seen = new HashSet<>();
+            for (int index : furnitureZone(lines)) {
+                String key = furnitureKey(lines[index]);
+                if (seen.add(key)) {
+                    pagesPerLine.merge(key, 1, Integer::sum);
+                }
+            }
+        }
+        int minPages = Math.max(3, (int) Math.ceil(nonBlankPages * furnitureMinShare));
+        
+        StringBuilder result = new StringBuilder(text.length());
+        for (int p = 0; p < pageLines.size(); p++) {
+            String[] lines = pageLines.get(p);
+            Set<Integer> furniture = new HashSet<>();
+            for (int index : furnitureZone(lines)) {
+                if (pagesPerLine.getOrDefault(furnitureKey(lines[index]), 0) >= minPages) {
+                    furniture.add(index);
+                }
+            }
+            if (p > 0) {
+                result.append(DocumentChunker.PAGE_BREAK);
+            }
+            for (int i = 0; i < lines.length; i++) {
+                if (!furniture.contains(i)) {
+                    result.append(lines[i]);
+                    if (i < lines.length - 1) {
+                        result.append('\n');
+                    }
+                }
+            }
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Indexes of the first and last non-blank lines of a page
+     */
+    private static List<Integer> furnitureZone(String[] lines) {
+        List<Integer> nonBlank = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) {
+            if (!lines[i].isBlank()) {
+                nonBlank.add(i);
+            }
+        }
+        int zoneLines = Math.min(FURNITURE_ZONE_LINES, nonBlank.size() / 3);
+        List<Integer> zone = new ArrayList<>(nonBlank.subList(0, zoneLines));
+        zone.addAll(nonBlank.subList(nonBlank.size() - zoneLines, nonBlank.size()));
+        return zone;
+    }
+    
+    private static String furnitureKey(String line) {
+        return PAGE_NUMBER.matcher(HORIZONTAL_SPACE.matcher(line.strip()).replaceAll(" "))
+            .replaceAll("#").toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Strip the quoted reply chain, signature and disclaimers of the message body; attachment sections,
+     * which follow the body, are left alone
+     */
+    private String stripEmailBody(String text) {
+        var attachments = ATTACHMENT_HEADER.matcher(text);
+        int bodyEnd = attachments.find() ? attachments.start() : text.length();
+        
+        List<String> lines = new ArrayList<>(Arrays.asList(LINE_BREAK.split(text.substring(0, bodyEnd), -1)));
+        stripQuotedReply(lines);
+        stripSignature(lines);
+        String body = stripDisclaimers(String.join("\n", lines));
+        return bodyEnd < text.length() ? body + "\n" + text.substring(bodyEnd) : body;
+    }
+    
+    /**
+     * Cut at the first reply header ("On ... wrote:", "-----Original Message-----", an Outlook
+     * From/Sent block) and drop {@code >} quoted lines, unless the message is a forward or the new text
+     * does not score as an adverse event candidate by itself; a "see report below" keeps the quoted report
+     */
+    private void stripQuotedReply(List<String> lines) {
+        int cut = -1;
+        for (int i = 0; i < lines.size() && cut < 0; i++) {
+            String line = lines.get(i).strip();
+            if (FORWARD_HEADER.matcher(line).find()) {
+                return;
+            }
+            if (REPLY_HEADER.matcher(line).matches()) {
+                cut = i;
+            } else if (REPLY_HEADER_START.matcher(line).matches() && i + 1 < lines.size()
+                    && lines.get(i + 1).strip().endsWith("wrote:")) {
+                // "On Mon, 3 Jun 2024 at 10:15, Dr Smith <...>" wrapped before "wrote:"
+                cut = i;
+            } else if (OUTLOOK_FROM.matcher(line).matches() && isOutlookHeader(lines, i)) {
+                cut = i;
+            }
+        }
+        
+        int end = cut >= 0 ? cut : lines.size();
+        String newText = lines.subList(0, end).stream()
+            .filter(line -> !line.stripLeading().startsWith(">"))
+            .collect(Collectors.joining("\n"));
+        if (!preScreener.reportsAdverseEvent(newText, drugDictionary.findMentions(newText).size())) {
+            return;
+        }
+        if (cut >= 0) {
+            lines.subList(cut, lines.size()).clear();
+        }
+        lines.removeIf(line -> line.stripLeading().startsWith(">"));
+    }
+    
+    private static boolean isOutlookHeader(List<String> lines, int fromLine) {
+        int fields = 0;
+        for (int i = fromLine + 1; i < Math.min(lines.size(), fromLine + 5); i++) {
+            if (OUTLOOK_FIELD.matcher(lines.get(i).strip()).matches()) {
+                fields++;
+            }
+        }
+        return fields >= 2;
+    }
+    
+    /**
+     * Drop a short block after a {@code -- } signature delimiter; a long one is more likely content
+     */
+    private static void stripSignature(List<String> lines) {
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            if (SIGNATURE_DELIMITER.matcher(lines.get(i)).matches()) {
+                if (lines.size() - i <= MAX_SIGNATURE_LINES + 1) {
+                    lines.subList(i, lines.size()).clear();
+                }
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Drop paragraphs that read as legal boilerplate: one unmistakable phrase, or two weaker cues
+     */
+    private static String stripDisclaimers(String body) {
+        String[] paragraphs = body.split("\\n\\s*\\n", -1);
+        List<String> kept = new ArrayList<>(paragraphs.length);
+        for (String paragraph : paragraphs) {
+            if (!isDisclaimer(paragraph)) {
+                kept.add(paragraph);
+            }
+        }
+        return kept.size() == paragraphs.length ? body : String.join("\n\n", kept);
+    }
+    
+    private static boolean isDisclaimer(String paragraph) {
+        if (countWords(paragraph) > MAX_DISCLAIMER_WORDS) {
+            return false;
+        }
+        if (DISCLAIMER_STRONG.matcher(paragraph).find()) {
+            return true;
+        }
+        var weak = DISCLAIMER_WEAK.matcher(paragraph);
+        int cues = 0;
+        while (cues < 2 && weak.find()) {
+            cues++;
+        }
+        return cues >= 2;
+    }
+    
+    /**
+     * Trim lines, collapse runs of spaces and tabs, and keep at most one blank line in a row. Empty pages
+     * are dropped; the others stay separated by page breaks.
+     */
+    private static String collapseWhitespace(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (String page : text.split(DocumentChunker.PAGE_BREAK, -1)) {
+            String collapsed = collapsePage(page);
+            if (collapsed.isEmpty()) {
+                continue;
+            }
+            if (!result.isEmpty()) {
+                result.append('\n').append(DocumentChunker.PAGE_BREAK);
+            }
+            result.append(collapsed);
+        }
+        return result.toString();
+    }
+    
+    private static String collapsePage(String page) {
+        StringBuilder result = new StringBuilder(page.length());
+        boolean blankPending = false;
+        for (String line : LINE_BREAK.split(page, -1)) {
+            String collapsed = HORIZONTAL_SPACE.matcher(line).replaceAll(" ").strip();
+            if (collapsed.isEmpty()) {
+                blankPending = !result.isEmpty();
+                continue;
+            }
+            if (!result.isEmpty()) {
+                result.append(blankPending ? "\n\n" : "\n");
+            }
+            result.append(collapsed);
+            blankPending = false;
+        }
+        return result.toString();
+    }
+    
+    private static int countWords(String text) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean letter = Character.isLetterOrDigit(text.charAt(i));
+            if (letter && !inWord) {
+                words++;
+            }
+            inWord = letter;
+        }
+        return words;
+    }
+    
+    /**
+     * Text ready for prompting, with the estimated token counts before and after normalization
+     *
+     * @param removed characters removed per step
+     */
+    public record NormalizedText(String text, int tokensBefore, int tokensAfter, Map<String, Integer> removed) {
+        
+        public Map<String, Object> report() {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("tokensBefore", tokensBefore);
+            report.put("tokensAfter", tokensAfter);
+            report.put("tokensSaved", tokensBefore - tokensAfter);
+            report.put("removedCharacters", removed);
+            return report;
+        }
+    }
+}
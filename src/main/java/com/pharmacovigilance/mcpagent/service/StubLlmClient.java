@@ -0,0 +1,175 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offline {@link LlmClient} for load testing the pipeline without an API key.
+ * Answers with templated responses shaped like the real ones (extraction JSON, combined analysis JSON
+ * or a structured text analysis), after a log-normal latency given by its median and p99. Rate-limit,
+ * server-error and timeout failures are injected at the configured rates so the call gate's back-off
+ * can be exercised too.
+ */
+@Component
+@ConditionalOnProperty(name = "pharmacovigilance.llm.client", havingValue = "stub")
+@Slf4j
+public class StubLlmClient implements LlmClient {
+    
+    /**
+     * z-score of the 99th percentile of a standard normal distribution
+     */
+    private static final double Z_99 = 2.326;
+    private static final Pattern CASE_NUMBER = Pattern.compile("Case Number: (\\S+)");
+    private static final Pattern DRUG = Pattern.compile("Drug: ([^,\\n]+)");
+    private static final int STREAM_CHUNK_CHARS = 16;
+    
+    @Value("${pharmacovigilance.llm.stub.latency.median:800ms}")
+    private Duration latencyMedian;
+    
+    @Value("${pharmacovigilance.llm.stub.latency.p99:4s}")
+    private Duration latencyP99;
+    
+    @Value("${pharmacovigilance.llm.stub.stream-token-interval:15ms}")
+    private Duration streamTokenInterval;
+    
+    @Value("${pharmacovigilance.llm.stub.error-rate.rate-limited:0.0}")
+    private double rateLimitedRate;
+    
+    @Value("${pharmacovigilance.llm.stub.error-rate.server-error:0.0}")
+    private double serverErrorRate;
+    
+    @Value("${pharmacovigilance.llm.stub.error-rate.timeout:0.0}")
+    private double timeoutRate;
+    
+    private double latencySigma;
+    
+    @PostConstruct
+    void initialize() {
+        latencySigma = latencyP99.compareTo(latencyMedian) > 0
+            ? Math.log((double) latencyP99.toNanos() / latencyMedian.toNanos()) / Z_99
+            : 0.0;
+        log.warn("Using stub LLM client - responses are synthetic (latency median: {}, p99: {}, "
+                + "error rates: 429={}, 5xx={}, timeout={})",
+                latencyMedian, latencyP99, rateLimitedRate, serverErrorRate, timeoutRate);
+    }
+    
+    @Override
+    public Completion complete(CompletionRequest request) {
+        sleep(sampleLatency());
+        injectFailure();
+        
+        String content = respond(request);
+        return new Completion(content,
+            (long) TokenEstimator.estimate(request.systemPrompt(), request.userPrompt()),
+            (long) TokenEstimator.estimate(content));
+    }
+    
+    @Override
+    public String stream(CompletionRequest request, Consumer<String> tokenListener) {
+        // The sampled latency is spent before the first token, like a provider's time to first byte
+        sleep(sampleLatency());
+        injectFailure();
+        
+        String content = respond(request);
+        for (int start = 0; start < content.length(); start += STREAM_CHUNK_CHARS) {
+            tokenListener.accept(content.substring(start, Math.min(content.length(), start + STREAM_CHUNK_CHARS)));
+            sleep(streamTokenInterval);
+        }
+        return content;
+    }
+    
+    private String respond(CompletionRequest request) {
+        String prompt = request.userPrompt();
+        String caseNumber = find(CASE_NUMBER, prompt, "STUB-CASE");
+        String drug = find(DRUG, prompt, "Stubamycin");
+        
+        if (prompt.contains("\"causalityAssessment\"")) {
+            return """
+                {
+                  "causalityAssessment": {
+                    "assessment": "POSSIBLE",
+                    "reasoning": "Stub response for case %1$s: temporal association with %2$s",
+                    "keyFactors": ["Temporal relationship", "Known adverse reaction profile"],
+                    "recommendations": ["Obtain dechallenge information"]
+                  },
+                  "riskAnalysis": {
+                    "riskLevel": "MEDIUM",
+                    "patientSafetyImpact": "Stub response: moderate impact on patient safety",
+                    "regulatoryImplications": "Routine periodic reporting",
+                    "mitigationStrategies": ["Review dosing of %2$s"],
+                    "monitoringRecommendations": ["Follow up in 14 days"]
+                  }
+                }
+                """.formatted(caseNumber, drug);
+        }
+        if (request.systemPrompt() != null && request.systemPrompt().contains("JSON")) {
+            return """
+                {
+                  "drugName": "%s",
+                  "adverseEventDescription": "Stub extraction: rash and nausea after first dose",
+                  "severity": "MODERATE",
+                  "symptoms": "Rash, nausea",
+                  "patientAge": "Not mentioned",
+                  "patientGender": "Not mentioned",
+                  "medicalHistory": "Not mentioned",
+                  "concomitantMedications": "Not mentioned",
+                  "dateOfOnset": "Not mentioned",
+                  "outcome": "Recovering",
+                  "reporterName": "Not mentioned",
+                  "reporterType": "OTHER",
+                  "additionalNotes": "Generated by the stub LLM client"
+                }
+                """.formatted(drug);
+        }
+        return """
+            Stub analysis for case %1$s (drug: %2$s)
+            Assessment: Possible
+            Key factors: temporal relationship between %2$s and onset, no alternative cause documented
+            Recommendations: collect dechallenge and rechallenge information, monitor the patient
+            """.formatted(caseNumber, drug);
+    }
+    
+    private void injectFailure() {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < rateLimitedRate) {
+            throw new LlmClientException("Stub: rate limit exceeded", 429, null);
+        }
+        roll -= rateLimitedRate;
+        if (roll < serverErrorRate) {
+            throw new LlmClientException("Stub: internal server error", 500, null);
+        }
+        roll -= serverErrorRate;
+        if (roll < timeoutRate) {
+            throw new LlmClientException("Stub: request timed out", 0, new SocketTimeoutException("timeout"));
+        }
+    }
+    
+    private Duration sampleLatency() {
+        double factor = Math.exp(latencySigma * ThreadLocalRandom.current().nextGaussian());
+        return Duration.ofNanos((long) (latencyMedian.toNanos() * factor));
+    }
+    
+    private void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmClientException("Stub: interrupted", 0, e);
+        }
+    }
+    
+    private String find(Pattern pattern, String text, String fallback) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1).trim() : fallback;
+    }
+}
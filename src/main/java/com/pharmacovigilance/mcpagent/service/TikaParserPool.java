@@ -0,0 +1,301 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.WriteLimitReachedException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pool of pre-initialized Tika {@link AutoDetectParser}s sharing one {@link TikaConfig}.
+ * Each parse is bounded by a timeout chosen from the detected media type. On expiry a watchdog closes
+ * the input and interrupts the parsing thread; the parser is then replaced, because it may still be
+ * unwinding. The first parse of each format pays for loading its parser classes, so the pool is warmed
+ * up once the application is ready, in the background by default so it does not delay readiness.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TikaParserPool {
+    
+    private final MeterRegistry meterRegistry;
+    @Qualifier("documentParsingExecutor")
+    private final Executor documentParsingExecutor;
+    
+    @Value("${pharmacovigilance.parsing.tika.pool-size:4}")
+    private int poolSize;
+    
+    @Value("${pharmacovigilance.parsing.tika.borrow-timeout:10s}")
+    private Duration borrowTimeout;
+    
+    /**
+     * Characters of text kept per document, the limit the Tika facade applied before the pool
+     */
+    @Value("${pharmacovigilance.parsing.tika.max-string-length:100000}")
+    private int maxStringLength;
+    
+    /**
+     * Timeout for media types without an entry in {@code parse-timeouts}
+     */
+    @Value("${pharmacovigilance.parsing.tika.parse-timeout:30s}")
+    private Duration defaultParseTimeout;
+    
+    /**
+     * Per-type timeouts as {@code type=duration} pairs, e.g. {@code application/pdf=60s,text/plain=5s}
+     */
+    @Value("${pharmacovigilance.parsing.tika.parse-timeouts:}")
+    private List<String> parseTimeoutSpecs;
+    
+    @Value("${pharmacovigilance.parsing.tika.warmup.enabled:true}")
+    private boolean warmupEnabled;
+    
+    @Value("${pharmacovigilance.parsing.tika.warmup.background:true}")
+    private boolean warmupInBackground;
+    
+    private final Map<String, Duration> parseTimeouts = new HashMap<>();
+    private final AtomicBoolean warmedUp = new AtomicBoolean();
+    
+    private TikaConfig tikaConfig;
+    private BlockingQueue<Parser> parsers;
+    private ScheduledExecutorService watchdog;
+    
+    @PostConstruct
+    void initialize() {
+        tikaConfig = TikaConfig.getDefaultConfig();
+        parsers = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            parsers.add(new AutoDetectParser(tikaConfig));
+        }
+        
+        for (String spec : parseTimeoutSpecs) {
+            int separator = spec.indexOf('=');
+            if (separator > 0) {
+                parseTimeouts.put(spec.substring(0, separator).trim().toLowerCase(),
+                    DurationStyle.detectAndParse(spec.substring(separator + 1).trim()));
+            }
+        }
+        
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TikaWatchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        Gauge.builder("document.parse.tika.pool.available", this, pool -> pool.parsers.size()).register(meterRegistry);
+        log.info("Initialized Tika parser pool (size: {}, default timeout: {}, per-type timeouts: {})",
+                poolSize, defaultParseTimeout, parseTimeouts);
+    }
+    
+    @PreDestroy
+    void shutdown() {
+        watchdog.shutdownNow();
+    }
+    
+    /**
+     * Detect the media type from a header prefix of the document and its file name.
+     * Container formats (OOXML, ODF) are told apart by the name when the prefix alone is not enough.
+     */
+    public MediaType detect(byte[] header, String resourceName) throws IOException {
+        Metadata metadata = new Metadata();
+        if (resourceName != null) {
+            metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, resourceName);
+        }
+        try (InputStream stream = new ByteArrayInputStream(header)) {
+            return tikaConfig.getDetector().detect(stream, metadata);
+        }
+    }
+    
+    public String parseToString(Path file) throws IOException {
+        Metadata metadata = new Metadata();
+        try (TikaInputStream stream = TikaInputStream.get(file, metadata)) {
+            return parseToString(stream, metadata);
+        }
+    }
+    
+    public String parseToString(InputStream input) throws IOException {
+        Metadata metadata = new Metadata();
+        try (TikaInputStream stream = TikaInputStream.get(input)) {
+            return parseToString(stream, metadata);
+        }
+    }
+    
+    public boolean isWarmedUp() {
+        return warmedUp.get();
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (!warmupEnabled) {
+            return;
+        }
+        if (warmupInBackground) {
+            documentParsingExecutor.execute(this::warmUp);
+        } else {
+            warmUp();
+        }
+    }
+    
+    /**
+     * Parse small text and HTML samples with every pooled parser, so the parser classes and detector
+     * tables are loaded before the first real document arrives. PDFs are extracted with PDFBox directly
+     * and never reach the pool.
+     */
+    void warmUp() {
+        long start = System.nanoTime();
+        List<byte[]> samples = List.of(
+            "Patient reported nausea after the first dose.".getBytes(StandardCharsets.UTF_8),
+            "<html><body><p>Patient reported nausea after the first dose.</p></body></html>"
+                .getBytes(StandardCharsets.UTF_8));
+        
+        for (int i = 0; i < poolSize; i++) {
+            for (byte[] sample : samples) {
+                try {
+                    parseToString(new ByteArrayInputStream(sample));
+                } catch (IOException e) {
+                    log.warn("Tika warm-up parse failed", e);
+                }
+            }
+        }
+        warmedUp.set(true);
+        long elapsed = System.nanoTime() - start;
+        meterRegistry.timer("document.parse.tika.warmup").record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("Warmed up {} Tika parsers in {} ms", poolSize, TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+    
+    private String parseToString(TikaInputStream stream, Metadata metadata) throws IOException {
+        String mediaType = tikaConfig.getDetector().detect(stream, metadata).getBaseType().toString();
+        Duration timeout = parseTimeouts.getOrDefault(mediaType, defaultParseTimeout);
+        
+        Parser parser = borrow();
+        boolean parserReusable = false;
+        // The parse and the watchdog race to leave RUNNING; only the watchdog may interrupt, and only if it wins
+        AtomicReference<ParseState> state = new AtomicReference<>(ParseState.RUNNING);
+        Thread parsingThread = Thread.currentThread();
+        ScheduledFuture<?> deadline = watchdog.schedule(() -> {
+            if (!state.compareAndSet(ParseState.RUNNING, ParseState.TIMED_OUT)) {
+                return;
+            }
+            log.warn("Parsing {} exceeded {}, aborting", mediaType, timeout);
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+                // The interrupt below still stops parsers blocked on I/O
+            }
+            parsingThread.interrupt();
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        
+        long start = System.nanoTime();
+        WriteOutContentHandler writeOut = new WriteOutContentHandler(maxStringLength);
+        try {
+            ParseContext context = new ParseContext();
+            context.set(Parser.class, parser);
+            parser.parse(stream, new BodyContentHandler(writeOut), metadata, context);
+            parserReusable = true;
+        } catch (SAXException e) {
+            if (WriteLimitReachedException.isWriteLimitReached(e)) {
+                parserReusable = true;
+            } else if (state.get() != ParseState.TIMED_OUT) {
+                throw new IOException("Failed to parse " + mediaType + ": " + e.getMessage(), e);
+            }
+        } catch (Exception e) {
+            if (state.get() != ParseState.TIMED_OUT) {
+                throw new IOException("Failed to parse " + mediaType + ": " + e.getMessage(), e);
+            }
+        } finally {
+            if (!state.compareAndSet(ParseState.RUNNING, ParseState.FINISHED)) {
+                // The watchdog won: wait until it has interrupted, then clear the interrupt so it does not
+                // leak into the caller's next blocking call
+                awaitWatchdog(deadline);
+                Thread.interrupted();
+                parserReusable = false;
+            }
+            deadline.cancel(false);
+            release(parserReusable ? parser : new AutoDetectParser(tikaConfig));
+            meterRegistry.timer("document.parse.tika.duration", "type", mediaType)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        
+        if (state.get() == ParseState.TIMED_OUT) {
+            meterRegistry.counter("document.parse.tika.timeouts", "type", mediaType).increment();
+            throw new IOException("Parsing " + mediaType + " timed out after " + timeout);
+        }
+        return writeOut.toString();
+    }
+    
+    private Parser borrow() throws IOException {
+        try {
+            Parser parser = parsers.poll(borrowTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (parser == null) {
+                meterRegistry.counter("document.parse.tika.pool.exhausted").increment();
+                throw new IOException("No Tika parser available within " + borrowTimeout);
+            }
+            return parser;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a Tika parser", e);
+        }
+    }
+    
+    private void release(Parser parser) {
+        parsers.offer(parser);
+    }
+    
+    /**
+     * Wait for a watchdog that has claimed the parse; the interrupt is its last action
+     */
+    private static void awaitWatchdog(ScheduledFuture<?> deadline) {
+        while (true) {
+            try {
+                deadline.get();
+                return;
+            } catch (InterruptedException e) {
+                // The watchdog's own interrupt; keep waiting for it to finish, the caller clears the flag
+            } catch (Exception e) {
+                log.debug("Tika watchdog failed", e);
+                return;
+            }
+        }
+    }
+    
+    private enum ParseState {
+        RUNNING, FINISHED, TIMED_OUT
+    }
+}
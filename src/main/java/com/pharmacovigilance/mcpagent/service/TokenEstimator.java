@@ -0,0 +1,28 @@
+package com.pharmacovigilance.mcpagent.service;
+
+/**
+ * Cheap token count estimate for English prompt text (roughly four characters per token).
+ * Good enough for budgeting and rate limiting; use the provider's usage figures for billing.
+ */
+public final class TokenEstimator {
+    
+    private static final int CHARS_PER_TOKEN = 4;
+    
+    private TokenEstimator() {
+    }
+    
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+    
+    public static int estimate(String... texts) {
+        int total = 0;
+        for (String text : texts) {
+            total += estimate(text);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,139 @@
+package com.pharmacovigilance.mcpagent.agent;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.model.AiAnalysis;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventFilter;
+import com.pharmacovigilance.mcpagent.service.AdverseEventPage;
+import com.pharmacovigilance.mcpagent.service.AdverseEventService;
+import com.pharmacovigilance.mcpagent.service.AiAnalysisService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static com.pharmacovigilance.mcpagent.model.AiAnalysis.AnalysisStatus.COMPLETED;
+import static com.pharmacovigilance.mcpagent.model.AiAnalysis.AnalysisStatus.FAILED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PharmacovigilanceAgentTest {
+    
+    private final AdverseEventService adverseEventService = mock(AdverseEventService.class);
+    private final AiAnalysisService aiAnalysisService = mock(AiAnalysisService.class);
+    
+    private final AdverseEvent event = new AdverseEvent();
+    
+    private PharmacovigilanceAgent agent;
+    
+    @BeforeEach
+    void setUp() {
+        event.setId(1L);
+        event.setCaseNumber("AE-1");
+        event.setSeverity(AdverseEvent.SeverityLevel.SEVERE);
+        event.setStatus(AdverseEvent.EventStatus.NEW);
+        when(adverseEventService.findById(1L)).thenReturn(Optional.of(event));
+        agent = new PharmacovigilanceAgent(adverseEventService, aiAnalysisService, Runnable::run, Runnable::run);
+        ReflectionTestUtils.setField(agent, "patternDetectionWindow", Duration.ofDays(30));
+        ReflectionTestUtils.setField(agent, "patternDetectionMaxEvents", 6);
+    }
+    
+    @Test
+    void movesAnalyzedEventOutOfNew() {
+        when(aiAnalysisService.performCausalityAssessment(event)).thenReturn(analysis(COMPLETED));
+        when(aiAnalysisService.performRiskAnalysis(event)).thenReturn(analysis(COMPLETED));
+        
+        assertTrue(agent.processAdverseEvent(1L));
+        assertEquals(AdverseEvent.EventStatus.UNDER_INVESTIGATION, event.getStatus());
+        verify(adverseEventService).save(event);
+    }
+    
+    @Test
+    void leavesEventNewWhenAnAnalysisFailed() {
+        when(aiAnalysisService.performCausalityAssessment(event)).thenReturn(analysis(COMPLETED));
+        when(aiAnalysisService.performRiskAnalysis(event)).thenReturn(analysis(FAILED));
+        
+        assertFalse(agent.processAdverseEvent(1L));
+        assertEquals(AdverseEvent.EventStatus.NEW, event.getStatus());
+        verify(adverseEventService, never()).save(any());
+    }
+    
+    @Test
+    void leavesEventNewWhenACombinedAnalysisFailed() {
+        when(aiAnalysisService.isCombinedAnalysisMode()).thenReturn(true);
+        when(aiAnalysisService.performCombinedAnalysis(event)).thenReturn(new AiAnalysisService.CombinedAnalysis(
+            analysis(FAILED), analysis(FAILED)));
+        
+        assertFalse(agent.processAdverseEvent(1L));
+        assertEquals(AdverseEvent.EventStatus.NEW, event.getStatus());
+        verify(adverseEventService, never()).save(any());
+    }
+    
+    @Test
+    void sweepsNewEventsPageByPage() {
+        AdverseEvent second = pendingEvent(2L);
+        AdverseEvent third = pendingEvent(3L);
+        when(adverseEventService.findPage(any(), eq(null), any()))
+            .thenReturn(new AdverseEventPage(List.of(second), "next", 1));
+        when(adverseEventService.findPage(any(), eq("next"), any()))
+            .thenReturn(new AdverseEventPage(List.of(third), null, 1));
+        
+        agent.processPendingEvents();
+        
+        ArgumentCaptor<AdverseEventFilter> filter = ArgumentCaptor.forClass(AdverseEventFilter.class);
+        verify(adverseEventService, times(2)).findPage(filter.capture(), any(), any());
+        assertEquals(AdverseEvent.EventStatus.NEW, filter.getValue().status());
+        // Both pages were submitted to the workflow
+        verify(adverseEventService).findById(2L);
+        verify(adverseEventService).findById(3L);
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    void analyzesPatternsOfRecentEventsUpToTheBound() {
+        List<AdverseEvent> firstPage = List.of(pendingEvent(11L), pendingEvent(12L), pendingEvent(13L),
+            pendingEvent(14L));
+        when(adverseEventService.findPage(any(), eq(null), eq(6)))
+            .thenReturn(new AdverseEventPage(firstPage, "next", 6));
+        when(adverseEventService.findPage(any(), eq("next"), eq(2)))
+            .thenReturn(new AdverseEventPage(List.of(pendingEvent(15L), pendingEvent(16L)), "more", 2));
+        
+        agent.performDailyPatternAnalysis();
+        
+        ArgumentCaptor<AdverseEventFilter> filter = ArgumentCaptor.forClass(AdverseEventFilter.class);
+        verify(adverseEventService, times(2)).findPage(filter.capture(), any(), any());
+        LocalDateTime from = filter.getValue().eventDateFrom();
+        assertTrue(from.isAfter(LocalDateTime.now().minusDays(31)) && from.isBefore(LocalDateTime.now().minusDays(29)),
+            () -> "Window starts " + from);
+        // Stops at the bound although more events are dated within the window
+        ArgumentCaptor<List<AdverseEvent>> analyzed = ArgumentCaptor.forClass(List.class);
+        verify(aiAnalysisService).performPatternDetection(analyzed.capture());
+        assertEquals(6, analyzed.getValue().size());
+    }
+    
+    private static AdverseEvent pendingEvent(Long id) {
+        AdverseEvent event = new AdverseEvent();
+        event.setId(id);
+        event.setStatus(AdverseEvent.EventStatus.NEW);
+        event.setCreatedAt(LocalDateTime.now().minusHours(1));
+        return event;
+    }
+    
+    private static AiAnalysis analysis(AiAnalysis.AnalysisStatus status) {
+        AiAnalysis analysis = new AiAnalysis();
+        analysis.setStatus(status);
+        return analysis;
+    }
+}
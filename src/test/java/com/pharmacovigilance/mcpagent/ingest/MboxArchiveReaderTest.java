@@ -0,0 +1,128 @@
+package com.pharmacovigilance.mcpagent.ingest;
+
+import com.pharmacovigilance.mcpagent.service.ParsedDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MboxArchiveReaderTest {
+    
+    private static final String FIRST = """
+        From safety@example.com Mon Jan 15 10:30:00 2024
+        Subject: Nausea report
+
+        Patient reported nausea.
+        """;
+    
+    private static final String MULTIPART = """
+        From pharmacy@example.com Tue Jan 16 09:00:00 2024
+        Subject: Rash with attachment
+        Content-Type: multipart/mixed; boundary="b1"
+
+        --b1
+        Content-Type: text/plain
+
+        Rash after the second dose.
+        --b1
+        Content-Type: text/plain; name="notes.txt"
+        Content-Disposition: attachment; filename="notes.txt"
+
+        >From the clinic: resolved in two days.
+        --b1--
+        """;
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void unescapesFromLinesInBodies() throws IOException {
+        Path mbox = write(FIRST + """
+            From reporter@example.com Wed Jan 17 08:00:00 2024
+            Subject: Escapes
+
+            >From the pharmacy: dizziness.
+            >>From a quoted reply.
+            Not a separator: From here.
+            """);
+        
+        try (MboxArchiveReader reader = new MboxArchiveReader(mbox, 0)) {
+            assertEquals("Patient reported nausea.\n", body(reader.next()));
+            assertEquals("From the pharmacy: dizziness.\n>From a quoted reply.\nNot a separator: From here.\n",
+                body(reader.next()));
+            assertNull(reader.next());
+        }
+    }
+    
+    @Test
+    void keepsMultipartMessagesWhole() throws IOException {
+        Path mbox = write(MULTIPART + FIRST);
+        
+        try (MboxArchiveReader reader = new MboxArchiveReader(mbox, 0)) {
+            ArchiveEntry multipart = reader.next();
+            assertEquals(0, multipart.offset());
+            assertEquals("From pharmacy@example.com Tue Jan 16 09:00:00 2024", multipart.name());
+            assertEquals(ParsedDocument.EMAIL, multipart.kind());
+            assertEquals(MULTIPART.substring(MULTIPART.indexOf('\n') + 1).replace(">From", "From"), read(multipart));
+        
+            ArchiveEntry next = reader.next();
+            assertEquals(MULTIPART.length(), next.offset());
+            assertEquals("Patient reported nausea.\n", body(next));
+            assertNull(reader.next());
+        }
+    }
+    
+    @Test
+    void returnsTruncatedFinalMessage() throws IOException {
+        Path mbox = write(FIRST + "From cut@example.com Thu Jan 18 12:00:00 2024\nSubject: Cut off\n\nHeadache af");
+        
+        try (MboxArchiveReader reader = new MboxArchiveReader(mbox, 0)) {
+            assertNotNull(reader.next());
+            ArchiveEntry truncated = reader.next();
+            assertEquals(FIRST.length(), truncated.offset());
+            assertEquals("Headache af", body(truncated));
+            assertNull(reader.next());
+        }
+    }
+    
+    @Test
+    void skipsUnreadContentAndResumesAtOffsets() throws IOException {
+        Path mbox = write(MULTIPART + FIRST);
+        
+        try (MboxArchiveReader reader = new MboxArchiveReader(mbox, 0)) {
+            reader.next();
+            assertEquals(MULTIPART.length(), reader.next().offset());
+        }
+        // From the separator itself, and from the middle of the previous message
+        try (MboxArchiveReader reader = new MboxArchiveReader(mbox, MULTIPART.length())) {
+            assertEquals(MULTIPART.length(), reader.next().offset());
+        }
+        try (MboxArchiveReader reader = new MboxArchiveReader(mbox, 10)) {
+            assertEquals("Patient reported nausea.\n", body(reader.next()));
+            assertNull(reader.next());
+        }
+    }
+    
+    private Path write(String content) throws IOException {
+        return Files.writeString(directory.resolve("archive.mbox"), content, StandardCharsets.US_ASCII);
+    }
+    
+    private static String read(ArchiveEntry entry) throws IOException {
+        return new String(entry.content().readAllBytes(), StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * The message after its headers
+     */
+    private static String body(ArchiveEntry entry) throws IOException {
+        String message = read(entry);
+        return message.substring(message.indexOf("\n\n") + 2);
+    }
+}
@@ -0,0 +1,163 @@
+package com.pharmacovigilance.mcpagent.mcp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares classify_from_pdf with Base64 in the JSON body against the multipart upload endpoint.
+ * Run with {@code mvn test -Dbenchmark=true -Dtest=DocumentUploadBenchmarkTest}; the page count and
+ * iterations can be set with {@code -Dbenchmark.pages} and {@code -Dbenchmark.iterations}.
+ * The stub LLM client answers instantly, so the numbers isolate transport and parsing cost.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "pharmacovigilance.llm.stub.latency.median=1ms",
+    "pharmacovigilance.llm.stub.latency.p99=1ms",
+    "pharmacovigilance.llm.stub.stream-token-interval=0ms",
+    // Every iteration posts the same PDF; with the cache on only the first would parse it
+    "pharmacovigilance.parsing.cache.enabled=false"
+})
+@ActiveProfiles("test")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@Slf4j
+class DocumentUploadBenchmarkTest {
+    
+    @LocalServerPort
+    private int port;
+    
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    @Test
+    void compareBase64AndMultipartUpload() throws Exception {
+        int pages = Integer.getInteger("benchmark.pages", 200);
+        int iterations = Integer.getInteger("benchmark.iterations", 10);
+        Path pdf = createPdf(pages);
+        try {
+            // Warm up both paths so class loading and JIT do not count against either
+            postBase64(pdf);
+            postMultipart(pdf);
+            
+            Result base64 = measure(iterations, () -> postBase64(pdf));
+            Result multipart = measure(iterations, () -> postMultipart(pdf));
+            
+            log.info("PDF: {} pages, {} bytes, {} iterations", pages, Files.size(pdf), iterations);
+            log.info(String.format("  base64 JSON : %8.1f ms/request, %,14d bytes allocated/request",
+                    base64.millisPerRequest(), base64.bytesPerRequest()));
+            log.info(String.format("  multipart   : %8.1f ms/request, %,14d bytes allocated/request",
+                    multipart.millisPerRequest(), multipart.bytesPerRequest()));
+        } finally {
+            Files.deleteIfExists(pdf);
+        }
+    }
+    
+    private int postBase64(Path pdf) throws IOException, InterruptedException {
+        String body = objectMapper.writeValueAsString(Map.of(
+            "pdfContent", Base64.getEncoder().encodeToString(Files.readAllBytes(pdf)),
+            "fileName", "benchmark.pdf"));
+        HttpRequest request = HttpRequest.newBuilder(toolUri(""))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+    
+    private int postMultipart(Path pdf) throws IOException, InterruptedException {
+        String boundary = "benchmark-" + UUID.randomUUID();
+        String head = "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"benchmark.pdf\"\r\n"
+            + "Content-Type: application/pdf\r\n\r\n";
+        String tail = "\r\n--" + boundary + "--\r\n";
+        HttpRequest request = HttpRequest.newBuilder(toolUri("/upload"))
+            .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+            .POST(HttpRequest.BodyPublishers.concat(
+                HttpRequest.BodyPublishers.ofString(head, StandardCharsets.US_ASCII),
+                HttpRequest.BodyPublishers.ofFile(pdf),
+                HttpRequest.BodyPublishers.ofString(tail, StandardCharsets.US_ASCII)))
+            .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+    
+    private URI toolUri(String suffix) {
+        return URI.create("http://localhost:" + port + "/pharmacovigilance/api/mcp/tools/classify_from_pdf" + suffix);
+    }
+    
+    private Result measure(int iterations, Call call) throws Exception {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            assertEquals(200, call.run());
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        return new Result(elapsed / 1_000_000.0 / iterations, allocated / iterations);
+    }
+    
+    /**
+     * Bytes allocated by all live threads, client and server alike, since they share this JVM
+     */
+    private long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+    
+    private Path createPdf(int pages) throws IOException {
+        Path pdf = Files.createTempFile("benchmark-", ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(font, 10);
+                    content.newLineAtOffset(50, 750);
+                    for (int line = 0; line < 50; line++) {
+                        content.showText("Page " + p + " line " + line
+                            + ": patient developed a rash after starting amoxicillin 500 mg three times daily.");
+                        content.newLineAtOffset(0, -14);
+                    }
+                    content.endText();
+                }
+            }
+            document.save(pdf.toFile());
+        }
+        return pdf;
+    }
+    
+    @FunctionalInterface
+    private interface Call {
+        int run() throws Exception;
+    }
+    
+    private record Result(double millisPerRequest, long bytesPerRequest) {
+    }
+}
@@ -0,0 +1,137 @@
+package com.pharmacovigilance.mcpagent.mcp;
+
+import com.pharmacovigilance.mcpagent.model.AiAnalysis;
+import com.pharmacovigilance.mcpagent.repository.AiAnalysisRepository;
+import com.pharmacovigilance.mcpagent.service.LlmClient;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs the classify tools end to end against the stub LLM client
+ */
+@SpringBootTest(properties = {
+    "pharmacovigilance.llm.stub.latency.median=1ms",
+    "pharmacovigilance.llm.stub.latency.p99=1ms",
+    "pharmacovigilance.llm.stub.stream-token-interval=0ms"
+})
+@ActiveProfiles("test")
+class McpServerClassificationTest {
+    
+    @Autowired
+    private McpServer mcpServer;
+    
+    @Autowired
+    private AiAnalysisRepository aiAnalysisRepository;
+    
+    @SpyBean
+    private LlmClient llmClient;
+    
+    @Test
+    void classifiesInputWithoutSavingAnalyses() {
+        long analysesBefore = aiAnalysisRepository.count();
+        
+        Map<String, Object> result = mcpServer.classifyEventFromInput(Map.of(
+            "drugName", "Amoxicillin",
+            "adverseEventDescription", "Hives two hours after the first dose",
+            "severity", "MODERATE"));
+        
+        assertEquals(true, result.get("success"), () -> String.valueOf(result.get("error")));
+        assertEquals(false, result.get("partial"));
+        Map<?, ?> data = (Map<?, ?>) result.get("data");
+        for (String analysis : new String[] {"causalityAssessment", "riskAnalysis"}) {
+            Map<?, ?> description = (Map<?, ?>) data.get(analysis);
+            assertEquals(AiAnalysis.AnalysisStatus.COMPLETED, description.get("status"));
+            // The input event is not in the database, so there is no analysis row either
+            assertNull(description.get("analysisId"));
+        }
+        assertEquals(analysesBefore, aiAnalysisRepository.count());
+    }
+    
+    @Test
+    void classifiesExtractedDocument() {
+        String report = "Patient started amoxicillin 500 mg and developed a severe rash with fever on day two.";
+        
+        Map<String, Object> result = mcpServer.classifyFromDocument(Map.of(
+            "documentContent", Base64.getEncoder().encodeToString(report.getBytes(StandardCharsets.UTF_8)),
+            "fileName", "report.txt"));
+        
+        assertEquals(true, result.get("success"), () -> String.valueOf(result.get("error")));
+        Map<?, ?> classification = (Map<?, ?>) result.get("classification");
+        assertNotNull(classification);
+        assertNull(classification.get("error"), () -> String.valueOf(classification.get("error")));
+        assertEquals(AiAnalysis.AnalysisStatus.COMPLETED,
+            ((Map<?, ?>) classification.get("causalityAssessment")).get("status"));
+        assertEquals(AiAnalysis.AnalysisStatus.COMPLETED,
+            ((Map<?, ?>) classification.get("riskAnalysis")).get("status"));
+    }
+    
+    @Test
+    void answersResubmittedInputFromTheCache() {
+        Map<String, Object> input = Map.of(
+            "drugName", "Lisinopril",
+            "adverseEventDescription", "Dry cough after three weeks",
+            "severity", "MILD");
+        
+        Map<String, Object> first = mcpServer.classifyEventFromInput(input);
+        Map<String, Object> second = mcpServer.classifyEventFromInput(input);
+        
+        assertEquals(true, first.get("success"));
+        assertEquals(true, second.get("success"));
+        // One completion for the causality assessment and one for the risk analysis, none for the resubmission
+        verify(llmClient, times(2)).complete(any());
+    }
+    
+    @Test
+    void coalescesConcurrentClassificationsOfTheSameInput() throws Exception {
+        // Slow enough that every classification is in flight before the first completion returns
+        doAnswer(invocation -> {
+            Thread.sleep(200);
+            return invocation.callRealMethod();
+        }).when(llmClient).complete(any());
+        Map<String, Object> input = Map.of(
+            "drugName", "Metformin",
+            "adverseEventDescription", "Nausea forwarded by four colleagues",
+            "severity", "MILD");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Map<String, Object>>> classifications = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                classifications.add(executor.submit(() -> {
+                    start.await();
+                    return mcpServer.classifyEventFromInput(input);
+                }));
+            }
+            start.countDown();
+            for (Future<Map<String, Object>> classification : classifications) {
+                assertEquals(true, classification.get(30, TimeUnit.SECONDS).get("success"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // The four identical prompts of each analysis share one completion
+        verify(llmClient, times(2)).complete(any());
+    }
+}
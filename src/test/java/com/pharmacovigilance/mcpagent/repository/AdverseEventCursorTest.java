@@ -0,0 +1,44 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdverseEventCursorTest {
+    
+    @Test
+    void roundTripsDatedAndUndatedPositions() {
+        AdverseEventCursor dated = new AdverseEventCursor(LocalDateTime.of(2024, 3, 1, 10, 30, 15, 123_000_000), 42L);
+        AdverseEventCursor undated = new AdverseEventCursor(null, 7L);
+        
+        assertEquals(dated, AdverseEventCursor.decode(dated.encode()));
+        assertEquals(undated, AdverseEventCursor.decode(undated.encode()));
+        assertEquals(dated, AdverseEventCursor.decode(" " + dated.encode() + "\n"));
+    }
+    
+    @Test
+    void encodesUrlSafeTokens() {
+        String token = new AdverseEventCursor(LocalDateTime.of(2024, 3, 1, 10, 30), Long.MAX_VALUE).encode();
+        
+        assertEquals(token, token.replaceAll("[^A-Za-z0-9_-]", ""));
+    }
+    
+    @Test
+    void rejectsMalformedTokens() {
+        for (String token : new String[] {"", "not base64!", encode("v1|2024-03-01T10:30"),
+                encode("v2|2024-03-01T10:30|1"), encode("v1|yesterday|1"), encode("v1|-|one")}) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> AdverseEventCursor.decode(token), token);
+            assertEquals("Invalid cursor", e.getMessage());
+        }
+    }
+    
+    private static String encode(String position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+}
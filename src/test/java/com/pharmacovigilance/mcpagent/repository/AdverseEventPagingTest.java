@@ -0,0 +1,150 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.model.Drug;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Walks {@link AdverseEventRepositoryCustom#findPageAfter} page by page, through encoded cursors, over events
+ * sharing event dates and events without one
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+class AdverseEventPagingTest {
+    
+    private static final LocalDateTime MARCH = LocalDateTime.of(2024, 3, 1, 9, 0);
+    private static final LocalDateTime FEBRUARY = LocalDateTime.of(2024, 2, 1, 9, 0);
+    
+    @Autowired
+    private AdverseEventRepository adverseEventRepository;
+    
+    @Autowired
+    private DrugRepository drugRepository;
+    
+    private final List<AdverseEvent> events = new ArrayList<>();
+    
+    @BeforeEach
+    void setUp() {
+        events.add(save(null, AdverseEvent.EventStatus.NEW));
+        events.add(save(MARCH, AdverseEvent.EventStatus.NEW));
+        events.add(save(FEBRUARY, AdverseEvent.EventStatus.CONFIRMED));
+        events.add(save(MARCH, AdverseEvent.EventStatus.CONFIRMED));
+        events.add(save(null, AdverseEvent.EventStatus.CONFIRMED));
+        events.add(save(MARCH, AdverseEvent.EventStatus.NEW));
+        events.add(save(null, AdverseEvent.EventStatus.NEW));
+        events.add(save(FEBRUARY.minusDays(3), AdverseEvent.EventStatus.NEW));
+    }
+    
+    @Test
+    void visitsEveryEventOnceInOrderAtAnyPageSize() {
+        AdverseEventFilter all = new AdverseEventFilter(null, null, null, null, null, null, null, null);
+        List<Long> expected = expectedOrder(events);
+        
+        for (int limit = 1; limit <= events.size() + 1; limit++) {
+            assertEquals(expected, traverse(all, limit), "page size " + limit);
+        }
+    }
+    
+    @Test
+    void continuesFromTheLastDatedEventIntoUndatedOnes() {
+        AdverseEventFilter all = new AdverseEventFilter(null, null, null, null, null, null, null, null);
+        List<Long> expected = expectedOrder(events);
+        
+        // Five dated events: the first page ends on the last of them
+        List<AdverseEvent> first = adverseEventRepository.findPageAfter(all, null, 5);
+        assertEquals(expected.subList(0, 5), ids(first));
+        List<AdverseEvent> second = adverseEventRepository.findPageAfter(all,
+            AdverseEventCursor.after(first.get(4)), 5);
+        assertEquals(expected.subList(5, 8), ids(second));
+    }
+    
+    @Test
+    void appliesFiltersInBothPhases() {
+        AdverseEventFilter newEvents = new AdverseEventFilter(null, AdverseEvent.EventStatus.NEW, null, null, null,
+            null, null, null);
+        List<Long> expected = expectedOrder(events.stream()
+            .filter(event -> event.getStatus() == AdverseEvent.EventStatus.NEW)
+            .toList());
+        
+        assertEquals(expected, traverse(newEvents, 2));
+    }
+    
+    @Test
+    void dateRangesLeaveOutUndatedEvents() {
+        AdverseEventFilter february = new AdverseEventFilter(null, null, null, null, null, null,
+            FEBRUARY.minusDays(5), MARCH);
+        
+        assertEquals(List.of(events.get(2).getId(), events.get(7).getId()), traverse(february, 1));
+    }
+    
+    @Test
+    void drugFilterMatchesLinkedDrugsOrElseTheReportedName() {
+        Drug drug = new Drug();
+        drug.setDrugCode("D-ASA");
+        drug.setDrugName("Acetylsalicylic acid");
+        drug = drugRepository.save(drug);
+        AdverseEvent linked = save(MARCH.plusDays(1), AdverseEvent.EventStatus.NEW);
+        linked.setDrugName("Acetylsalicylic acid");
+        linked.setDrug(drug);
+        adverseEventRepository.save(linked);
+        
+        AdverseEventFilter byName = new AdverseEventFilter(null, null, null, null, "aspirin", null, null, null);
+        
+        // A name resolved to drugs matches only the events linked to them, whatever name they were reported under
+        assertEquals(List.of(linked.getId()), traverse(byName.withDrugIds(Set.of(drug.getId())), 3));
+        // An unresolved name matches the reported names, here the "Aspirin" of the unlinked events
+        assertEquals(expectedOrder(events), traverse(byName, 3));
+    }
+    
+    private List<Long> traverse(AdverseEventFilter filter, int limit) {
+        List<Long> visited = new ArrayList<>();
+        AdverseEventCursor cursor = null;
+        while (true) {
+            List<AdverseEvent> page = adverseEventRepository.findPageAfter(filter, cursor, limit);
+            visited.addAll(ids(page));
+            if (page.size() < limit) {
+                return visited;
+            }
+            cursor = AdverseEventCursor.decode(AdverseEventCursor.after(page.get(page.size() - 1)).encode());
+        }
+    }
+    
+    /**
+     * Newest event date first, ties by descending ID, undated events last
+     */
+    private static List<Long> expectedOrder(List<AdverseEvent> events) {
+        return ids(events.stream()
+            .sorted(Comparator.comparing(AdverseEvent::getEventDate,
+                    Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+                .thenComparing(AdverseEvent::getId)
+                .reversed())
+            .toList());
+    }
+    
+    private static List<Long> ids(List<AdverseEvent> events) {
+        return events.stream().map(AdverseEvent::getId).toList();
+    }
+    
+    private AdverseEvent save(LocalDateTime eventDate, AdverseEvent.EventStatus status) {
+        AdverseEvent event = new AdverseEvent();
+        event.setCaseNumber("PAGE-" + events.size());
+        event.setDrugName("Aspirin");
+        event.setAdverseEventDescription("Headache");
+        event.setSeverity(AdverseEvent.SeverityLevel.MILD);
+        event.setStatus(status);
+        event.setEventDate(eventDate);
+        return adverseEventRepository.save(event);
+    }
+}
@@ -0,0 +1,278 @@
+package com.pharmacovigilance.mcpagent.repository;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.model.Drug;
+import com.pharmacovigilance.mcpagent.service.AdverseEventService;
+import com.pharmacovigilance.mcpagent.service.DrugService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the SQL Hibernate generates for {@link AdverseEventRepositoryCustom#findPageAfter} through H2's
+ * EXPLAIN and checks each filter is answered from its index of {@code adverse_events} rather than a table
+ * scan: the query for dated events seeks on the filter's index, and neither it nor the query for undated
+ * events scans. Each statement is explained with the parameter values Hibernate bound to it, recorded by
+ * a wrapper around the data source. Drug names are also queried through the service, which resolves them
+ * to drugs.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Import(AdverseEventQueryPlanTest.RecordingConfiguration.class)
+class AdverseEventQueryPlanTest {
+    
+    private static final LocalDateTime FROM = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final LocalDateTime UNTIL = LocalDateTime.of(2024, 2, 1, 0, 0);
+    private static final AdverseEventFilter ALL = new AdverseEventFilter(null, null, null, null, null, null, null,
+        null);
+    
+    @Autowired
+    private AdverseEventRepository adverseEventRepository;
+    
+    @Autowired
+    private DataSource dataSource;
+    
+    @Autowired
+    private AdverseEventService adverseEventService;
+    
+    @Autowired
+    private DrugService drugService;
+    
+    @Test
+    void statusAndSeverityUseStatusIndex() throws SQLException {
+        AdverseEventFilter filter = new AdverseEventFilter(AdverseEvent.SeverityLevel.SEVERE,
+            AdverseEvent.EventStatus.NEW, null, null, null, null, null, null);
+        assertUsesIndex(explain(filter, null), "IDX_ADVERSE_EVENTS_STATUS_SEVERITY_EVENT_DATE");
+    }
+    
+    @Test
+    void statusAloneUsesStatusIndex() throws SQLException {
+        AdverseEventFilter filter = new AdverseEventFilter(null, AdverseEvent.EventStatus.UNDER_INVESTIGATION,
+            null, null, null, null, null, null);
+        assertUsesIndex(explain(filter, null), "IDX_ADVERSE_EVENTS_STATUS_SEVERITY_EVENT_DATE");
+    }
+    
+    @Test
+    void severityAloneUsesStatisticsIndex() throws SQLException {
+        AdverseEventFilter filter = new AdverseEventFilter(AdverseEvent.SeverityLevel.MILD, null, null, null,
+            null, null, null, null);
+        assertUsesIndex(explain(filter, null), "IDX_ADVERSE_EVENTS_STATISTICS");
+    }
+    
+    @Test
+    void drugsUseDrugIndex() throws SQLException {
+        AdverseEventFilter filter = new AdverseEventFilter(null, null, null, Set.of(7L), null, null, FROM, null);
+        assertUsesIndex(explain(filter, null), "IDX_ADVERSE_EVENTS_DRUG_EVENT_DATE");
+    }
+    
+    @Test
+    void drugNameResolvedByTheServiceUsesDrugIndex() throws SQLException {
+        Drug drug = new Drug();
+        drug.setDrugCode("PLAN-" + UUID.randomUUID());
+        drug.setDrugName("Planoxetine");
+        drugService.save(drug);
+        
+        assertUsesIndex(explain(() -> adverseEventService.findPage(
+            AdverseEventFilter.of(null, null, null, "planoxetine", null, "2024-01-01", null), null, 10)),
+            "IDX_ADVERSE_EVENTS_DRUG_EVENT_DATE");
+    }
+    
+    @Test
+    void causalityUsesCausalityIndex() throws SQLException {
+        AdverseEventFilter filter = new AdverseEventFilter(null, null, AdverseEvent.CausalityAssessment.PROBABLE,
+            null, null, null, null, null);
+        assertUsesIndex(explain(filter, null), "IDX_ADVERSE_EVENTS_CAUSALITY_EVENT_DATE");
+    }
+    
+    @Test
+    void patientUsesPatientIndex() throws SQLException {
+        AdverseEventFilter filter = new AdverseEventFilter(null, null, null, null, null, "P001", null, null);
+        assertUsesIndex(explain(filter, null), "IDX_ADVERSE_EVENTS_PATIENT");
+    }
+    
+    @Test
+    void dateRangeUsesEventDateIndex() throws SQLException {
+        AdverseEventFilter filter = new AdverseEventFilter(null, null, null, null, null, null, FROM, UNTIL);
+        assertUsesIndex(explain(filter, null), "IDX_ADVERSE_EVENTS_EVENT_DATE_ID");
+    }
+    
+    @Test
+    void cursorSeeksOnEventDateIndex() throws SQLException {
+        List<String> plans = explain(ALL, new AdverseEventCursor(UNTIL, 100L));
+        assertEquals(2, plans.size());
+        assertUsesIndex(plans, "IDX_ADVERSE_EVENTS_EVENT_DATE_ID");
+    }
+    
+    @Test
+    void cursorWithFilterSeeksOnFilterIndex() throws SQLException {
+        AdverseEventFilter filter = new AdverseEventFilter(null, null, AdverseEvent.CausalityAssessment.POSSIBLE,
+            null, null, null, null, null);
+        assertUsesIndex(explain(filter, new AdverseEventCursor(UNTIL, 100L)),
+            "IDX_ADVERSE_EVENTS_CAUSALITY_EVENT_DATE");
+    }
+    
+    @Test
+    void undatedCursorSeeksOnEventDateIndex() throws SQLException {
+        List<String> plans = explain(ALL, new AdverseEventCursor(null, 100L));
+        assertEquals(1, plans.size());
+        assertUsesIndex(plans, "IDX_ADVERSE_EVENTS_EVENT_DATE_ID");
+    }
+    
+    /**
+     * Plans of the queries of one page, dated events first
+     */
+    private List<String> explain(AdverseEventFilter filter, AdverseEventCursor after) throws SQLException {
+        return explain(() -> adverseEventRepository.findPageAfter(filter, after, 10));
+    }
+    
+    private List<String> explain(Runnable query) throws SQLException {
+        RecordingDataSource.statements.clear();
+        query.run();
+        List<RecordedStatement> statements = List.copyOf(RecordingDataSource.statements);
+        assertFalse(statements.isEmpty(), "No adverse event query was recorded");
+        
+        List<String> plans = new ArrayList<>();
+        for (RecordedStatement recorded : statements) {
+            plans.add(explain(recorded));
+        }
+        return plans;
+    }
+    
+    private String explain(RecordedStatement recorded) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("EXPLAIN " + recorded.sql())) {
+            int count = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= count; i++) {
+                assertTrue(recorded.parameters().containsKey(i), "Parameter " + i + " was not bound");
+                statement.setObject(i, recorded.parameters().get(i));
+            }
+            try (ResultSet plan = statement.executeQuery()) {
+                assertTrue(plan.next(), "EXPLAIN returned no plan");
+                return plan.getString(1);
+            }
+        }
+    }
+    
+    private static void assertUsesIndex(List<String> plans, String index) {
+        String dated = plans.get(0);
+        assertTrue(dated.toUpperCase(Locale.ROOT).contains(index), () -> "Expected " + index + " in plan:\n" + dated);
+        for (String plan : plans) {
+            assertFalse(plan.toUpperCase(Locale.ROOT).contains("ADVERSE_EVENTS.TABLESCAN"),
+                () -> "Table scan in plan:\n" + plan);
+        }
+    }
+    
+    /**
+     * An adverse event query with the values bound to its parameters, by parameter index
+     */
+    record RecordedStatement(String sql, Map<Integer, Object> parameters) {
+    }
+    
+    @TestConfiguration
+    static class RecordingConfiguration {
+        
+        @Bean
+        static BeanPostProcessor recordingDataSourcePostProcessor() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource dataSource ? new RecordingDataSource(dataSource) : bean;
+                }
+            };
+        }
+    }
+    
+    /**
+     * Records the adverse event queries prepared through it and the values set on their parameters
+     */
+    static class RecordingDataSource extends DelegatingDataSource {
+        
+        static final List<RecordedStatement> statements = new CopyOnWriteArrayList<>();
+        
+        RecordingDataSource(DataSource target) {
+            super(target);
+        }
+        
+        @Override
+        public Connection getConnection() throws SQLException {
+            return recording(super.getConnection());
+        }
+        
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return recording(super.getConnection(username, password));
+        }
+        
+        private static Connection recording(Connection connection) {
+            return proxy(Connection.class, connection, (method, args, result) -> {
+                if (method.getName().equals("prepareStatement") && args[0] instanceof String sql) {
+                    String lower = sql.toLowerCase(Locale.ROOT);
+                    if (lower.startsWith("select") && lower.contains("adverse_events")) {
+                        RecordedStatement recorded = new RecordedStatement(sql,
+                            Collections.synchronizedMap(new HashMap<>()));
+                        statements.add(recorded);
+                        return recording((PreparedStatement) result, recorded);
+                    }
+                }
+                return result;
+            });
+        }
+        
+        private static PreparedStatement recording(PreparedStatement statement, RecordedStatement recorded) {
+            return proxy(PreparedStatement.class, statement, (method, args, result) -> {
+                // setString(1, ...), setTimestamp(2, ...), setNull(3, type) and the like
+                if (method.getName().startsWith("set") && args != null && args.length >= 2
+                        && args[0] instanceof Integer index) {
+                    recorded.parameters().put(index, method.getName().equals("setNull") ? null : args[1]);
+                }
+                return result;
+            });
+        }
+        
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, T target, Interceptor interceptor) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                return interceptor.after(method, args, result);
+            });
+        }
+        
+        interface Interceptor {
+            Object after(Method method, Object[] args, Object result);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import com.pharmacovigilance.mcpagent.repository.AdverseEventNarrative;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NarrativeIndexTest {
+    
+    @Test
+    void ranksDescriptionMatchesAboveHistoryMatches() {
+        NarrativeIndex index = new NarrativeIndex();
+        index.put(narrative(1, "Headache after the first dose", null, null, "Rash in 2019"));
+        index.put(narrative(2, "Severe rash on both arms", "itching", null, null));
+        index.put(narrative(3, "Nausea", null, null, null));
+        
+        assertEquals(List.of(2L, 1L), eventIds(index.search(TextAnalyzer.terms("rashes"), 10)));
+        assertEquals(List.of(2L), eventIds(index.search(TextAnalyzer.terms("rash"), 1)));
+        assertTrue(index.search(TextAnalyzer.terms("dizziness"), 10).isEmpty());
+    }
+    
+    @Test
+    void reindexesChangedNarrativesOnly() {
+        NarrativeIndex index = new NarrativeIndex();
+        assertTrue(index.put(narrative(1, "Headache", null, null, null)));
+        assertFalse(index.put(narrative(1, "Headache", null, null, null)));
+        // Same words, moved to another field
+        assertTrue(index.put(narrative(1, null, "Headache", null, null)));
+        assertTrue(index.put(narrative(1, null, "Dizziness", null, null)));
+        
+        assertEquals(1, index.documents());
+        assertEquals(2, index.deletedDocuments());
+        assertTrue(index.search(TextAnalyzer.terms("headache"), 10).isEmpty());
+        assertEquals(List.of(1L), eventIds(index.search(TextAnalyzer.terms("dizziness"), 10)));
+    }
+    
+    @Test
+    void removesAndRetainsEvents() {
+        NarrativeIndex index = new NarrativeIndex();
+        for (long id = 1; id <= 4; id++) {
+            index.put(narrative(id, "Rash", null, null, null));
+        }
+        
+        assertTrue(index.remove(2));
+        assertFalse(index.remove(2));
+        assertEquals(1, index.retainAll(Set.of(1L, 2L, 3L)));
+        assertEquals(List.of(1L, 3L), sorted(index.search(TextAnalyzer.terms("rash"), 10)));
+    }
+    
+    @Test
+    void compactionDropsDeletedDocumentsAndKeepsResults() {
+        NarrativeIndex index = new NarrativeIndex();
+        for (long id = 1; id <= 2000; id++) {
+            index.put(narrative(id, id % 2 == 0 ? "Rash" : "Headache", null, null, null));
+        }
+        for (long id = 1; id <= 1200; id++) {
+            index.remove(id);
+        }
+        assertTrue(index.needsCompaction());
+        
+        index.compact();
+        
+        assertEquals(0, index.deletedDocuments());
+        assertEquals(800, index.documents());
+        assertEquals(400, index.search(TextAnalyzer.terms("rash"), 1000).size());
+        // Digests moved with their documents: unchanged narratives are still recognized
+        assertFalse(index.put(narrative(2000, "Rash", null, null, null)));
+        assertTrue(index.put(narrative(1999, "Rash", null, null, null)));
+    }
+    
+    @Test
+    void roundTripsThroughItsFileFormat() throws IOException {
+        NarrativeIndex index = new NarrativeIndex();
+        index.put(narrative(10, "Severe rash after amoxicillin", "itching, swelling", "Reported by pharmacist",
+            null));
+        index.put(narrative(11, "Headache", null, null, "Migraine since 2015"));
+        index.put(narrative(12, "Nausea and vomiting", null, null, null));
+        index.remove(11);
+        
+        NarrativeIndex copy = NarrativeIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes(index))));
+        
+        assertEquals(index.documents(), copy.documents());
+        assertEquals(0, copy.deletedDocuments());
+        for (String query : List.of("rash", "swelling pharmacist", "vomited", "migraine")) {
+            List<NarrativeIndex.ScoredEvent> expected = index.search(TextAnalyzer.terms(query), 10);
+            assertEquals(expected, copy.search(TextAnalyzer.terms(query), 10), query);
+        }
+        assertFalse(copy.put(narrative(12, "Nausea and vomiting", null, null, null)));
+        assertTrue(copy.put(narrative(12, "Nausea", null, null, null)));
+    }
+    
+    @Test
+    void rejectsTruncatedAndForeignFiles() throws IOException {
+        NarrativeIndex index = new NarrativeIndex();
+        index.put(narrative(1, "Rash", null, null, null));
+        byte[] bytes = bytes(index);
+        
+        assertThrows(IOException.class, () -> NarrativeIndex.readFrom(
+            new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length / 2)))));
+        assertThrows(IOException.class, () -> NarrativeIndex.readFrom(
+            new DataInputStream(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}))));
+    }
+    
+    private static byte[] bytes(NarrativeIndex index) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            index.writeTo(out);
+        }
+        return buffer.toByteArray();
+    }
+    
+    private static List<Long> eventIds(List<NarrativeIndex.ScoredEvent> results) {
+        return results.stream().map(NarrativeIndex.ScoredEvent::eventId).toList();
+    }
+    
+    private static List<Long> sorted(List<NarrativeIndex.ScoredEvent> results) {
+        return eventIds(results).stream().sorted().toList();
+    }
+    
+    static AdverseEventNarrative narrative(long id, String description, String symptoms, String reporterNotes,
+                                           String medicalHistory) {
+        return new AdverseEventNarrative(id, description, symptoms, reporterNotes, medicalHistory);
+    }
+}
@@ -0,0 +1,186 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventNarrative;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.pharmacovigilance.mcpagent.search.NarrativeIndexTest.narrative;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class NarrativeSearchServiceTest {
+    
+    @TempDir
+    Path directory;
+    
+    private final AdverseEventRepository repository = mock(AdverseEventRepository.class);
+    
+    /**
+     * The events in the database, by ID
+     */
+    private final Map<Long, AdverseEventNarrative> database = new HashMap<>();
+    
+    /**
+     * Runs when a rebuild reads the last batch of events
+     */
+    private Runnable afterLastBatch = () -> { };
+    
+    @BeforeEach
+    void setUp() {
+        when(repository.findNarrativesAfter(anyLong(), any())).thenAnswer(invocation -> {
+            long afterId = invocation.getArgument(0);
+            int size = ((Pageable) invocation.getArgument(1)).getPageSize();
+            List<AdverseEventNarrative> batch = database.values().stream()
+                .filter(narrative -> narrative.id() > afterId)
+                .sorted(Comparator.comparing(AdverseEventNarrative::id))
+                .limit(size)
+                .toList();
+            if (batch.size() < size) {
+                afterLastBatch.run();
+            }
+            return batch;
+        });
+        when(repository.findAllById(anyIterable())).thenAnswer(invocation -> {
+            Iterable<Long> ids = invocation.getArgument(0);
+            List<AdverseEvent> events = new ArrayList<>();
+            ids.forEach(id -> {
+                if (database.containsKey(id)) {
+                    events.add(event(database.get(id)));
+                }
+            });
+            return events;
+        });
+    }
+    
+    @Test
+    void refusesSearchesUntilBuilt() {
+        database.put(1L, narrative(1, "Severe rash", null, null, null));
+        NarrativeSearchService service = service(null);
+        
+        assertThrows(IllegalStateException.class, () -> service.search("rash", 10));
+        service.rebuild();
+        
+        assertEquals(List.of(1L), ids(service.search("rash", 10)));
+    }
+    
+    @Test
+    void replaysChangesCommittedDuringRebuild() {
+        database.put(1L, narrative(1, "Severe rash", null, null, null));
+        database.put(2L, narrative(2, "Headache", null, null, null));
+        database.put(3L, narrative(3, "Nausea", null, null, null));
+        NarrativeSearchService service = service(null);
+        
+        // Commits land after the rebuild has read the database
+        afterLastBatch = () -> {
+            database.put(1L, narrative(1, "Dizziness", null, null, null));
+            service.narrativeChanged(database.get(1L));
+            database.remove(2L);
+            service.eventRemoved(2L);
+            database.put(4L, narrative(4, "Rash on arms", null, null, null));
+            service.narrativeChanged(database.get(4L));
+        };
+        service.rebuild();
+        
+        assertEquals(List.of(4L), ids(service.search("rash", 10)));
+        assertEquals(List.of(1L), ids(service.search("dizziness", 10)));
+        assertTrue(service.search("headache", 10).isEmpty());
+        assertEquals(3, service.getStatistics().get("indexedEvents"));
+    }
+    
+    @Test
+    void reconcilesSavedIndexWithDatabaseBeforeServingIt() {
+        database.put(1L, narrative(1, "Severe rash", null, null, null));
+        database.put(2L, narrative(2, "Headache", null, null, null));
+        NarrativeSearchService previous = service(directory);
+        previous.rebuild();
+        previous.close();
+        assertTrue(Files.exists(directory.resolve("narratives.idx")));
+        
+        // A new database reusing event IDs for other narratives
+        database.clear();
+        database.put(1L, narrative(1, "Nausea", null, null, null));
+        NarrativeSearchService service = service(directory);
+        assertThrows(IllegalStateException.class, () -> service.search("rash", 10));
+        service.rebuild();
+        
+        assertTrue(service.search("rash", 10).isEmpty());
+        assertTrue(service.search("headache", 10).isEmpty());
+        assertEquals(List.of(1L), ids(service.search("nausea", 10)));
+        assertEquals(1, service.getStatistics().get("indexedEvents"));
+    }
+    
+    @Test
+    void retriesAFailedRebuildAfterItsBackoff() throws InterruptedException {
+        database.put(1L, narrative(1, "Severe rash", null, null, null));
+        database.put(2L, narrative(2, "Headache", null, null, null));
+        database.put(3L, narrative(3, "Nausea", null, null, null));
+        NarrativeSearchService service = service(null);
+        ReflectionTestUtils.setField(service, "rebuildRetryInitialDelay", Duration.ofMillis(200));
+        afterLastBatch = () -> {
+            throw new DataAccessResourceFailureException("Connection refused");
+        };
+        
+        service.rebuild();
+        assertThrows(IllegalStateException.class, () -> service.search("rash", 10));
+        afterLastBatch = () -> { };
+        // Not yet due
+        service.retryFailedRebuild();
+        assertThrows(IllegalStateException.class, () -> service.search("rash", 10));
+        
+        Thread.sleep(250);
+        service.retryFailedRebuild();
+        assertEquals(List.of(1L), ids(service.search("rash", 10)));
+        assertEquals(3, service.getStatistics().get("indexedEvents"));
+    }
+    
+    private NarrativeSearchService service(Path indexDir) {
+        NarrativeSearchService service = new NarrativeSearchService(repository, new SimpleMeterRegistry(),
+            Runnable::run);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "indexDir", indexDir != null ? indexDir.toString() : "");
+        ReflectionTestUtils.setField(service, "rebuildBatchSize", 2);
+        ReflectionTestUtils.setField(service, "rebuildRetryInitialDelay", Duration.ZERO);
+        ReflectionTestUtils.setField(service, "rebuildRetryMaxDelay", Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(service, "defaultLimit", 20);
+        ReflectionTestUtils.setField(service, "maxLimit", 100);
+        service.initialize();
+        return service;
+    }
+    
+    private static List<Long> ids(List<NarrativeSearchHit> hits) {
+        return hits.stream().map(NarrativeSearchHit::eventId).toList();
+    }
+    
+    private static AdverseEvent event(AdverseEventNarrative narrative) {
+        AdverseEvent event = new AdverseEvent();
+        event.setId(narrative.id());
+        event.setCaseNumber("AE-" + narrative.id());
+        event.setAdverseEventDescription(narrative.adverseEventDescription());
+        event.setSymptoms(narrative.symptoms());
+        event.setReporterNotes(narrative.reporterNotes());
+        event.setMedicalHistory(narrative.medicalHistory());
+        return event;
+    }
+}
@@ -0,0 +1,58 @@
+package com.pharmacovigilance.mcpagent.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TextAnalyzerTest {
+    
+    @Test
+    void stemsPlurals() {
+        assertEquals("caress", TextAnalyzer.stem("caresses"));
+        assertEquals("poni", TextAnalyzer.stem("ponies"));
+        assertEquals("caress", TextAnalyzer.stem("caress"));
+        assertEquals("cat", TextAnalyzer.stem("cats"));
+        assertEquals("rash", TextAnalyzer.stem("rashes"));
+        assertEquals("box", TextAnalyzer.stem("boxes"));
+    }
+    
+    @Test
+    void stemsPastAndProgressiveForms() {
+        assertEquals("vomit", TextAnalyzer.stem("vomiting"));
+        assertEquals("vomit", TextAnalyzer.stem("vomited"));
+        assertEquals("vomit", TextAnalyzer.stem("vomits"));
+        assertEquals("agree", TextAnalyzer.stem("agreed"));
+        assertEquals("feed", TextAnalyzer.stem("feed"));
+        assertEquals("hop", TextAnalyzer.stem("hopping"));
+        assertEquals("fall", TextAnalyzer.stem("falling"));
+        assertEquals("hope", TextAnalyzer.stem("hoping"));
+        assertEquals("conflate", TextAnalyzer.stem("conflated"));
+        assertEquals("size", TextAnalyzer.stem("sized"));
+    }
+    
+    @Test
+    void stemsFinalYOnlyAfterAVowel() {
+        assertEquals("happi", TextAnalyzer.stem("happy"));
+        assertEquals("sky", TextAnalyzer.stem("sky"));
+    }
+    
+    @Test
+    void leavesShortAndNonAlphabeticWordsAlone() {
+        assertEquals("is", TextAnalyzer.stem("is"));
+        assertEquals("covid19s", TextAnalyzer.stem("covid19s"));
+        assertEquals("ibuprofen", TextAnalyzer.stem("ibuprofen"));
+    }
+    
+    @Test
+    void analyzeDropsStopWordsAndReportsWordOffsets() {
+        String text = "The patient was VOMITING, then a rash.";
+        List<String> found = new ArrayList<>();
+        TextAnalyzer.analyze(text, (term, start, end) -> found.add(term + "=" + text.substring(start, end)));
+        
+        assertEquals(List.of("patient=patient", "vomit=VOMITING", "rash=rash"), found);
+        assertEquals(List.of("vomit", "rash"), TextAnalyzer.terms("vomits and rashes"));
+    }
+}
@@ -0,0 +1,131 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pharmacovigilance.mcpagent.repository.AiAnalysisRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Extracts a four-page document in one chunk per page, with an LLM answering each chunk by the page it
+ * holds, through a real response cache, and checks how the chunk extractions are merged
+ */
+class AdverseEventExtractionServiceTest {
+    
+    private static final Map<String, String> RESPONSES = Map.of(
+        "Page one.", """
+            {"drugName": "Aspirin", "adverseEventDescription": "Rash on arms", "severity": "MODERATE",
+             "symptoms": "Itching", "outcome": "Not mentioned"}""",
+        "Page two.", """
+            {"drugName": "aspirin", "adverseEventDescription": "rash on arms", "severity": "SEVERE",
+             "symptoms": "Fever", "outcome": "Hospitalized"}""",
+        "Page three.", """
+            {"drugName": "Ibuprofen", "adverseEventDescription": "Rash on arms", "severity": "mild",
+             "symptoms": ["itching"], "outcome": "Recovered"}""",
+        "Garbled.", "I could not find an adverse event in this text.");
+    
+    private final LlmClient llmClient = mock(LlmClient.class);
+    
+    private AdverseEventExtractionService extractionService;
+    
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LlmRequestCoalescer coalescer = new LlmRequestCoalescer(meterRegistry);
+        coalescer.registerMetrics();
+        LlmResponseCache responseCache = new LlmResponseCache(mock(AiAnalysisRepository.class), coalescer,
+            meterRegistry);
+        ReflectionTestUtils.setField(responseCache, "enabled", true);
+        ReflectionTestUtils.setField(responseCache, "maxEntries", 100);
+        ReflectionTestUtils.setField(responseCache, "ttl", Duration.ofHours(1));
+        responseCache.registerMetrics();
+        LlmCallGate callGate = mock(LlmCallGate.class);
+        when(callGate.execute(anyInt(), any()))
+            .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(1)).get());
+        AdverseEventPreScreener preScreener = mock(AdverseEventPreScreener.class);
+        when(preScreener.screen(anyString(), anyString(), anyInt()))
+            .thenReturn(new AdverseEventPreScreener.ScreeningResult(true, 1.0, Map.of()));
+        DrugDictionary drugDictionary = mock(DrugDictionary.class);
+        when(drugDictionary.findMentions(anyString())).thenReturn(List.of());
+        
+        when(llmClient.complete(any())).thenAnswer(invocation -> {
+            String prompt = ((LlmClient.CompletionRequest) invocation.getArgument(0)).userPrompt();
+            return RESPONSES.entrySet().stream()
+                .filter(response -> prompt.contains(response.getKey()))
+                .findFirst()
+                .map(response -> new LlmClient.Completion(response.getValue(), null, null))
+                .orElseThrow(() -> new LlmClientException("Service unavailable", 503, null));
+        });
+        
+        PromptTextNormalizer normalizer = new PromptTextNormalizer(preScreener, drugDictionary, meterRegistry);
+        extractionService = new AdverseEventExtractionService(llmClient, new ObjectMapper(), responseCache, callGate,
+            preScreener, drugDictionary, normalizer, meterRegistry, Runnable::run);
+        ReflectionTestUtils.setField(extractionService, "model", "test-model");
+        ReflectionTestUtils.setField(extractionService, "chunkingEnabled", true);
+        ReflectionTestUtils.setField(extractionService, "maxChunkTokens", 100);
+        ReflectionTestUtils.setField(extractionService, "chunkOverlapTokens", 10);
+        ReflectionTestUtils.setField(extractionService, "maxParallelChunks", 2);
+    }
+    
+    @Test
+    void mergesChunkExtractionsIntoOneEvent() {
+        Map<String, Object> merged = extractionService.extractFromClinicalDocument(
+            document("Page one.", "Page two.", "Page three.", "Page four."));
+        
+        assertEquals(4, merged.get("chunkCount"));
+        // The fourth chunk failed and is left out of the merge
+        assertEquals(1, merged.get("failedChunks"));
+        // Reported by two chunks, in two spellings; the first spelling is kept
+        assertEquals("Aspirin", merged.get("drugName"));
+        // The event seen in three chunks is described once, symptoms are combined without repeats
+        assertEquals("Rash on arms", merged.get("adverseEventDescription"));
+        assertEquals("Itching; Fever", merged.get("symptoms"));
+        assertEquals("SEVERE", merged.get("severity"));
+        assertEquals("Recovered", merged.get("outcome"));
+    }
+    
+    @Test
+    void reportsTheFirstErrorWhenEveryChunkFails() {
+        Map<String, Object> merged = extractionService.extractFromClinicalDocument(
+            document("Page four.", "Page five."));
+        
+        assertEquals(2, merged.get("chunkCount"));
+        assertEquals(2, merged.get("failedChunks"));
+        assertEquals("Failed to extract adverse event data: Service unavailable", merged.get("extractionError"));
+    }
+    
+    @Test
+    void doesNotCacheUnparseableResponses() {
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            Map<String, Object> extracted = extractionService.extractAdverseEventFromText("Garbled.", "email");
+            
+            assertEquals("I could not find an adverse event in this text.", extracted.get("rawResponse"));
+            assertTrue(String.valueOf(extracted.get("extractionError")).startsWith("Failed to parse AI response"));
+        }
+        // The retry asked the model again rather than replaying the cached failure
+        verify(llmClient, times(2)).complete(any());
+    }
+    
+    private static String document(String... headings) {
+        return String.join(DocumentChunker.PAGE_BREAK, Arrays.stream(headings)
+            .map(heading -> heading + " " + "The patient was observed on the ward. ".repeat(7).strip())
+            .toList());
+    }
+}
@@ -0,0 +1,80 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdverseEventPreScreenerTest {
+    
+    private AdverseEventPreScreener preScreener;
+    
+    @BeforeEach
+    void setUp() {
+        preScreener = new AdverseEventPreScreener(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(preScreener, "enabled", true);
+        ReflectionTestUtils.setField(preScreener, "threshold", 0.15);
+        ReflectionTestUtils.setField(preScreener, "screenedSources", Set.of("email", "telephony_transcript"));
+        ReflectionTestUtils.setField(preScreener, "auditSampleRate", 0.0);
+        preScreener.initialize();
+    }
+    
+    @Test
+    void skipsNewsletter() {
+        String newsletter = """
+            Our monthly newsletter is here! Register for next week's webinar on digital health trends.
+            View this email in your browser. Unsubscribe at any time. All rights reserved.
+            """;
+        
+        AdverseEventPreScreener.ScreeningResult result = preScreener.screen(newsletter, "email", 0);
+        
+        assertFalse(result.candidate());
+        assertEquals(5, result.signals().get("routineMailCues"));
+        assertEquals(false, result.notAnAdverseEvent().get("isAdverseEvent"));
+    }
+    
+    @Test
+    void skipsSchedulingMail() {
+        String scheduling = "Could we reschedule Thursday's review to Friday at 10? I'll send a new calendar invite.";
+        
+        assertFalse(preScreener.screen(scheduling, "email", 0).candidate());
+    }
+    
+    @Test
+    void keepsReportOfOneDrugAndASymptom() {
+        String report = "Since last Monday my husband has had a bad rash. He is on Velmorazine for his blood pressure.";
+        
+        AdverseEventPreScreener.ScreeningResult result = preScreener.screen(report, "email", 1);
+        
+        assertTrue(result.candidate());
+        assertEquals(1, result.signals().get("symptoms"));
+    }
+    
+    @Test
+    void keepsReportOfADrugMissingFromTheDictionary() {
+        String report = "My mother broke out in hives the day she was switched to zelmotinib.";
+        
+        AdverseEventPreScreener.ScreeningResult result = preScreener.screen(report, "telephony_transcript", 0);
+        
+        // Recognized by its INN stem alone
+        assertTrue(result.candidate());
+        assertEquals(0, result.signals().get("drugs"));
+        assertEquals(1, result.signals().get("drugLikeTerms"));
+    }
+    
+    @Test
+    void passesUnscreenedSourcesAndRecordsOnlyScreenedText() {
+        assertTrue(preScreener.screen("Meeting rescheduled to Friday.", "document", 0).candidate());
+        assertFalse(preScreener.reportsAdverseEvent("Meeting rescheduled to Friday.", 0));
+        preScreener.screen("Meeting rescheduled to Friday.", "email", 0);
+        
+        assertEquals(1L, preScreener.getStatistics().get("screened"));
+        assertEquals(1L, preScreener.getStatistics().get("skipped"));
+    }
+}
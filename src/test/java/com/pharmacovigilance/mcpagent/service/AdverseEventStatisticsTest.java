@@ -0,0 +1,59 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventCount;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdverseEventStatisticsTest {
+    
+    @Test
+    void rollsUpGroupedRowsByDimension() {
+        AdverseEventStatistics statistics = AdverseEventStatistics.of(List.of(
+            row(AdverseEvent.SeverityLevel.SEVERE, AdverseEvent.EventStatus.NEW, null, "Aspirin", 3),
+            row(AdverseEvent.SeverityLevel.SEVERE, AdverseEvent.EventStatus.CONFIRMED,
+                AdverseEvent.CausalityAssessment.PROBABLE, "Ibuprofen", 2),
+            row(AdverseEvent.SeverityLevel.MILD, AdverseEvent.EventStatus.NEW, null, null, 1)), 10);
+        
+        assertEquals(6, statistics.totalEvents());
+        assertEquals(Map.of("SEVERE", 5L, "MILD", 1L), statistics.severityCounts());
+        assertEquals(Map.of("NEW", 4L, "CONFIRMED", 2L), statistics.statusCounts());
+        assertEquals(Map.of(AdverseEventStatistics.UNASSIGNED, 4L, "PROBABLE", 2L), statistics.causalityCounts());
+        // Events without a drug name count in the totals but under no drug
+        assertEquals(Map.of("Aspirin", 3L, "Ibuprofen", 2L), statistics.drugCounts());
+        assertEquals(2, statistics.distinctDrugs());
+    }
+    
+    @Test
+    void countsDrugNamesDifferingInCaseTogether() {
+        AdverseEventStatistics statistics = AdverseEventStatistics.of(List.of(
+            row(AdverseEvent.SeverityLevel.MILD, AdverseEvent.EventStatus.NEW, null, "Aspirin", 1),
+            row(AdverseEvent.SeverityLevel.MODERATE, AdverseEvent.EventStatus.NEW, null, " ASPIRIN ", 2)), 10);
+        
+        assertEquals(Map.of("Aspirin", 3L), statistics.drugCounts());
+        assertEquals(1, statistics.distinctDrugs());
+    }
+    
+    @Test
+    void listsTopDrugsMostReportedFirst() {
+        AdverseEventStatistics statistics = AdverseEventStatistics.of(List.of(
+            row(AdverseEvent.SeverityLevel.MILD, AdverseEvent.EventStatus.NEW, null, "Warfarin", 1),
+            row(AdverseEvent.SeverityLevel.MILD, AdverseEvent.EventStatus.NEW, null, "Metformin", 4),
+            row(AdverseEvent.SeverityLevel.MILD, AdverseEvent.EventStatus.NEW, null, "Ibuprofen", 2),
+            row(AdverseEvent.SeverityLevel.MILD, AdverseEvent.EventStatus.NEW, null, "Aspirin", 2)), 3);
+        
+        // Ties in alphabetical order; the fourth drug is left out of the list but not the count
+        assertEquals(List.of("Metformin", "Aspirin", "Ibuprofen"), List.copyOf(statistics.drugCounts().keySet()));
+        assertEquals(4, statistics.distinctDrugs());
+        assertEquals(9, statistics.totalEvents());
+    }
+    
+    private static AdverseEventCount row(AdverseEvent.SeverityLevel severity, AdverseEvent.EventStatus status,
+                                         AdverseEvent.CausalityAssessment causality, String drugName, long count) {
+        return new AdverseEventCount(severity, status, causality, drugName, count);
+    }
+}
@@ -0,0 +1,168 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.model.Patient;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventRepository;
+import com.pharmacovigilance.mcpagent.repository.PatientRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes adverse events through JPA in committed and rolled back transactions and checks the in-memory
+ * counters against the grouped query after each step
+ */
+@SpringBootTest(properties = "pharmacovigilance.statistics.top-drugs=1000")
+@ActiveProfiles("test")
+class AdverseEventStatisticsTrackerTest {
+    
+    @Autowired
+    private AdverseEventStatisticsTracker tracker;
+    
+    @Autowired
+    private AdverseEventRepository adverseEventRepository;
+    
+    @Autowired
+    private PatientRepository patientRepository;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Test
+    void countsInsertedEvents() {
+        // Counted under one drug name, and under UNASSIGNED for the event without a severity
+        saveAll(event("Aspirin", AdverseEvent.SeverityLevel.MILD),
+            event(" Aspirin ", AdverseEvent.SeverityLevel.SEVERE), event("Aspirin", null));
+        
+        assertCountersMatchDatabase();
+    }
+    
+    @Test
+    void movesUpdatedEventsBetweenCounters() {
+        List<AdverseEvent> events = saveAll(event("Metformin", AdverseEvent.SeverityLevel.MODERATE),
+            event("Warfarin", AdverseEvent.SeverityLevel.SEVERE));
+        
+        transactionTemplate.executeWithoutResult(status -> {
+            AdverseEvent first = adverseEventRepository.findById(events.get(0).getId()).orElseThrow();
+            first.setStatus(AdverseEvent.EventStatus.CONFIRMED);
+            first.setCausality(AdverseEvent.CausalityAssessment.PROBABLE);
+            first.setDrugName("Lisinopril");
+            AdverseEvent second = adverseEventRepository.findById(events.get(1).getId()).orElseThrow();
+            second.setSeverity(null);
+        });
+        assertCountersMatchDatabase();
+        
+        // A change that leaves the counted dimensions alone
+        transactionTemplate.executeWithoutResult(status -> adverseEventRepository.findById(events.get(1).getId())
+            .orElseThrow().setSymptoms("Bruising"));
+        assertCountersMatchDatabase();
+    }
+    
+    @Test
+    void uncountsDeletedEvents() {
+        List<AdverseEvent> events = saveAll(event("Ibuprofen", AdverseEvent.SeverityLevel.MILD),
+            event("Ibuprofen", AdverseEvent.SeverityLevel.MILD));
+        
+        transactionTemplate.executeWithoutResult(status -> {
+            // Updated and then deleted in the same transaction
+            AdverseEvent event = adverseEventRepository.findById(events.get(0).getId()).orElseThrow();
+            event.setSeverity(AdverseEvent.SeverityLevel.FATAL);
+            adverseEventRepository.flush();
+            adverseEventRepository.delete(event);
+        });
+        adverseEventRepository.deleteById(events.get(1).getId());
+        
+        assertCountersMatchDatabase();
+    }
+    
+    @Test
+    void uncountsEventsDeletedWithTheirPatient() {
+        Patient patient = new Patient();
+        patient.setPatientId("STAT-" + UUID.randomUUID());
+        patient.setFirstName("Test");
+        patient.setLastName("Patient");
+        Patient saved = patientRepository.save(patient);
+        AdverseEvent first = event("Amoxicillin", AdverseEvent.SeverityLevel.MODERATE);
+        first.setPatient(saved);
+        AdverseEvent second = event("Atorvastatin", AdverseEvent.SeverityLevel.MILD);
+        second.setPatient(saved);
+        saveAll(first, second);
+        assertCountersMatchDatabase();
+        
+        transactionTemplate.executeWithoutResult(status ->
+            patientRepository.delete(patientRepository.findById(saved.getId()).orElseThrow()));
+        
+        assertTrue(adverseEventRepository.findById(first.getId()).isEmpty());
+        assertCountersMatchDatabase();
+    }
+    
+    @Test
+    void ignoresRolledBackChanges() {
+        AdverseEvent existing = saveAll(event("Omeprazole", AdverseEvent.SeverityLevel.MILD)).get(0);
+        AdverseEventStatistics before = tracker.getStatistics();
+        
+        transactionTemplate.executeWithoutResult(status -> {
+            adverseEventRepository.save(event("Omeprazole", AdverseEvent.SeverityLevel.SEVERE));
+            adverseEventRepository.findById(existing.getId()).orElseThrow()
+                .setStatus(AdverseEvent.EventStatus.CLOSED);
+            adverseEventRepository.flush();
+            status.setRollbackOnly();
+        });
+        
+        assertEquals(before, tracker.getStatistics());
+        assertCountersMatchDatabase();
+    }
+    
+    @Test
+    void reconciliationCorrectsDriftFoundTwice() {
+        AdverseEvent event = saveAll(event("Paracetamol", AdverseEvent.SeverityLevel.MILD)).get(0);
+        // Bypasses the entity callbacks, like a bulk update would
+        jdbcTemplate.update("UPDATE adverse_events SET severity = 'SEVERE' WHERE id = ?", event.getId());
+        
+        tracker.reconcile();
+        assertNotEquals(expectedStatistics(), tracker.getStatistics());
+        tracker.reconcile();
+        assertCountersMatchDatabase();
+    }
+    
+    private List<AdverseEvent> saveAll(AdverseEvent... events) {
+        List<AdverseEvent> saved = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> saved.addAll(adverseEventRepository.saveAll(
+            List.of(events))));
+        return saved;
+    }
+    
+    private void assertCountersMatchDatabase() {
+        // Unseeded, the tracker would answer from the grouped query itself
+        assertTrue(tracker.isSeeded());
+        assertEquals(expectedStatistics(), tracker.getStatistics());
+    }
+    
+    private AdverseEventStatistics expectedStatistics() {
+        return AdverseEventStatistics.of(adverseEventRepository.countByDimensions(), 1000);
+    }
+    
+    private static AdverseEvent event(String drugName, AdverseEvent.SeverityLevel severity) {
+        AdverseEvent event = new AdverseEvent();
+        event.setCaseNumber("STAT-" + UUID.randomUUID());
+        event.setDrugName(drugName);
+        event.setAdverseEventDescription("Reported reaction");
+        event.setSeverity(severity);
+        event.setStatus(AdverseEvent.EventStatus.NEW);
+        return event;
+    }
+}
@@ -0,0 +1,63 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AhoCorasickMatcherTest {
+    
+    @Test
+    void overlappingTermsResolveLeftmostLongest() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(
+            List.of("metformin", "metformin hydrochloride", "hydrochloride"));
+        
+        List<AhoCorasickMatcher.Match> matches = matcher.findAll("Took metformin hydrochloride daily");
+        
+        assertEquals(List.of(new AhoCorasickMatcher.Match(5, 28, "metformin hydrochloride")), matches);
+    }
+    
+    @Test
+    void termsSharingSuffixesAreAllFound() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(List.of("aspirin", "pirin", "ibuprofen"));
+        
+        List<String> terms = matcher.findAll("aspirin, then ibuprofen and aspirin").stream()
+            .map(AhoCorasickMatcher.Match::term)
+            .toList();
+        
+        // "pirin" sits inside "aspirin" and is not a whole word there
+        assertEquals(List.of("aspirin", "ibuprofen", "aspirin"), terms);
+    }
+    
+    @Test
+    void matchesWholeWordsOnly() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(List.of("statin"));
+        
+        assertTrue(matcher.findAll("atorvastatin 20 mg").isEmpty());
+        assertTrue(matcher.findAll("statins").isEmpty());
+        assertEquals(List.of(new AhoCorasickMatcher.Match(4, 10, "statin")), matcher.findAll("new statin."));
+        assertEquals(1, matcher.findAll("statin").size());
+    }
+    
+    @Test
+    void matchesIgnoringCaseAndWhitespaceKind() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(List.of("Acetylsalicylic Acid"));
+        
+        List<AhoCorasickMatcher.Match> matches = matcher.findAll("Given ACETYLSALICYLIC\nacid at 8am");
+        
+        assertEquals(1, matches.size());
+        assertEquals("acetylsalicylic acid", matches.get(0).term());
+        assertEquals(6, matches.get(0).start());
+        assertEquals(26, matches.get(0).end());
+    }
+    
+    @Test
+    void ignoresBlankAndDuplicateTerms() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(List.of("warfarin", "WARFARIN", " ", ""));
+        
+        assertEquals(1, matcher.size());
+        assertTrue(AhoCorasickMatcher.build(List.of()).findAll("warfarin").isEmpty());
+    }
+}
@@ -0,0 +1,83 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentChunkerTest {
+    
+    @Test
+    void keepsShortTextWhole() {
+        String text = "Patient started aspirin.\fRash on day two.";
+        
+        assertEquals(List.of(text), DocumentChunker.chunk(text, 100, 10));
+        assertEquals(List.of(), DocumentChunker.chunk(" \n ", 100, 10));
+    }
+    
+    @Test
+    void cutsAtPageBreaks() {
+        List<String> pages = List.of(page("Page one."), page("Page two."), page("Page three."));
+        
+        List<String> chunks = DocumentChunker.chunk(String.join(DocumentChunker.PAGE_BREAK, pages), 100, 0);
+        
+        // Two pages do not fit in one chunk, so each page is a chunk of its own
+        assertEquals(pages, chunks);
+    }
+    
+    @Test
+    void packsPagesThatFitTogether() {
+        List<String> pages = List.of("Page one.", "Page two.", page("Page three."));
+        String text = String.join(DocumentChunker.PAGE_BREAK, pages) + DocumentChunker.PAGE_BREAK + page("Page four.");
+        
+        List<String> chunks = DocumentChunker.chunk(text, 100, 0);
+        
+        assertEquals(List.of("Page one.\nPage two.\n" + pages.get(2), page("Page four.")), chunks);
+    }
+    
+    @Test
+    void repeatsTheEndOfEachChunkAtTheStartOfTheNext() {
+        List<String> pages = List.of(page("Page one."), page("Page two."), page("Page three."));
+        
+        List<String> chunks = DocumentChunker.chunk(String.join(DocumentChunker.PAGE_BREAK, pages), 100, 10);
+        
+        assertEquals(3, chunks.size());
+        for (int i = 1; i < chunks.size(); i++) {
+            String previous = chunks.get(i - 1);
+            String overlap = chunks.get(i).substring(0, chunks.get(i).indexOf('\n'));
+            // The overlap starts at a word and is at most overlapTokens long
+            assertTrue(previous.endsWith(" " + overlap), () -> "Not a tail of the previous chunk: " + overlap);
+            assertTrue(overlap.length() <= 40, () -> "Overlap too long: " + overlap);
+            assertTrue(chunks.get(i).endsWith(pages.get(i)));
+        }
+    }
+    
+    @Test
+    void cutsOversizedSectionsAtWhitespace() {
+        String section = IntStream.range(0, 200).mapToObj(i -> "word" + i).collect(Collectors.joining(" "));
+        
+        List<String> chunks = DocumentChunker.chunk(section, 100, 0);
+        
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= 400, () -> "Chunk of " + chunk.length() + " characters");
+        }
+        // No word is split or lost
+        List<String> words = chunks.stream()
+            .flatMap(chunk -> Arrays.stream(chunk.split(" ")))
+            .toList();
+        assertEquals(Arrays.asList(section.split(" ")), words);
+    }
+    
+    /**
+     * A page of about 75 tokens, starting with the heading
+     */
+    private static String page(String heading) {
+        return heading + " " + "The patient was observed on the ward. ".repeat(7).strip();
+    }
+}
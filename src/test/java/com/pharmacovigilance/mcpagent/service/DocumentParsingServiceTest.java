@@ -0,0 +1,43 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class DocumentParsingServiceTest {
+    
+    private static final String REPORT = "Patient developed a rash after the second dose of amoxicillin.";
+    
+    @Autowired
+    private DocumentParsingService documentParsingService;
+    
+    @Test
+    void decodesLineWrappedBase64() throws IOException {
+        String encoded = Base64.getMimeEncoder(16, "\r\n".getBytes(StandardCharsets.US_ASCII))
+            .encodeToString(REPORT.getBytes(StandardCharsets.UTF_8));
+        
+        assertEquals(REPORT, documentParsingService.parseDocumentFromBase64(encoded).strip());
+    }
+    
+    @Test
+    void rejectsNonAsciiCharacters() {
+        String encoded = Base64.getEncoder().encodeToString(REPORT.getBytes(StandardCharsets.UTF_8));
+        // U+0141 has the low byte of 'A', so truncating it would decode a different but valid payload
+        String corrupted = encoded.substring(0, 8) + 'Ł' + encoded.substring(9);
+        
+        IOException failure = assertThrows(IOException.class,
+            () -> documentParsingService.parseDocumentFromBase64(corrupted));
+        assertTrue(failure.getMessage().startsWith("Invalid Base64 content"), failure::getMessage);
+    }
+}
@@ -0,0 +1,55 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.pharmacovigilance.mcpagent.model.AdverseEvent;
+import com.pharmacovigilance.mcpagent.model.Drug;
+import com.pharmacovigilance.mcpagent.repository.AdverseEventFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class DrugServiceTest {
+    
+    @Autowired
+    private DrugService drugService;
+    
+    @Autowired
+    private AdverseEventService adverseEventService;
+    
+    @Test
+    void linksEventsReportedBeforeTheirDrugWasKnown() {
+        AdverseEvent reported = adverseEventService.save(event("Velmorazine 20 mg tablets"));
+        AdverseEvent other = adverseEventService.save(event("Unlisted remedy"));
+        assertNull(reported.getDrugId());
+        
+        Drug drug = new Drug();
+        drug.setDrugCode("LINK-" + UUID.randomUUID());
+        drug.setDrugName("Velmorazine");
+        drug.setGenericName("Velmorazine hydrochloride");
+        drug = drugService.save(drug);
+        
+        assertEquals(drug.getId(), adverseEventService.findById(reported.getId()).orElseThrow().getDrugId());
+        assertNull(adverseEventService.findById(other.getId()).orElseThrow().getDrugId());
+        // Found by drug ID, under another of the drug's names
+        List<AdverseEvent> found = adverseEventService.findPage(
+            AdverseEventFilter.of(null, null, null, "velmorazine hydrochloride", null, null, null), null, 10).events();
+        assertEquals(List.of(reported.getId()), found.stream().map(AdverseEvent::getId).toList());
+    }
+    
+    private static AdverseEvent event(String drugName) {
+        AdverseEvent event = new AdverseEvent();
+        event.setCaseNumber("LINK-" + UUID.randomUUID());
+        event.setDrugName(drugName);
+        event.setAdverseEventDescription("Reported reaction");
+        event.setStatus(AdverseEvent.EventStatus.NEW);
+        return event;
+    }
+}
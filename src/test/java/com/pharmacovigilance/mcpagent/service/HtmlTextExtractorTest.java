@@ -0,0 +1,38 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HtmlTextExtractorTest {
+    
+    @Test
+    void convertsMarkupToText() {
+        String html = "<html><head><title>Report</title><style>p { color: red }</style></head><body>"
+            + "<p>Patient   reported\n nausea&nbsp;&amp; rash.</p><!-- internal --><table><tr><td>Dose</td>"
+            + "<td>5&#160;mg</td></tr></table><script>track()</script><div>Resolved</div></body></html>";
+        
+        assertEquals("Patient reported nausea & rash.\nDose 5 mg\nResolved", HtmlTextExtractor.toText(html));
+    }
+    
+    @Test
+    void keepsLiteralAngleBracketsAndAmpersands() {
+        assertEquals("ALT <5 mg & rising, AT&T", HtmlTextExtractor.toText("ALT <5 mg & rising, AT&T"));
+        assertEquals("&unknown; entity", HtmlTextExtractor.toText("&unknown; entity"));
+    }
+    
+    @Test
+    void keepsLineAndPageBreaksWhenAsked() {
+        String text = "Page one &amp; more\nsecond line\n\n\n\nnew paragraph\fPage two <b>bold</b>\n";
+        
+        assertEquals("Page one & more second line new paragraph Page two bold", HtmlTextExtractor.toText(text));
+        assertEquals("Page one & more\nsecond line\n\nnew paragraph\fPage two bold",
+            HtmlTextExtractor.toText(text, true));
+    }
+    
+    @Test
+    void blockTagsAddLineBreaksWhenKeepingInputBreaks() {
+        assertEquals("first\n\nsecond", HtmlTextExtractor.toText("<p>first</p>\n<p>second</p>", true));
+        assertEquals("a\nb", HtmlTextExtractor.toText("a <br> b", true));
+    }
+}
@@ -0,0 +1,169 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmCallGateTest {
+    
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    
+    private LlmCallGate gate;
+    
+    @BeforeEach
+    void setUp() {
+        gate = new LlmCallGate(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(gate, "enabled", true);
+        ReflectionTestUtils.setField(gate, "requestsPerMinute", 10_000);
+        ReflectionTestUtils.setField(gate, "tokensPerMinute", 1_000_000);
+        ReflectionTestUtils.setField(gate, "initialLimit", 8);
+        ReflectionTestUtils.setField(gate, "minLimit", 1);
+        ReflectionTestUtils.setField(gate, "maxLimit", 32);
+        ReflectionTestUtils.setField(gate, "backoffRatio", 0.5);
+        ReflectionTestUtils.setField(gate, "maxQueueSize", 1);
+        ReflectionTestUtils.setField(gate, "queueTimeout", Duration.ofMillis(200));
+        gate.initialize();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    @Test
+    void admitsCallsUpToTheConcurrencyLimit() throws Exception {
+        CountDownLatch finish = new CountDownLatch(1);
+        List<Future<String>> calls = startCalls(8, () -> {
+            await(finish);
+            return "done";
+        });
+        
+        // Every permit is taken, so the next caller waits out the queue timeout
+        LlmCallGate.CapacityExceededException rejected = assertThrows(LlmCallGate.CapacityExceededException.class,
+            () -> gate.execute(100, () -> "too many"));
+        assertTrue(rejected.getMessage().startsWith("Timed out"), rejected::getMessage);
+        assertEquals(1L, gate.getStatistics().get("rejectedTimeout"));
+        
+        finish.countDown();
+        for (Future<String> call : calls) {
+            assertEquals("done", call.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals("admitted", gate.execute(100, () -> "admitted"));
+        assertEquals(0, gate.getStatistics().get("inFlight"));
+    }
+    
+    @Test
+    void rejectsCallsWhenTheQueueIsFull() throws Exception {
+        ReflectionTestUtils.setField(gate, "queueTimeout", Duration.ofSeconds(5));
+        CountDownLatch finish = new CountDownLatch(1);
+        List<Future<String>> calls = startCalls(8, () -> {
+            await(finish);
+            return "done";
+        });
+        Future<String> waiting = executor.submit(() -> gate.execute(100, () -> "queued"));
+        awaitStatistic("queued", 1);
+        
+        LlmCallGate.CapacityExceededException rejected = assertThrows(LlmCallGate.CapacityExceededException.class,
+            () -> gate.execute(100, () -> "too many"));
+        assertTrue(rejected.getMessage().startsWith("LLM request queue is full"), rejected::getMessage);
+        assertEquals(1L, gate.getStatistics().get("rejectedQueueFull"));
+        
+        // The queued call is admitted once a permit is released
+        finish.countDown();
+        assertEquals("queued", waiting.get(5, TimeUnit.SECONDS));
+        for (Future<String> call : calls) {
+            call.get(5, TimeUnit.SECONDS);
+        }
+    }
+    
+    @Test
+    void backsOffOnceForCallsFailingTogether() throws Exception {
+        CountDownLatch finish = new CountDownLatch(1);
+        List<Future<String>> calls = startCalls(4, () -> {
+            await(finish);
+            throw new LlmClientException("Rate limited", 429, null);
+        });
+        
+        finish.countDown();
+        for (Future<String> call : calls) {
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> call.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(LlmClientException.class, failure.getCause());
+        }
+        // Four overloaded calls admitted under the same limit halve it once, not four times
+        assertEquals(4.0, gate.getStatistics().get("concurrencyLimit"));
+        assertEquals(4L, gate.getStatistics().get("overloaded"));
+        
+        // A call admitted after the cut that is still overloaded cuts the limit again
+        assertThrows(LlmClientException.class, () -> gate.execute(100, () -> {
+            throw new LlmClientException("Service unavailable", 503, null);
+        }));
+        assertEquals(2.0, gate.getStatistics().get("concurrencyLimit"));
+    }
+    
+    @Test
+    void growsTheLimitBackAfterBackoff() {
+        assertThrows(LlmClientException.class, () -> gate.execute(100, () -> {
+            throw new LlmClientException("Rate limited", 429, null);
+        }));
+        assertEquals(4.0, gate.getStatistics().get("concurrencyLimit"));
+        
+        // About one more permit per limit's worth of successful calls
+        for (int i = 0; i < 4; i++) {
+            gate.execute(100, () -> "ok");
+        }
+        double limit = (double) gate.getStatistics().get("concurrencyLimit");
+        assertTrue(limit > 4.9 && limit < 5.0, () -> "Limit " + limit);
+        // Plain failures leave the limit alone
+        assertThrows(LlmClientException.class, () -> gate.execute(100, () -> {
+            throw new LlmClientException("Bad request", 400, null);
+        }));
+        assertEquals(limit, gate.getStatistics().get("concurrencyLimit"));
+    }
+    
+    /**
+     * Starts the calls on their own threads and returns once all of them hold a permit
+     */
+    private List<Future<String>> startCalls(int count, Supplier<String> call) throws InterruptedException {
+        List<Future<String>> calls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            calls.add(executor.submit(() -> gate.execute(100, call)));
+        }
+        awaitStatistic("inFlight", count);
+        return calls;
+    }
+    
+    private void awaitStatistic(String name, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!gate.getStatistics().get(name).equals(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, gate.getStatistics().get(name));
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two callers send the same request while the first is still loading it
+ */
+class LlmRequestCoalescerTest {
+    
+    private static final LlmResponseCache.Key KEY = LlmResponseCache.Key.of("test-model", 0.1, "Same prompt");
+    
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    
+    private LlmRequestCoalescer coalescer;
+    
+    @BeforeEach
+    void setUp() {
+        coalescer = new LlmRequestCoalescer(new SimpleMeterRegistry());
+        coalescer.registerMetrics();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    @Test
+    void sharesTheResponseWithTheWaitingCaller() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        
+        Future<String>[] calls = callTwice(() -> {
+            loads.incrementAndGet();
+            return "response";
+        });
+        
+        assertEquals("response", calls[0].get(5, TimeUnit.SECONDS));
+        assertEquals("response", calls[1].get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+    
+    @Test
+    void sharesAnErrorWithTheWaitingCaller() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        
+        Future<String>[] calls = callTwice(() -> {
+            loads.incrementAndGet();
+            throw new OutOfMemoryError("Loader failed");
+        });
+        
+        // Neither caller is left blocked on the failed call
+        for (Future<String> call : calls) {
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> call.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(OutOfMemoryError.class, failure.getCause());
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, coalescer.getStatistics().get("inFlight"));
+    }
+    
+    @Test
+    void sharesAnExceptionWithTheWaitingCaller() throws Exception {
+        Future<String>[] calls = callTwice(() -> {
+            throw new LlmClientException("Service unavailable", 503, null);
+        });
+        
+        for (Future<String> call : calls) {
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> call.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(LlmClientException.class, failure.getCause());
+        }
+    }
+    
+    /**
+     * Starts the first call, holds its loader until the second call has joined it, then lets it finish
+     */
+    @SuppressWarnings("unchecked")
+    private Future<String>[] callTwice(Supplier<String> loader) throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch joined = new CountDownLatch(1);
+        Future<String> first = executor.submit(() -> coalescer.execute(KEY, () -> {
+            loading.countDown();
+            await(joined);
+            return loader.get();
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        
+        Future<String> second = executor.submit(() -> coalescer.execute(KEY, () -> {
+            throw new AssertionError("The second caller should not load the request again");
+        }));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((long) coalescer.getStatistics().get("coalesced") == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1L, coalescer.getStatistics().get("coalesced"));
+        joined.countDown();
+        return new Future[] {first, second};
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
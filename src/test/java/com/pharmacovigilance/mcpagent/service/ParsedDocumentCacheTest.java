@@ -0,0 +1,82 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParsedDocumentCacheTest {
+    
+    private ParsedDocumentCache cache;
+    
+    @BeforeEach
+    void setUp() {
+        cache = new ParsedDocumentCache(new SimpleMeterRegistry(), new ObjectMapper());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxMemory", DataSize.ofKilobytes(100));
+        ReflectionTestUtils.setField(cache, "ttl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(cache, "diskTierDirectory", "");
+        ReflectionTestUtils.setField(cache, "diskTierTtl", Duration.ofDays(1));
+        cache.initialize();
+    }
+    
+    @Test
+    void evictsLeastRecentlyUsedToStayWithinMemoryBudget() {
+        // About 18 KB each: five fit in 100 KB, six do not
+        for (int i = 0; i < 5; i++) {
+            cache.putParsed(document("doc-" + i, 9_000));
+        }
+        assertEquals(5, cache.size());
+        cache.getParsed(ParsedDocument.PDF, "doc-0");
+        
+        cache.putParsed(document("doc-5", 9_000));
+        
+        assertEquals(5, cache.size());
+        assertTrue(cache.memoryBytes() <= DataSize.ofKilobytes(100).toBytes());
+        assertTrue(cache.getParsed(ParsedDocument.PDF, "doc-0").isPresent());
+        assertTrue(cache.getParsed(ParsedDocument.PDF, "doc-1").isEmpty());
+    }
+    
+    @Test
+    void countsExtractionsAndSkipsEntriesLargerThanTheBudget() {
+        ParsedDocument small = document("small", 1_000);
+        cache.getOrComputeExtraction(small, () -> Map.of("symptoms", "x".repeat(5_000)));
+        assertTrue(cache.memoryBytes() > 2 * 6_000);
+        
+        cache.putParsed(document("huge", 60_000));
+        
+        assertTrue(cache.getParsed(ParsedDocument.PDF, "huge").isEmpty());
+        assertEquals(1, cache.size());
+        assertNull(cache.getStatistics().get("diskTier"));
+    }
+    
+    @Test
+    void doesNotCacheNegativeVerdicts() {
+        ParsedDocument email = document("email", 100);
+        AtomicInteger extractions = new AtomicInteger();
+        
+        cache.getOrComputeExtraction(email, () -> Map.of("isAdverseEvent", false, "n", extractions.incrementAndGet()));
+        Map<String, Object> retried = cache.getOrComputeExtraction(email,
+            () -> Map.of("isAdverseEvent", true, "n", extractions.incrementAndGet()));
+        Map<String, Object> cached = cache.getOrComputeExtraction(email,
+            () -> Map.of("isAdverseEvent", true, "n", extractions.incrementAndGet()));
+        
+        assertEquals(2, retried.get("n"));
+        assertEquals(retried, cached);
+        assertEquals(2, extractions.get());
+    }
+    
+    private static ParsedDocument document(String hash, int chars) {
+        return new ParsedDocument(ParsedDocument.PDF, hash, "a".repeat(chars), Map.of());
+    }
+}
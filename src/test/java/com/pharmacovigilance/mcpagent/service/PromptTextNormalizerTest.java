@@ -0,0 +1,124 @@
+package com.pharmacovigilance.mcpagent.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PromptTextNormalizerTest {
+    
+    private PromptTextNormalizer normalizer;
+    
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AdverseEventPreScreener preScreener = new AdverseEventPreScreener(meterRegistry);
+        ReflectionTestUtils.setField(preScreener, "threshold", 0.15);
+        DrugDictionary drugDictionary = mock(DrugDictionary.class);
+        when(drugDictionary.findMentions(anyString())).thenReturn(List.of());
+        normalizer = new PromptTextNormalizer(preScreener, drugDictionary, meterRegistry);
+        ReflectionTestUtils.setField(normalizer, "enabled", true);
+        ReflectionTestUtils.setField(normalizer, "furnitureMinShare", 0.5);
+    }
+    
+    @Test
+    void strayEntityKeepsLinesAndPageBreaks() {
+        String text = "Discharge summary\nPatient took aspirin &amp; ibuprofen.\n\fDay 2\nRash resolved.";
+        
+        String normalized = normalizer.normalize(text, "document").text();
+        
+        assertEquals("Discharge summary\nPatient took aspirin & ibuprofen.\n\fDay 2\nRash resolved.", normalized);
+        assertEquals(2, normalized.split(DocumentChunker.PAGE_BREAK).length);
+    }
+    
+    @Test
+    void removesRepeatedPageFurniture() {
+        StringBuilder text = new StringBuilder();
+        for (int page = 1; page <= 4; page++) {
+            if (page > 1) {
+                text.append(DocumentChunker.PAGE_BREAK);
+            }
+            text.append("ACME Clinical Trial 42 - Confidential\n")
+                .append("Observation ").append(page).append(": patient stable.\n")
+                .append("Dose adjusted on day ").append(page).append(".\n")
+                .append("Nurse notes follow.\n")
+                .append("Page ").append(page).append(" of 4\n");
+        }
+        
+        String normalized = normalizer.normalize(text.toString(), "document").text();
+        
+        assertFalse(normalized.contains("ACME Clinical Trial"));
+        assertFalse(normalized.contains("of 4"));
+        assertTrue(normalized.contains("Observation 3: patient stable."));
+        assertEquals(4, normalized.split(DocumentChunker.PAGE_BREAK).length);
+    }
+    
+    @Test
+    void stripsQuotedReplyAndSignatureButNotAttachments() {
+        String email = """
+            The patient developed a severe rash two days after starting the new antibiotic course today.
+
+            --
+            Dr. Smith
+
+            On Mon, 3 Jun 2024 at 10:15, Nurse Jones wrote:
+            > Any update on the patient?
+            --- Attachment: notes.txt ---
+            On Tuesday she wrote: rash spreading.
+            """;
+        
+        String normalized = normalizer.normalize(email, "email").text();
+        
+        assertTrue(normalized.startsWith("The patient developed a severe rash"));
+        assertFalse(normalized.contains("Any update"));
+        assertFalse(normalized.contains("Dr. Smith"));
+        assertTrue(normalized.contains("On Tuesday she wrote: rash spreading."));
+    }
+    
+    @Test
+    void keepsQuotedReportUnderAForwardingNote() {
+        String email = """
+            Hi team, please see the report from the clinic below and log it in the safety database this week.
+
+            On Mon, 3 Jun 2024 at 10:15, Nurse Jones wrote:
+            > The patient was hospitalized with anaphylaxis after the second dose of amoxicillin.
+            """;
+        
+        String normalized = normalizer.normalize(email, "email").text();
+        
+        assertTrue(normalized.contains("Nurse Jones wrote:"));
+        assertTrue(normalized.contains("> The patient was hospitalized with anaphylaxis"));
+    }
+    
+    @Test
+    void stripsDisclaimerWithTwoWeakCues() {
+        String email = """
+            Severe headache after the second dose of ibuprofen.
+
+            This message is confidential and may be privileged.
+
+            Please keep me posted, the confidential trial data is attached.
+            """;
+        
+        String normalized = normalizer.normalize(email, "email").text();
+        
+        assertFalse(normalized.contains("may be privileged"));
+        assertTrue(normalized.contains("the confidential trial data is attached"));
+    }
+    
+    @Test
+    void convertsHtmlEmailBodies() {
+        String html = "<html><body><p>Severe   headache</p><p>after the second dose</p></body></html>";
+        
+        assertEquals("Severe headache\nafter the second dose", normalizer.normalize(html, "email").text());
+    }
+}